@@ -0,0 +1,377 @@
+package mgrid.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFile;
+import org.apache.hadoop.hbase.mapreduce.LoadIncrementalHFiles;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import pgrid.Constants;
+import pgrid.IndexEntry;
+import pgrid.PGridKey;
+import pgrid.core.index.CSVIndexTable;
+
+/**
+ * <p>Title: BulkLoader</p>
+ * <p/>
+ * <p>Description: Loads many index entries into the data table at once. The
+ * calling thread only reads CSV lines (or iterates the entries) and hands
+ * them over in batches; worker threads parse the lines, take the Hilbert
+ * index from the key, sort the rows of a batch so that a flush touches few
+ * regions and write them through their own table handle. The batch queue is
+ * bounded, a reader running ahead of the workers processes a batch itself.</p>
+ * <p/>
+ * <p>If an HFile directory is given the workers write one sorted HFile per
+ * batch instead of puts, which are then handed to the region servers with
+ * {@link LoadIncrementalHFiles}. This bypasses the write ahead log and the
+ * memstores and is meant for initial loads.</p>
+ */
+public class BulkLoader {
+
+	/**
+	 * The manager owning the data table.
+	 */
+	private final HBaseManager mManager;
+
+	/**
+	 * Number of worker threads.
+	 */
+	private final int mThreads;
+
+	/**
+	 * Number of entries per batch.
+	 */
+	private final int mBatchSize;
+
+	/**
+	 * Directory receiving the HFiles, null to write puts.
+	 */
+	private final String mHFileDir;
+
+	/**
+	 * Statistics of the last load.
+	 */
+	private final AtomicLong mLoaded = new AtomicLong();
+	private final AtomicLong mRejected = new AtomicLong();
+	private final AtomicLong mFailed = new AtomicLong();
+	private long mElapsed = 0;
+
+	/**
+	 * Points written to HFiles, counted as loaded once the HFiles are loaded.
+	 */
+	private final AtomicLong mWritten = new AtomicLong();
+
+	/**
+	 * Creates a new loader.
+	 *
+	 * @param manager   the manager owning the data table.
+	 * @param threads   the number of worker threads.
+	 * @param batchSize the number of entries per batch.
+	 * @param hfileDir  the directory receiving HFiles, null or empty to write puts.
+	 */
+	public BulkLoader(HBaseManager manager, int threads, int batchSize, String hfileDir) {
+		mManager = manager;
+		mThreads = Math.max(1, threads);
+		mBatchSize = Math.max(1, batchSize);
+		mHFileDir = hfileDir == null || hfileDir.length() == 0 ? null : hfileDir;
+	}
+
+	/**
+	 * Loads the remaining lines of a CSV table opened for reading.
+	 *
+	 * @param csv the CSV table.
+	 * @return the number of loaded points.
+	 */
+	public long load(final CSVIndexTable csv) {
+		return run(new Iterator<Object>() {
+			private String mNext = csv.getNextLine();
+
+			public boolean hasNext() {
+				return mNext != null;
+			}
+
+			public Object next() {
+				String line = mNext;
+				mNext = csv.getNextLine();
+				return line;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+	}
+
+	/**
+	 * Loads the given index entries.
+	 *
+	 * @param entries the entries.
+	 * @return the number of loaded points.
+	 */
+	public long loadEntries(Collection<IndexEntry> entries) {
+		return run(new ArrayList<Object>(entries).iterator());
+	}
+
+	/**
+	 * @return the number of points loaded by the last load.
+	 */
+	public long getLoaded() {
+		return mLoaded.get();
+	}
+
+	/**
+	 * @return the number of malformed entries skipped by the last load.
+	 */
+	public long getRejected() {
+		return mRejected.get();
+	}
+
+	/**
+	 * @return the number of points of the batches the last load failed to write.
+	 */
+	public long getFailed() {
+		return mFailed.get();
+	}
+
+	/**
+	 * @return the number of points per second of the last load.
+	 */
+	public long getThroughput() {
+		return mElapsed == 0 ? 0 : mLoaded.get() * 1000 / mElapsed;
+	}
+
+	private long run(Iterator<Object> source) {
+		mLoaded.set(0);
+		mRejected.set(0);
+		mFailed.set(0);
+		mWritten.set(0);
+		long start = System.currentTimeMillis();
+
+		final List<HTable> tables = Collections.synchronizedList(new ArrayList<HTable>());
+		final ThreadLocal<HTable> table = new ThreadLocal<HTable>() {
+			@Override
+			protected HTable initialValue() {
+				try {
+					HTable t = mManager.newTable();
+					tables.add(t);
+					return t;
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot open the data table.", e);
+				}
+			}
+		};
+		final Path hfileDir = mHFileDir == null ? null : new Path(mHFileDir, "load-" + start);
+		final AtomicInteger fileCount = new AtomicInteger();
+
+		ExecutorService workers = new ThreadPoolExecutor(mThreads, mThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(mThreads * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			while (source.hasNext()) {
+				final Object[] batch = new Object[mBatchSize];
+				int n = 0;
+				while (n < mBatchSize && source.hasNext())
+					batch[n++] = source.next();
+				final int size = n;
+				workers.execute(new Runnable() {
+					public void run() {
+						try {
+							if (hfileDir == null)
+								writePuts(table.get(), batch, size);
+							else
+								writeHFile(new Path(new Path(hfileDir, Bytes.toString(HBaseManager.DATA_FAMILY)), "batch-" + fileCount.getAndIncrement()), batch, size);
+						} catch (Exception e) {
+							mFailed.addAndGet(size);
+							Constants.LOGGER.log(Level.WARNING, "Bulk load of a batch of " + size + " entries failed.", e);
+						}
+					}
+				});
+			}
+		} finally {
+			workers.shutdown();
+			try {
+				while (!workers.awaitTermination(1, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// every batch is flushed when written, nothing is left to count here
+			synchronized (tables) {
+				for (HTable t : tables) {
+					try {
+						t.close();
+					} catch (IOException e) {
+						Constants.LOGGER.log(Level.WARNING, "Could not close the data table.", e);
+					}
+				}
+			}
+		}
+
+		if (hfileDir != null && fileCount.get() > 0) {
+			CountPyramid pyramid = mManager.getCountPyramid();
+			try {
+				if (pyramid != null)
+					pyramid.beginWrite();
+				new LoadIncrementalHFiles(HBaseManager.getConfiguration()).doBulkLoad(hfileDir, mManager.dataTable);
+				mLoaded.addAndGet(mWritten.get());
+			} catch (Exception e) {
+				mFailed.addAndGet(mWritten.get());
+				Constants.LOGGER.log(Level.WARNING, "Could not load the HFiles of " + hfileDir + ".", e);
+			} finally {
+				// also after a failure, as some of the HFiles may be loaded
+				if (pyramid != null) {
+					pyramid.invalidate();
+					pyramid.endWrite();
+				}
+				deleteStaging(hfileDir);
+			}
+		} else if (hfileDir != null) {
+			deleteStaging(hfileDir);
+		}
+
+		if (mManager.getCountPyramid() != null)
+			mManager.getCountPyramid().scheduleRefresh();
+		mElapsed = Math.max(1, System.currentTimeMillis() - start);
+		Constants.LOGGER.info("Bulk loaded " + mLoaded.get() + " points in " + mElapsed + " ms (" + getThroughput()
+				+ " points/s, " + mThreads + " threads, " + mRejected.get() + " rejected, " + mFailed.get() + " failed).");
+		return mLoaded.get();
+	}
+
+	/**
+	 * Writes a batch as puts, sorted by row.
+	 */
+	private void writePuts(HTable table, Object[] batch, int size) throws IOException {
+		List<Put> puts = new ArrayList<Put>(size);
+		long[] point = new long[2];
+		for (int i = 0; i < size; i++) {
+			if (!parse(batch[i], point))
+				continue;
+			Put put = new Put(MGridUtils.HILBERT.toRow(point[0]));
+			byte[] id = Bytes.toBytes(point[1]);
+			put.add(HBaseManager.DATA_FAMILY, id, id);
+			puts.add(put);
+		}
+		Collections.sort(puts);
+		CountPyramid pyramid = mManager.getCountPyramid();
+		try {
+			if (pyramid != null)
+				pyramid.beginWrite();
+			// the puts are only buffered; they are loaded once flushed, and have
+			// to be written before a refresh may recount their cells
+			table.put(puts);
+			table.flushCommits();
+		} catch (IOException e) {
+			// the puts still buffered are dropped, so none of them is written
+			// after the cells were recounted
+			table.getWriteBuffer().clear();
+			throw e;
+		} finally {
+			if (pyramid != null) {
+				// also after a failure, as some of the rows may be written
+				for (Put put : puts)
+					pyramid.touch(HilbertCodec.fromRow(put.getRow()));
+				pyramid.endWrite();
+			}
+		}
+		mLoaded.addAndGet(puts.size());
+	}
+
+	/**
+	 * Deletes the staging directory of the HFiles of a load.
+	 */
+	private static void deleteStaging(Path dir) {
+		try {
+			dir.getFileSystem(HBaseManager.getConfiguration()).delete(dir, true);
+		} catch (IOException e) {
+			Constants.LOGGER.log(Level.WARNING, "Could not delete the HFiles of " + dir + ".", e);
+		}
+	}
+
+	/**
+	 * Writes a batch as one sorted HFile.
+	 */
+	private void writeHFile(Path path, Object[] batch, int size) throws IOException {
+		List<KeyValue> kvs = new ArrayList<KeyValue>(size);
+		long[] point = new long[2];
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < size; i++) {
+			if (!parse(batch[i], point))
+				continue;
+			byte[] id = Bytes.toBytes(point[1]);
+			kvs.add(new KeyValue(MGridUtils.HILBERT.toRow(point[0]), HBaseManager.DATA_FAMILY, id, now, id));
+		}
+		if (kvs.isEmpty())
+			return;
+		Collections.sort(kvs, KeyValue.COMPARATOR);
+
+		Configuration conf = HBaseManager.getConfiguration();
+		FileSystem fs = path.getFileSystem(conf);
+		HFile.Writer writer = HFile.getWriterFactory(conf, new CacheConfig(conf)).withPath(fs, path)
+				.withComparator(KeyValue.KEY_COMPARATOR).create();
+		int written = 0;
+		try {
+			KeyValue last = null;
+			for (KeyValue kv : kvs) {
+				// an HFile must not contain the same cell twice
+				if (last != null && KeyValue.COMPARATOR.compare(last, kv) == 0)
+					continue;
+				writer.append(kv);
+				last = kv;
+				written++;
+			}
+			writer.appendFileInfo(StoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(now));
+		} finally {
+			writer.close();
+		}
+		mWritten.addAndGet(written);
+	}
+
+	/**
+	 * Extracts the Hilbert index and the id of a CSV line or an index entry
+	 * into {index, id}.
+	 *
+	 * @return false if the entry is malformed.
+	 */
+	private boolean parse(Object item, long[] point) {
+		try {
+			if (item instanceof IndexEntry) {
+				IndexEntry entry = (IndexEntry)item;
+				point[0] = PGridKey.prefixBits(entry.getKey(), entry.getKey().size());
+				point[1] = entry.getPoint().id;
+				return true;
+			}
+			// KEY,ID,... : only the first two fields are needed
+			String line = (String)item;
+			int keyEnd = line.indexOf(',');
+			int idEnd = line.indexOf(',', keyEnd + 1);
+			if (keyEnd <= 0 || !PGridKey.isBinary(line.substring(0, keyEnd)))
+				throw new IllegalArgumentException("no binary key");
+			String key = line.substring(0, keyEnd);
+			point[0] = PGridKey.parseBits(key);
+			point[1] = Long.parseLong(idEnd < 0 ? line.substring(keyEnd + 1) : line.substring(keyEnd + 1, idEnd));
+			return true;
+		} catch (RuntimeException e) {
+			mRejected.incrementAndGet();
+			Constants.LOGGER.fine("Skipping malformed entry " + item + ": " + e);
+			return false;
+		}
+	}
+}
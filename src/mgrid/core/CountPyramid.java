@@ -0,0 +1,611 @@
+package mgrid.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import pgrid.Constants;
+
+import com.google.common.io.Closeables;
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * <p>Title: CountPyramid</p>
+ * <p/>
+ * <p>Description: Pre-aggregated point counts of the Hilbert prefix cells of
+ * the data table, used to answer count range queries without reading every
+ * row. With equal precision in both dimensions the index prefix of 2L bits
+ * is an aligned square of the quadtree level L; the counts of the cells of
+ * every second level up to a configured level are kept in a table next to
+ * the data table.</p>
+ * <p/>
+ * <p>A count query sums the cells lying completely in the window and scans
+ * only the cells crossing its border at the finest level. Inserts do not
+ * update the counts directly, since the same point may be written several
+ * times; they mark their cells dirty instead. A background refresh recounts
+ * the dirty cells of the finest level by scanning them and propagates the
+ * differences to the coarser levels. Until then dirty cells are scanned by
+ * queries like border cells.</p>
+ * <p/>
+ * <p>The dirty cells are only known in memory. A marker row in the counts
+ * table is therefore written before the first data write and deleted once
+ * a refresh left no dirty cell; counts found with the marker when opened are
+ * rebuilt.</p>
+ */
+public class CountPyramid {
+
+	/**
+	 * Number of levels between two stored levels.
+	 */
+	public static final int STEP = 2;
+
+	/**
+	 * Maximum number of cells a query scans. Border cells are not refined
+	 * further once their number would exceed this.
+	 */
+	private static final int MAX_SCANNED_CELLS = 4096;
+
+	/**
+	 * Column family and qualifier of the counts.
+	 */
+	private static final byte[] COUNT_FAMILY = Bytes.toBytes("c");
+	private static final byte[] COUNT_QUALIFIER = Bytes.toBytes("n");
+
+	/**
+	 * Row marking counts which may miss written rows. Level 0 is not stored.
+	 */
+	private static final byte[] MARKER_ROW = new byte[] {0};
+
+	/**
+	 * The manager of the data table.
+	 */
+	private final HBaseManager mManager;
+
+	/**
+	 * Name of the counts table.
+	 */
+	private final String mTableName;
+
+	/**
+	 * Handles on the counts table.
+	 */
+	private final HTablePool mPool;
+
+	/**
+	 * The finest stored level.
+	 */
+	private final int mMaxLevel;
+
+	/**
+	 * Number of bits of an index and of a coordinate.
+	 */
+	private final int mIndexBits;
+	private final int mCoordBits;
+
+	/**
+	 * Dirty cells of each stored level, mapped to the stamp of their last insert.
+	 */
+	private final Map<Long, Long>[] mDirty;
+
+	/**
+	 * Source of insert stamps.
+	 */
+	private final AtomicLong mStamp = new AtomicLong();
+
+	/**
+	 * True while the counts are not usable at all, until a rebuild completed.
+	 */
+	private boolean mStale = false;
+
+	/**
+	 * True if a rebuild has been requested.
+	 */
+	private boolean mRebuild = false;
+
+	/**
+	 * True if the marker row is written.
+	 */
+	private volatile boolean mMarked = false;
+
+	/**
+	 * Number of data writes begun and not completed.
+	 */
+	private final AtomicInteger mWriting = new AtomicInteger();
+
+	/**
+	 * Refresh thread, and whether a refresh is already queued.
+	 */
+	private final ExecutorService mRefresher;
+	private final AtomicBoolean mRefreshQueued = new AtomicBoolean(false);
+
+	/**
+	 * Opens (and creates if necessary) the counts of a data table.
+	 *
+	 * @param manager   the manager of the data table.
+	 * @param admin     the HBase admin.
+	 * @param dataTable the name of the data table.
+	 * @param maxLevel  the finest stored level, a multiple of STEP.
+	 * @param rebuild   true if the data table may hold rows not counted yet.
+	 * @throws IOException if the counts table cannot be created.
+	 */
+	@SuppressWarnings("unchecked")
+	CountPyramid(HBaseManager manager, HBaseAdmin admin, String dataTable, int maxLevel, boolean rebuild) throws IOException {
+		mManager = manager;
+		mTableName = dataTable + "_counts";
+		mCoordBits = MGridUtils.HILBERT.getXBits();
+		mIndexBits = MGridUtils.HILBERT.getIndexBits();
+		mMaxLevel = Math.min(maxLevel - maxLevel % STEP, mCoordBits - mCoordBits % STEP);
+		if (mMaxLevel < STEP || MGridUtils.HILBERT.getXBits() != MGridUtils.HILBERT.getYBits())
+			throw new IllegalArgumentException("Unsupported count pyramid level " + maxLevel + ".");
+		mDirty = (Map<Long, Long>[])new Map<?, ?>[mMaxLevel + 1];
+		for (int level = STEP; level <= mMaxLevel; level += STEP)
+			mDirty[level] = new ConcurrentHashMap<Long, Long>();
+
+		mPool = new HTablePool(HBaseManager.getConfiguration(), 8);
+		if (!admin.tableExists(Bytes.toBytes(mTableName))) {
+			HTableDescriptor tdesc = new HTableDescriptor(mTableName);
+			HColumnDescriptor cdesc = new HColumnDescriptor(COUNT_FAMILY);
+			cdesc.setMaxVersions(1);
+			tdesc.addFamily(cdesc);
+			admin.createTable(tdesc);
+		} else {
+			// the counts were left marked by an unfinished write or refresh
+			mMarked = isMarked();
+			rebuild = mMarked;
+		}
+		mRefresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Count pyramid refresh");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		if (rebuild) {
+			// keeps the marker until the rebuild completed
+			mark();
+			invalidate();
+		}
+	}
+
+	/**
+	 * @return the finest stored level.
+	 */
+	public int getMaxLevel() {
+		return mMaxLevel;
+	}
+
+	/**
+	 * Has to be called before rows are written to the data table, writes the
+	 * marker row if needed. The write is completed by {@link #endWrite()}
+	 * once its rows are touched, also if it failed: the rows of a failed write
+	 * are touched as well, or the counts invalidated.
+	 *
+	 * @throws IOException if the marker cannot be written.
+	 */
+	public void beginWrite() throws IOException {
+		mWriting.incrementAndGet();
+		if (!mMarked)
+			mark();
+	}
+
+	/**
+	 * Completes a write begun by {@link #beginWrite()}.
+	 */
+	public void endWrite() {
+		mWriting.decrementAndGet();
+	}
+
+	/**
+	 * Marks the cells of an index dirty. Has to be called after the row was
+	 * handed to a table handle, before that handle is flushed.
+	 *
+	 * @param index the Hilbert index of the inserted point.
+	 */
+	public void touch(long index) {
+		Long stamp = mStamp.incrementAndGet();
+		// finest level first, see refresh()
+		for (int level = mMaxLevel; level >= STEP; level -= STEP)
+			mDirty[level].put(index >>> (mIndexBits - 2 * level), stamp);
+	}
+
+	/**
+	 * Marks all counts unusable and schedules a rebuild from the data table,
+	 * for rows written without {@link #touch(long)}.
+	 */
+	public void invalidate() {
+		synchronized (this) {
+			mStale = true;
+			mRebuild = true;
+		}
+		scheduleRefresh();
+	}
+
+	/**
+	 * Schedules a refresh of the dirty cells unless one is already pending.
+	 */
+	public void scheduleRefresh() {
+		if (!mRefreshQueued.compareAndSet(false, true))
+			return;
+		mRefresher.execute(new Runnable() {
+			public void run() {
+				mRefreshQueued.set(false);
+				try {
+					refresh();
+				} catch (Exception e) {
+					Constants.LOGGER.log(Level.WARNING, "Could not refresh the count pyramid.", e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the refresh thread and releases the table handles.
+	 */
+	public void close() {
+		mRefresher.shutdown();
+		Closeables.closeQuietly(mPool);
+	}
+
+	/**
+	 * Counts the points of the given Hilbert ranges lying inside the window.
+	 *
+	 * @param mins the lower bounds (inclusive) of the ranges, ascending and disjoint.
+	 * @param maxs the higher bounds (exclusive) of the ranges.
+	 * @param xMin the x lower bound (inclusive).
+	 * @param xMax the x upper bound (inclusive).
+	 * @param yMin the y lower bound (inclusive).
+	 * @param yMax the y upper bound (inclusive).
+	 * @return the number of points, or -1 if the counts are not usable.
+	 * @throws IOException if the counts or the data table cannot be read.
+	 */
+	public long count(long[] mins, long[] maxs, long xMin, long xMax, long yMin, long yMax) throws IOException {
+		synchronized (this) {
+			if (mStale)
+				return -1;
+		}
+		List<Long>[] covered = newCellLists();
+		List<Long> partial = new ArrayList<Long>();
+		partial.add(0L);
+		int level = 0;
+		long[] point = new long[2];
+		while (!partial.isEmpty() && level < mMaxLevel && partial.size() * 4 <= MAX_SCANNED_CELLS) {
+			List<Long> next = new ArrayList<Long>(partial.size() * 4);
+			int child = level + 1;
+			int shift = mIndexBits - 2 * child;
+			long side = 1L << (mCoordBits - child);
+			for (long parent : partial) {
+				for (long prefix = parent << 2; prefix < (parent << 2) + 4; prefix++) {
+					long start = prefix << shift;
+					long end = (prefix + 1) << shift;
+					if (!intersects(mins, maxs, start, end))
+						continue;
+					MGridUtils.HILBERT.decode(start, point);
+					long x0 = point[0] & -side, y0 = point[1] & -side;
+					long x1 = x0 + side - 1, y1 = y0 + side - 1;
+					if (x1 < xMin || x0 > xMax || y1 < yMin || y0 > yMax)
+						continue;
+					boolean inside = xMin <= x0 && x1 <= xMax && yMin <= y0 && y1 <= yMax && contains(mins, maxs, start, end);
+					if (inside && child % STEP == 0 && !mDirty[child].containsKey(prefix))
+						covered[child].add(prefix);
+					else
+						next.add(prefix);
+				}
+			}
+			partial = next;
+			level = child;
+		}
+
+		long count = 0;
+		int cells = 0;
+		for (int l = STEP; l <= mMaxLevel; l += STEP) {
+			if (covered[l].isEmpty())
+				continue;
+			for (long c : getCounts(l, covered[l]).values())
+				count += c;
+			cells += covered[l].size();
+		}
+		if (!partial.isEmpty()) {
+			// the remaining cells cross the border or are dirty: scan them
+			int shift = mIndexBits - 2 * level;
+			List<LongRange> ranges = new ArrayList<LongRange>();
+			for (long prefix : partial)
+				addRange(ranges, prefix << shift, (prefix + 1) << shift);
+			count += mManager.countRows(clip(ranges, mins, maxs), xMin, xMax, yMin, yMax);
+		}
+		if (Constants.LOGGER.isLoggable(Level.FINE))
+			Constants.LOGGER.fine("Counted " + count + " points from " + cells + " cells and " + partial.size() + " scanned cells of level " + level + ".");
+		return count;
+	}
+
+	/**
+	 * Recounts the dirty cells, or rebuilds all counts if requested.
+	 *
+	 * @throws IOException if a table cannot be accessed.
+	 */
+	void refresh() throws IOException {
+		boolean rebuild;
+		synchronized (this) {
+			rebuild = mRebuild;
+			mRebuild = false;
+		}
+		try {
+			refresh(rebuild);
+		} catch (IOException e) {
+			if (rebuild) {
+				synchronized (this) {
+					mRebuild = true;
+				}
+			}
+			throw e;
+		}
+		unmark();
+	}
+
+	/**
+	 * Writes the marker row.
+	 */
+	private synchronized void mark() throws IOException {
+		if (mMarked)
+			return;
+		HTableInterface table = mPool.getTable(mTableName);
+		try {
+			Put put = new Put(MARKER_ROW);
+			put.add(COUNT_FAMILY, COUNT_QUALIFIER, Bytes.toBytes(System.currentTimeMillis()));
+			table.put(put);
+			table.flushCommits();
+		} finally {
+			Closeables.closeQuietly(table);
+		}
+		mMarked = true;
+	}
+
+	/**
+	 * Deletes the marker row if the counts include all written rows.
+	 */
+	private synchronized void unmark() throws IOException {
+		if (!mMarked)
+			return;
+		// a write begun from now on writes the marker again, a write begun
+		// before is seen here
+		mMarked = false;
+		boolean dirty = mRebuild || mStale || mWriting.get() > 0;
+		for (int level = STEP; level <= mMaxLevel && !dirty; level += STEP)
+			dirty = !mDirty[level].isEmpty();
+		if (dirty) {
+			mMarked = true;
+			return;
+		}
+		HTableInterface table = mPool.getTable(mTableName);
+		try {
+			table.delete(new Delete(MARKER_ROW));
+		} catch (IOException e) {
+			mMarked = true;
+			throw e;
+		} finally {
+			Closeables.closeQuietly(table);
+		}
+	}
+
+	/**
+	 * Returns true if the marker row is written.
+	 */
+	private boolean isMarked() throws IOException {
+		HTableInterface table = mPool.getTable(mTableName);
+		try {
+			return table.exists(new Get(MARKER_ROW));
+		} finally {
+			Closeables.closeQuietly(table);
+		}
+	}
+
+	private void refresh(boolean rebuild) throws IOException {
+		// coarse levels first: a finest cell inserted after the snapshot of a
+		// coarse level was marked before it, and is seen by the finest snapshot
+		Map<Long, Long>[] snapshot = newSnapshot();
+		for (int level = STEP; level <= mMaxLevel; level += STEP)
+			snapshot[level].putAll(mDirty[level]);
+		if (!rebuild && snapshot[mMaxLevel].isEmpty())
+			return;
+		// the marked rows have to be visible to the scan
+		mManager.flushWriters();
+
+		int shift = mIndexBits - 2 * mMaxLevel;
+		Map<Long, Long> recount = new HashMap<Long, Long>();
+		Map<Long, Long>[] deltas = newSnapshot();
+		if (rebuild) {
+			mManager.countCells(null, shift, recount);
+			for (Map.Entry<Long, Long> e : recount.entrySet())
+				addDelta(deltas, e.getKey(), e.getValue());
+		} else {
+			Long[] cells = snapshot[mMaxLevel].keySet().toArray(new Long[0]);
+			Arrays.sort(cells);
+			List<LongRange> ranges = new ArrayList<LongRange>();
+			for (long cell : cells)
+				addRange(ranges, cell << shift, (cell + 1) << shift);
+			mManager.countCells(ranges, shift, recount);
+			Map<Long, Long> old = getCounts(mMaxLevel, Arrays.asList(cells));
+			for (long cell : cells) {
+				Long now = recount.get(cell);
+				Long before = old.get(cell);
+				long delta = (now == null ? 0 : now) - (before == null ? 0 : before);
+				if (delta != 0)
+					addDelta(deltas, cell, delta);
+			}
+		}
+
+		// single writer: read, add and put the absolute counts
+		HTableInterface table = mPool.getTable(mTableName);
+		try {
+			for (int level = STEP; level <= mMaxLevel; level += STEP) {
+				if (deltas[level].isEmpty())
+					continue;
+				Map<Long, Long> old = rebuild ? new HashMap<Long, Long>() : getCounts(level, deltas[level].keySet());
+				List<Put> puts = new ArrayList<Put>(deltas[level].size());
+				for (Map.Entry<Long, Long> e : deltas[level].entrySet()) {
+					Long before = old.get(e.getKey());
+					Put put = new Put(row(level, e.getKey()));
+					put.add(COUNT_FAMILY, COUNT_QUALIFIER, Bytes.toBytes((before == null ? 0 : before) + e.getValue()));
+					puts.add(put);
+				}
+				table.put(puts);
+			}
+		} finally {
+			Closeables.closeQuietly(table);
+		}
+
+		for (int level = STEP; level <= mMaxLevel; level += STEP) {
+			for (Map.Entry<Long, Long> e : snapshot[level].entrySet())
+				mDirty[level].remove(e.getKey(), e.getValue());
+		}
+		if (rebuild) {
+			synchronized (this) {
+				if (!mRebuild)
+					mStale = false;
+			}
+		}
+		Constants.LOGGER.fine("Refreshed the count pyramid: " + (rebuild ? "rebuilt " + recount.size() : snapshot[mMaxLevel].size() + " dirty") + " cells.");
+	}
+
+	/**
+	 * Adds the count difference of a finest cell to the cell and its ancestors.
+	 */
+	private void addDelta(Map<Long, Long>[] deltas, long cell, long delta) {
+		for (int level = mMaxLevel; level >= STEP; level -= STEP) {
+			long prefix = cell >>> (2 * (mMaxLevel - level));
+			Long sum = deltas[level].get(prefix);
+			deltas[level].put(prefix, (sum == null ? 0 : sum) + delta);
+		}
+	}
+
+	/**
+	 * Reads the stored counts of the given cells of a level. Missing cells are
+	 * absent from the result.
+	 */
+	private Map<Long, Long> getCounts(int level, java.util.Collection<Long> prefixes) throws IOException {
+		List<Get> gets = new ArrayList<Get>(prefixes.size());
+		List<Long> order = new ArrayList<Long>(prefixes);
+		for (long prefix : order) {
+			Get get = new Get(row(level, prefix));
+			get.addColumn(COUNT_FAMILY, COUNT_QUALIFIER);
+			gets.add(get);
+		}
+		Map<Long, Long> counts = new HashMap<Long, Long>();
+		HTableInterface table = mPool.getTable(mTableName);
+		try {
+			Result[] results = table.get(gets);
+			for (int i = 0; i < results.length; i++) {
+				byte[] value = results[i] == null ? null : results[i].getValue(COUNT_FAMILY, COUNT_QUALIFIER);
+				if (value != null)
+					counts.put(order.get(i), Bytes.toLong(value));
+			}
+		} finally {
+			Closeables.closeQuietly(table);
+		}
+		return counts;
+	}
+
+	/**
+	 * Row of a cell: the level followed by the prefix.
+	 */
+	private static byte[] row(int level, long prefix) {
+		return Bytes.add(new byte[] {(byte)level}, Bytes.toBytes(prefix));
+	}
+
+	/**
+	 * Returns true if [start, end) intersects one of the sorted ranges.
+	 */
+	private static boolean intersects(long[] mins, long[] maxs, long start, long end) {
+		int i = lastStartingBefore(mins, end - 1);
+		return i >= 0 && maxs[i] > start;
+	}
+
+	/**
+	 * Returns true if [start, end) lies inside one of the sorted ranges.
+	 */
+	private static boolean contains(long[] mins, long[] maxs, long start, long end) {
+		int i = lastStartingBefore(mins, start);
+		return i >= 0 && maxs[i] >= end;
+	}
+
+	/**
+	 * Returns the last range starting at or before the given index, -1 if none.
+	 */
+	private static int lastStartingBefore(long[] mins, long index) {
+		int low = 0, high = mins.length - 1, pos = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (mins[mid] <= index) {
+				pos = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Appends [start, end) to sorted ranges, merging it with the last one if adjacent.
+	 */
+	private static void addRange(List<LongRange> ranges, long start, long end) {
+		int last = ranges.size() - 1;
+		if (last >= 0 && ranges.get(last).getEnd() == start)
+			ranges.set(last, LongRange.of(ranges.get(last).getStart(), end));
+		else
+			ranges.add(LongRange.of(start, end));
+	}
+
+	/**
+	 * Intersects cell ranges with the query ranges.
+	 */
+	private static List<LongRange> clip(List<LongRange> cells, long[] mins, long[] maxs) {
+		List<LongRange> clipped = new ArrayList<LongRange>();
+		for (LongRange cell : cells) {
+			for (int i = Math.max(0, lastStartingBefore(mins, cell.getStart())); i < mins.length && mins[i] < cell.getEnd(); i++) {
+				long start = Math.max(cell.getStart(), mins[i]);
+				long end = Math.min(cell.getEnd(), maxs[i]);
+				if (start < end)
+					clipped.add(LongRange.of(start, end));
+			}
+		}
+		return clipped;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Long>[] newCellLists() {
+		List<Long>[] lists = (List<Long>[])new List<?>[mMaxLevel + 1];
+		for (int level = STEP; level <= mMaxLevel; level += STEP)
+			lists[level] = new ArrayList<Long>();
+		return lists;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<Long, Long>[] newSnapshot() {
+		Map<Long, Long>[] maps = (Map<Long, Long>[])new Map<?, ?>[mMaxLevel + 1];
+		for (int level = STEP; level <= mMaxLevel; level += STEP)
+			maps[level] = new HashMap<Long, Long>();
+		return maps;
+	}
+}
@@ -6,13 +6,22 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
@@ -20,16 +29,21 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import p2p.index.IDBDataTypeHandler;
+import p2p.index.events.SearchListener;
 import pgrid.Constants;
 import pgrid.GUID;
 import pgrid.IndexEntry;
+import pgrid.KnnRingQuery;
 import pgrid.PGridHost;
 import pgrid.PGridKey;
 import pgrid.Properties;
@@ -47,7 +61,6 @@ import com.google.uzaygezen.core.BacktrackingQueryBuilder;
 import com.google.uzaygezen.core.BigIntegerContent;
 import com.google.uzaygezen.core.BitVector;
 import com.google.uzaygezen.core.BitVectorFactories;
-import com.google.uzaygezen.core.CompactHilbertCurve;
 import com.google.uzaygezen.core.FilteredIndexRange;
 import com.google.uzaygezen.core.HilbertIndexMasks;
 import com.google.uzaygezen.core.LongContent;
@@ -59,11 +72,9 @@ import com.google.uzaygezen.core.Query;
 import com.google.uzaygezen.core.QueryBuilder;
 import com.google.uzaygezen.core.RegionInspector;
 import com.google.uzaygezen.core.SimpleRegionInspector;
-import com.google.uzaygezen.core.SpaceFillingCurve;
 import com.google.uzaygezen.core.ZoomingSpaceVisitorAdapter;
 import com.google.uzaygezen.core.ranges.LongRange;
 import com.google.uzaygezen.core.ranges.LongRangeHome;
-import com.google.uzaygezen.core.ranges.RangeUtil;
 
 
 /**
@@ -125,12 +136,63 @@ public class HBaseManager implements Closeable {
 	
 	private static final 	String stype = mPGridP2P.propertyString(Properties.TYPE_NAME);
 	private static final 	String sPort = mPGridP2P.propertyString(Properties.PORT_NUMBER);
+	/**
+	 * If scans are filtered by the region servers. Turned off for good when the
+	 * region servers cannot load the filter class; other failures of a filtered
+	 * scan only run that scan again without the filter.
+	 */
+	private static volatile boolean useRegionFilter = mPGridP2P.propertyBoolean(Properties.HBASE_REGION_FILTER);
+	/**
+	 * Maximum number of Hilbert ranges shipped with a region filter.
+	 */
+	private static final int MAX_FILTER_RANGES = 256;
+	/**
+	 * Maximum number of bits the data table is pre-split by.
+	 */
+	private static final int MAX_SPLIT_BITS = 10;
+	private static final int splitBits = Math.min(MAX_SPLIT_BITS, mPGridP2P.propertyInteger(Properties.HBASE_SPLIT_BITS));
+	/**
+	 * Number of write handles shared by the inserting threads.
+	 */
+	private static final int WRITE_STRIPES = 8;
 	private static final MultiDimensionalSpec spec = new MultiDimensionalSpec(Ints.asList(
 			MGridUtils.xBits, MGridUtils.yBits));
 	
 	// stores the data items
 	public final HTable dataTable;
 
+	/**
+	 * Table handles for concurrent gets and scans, sharing one connection.
+	 */
+	private final HTablePool readPool;
+
+	/**
+	 * Write handles, each with its own write buffer. Inserting threads are
+	 * spread over them by their id.
+	 */
+	private final HTable[] writeTables;
+
+	/**
+	 * Pre-aggregated counts answering count queries, null if disabled.
+	 */
+	private final CountPyramid countPyramid;
+
+	/**
+	 * Executor reading the region slices of a scan, null to scan sequentially.
+	 */
+	private final ExecutorService scanExecutor;
+
+	/**
+	 * Time in ms the region boundaries are cached.
+	 */
+	private static final long REGION_CACHE_TIME = 60000;
+
+	/**
+	 * Cached region start keys, null if unknown.
+	 */
+	private volatile byte[][] regionStarts = null;
+	private volatile long regionStartsTime = 0;
+
 	private final HBaseAdmin admin; 
 
 	private static final HBaseManager SHARED_INSTANCE = buildInstance();
@@ -144,6 +206,7 @@ public class HBaseManager implements Closeable {
 
 		this.admin = new HBaseAdmin(conf);
 
+		boolean created = false;
 		if (!admin.tableExists(Bytes.toBytes(datatableName))) {
 			System.out.println(datatableName
 					+ " does not exists. Creating table");
@@ -151,13 +214,171 @@ public class HBaseManager implements Closeable {
 			HColumnDescriptor cdesc = new HColumnDescriptor(DATA_FAMILY);
 			cdesc.setMaxVersions(1);
 			tdesc.addFamily(cdesc);
-			admin.createTable(tdesc);
+			byte[][] splits = splitKeys(mPGridP2P.getLocalPath(), splitBits);
+			if (splits.length == 0)
+				admin.createTable(tdesc);
+			else
+				admin.createTable(tdesc, splits);
 			System.out.println(datatableName + " created.");
+			created = true;
 		}
 		this.dataTable = new HTable(conf, datatableName);
 		this.dataTable.setAutoFlush(false);
 		this.dataTable.setWriteBufferSize(1024*1024*12);
+		this.readPool = new HTablePool(conf, mPGridP2P.propertyInteger(Properties.HBASE_TABLE_POOL_SIZE));
+		this.writeTables = new HTable[WRITE_STRIPES];
+		for (int i = 0; i < writeTables.length; i++)
+			writeTables[i] = newTable();
+		int pyramidLevel = mPGridP2P.propertyInteger(Properties.COUNT_PYRAMID_LEVEL);
+		if (pyramidLevel >= CountPyramid.STEP && MGridUtils.xBits == MGridUtils.yBits)
+			this.countPyramid = new CountPyramid(this, admin, datatableName, pyramidLevel, !created);
+		else
+			this.countPyramid = null;
+		int scanThreads = mPGridP2P.propertyInteger(Properties.HBASE_SCAN_THREADS);
+		if (scanThreads > 1) {
+			this.scanExecutor = Executors.newFixedThreadPool(scanThreads, new ThreadFactory() {
+				private int mCount = 0;
+
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "HBase scan " + (++mCount));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		} else {
+			this.scanExecutor = null;
+		}
+
+	}
 
+	/**
+	 * Opens a scanner on a pooled table handle, returned to the pool when the
+	 * scanner is closed.
+	 *
+	 * @param scan the scan.
+	 * @return the scanner.
+	 * @throws IOException if the scanner cannot be opened.
+	 */
+	private ResultScanner getScanner(Scan scan) throws IOException {
+		final HTableInterface table = readPool.getTable(datatableName);
+		final ResultScanner scanner;
+		try {
+			scanner = table.getScanner(scan);
+		} catch (IOException e) {
+			Closeables.closeQuietly(table);
+			throw e;
+		}
+		return new ResultScanner() {
+			public Result next() throws IOException {
+				return scanner.next();
+			}
+
+			public Result[] next(int nbRows) throws IOException {
+				return scanner.next(nbRows);
+			}
+
+			public Iterator<Result> iterator() {
+				return scanner.iterator();
+			}
+
+			public void close() {
+				scanner.close();
+				Closeables.closeQuietly(table);
+			}
+		};
+	}
+
+	/**
+	 * Returns the row keys splitting the keys below the given path into 2^bits
+	 * regions, plus the start of the path and of the following path so that
+	 * the other peers' keys get regions of their own. An empty or unknown path
+	 * splits the whole key space.
+	 *
+	 * @param path the P-Grid path.
+	 * @param bits the number of bits below the path to split by.
+	 * @return the sorted split keys, empty for no split.
+	 */
+	static byte[][] splitKeys(String path, int bits) {
+		int indexBits = MGridUtils.HILBERT.getIndexBits();
+		if (!PGridKey.isBinary(path) || path.length() > indexBits)
+			path = "";
+		bits = Math.min(bits, indexBits - path.length());
+		if (bits <= 0)
+			return new byte[0][];
+		long prefix = PGridKey.parseBits(path) << bits;
+		int shift = indexBits - path.length() - bits;
+		List<byte[]> keys = new ArrayList<byte[]>();
+		for (long i = path.length() == 0 ? 1 : 0; i <= 1L << bits; i++) {
+			long start = (prefix + i) << shift;
+			if (start > 0 && start < 1L << indexBits)
+				keys.add(MGridUtils.HILBERT.toRow(start));
+		}
+		return keys.toArray(new byte[keys.size()][]);
+	}
+
+	/**
+	 * Splits the data table along the given path, for a peer which took over
+	 * a new part of the trie. Existing region boundaries are kept; the split
+	 * requests are sent from a separate thread as they need a round trip to
+	 * the master per key.
+	 *
+	 * @param path the new local path.
+	 */
+	public void splitForPath(final String path) {
+		if (splitBits <= 0)
+			return;
+		Thread t = new Thread("HBase split for path " + path) {
+			public void run() {
+				try {
+					byte[][] starts = dataTable.getStartKeys();
+					for (byte[] key : splitKeys(path, splitBits)) {
+						boolean exists = false;
+						for (int i = 0; i < starts.length && !exists; i++)
+							exists = Bytes.equals(starts[i], key);
+						if (!exists)
+							admin.split(Bytes.toBytes(datatableName), key);
+					}
+					regionStarts = null;
+				} catch (Exception e) {
+					Constants.LOGGER.log(Level.WARNING, "Could not split the data table for path " + path + ".", e);
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Opens a new handle on the data table, for writers which must not share
+	 * the (not thread safe) main handle.
+	 *
+	 * @return the table handle, not auto flushed.
+	 * @throws IOException if the table cannot be opened.
+	 */
+	HTable newTable() throws IOException {
+		HTable table = new HTable(conf, datatableName);
+		table.setAutoFlush(false);
+		table.setWriteBufferSize(1024*1024*12);
+		return table;
+	}
+
+	/**
+	 * @return the HBase configuration.
+	 */
+	static Configuration getConfiguration() {
+		return conf;
+	}
+
+	/**
+	 * Creates a bulk loader for the data table, configured by the properties.
+	 *
+	 * @param initialLoad true to write HFiles if an HFile directory is configured.
+	 * @return the bulk loader.
+	 */
+	public BulkLoader createBulkLoader(boolean initialLoad) {
+		return new BulkLoader(this, mPGridP2P.propertyInteger(Properties.BULK_LOAD_THREADS),
+				mPGridP2P.propertyInteger(Properties.BULK_LOAD_BATCH_SIZE),
+				initialLoad ? mPGridP2P.propertyString(Properties.BULK_LOAD_HFILE_DIR) : null);
 	}
 
 	public void dropHBaseDataTable() {
@@ -171,6 +392,14 @@ public class HBaseManager implements Closeable {
 
 	@Override
 	public void close() throws IOException {
+		flushTable();
+		for (HTable table : writeTables)
+			Closeables.closeQuietly(table);
+		Closeables.closeQuietly(readPool);
+		if (countPyramid != null)
+			countPyramid.close();
+		if (scanExecutor != null)
+			scanExecutor.shutdown();
 		Closeables.closeQuietly(dataTable);
 	}
 
@@ -195,24 +424,37 @@ public class HBaseManager implements Closeable {
 
 		// not storing the co-ordinates
 		Long id = entry.getPoint().id;
-		String row = entry.getKey().toString();
 
 
-		// Extract the original points and covert them to bigEndienByteArray
-		BitVector[] b = MGridUtils.HilbertInverseConvertor(Long.parseLong(row,
-				2));
-		Long tempx = b[0].toExactLong();
-		Long tempy = b[1].toExactLong();
-		BitVector hkey = MGridUtils.HilbertConvertor(tempx, tempy);
+		// the key is the Hilbert index of the point, the row its big endian bytes
+		long index = PGridKey.prefixBits(entry.getKey(), entry.getKey().size());
+		long[] xy = new long[2];
+		MGridUtils.HILBERT.decode(index, xy);
+		Long tempx = xy[0];
+		Long tempy = xy[1];
 
 		
 			try {
-			Put put = new Put(hkey.toBigEndianByteArray());
+			Put put = new Put(MGridUtils.HILBERT.toRow(index));
 			// KEY is ROW
 			put.add(DATA_FAMILY, Bytes.toBytes(id), Bytes.toBytes(id) );
-			dataTable.put(put);
-				Constants.LOGGER.info("Inserted in datatable" + " key:"
-					+ row + " x:" + tempx + " y:" + tempy  +
+			HTable table = writeTables[(int)(Thread.currentThread().getId() % writeTables.length)];
+			synchronized (table) {
+				try {
+					if (countPyramid != null)
+						countPyramid.beginWrite();
+					table.put(put);
+				} finally {
+					// a failed put may still be flushed, its cell is recounted anyway
+					if (countPyramid != null) {
+						countPyramid.touch(index);
+						countPyramid.endWrite();
+					}
+				}
+			}
+			if (Constants.LOGGER.isLoggable(Level.FINE))
+				Constants.LOGGER.fine("Inserted in datatable" + " key:"
+					+ entry.getKey() + " x:" + tempx + " y:" + tempy  +
 					 " ID:"+ id);
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -223,19 +465,25 @@ public class HBaseManager implements Closeable {
 
 		// data is KEY which can be ignored
 		// convert string row to bigEndienbyteArray
-		BitVector[] b = MGridUtils.HilbertInverseConvertor(Long.parseLong(row,
-				2));
-		Long tempx = b[0].toExactLong();
-		Long tempy = b[1].toExactLong();
-		BitVector hkey = MGridUtils.HilbertConvertor(tempx, tempy);
+		long index = Long.parseLong(row, 2);
+		long[] xy = new long[2];
+		MGridUtils.HILBERT.decode(index, xy);
+		Long tempx = xy[0];
+		Long tempy = xy[1];
 		Vector dataitems = new Vector();
 		p2p.index.IndexEntry entry;
 		String guid = "33";
 		Long id = 0L;
 		try {
 			
-			Get get = new Get(hkey.toBigEndianByteArray());
-			Result result = this.dataTable.get(get);
+			Get get = new Get(MGridUtils.HILBERT.toRow(index));
+			Result result;
+			HTableInterface table = readPool.getTable(datatableName);
+			try {
+				result = table.get(get);
+			} finally {
+				Closeables.closeQuietly(table);
+			}
 			for (KeyValue kv : result.raw()) {
 				 id = Bytes.toLong(kv.getQualifier());
 			}
@@ -254,12 +502,22 @@ public class HBaseManager implements Closeable {
 
 	}
 
-	
+	/**
+	 * Counts the points between the given Hilbert bounds which fall inside
+	 * the original query window.
+	 *
+	 * @param ldataPrefix the lower Hilbert bound.
+	 * @param hdataPrefix the higher Hilbert bound.
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @return a collection holding one entry whose key is the number of points, null if the scan failed.
+	 */
 	public Collection getRangeRecords(String ldataPrefix, String hdataPrefix, Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
 		Long count = 0L;
 		Vector dataitems = new Vector();
 		p2p.index.IndexEntry entry = null;
-		SpaceFillingCurve sfc = new CompactHilbertCurve(spec);
 		Long min = Long.parseLong(ldataPrefix, 2);
 		BitVector bvMin = BitVectorFactories.OPTIMAL.apply(spec
 				.sumBitsPerDimension());
@@ -269,22 +527,15 @@ public class HBaseManager implements Closeable {
 		BitVector bvMax = BitVectorFactories.OPTIMAL.apply(spec
 				.sumBitsPerDimension());
 		bvMax.copyFrom(max);		
-		int[][] ranges = generateRanges(spec,origxMin, origxMax, origyMin, origyMax);
-		List<LongRange> region = rangesToQueryRegion(ranges);
 		Scan scan = new Scan(bvMin.toBigEndianByteArray(),
 				bvMax.toBigEndianByteArray());
 		scan.setCacheBlocks(false);
 		scan.setCaching(2000);
+		final HilbertRegionFilter filter = useRegionFilter ? regionFilter(origxMin, origxMax, origyMin, origyMax) : null;
+		if (filter != null)
+			scan.setFilter(filter);
 		
-		BitVector[] point = new BitVector[spec.getBitsPerDimension().size()];
-		BitVector index = BitVectorFactories.OPTIMAL.apply(spec
-				.sumBitsPerDimension());
-		for (int j = 0; j < spec.getBitsPerDimension().size(); ++j) {
-			point[j] = BitVectorFactories.OPTIMAL.apply(spec
-					.getBitsPerDimension().get(j));
-		}
 		scan.addFamily(DATA_FAMILY);
-		ResultScanner scanner = null;
 		final String guid = "600";
 		final GUID dGuid = GUID.getGUID(guid);
 		final Type type = (Type) PGridIndexFactory.sharedInstance()
@@ -292,25 +543,39 @@ public class HBaseManager implements Closeable {
 		final 	PGridHost host = PGridHost.getHost("9f1a","loclhost"	,"1805");
 
 		
+		final long xMin = origxMin, xMax = origxMax, yMin = origyMin, yMax = origyMax;
 		try {
-			 scanner = this.dataTable.getScanner(scan);
-			for (Result result : scanner) {
-				byte[] row = result.getRow();
-				index.copyFromBigEndian(row);
-				sfc.indexInverse(index, point);
-			 boolean isContained = RangeUtil.contains(region, Arrays.asList(bitVectorPointToLongPoint(point)));
-				if (isContained) {
-				count +=result.list().size();
-				}
-				}
+			count = countPyramid == null ? -1 : countPyramid.count(new long[] {min}, new long[] {max}, xMin, xMax, yMin, yMax);
+			if (count < 0) {
+				count = scanParallel(scan, filter, new SliceReader() {
+					public long read(ResultScanner scanner, HilbertRegionFilter filter) throws IOException {
+						long count = 0;
+						long[] point = new long[2];
+						for (Result result : scanner) {
+							if (useRegionFilter) {
+								// rows outside the window were already dropped by the region server
+								count += result.size();
+								continue;
+							}
+							MGridUtils.HILBERT.decode(HilbertCodec.fromRow(result.getRow()), point);
+							if (xMin <= point[0] && point[0] <= xMax && yMin <= point[1] && point[1] <= yMax)
+								count += result.size();
+						}
+						return count;
+					}
+
+					public boolean restart() {
+						return true;
+					}
+				});
+			}
 			PGridKey key = new PGridKey(count.toString());
 			Point	 p = new Point(0L, 0L, 0L);
 			 entry = mIndexManager.createIndexEntry(dGuid, type, key,host, p);
 			dataitems.add(entry);
 		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			scanner.close();
+			Constants.LOGGER.log(Level.WARNING, "Range scan failed.", e);
+			return null;
 		}
 		BitVector[] ol = MGridUtils.HilbertInverseConvertor(bvMin.toBigEndianByteArray());
 		BitVector[] oh = MGridUtils.HilbertInverseConvertor(bvMax.toBigEndianByteArray());
@@ -320,17 +585,488 @@ public class HBaseManager implements Closeable {
 		return dataitems;
 	}
 
-	
+	/**
+	 * Streams the points between the given Hilbert bounds which fall inside
+	 * the original query window. Matching points are handed to the listener
+	 * in chunks of at most <code>chunkSize</code> points, so the result set is
+	 * never materialized as a whole.
+	 *
+	 * @param ldataPrefix the lower Hilbert bound.
+	 * @param hdataPrefix the higher Hilbert bound.
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param chunkSize the maximum number of points per chunk.
+	 * @param guid the GUID of the query.
+	 * @param listener the listener receiving each chunk.
+	 * @return the total number of streamed points, -1 if the scan failed.
+	 */
+	public long streamRangeRecords(String ldataPrefix, String hdataPrefix, Long origxMin, Long origxMax, Long origyMin, Long origyMax,
+			int chunkSize, p2p.basic.GUID guid, SearchListener listener) {
+		long count = 0;
+		BitVector bvMin = BitVectorFactories.OPTIMAL.apply(spec.sumBitsPerDimension());
+		bvMin.copyFrom(Long.parseLong(ldataPrefix, 2));
+		BitVector bvMax = BitVectorFactories.OPTIMAL.apply(spec.sumBitsPerDimension());
+		bvMax.copyFrom(Long.parseLong(hdataPrefix, 2));
 
-	private static Long[] bitVectorPointToLongPoint(BitVector[] point) {
+		Scan scan = new Scan(bvMin.toBigEndianByteArray(), bvMax.toBigEndianByteArray());
+		scan.setCacheBlocks(false);
+		scan.setCaching(Math.min(chunkSize, 2000));
+		HilbertRegionFilter filter = useRegionFilter ? regionFilter(origxMin, origxMax, origyMin, origyMax) : null;
+		if (filter != null)
+			scan.setFilter(filter);
+		scan.addFamily(DATA_FAMILY);
 
-		Long[] a = new Long[point.length];
-		for (int i = 0; i < a.length; ++i) {
-			a[i] = point[i].toExactLong();
+		try {
+			count = scanParallel(scan, filter, new ChunkReader(chunkSize, guid, listener, origxMin, origxMax, origyMin, origyMax));
+		} catch (IOException e) {
+			Constants.LOGGER.log(Level.WARNING, "Range scan of query " + guid + " failed.", e);
+			return -1;
 		}
-		return a;
+		Constants.LOGGER.fine("Streamed "+count+" entries for query "+guid+".");
+		return count;
 	}
-	
+
+	/**
+	 * Creates the region server side filter restricting a scan to the given window.
+	 */
+	private static HilbertRegionFilter regionFilter(Long xMin, Long xMax, Long yMin, Long yMax) {
+		List<LongRange> ranges = MGridUtils.queryIndexRanges(xMin, xMax, yMin, yMax, MAX_FILTER_RANGES);
+		return new HilbertRegionFilter(MGridUtils.xBits, MGridUtils.yBits, xMin, xMax, yMin, yMax, ranges);
+	}
+
+	/**
+	 * Counts the points of the given Hilbert ranges which fall inside the
+	 * original query window. All ranges are read with a single scan, the
+	 * region filter seeking over the gaps between them.
+	 *
+	 * @param ldataPrefixes the lower Hilbert bounds of the ranges, in ascending order.
+	 * @param hdataPrefixes the higher Hilbert bounds of the ranges (exclusive).
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @return a collection holding one entry whose key is the number of points, null if the scan failed.
+	 */
+	public Collection<IndexEntry> getRangeRecords(List<String> ldataPrefixes, List<String> hdataPrefixes, Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
+		long count = 0;
+		Vector<IndexEntry> dataitems = new Vector<IndexEntry>();
+		HilbertRegionFilter filter = regionFilter(ldataPrefixes, hdataPrefixes, origxMin, origxMax, origyMin, origyMax);
+		Scan scan = multiRangeScan(ldataPrefixes, hdataPrefixes, filter);
+		scan.setCaching(2000);
+
+		try {
+			count = countPyramid == null ? -1 : countPyramid.count(bounds(ldataPrefixes), bounds(hdataPrefixes), origxMin, origxMax, origyMin, origyMax);
+			if (count < 0) {
+				count = scanParallel(scan, filter, new SliceReader() {
+					public long read(ResultScanner scanner, HilbertRegionFilter filter) throws IOException {
+						long count = 0;
+						for (Result result : scanner) {
+							if (!useRegionFilter && !filter.includes(result.getRow()))
+								continue;
+							count += result.size();
+						}
+						return count;
+					}
+
+					public boolean restart() {
+						return true;
+					}
+				});
+			}
+			Type type = (Type) PGridIndexFactory.sharedInstance().getTypeByString(stype);
+			PGridHost host = PGridHost.getHost("9f1a", "loclhost", "1805");
+			dataitems.add((IndexEntry)mIndexManager.createIndexEntry(GUID.getGUID("600"), type, new PGridKey(Long.toString(count)), host, new Point(0L, 0L, 0L)));
+		} catch (IOException e) {
+			Constants.LOGGER.log(Level.WARNING, "Multi-range scan failed.", e);
+			return null;
+		}
+		Constants.LOGGER.info("Searching " + ldataPrefixes.size() + " ranges returned " + count + " entries");
+		return dataitems;
+	}
+
+	/**
+	 * Streams the points of the given Hilbert ranges which fall inside the
+	 * original query window to the listener, in chunks of at most
+	 * <code>chunkSize</code> points. All ranges are read with a single scan.
+	 *
+	 * @param ldataPrefixes the lower Hilbert bounds of the ranges, in ascending order.
+	 * @param hdataPrefixes the higher Hilbert bounds of the ranges (exclusive).
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param chunkSize the maximum number of points per chunk.
+	 * @param guid the GUID of the query.
+	 * @param listener the listener receiving each chunk.
+	 * @return the total number of streamed points, -1 if the scan failed.
+	 */
+	public long streamRangeRecords(List<String> ldataPrefixes, List<String> hdataPrefixes, Long origxMin, Long origxMax, Long origyMin, Long origyMax,
+			int chunkSize, p2p.basic.GUID guid, SearchListener listener) {
+		long count = 0;
+		HilbertRegionFilter filter = regionFilter(ldataPrefixes, hdataPrefixes, origxMin, origxMax, origyMin, origyMax);
+		Scan scan = multiRangeScan(ldataPrefixes, hdataPrefixes, filter);
+		scan.setCaching(Math.min(chunkSize, 2000));
+
+		try {
+			count = scanParallel(scan, filter, new ChunkReader(chunkSize, guid, listener, origxMin, origxMax, origyMin, origyMax));
+		} catch (IOException e) {
+			Constants.LOGGER.log(Level.WARNING, "Range scan of query " + guid + " failed.", e);
+			return -1;
+		}
+		Constants.LOGGER.fine("Streamed "+count+" entries of "+ldataPrefixes.size()+" ranges for query "+guid+".");
+		return count;
+	}
+
+	/**
+	 * Returns the at most k points of a kNN ring which are the closest to the
+	 * query point, ordered by ascending distance. The ring ranges are read with
+	 * a single scan; points of the already searched inner square are skipped.
+	 *
+	 * @param query the ring query.
+	 * @return the closest points of the ring, null if the scan failed.
+	 */
+	public List<Point> getNearestRecords(final KnnRingQuery query) {
+		final KnnHeap heap = new KnnHeap(query.getQueryX(), query.getQueryY(), query.getK());
+		HilbertRegionFilter filter = regionFilter(query.getLowerBounds(), query.getHigherBounds(),
+				query.getOrigxMin(), query.getOrigxMax(), query.getOrigyMin(), query.getOrigyMax());
+		Scan scan = multiRangeScan(query.getLowerBounds(), query.getHigherBounds(), filter);
+		scan.setCaching(2000);
+
+		SliceReader reader = new SliceReader() {
+			public long read(ResultScanner scanner, HilbertRegionFilter filter) throws IOException {
+				long[] point = new long[2];
+				long scanned = 0;
+				for (Result result : scanner) {
+					if (!useRegionFilter && !filter.includes(result.getRow()))
+						continue;
+					MGridUtils.HILBERT.decode(HilbertCodec.fromRow(result.getRow()), point);
+					long x = point[0];
+					long y = point[1];
+					if (query.hasInner() && query.getInnerxMin() <= x && x <= query.getInnerxMax()
+							&& query.getInneryMin() <= y && y <= query.getInneryMax())
+						continue;
+					// all points of a row share the distance, skip rows beyond the k-th one
+					long distance = heap.squaredDistance(x, y);
+					KeyValue[] kvs = result.raw();
+					scanned += kvs.length;
+					for (int i = 0; i < kvs.length && heap.accepts(distance); i++) {
+						heap.offer(x, y, Bytes.toLong(kvs[i].getQualifier()), distance);
+					}
+				}
+				return scanned;
+			}
+
+			public boolean restart() {
+				heap.clear();
+				return true;
+			}
+		};
+
+		long scanned;
+		try {
+			try {
+				scanned = readSlice(scan, filter, reader);
+			} catch (IOException e) {
+				if (!reader.restart() || !withoutRegionFilter(scan, e))
+					throw e;
+				scanned = readSlice(scan, filter, reader);
+			}
+		} catch (IOException e) {
+			Constants.LOGGER.log(Level.WARNING, "Ring scan of query " + query.getGUID() + " failed.", e);
+			return null;
+		}
+		List<Point> nearest = heap.toSortedList();
+		Constants.LOGGER.fine("Kept "+nearest.size()+" of "+scanned+" ring entries for query "+query.getGUID()+".");
+		return nearest;
+	}
+
+	/**
+	 * Reads the rows of one slice of a parallel scan.
+	 */
+	private interface SliceReader {
+
+		/**
+		 * Reads all rows of the scanner.
+		 *
+		 * @param scanner the scanner of the slice.
+		 * @param filter  the filter of the slice for client side filtering, null if none.
+		 * @return the number of points read.
+		 * @throws IOException if the scan fails.
+		 */
+		long read(ResultScanner scanner, HilbertRegionFilter filter) throws IOException;
+
+		/**
+		 * Prepares the reader to read the scan again.
+		 *
+		 * @return <code>false</code> if read rows were already handed on.
+		 */
+		boolean restart();
+	}
+
+	/**
+	 * Streams the points of a slice inside a window to a listener, in chunks.
+	 * The listener is called by one slice at a time.
+	 */
+	private static class ChunkReader implements SliceReader {
+		private final int mChunkSize;
+		private final p2p.basic.GUID mGuid;
+		private final SearchListener mListener;
+		private final long mXMin, mXMax, mYMin, mYMax;
+		private volatile boolean mDelivered = false;
+
+		ChunkReader(int chunkSize, p2p.basic.GUID guid, SearchListener listener, long xMin, long xMax, long yMin, long yMax) {
+			mChunkSize = chunkSize;
+			mGuid = guid;
+			mListener = listener;
+			mXMin = xMin;
+			mXMax = xMax;
+			mYMin = yMin;
+			mYMax = yMax;
+		}
+
+		public long read(ResultScanner scanner, HilbertRegionFilter filter) throws IOException {
+			long count = 0;
+			long[] point = new long[2];
+			List<Point> chunk = new ArrayList<Point>(mChunkSize);
+			for (Result result : scanner) {
+				if (!useRegionFilter && filter != null && !filter.includes(result.getRow()))
+					continue;
+				MGridUtils.HILBERT.decode(HilbertCodec.fromRow(result.getRow()), point);
+				long x = point[0];
+				long y = point[1];
+				if (!useRegionFilter && (x < mXMin || x > mXMax || y < mYMin || y > mYMax))
+					continue;
+				for (KeyValue kv : result.raw()) {
+					chunk.add(new Point(x, y, Bytes.toLong(kv.getQualifier())));
+					count++;
+					if (chunk.size() >= mChunkSize) {
+						// hand over the chunk, the listener may keep a reference to it
+						deliver(chunk);
+						chunk = new ArrayList<Point>(mChunkSize);
+					}
+				}
+			}
+			if (!chunk.isEmpty())
+				deliver(chunk);
+			return count;
+		}
+
+		public boolean restart() {
+			return !mDelivered;
+		}
+
+		private void deliver(List<Point> chunk) {
+			mDelivered = true;
+			synchronized (mListener) {
+				mListener.newSearchResult(mGuid, chunk);
+			}
+		}
+	}
+
+	/**
+	 * Runs a scan split at the region boundaries, the slices being read
+	 * concurrently by the scan executor. A scan within one region is read by
+	 * the calling thread.
+	 *
+	 * @param scan   the scan.
+	 * @param filter the region filter of the scan, copied for every slice; null if none.
+	 * @param reader the reader of each slice.
+	 * @return the sum of the points read by all slices.
+	 * @throws IOException if a slice fails.
+	 */
+	private long scanParallel(Scan scan, HilbertRegionFilter filter, SliceReader reader) throws IOException {
+		try {
+			return readSlices(scan, filter, reader);
+		} catch (IOException e) {
+			if (!reader.restart() || !withoutRegionFilter(scan, e))
+				throw e;
+			return readSlices(scan, filter, reader);
+		}
+	}
+
+	/**
+	 * Reads the slices of a scan, concurrently if the scan spans several regions.
+	 */
+	private long readSlices(Scan scan, HilbertRegionFilter filter, final SliceReader reader) throws IOException {
+		List<Scan> slices = slices(scan);
+		if (slices.size() == 1 || scanExecutor == null)
+			return readSlice(scan, filter, reader);
+
+		List<Future<Long>> futures = new ArrayList<Future<Long>>(slices.size());
+		for (final Scan slice : slices) {
+			// the filter keeps per scan state, every slice needs its own
+			final HilbertRegionFilter sliceFilter = filter == null ? null : filter.copy();
+			if (slice.getFilter() != null)
+				slice.setFilter(sliceFilter);
+			futures.add(scanExecutor.submit(new Callable<Long>() {
+				public Long call() throws IOException {
+					return readSlice(slice, sliceFilter, reader);
+				}
+			}));
+		}
+		long count = 0;
+		IOException error = null;
+		for (Future<Long> future : futures) {
+			try {
+				count += future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				error = new IOException("Interrupted while scanning.");
+			} catch (ExecutionException e) {
+				error = e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(e.getCause());
+			}
+		}
+		if (error != null)
+			throw error;
+		return count;
+	}
+
+	private long readSlice(Scan slice, HilbertRegionFilter filter, SliceReader reader) throws IOException {
+		ResultScanner scanner = getScanner(slice);
+		try {
+			return reader.read(scanner, filter);
+		} catch (RuntimeException e) {
+			// the scanner iterator wraps the errors of the region servers
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			throw e;
+		} finally {
+			scanner.close();
+		}
+	}
+
+	/**
+	 * Removes the region filter of a failed scan, so that it can be run again
+	 * filtering on the client. The region filter is not used anymore if the
+	 * region servers cannot load it.
+	 *
+	 * @param scan  the failed scan.
+	 * @param cause the failure.
+	 * @return <code>false</code> if the scan was not filtered by the region servers.
+	 */
+	private static boolean withoutRegionFilter(Scan scan, IOException cause) {
+		if (!(scan.getFilter() instanceof HilbertRegionFilter))
+			return false;
+		if (!isFilterUnsupported(cause)) {
+			Constants.LOGGER.log(Level.FINE, "Filtered scan failed, running it again without the filter.", cause);
+		} else if (useRegionFilter) {
+			useRegionFilter = false;
+			Constants.LOGGER.log(Level.WARNING, "Region servers cannot load the region filter, filtering on the client from now on.", cause);
+		}
+		scan.setFilter(null);
+		return true;
+	}
+
+	/**
+	 * Tests if a failure was caused by region servers not able to load or
+	 * deserialize the region filter. Remote errors only keep the class name and
+	 * message of the server exception, so both are looked at.
+	 *
+	 * @param cause the failure of a filtered scan.
+	 * @return <code>true</code> if the region filter cannot be used.
+	 */
+	private static boolean isFilterUnsupported(Throwable cause) {
+		for (Throwable t = cause; t != null; t = t.getCause()) {
+			if (t instanceof ClassNotFoundException || t instanceof NoClassDefFoundError)
+				return true;
+			if (t instanceof DoNotRetryIOException && t.getMessage() != null
+					&& (t.getMessage().contains(ClassNotFoundException.class.getName())
+					|| t.getMessage().contains(HilbertRegionFilter.class.getName())))
+				return true;
+			if (t.getCause() == t)
+				break;
+		}
+		return false;
+	}
+
+	/**
+	 * Splits a scan at the region boundaries lying inside its rows.
+	 */
+	private List<Scan> slices(Scan scan) throws IOException {
+		List<Scan> slices = new ArrayList<Scan>();
+		byte[] from = scan.getStartRow();
+		byte[] stop = scan.getStopRow();
+		for (byte[] boundary : getRegionStarts()) {
+			if (boundary.length == 0 || Bytes.compareTo(boundary, from) <= 0)
+				continue;
+			if (stop.length != 0 && Bytes.compareTo(boundary, stop) >= 0)
+				break;
+			Scan slice = new Scan(scan);
+			slice.setStartRow(from);
+			slice.setStopRow(boundary);
+			slices.add(slice);
+			from = boundary;
+		}
+		if (slices.isEmpty()) {
+			slices.add(scan);
+		} else {
+			Scan slice = new Scan(scan);
+			slice.setStartRow(from);
+			slice.setStopRow(stop);
+			slices.add(slice);
+		}
+		return slices;
+	}
+
+	/**
+	 * Returns the sorted start keys of the data table regions, refreshed at
+	 * most every REGION_CACHE_TIME ms.
+	 */
+	private byte[][] getRegionStarts() throws IOException {
+		byte[][] starts = regionStarts;
+		long now = System.currentTimeMillis();
+		if (starts == null || now - regionStartsTime > REGION_CACHE_TIME) {
+			synchronized (dataTable) {
+				starts = dataTable.getStartKeys();
+			}
+			regionStarts = starts;
+			regionStartsTime = now;
+		}
+		return starts;
+	}
+
+	/**
+	 * Creates the region filter restricting a scan to the given Hilbert ranges
+	 * and window.
+	 */
+	private static HilbertRegionFilter regionFilter(List<String> ldataPrefixes, List<String> hdataPrefixes,
+			Long xMin, Long xMax, Long yMin, Long yMax) {
+		List<LongRange> ranges = new ArrayList<LongRange>(ldataPrefixes.size());
+		for (int i = 0; i < ldataPrefixes.size(); i++) {
+			ranges.add(LongRange.of(Long.parseLong(ldataPrefixes.get(i), 2), Long.parseLong(hdataPrefixes.get(i), 2)));
+		}
+		return new HilbertRegionFilter(MGridUtils.xBits, MGridUtils.yBits, xMin, xMax, yMin, yMax, ranges);
+	}
+
+	/**
+	 * Parses binary Hilbert bounds.
+	 */
+	private static long[] bounds(List<String> prefixes) {
+		long[] bounds = new long[prefixes.size()];
+		for (int i = 0; i < bounds.length; i++)
+			bounds[i] = Long.parseLong(prefixes.get(i), 2);
+		return bounds;
+	}
+
+	/**
+	 * Creates a single scan spanning all given Hilbert ranges.
+	 */
+	private static Scan multiRangeScan(List<String> ldataPrefixes, List<String> hdataPrefixes, HilbertRegionFilter filter) {
+		BitVector bvMin = BitVectorFactories.OPTIMAL.apply(spec.sumBitsPerDimension());
+		bvMin.copyFrom(Long.parseLong(ldataPrefixes.get(0), 2));
+		BitVector bvMax = BitVectorFactories.OPTIMAL.apply(spec.sumBitsPerDimension());
+		bvMax.copyFrom(Long.parseLong(hdataPrefixes.get(hdataPrefixes.size()-1), 2));
+
+		Scan scan = new Scan(bvMin.toBigEndianByteArray(), bvMax.toBigEndianByteArray());
+		scan.setCacheBlocks(false);
+		scan.addFamily(DATA_FAMILY);
+		if (useRegionFilter)
+			scan.setFilter(filter);
+		return scan;
+	}
+
 	/**
 	 * Adds a Host to the helper table.
 	 * 
@@ -358,32 +1094,111 @@ public class HBaseManager implements Closeable {
 		return hostID;
 
 	}
-	 private static List<LongRange> rangesToQueryRegion(int[][] ranges) {
-		    List<LongRange> region = new ArrayList<>();
-		    for (int j = 0; j < ranges.length; ++j) {
-		      // scan is exclusive of range
-		    	region.add(LongRange.of(ranges[j][0], ranges[j][1]+1));
-		    }
-		    return region;
-		  }
-	 
-	 private static int[][] generateRanges( MultiDimensionalSpec spec, Long xmin, Long xmax, Long ymin, Long ymax) {
-		 	int[][] ranges = new int[spec.getBitsPerDimension().size()][2];
-			    // create a range query as (xmin , xmax) (ymin, ymax) = (1,1) (4,4), both ends inclusive		
-			    ranges[0][0] = Ints.checkedCast(xmin);
-			    ranges[0][1] = Ints.checkedCast(xmax);
-			    ranges[1][0] = Ints.checkedCast(ymin);
-			    ranges[1][1] = Ints.checkedCast(ymax);
-			    return ranges;
-			  }
-	 
 	 public void  flushTable() {
 		try {
-			this.dataTable.flushCommits();
+			flushWriters();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		if (countPyramid != null)
+			countPyramid.scheduleRefresh();
 		 
 	 }
 
+	/**
+	 * Flushes the write buffers of all handles.
+	 *
+	 * @throws IOException if a flush fails.
+	 */
+	void flushWriters() throws IOException {
+		this.dataTable.flushCommits();
+		for (HTable table : writeTables) {
+			synchronized (table) {
+				table.flushCommits();
+			}
+		}
+	}
+
+	/**
+	 * @return the count pyramid, null if disabled.
+	 */
+	CountPyramid getCountPyramid() {
+		return countPyramid;
+	}
+
+	/**
+	 * Counts the points of the given sorted Hilbert ranges inside the window
+	 * by scanning them.
+	 *
+	 * @param ranges the sorted, disjoint ranges.
+	 * @param xMin the x lower bound (inclusive).
+	 * @param xMax the x upper bound (inclusive).
+	 * @param yMin the y lower bound (inclusive).
+	 * @param yMax the y upper bound (inclusive).
+	 * @return the number of points.
+	 * @throws IOException if the scan fails.
+	 */
+	long countRows(List<LongRange> ranges, long xMin, long xMax, long yMin, long yMax) throws IOException {
+		if (ranges.isEmpty())
+			return 0;
+		HilbertRegionFilter filter = new HilbertRegionFilter(MGridUtils.xBits, MGridUtils.yBits, xMin, xMax, yMin, yMax, ranges);
+		Scan scan = new Scan(MGridUtils.HILBERT.toRow(ranges.get(0).getStart()),
+				MGridUtils.HILBERT.toRow(ranges.get(ranges.size() - 1).getEnd()));
+		scan.setCacheBlocks(false);
+		scan.setCaching(2000);
+		scan.addFamily(DATA_FAMILY);
+		if (useRegionFilter)
+			scan.setFilter(filter);
+		return scanParallel(scan, filter, new SliceReader() {
+			public long read(ResultScanner scanner, HilbertRegionFilter filter) throws IOException {
+				long count = 0;
+				for (Result result : scanner) {
+					if (!useRegionFilter && !filter.includes(result.getRow()))
+						continue;
+					count += result.size();
+				}
+				return count;
+			}
+
+			public boolean restart() {
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Counts the points of each cell of the given Hilbert ranges, a cell being
+	 * the index shifted right by the given number of bits.
+	 *
+	 * @param ranges the sorted ranges, null for the whole table.
+	 * @param shift  the number of bits below the cell prefix.
+	 * @param counts receives the count of each non empty cell.
+	 * @throws IOException if the scan fails.
+	 */
+	void countCells(List<LongRange> ranges, int shift, Map<Long, Long> counts) throws IOException {
+		List<Scan> scans = new ArrayList<Scan>();
+		if (ranges == null) {
+			scans.add(new Scan());
+		} else {
+			for (LongRange range : ranges)
+				scans.add(new Scan(MGridUtils.HILBERT.toRow(range.getStart()), MGridUtils.HILBERT.toRow(range.getEnd())));
+		}
+		for (Scan scan : scans) {
+			scan.setCacheBlocks(false);
+			scan.setCaching(2000);
+			scan.addFamily(DATA_FAMILY);
+			scan.setFilter(new KeyOnlyFilter());
+			ResultScanner scanner = getScanner(scan);
+			try {
+				for (Result result : scanner) {
+					long cell = HilbertCodec.fromRow(result.getRow()) >>> shift;
+					Long count = counts.get(cell);
+					counts.put(cell, (count == null ? 0 : count) + result.size());
+				}
+			} finally {
+				scanner.close();
+			}
+		}
+	}
+
 }
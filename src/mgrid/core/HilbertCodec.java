@@ -0,0 +1,264 @@
+package mgrid.core;
+
+import com.google.uzaygezen.core.BitVector;
+import com.google.uzaygezen.core.BitVectorFactories;
+import com.google.uzaygezen.core.CompactHilbertCurve;
+
+/**
+ * <p>Title: HilbertCodec</p>
+ * <p/>
+ * <p>Description: Maps two dimensional points to their compact Hilbert index
+ * and back using primitive longs only. The result is identical to the one of
+ * uzaygezen's {@link CompactHilbertCurve}, which is used for the row keys.</p>
+ * <p/>
+ * <p>When both dimensions have the same number of bits the compact index is
+ * the plain Hilbert index, computed one level at a time with a small state
+ * table; no object is allocated. For differing precisions the codec falls
+ * back to a per-thread uzaygezen curve, which avoids the curve and bit vector
+ * allocations but not the generic algorithm.</p>
+ * <p/>
+ * <p>Instances are immutable and may be shared between threads.</p>
+ */
+public class HilbertCodec {
+
+	/**
+	 * Curve state of one level: the entry point e (2 bits) and the direction
+	 * d (1 bit), encoded as e * 2 + d.
+	 */
+	private static final int STATES = 8;
+
+	/**
+	 * Hilbert digit of the (y, x) bit pair of a level, per state.
+	 */
+	private static final byte[] ENCODE_DIGIT = new byte[STATES * 4];
+
+	/**
+	 * (y, x) bit pair of a Hilbert digit of a level, per state.
+	 */
+	private static final byte[] DECODE_PAIR = new byte[STATES * 4];
+
+	/**
+	 * Next state after the given Hilbert digit, per state.
+	 */
+	private static final byte[] NEXT_STATE = new byte[STATES * 4];
+
+	static {
+		// Hamilton's algorithm for two dimensions, tabulated
+		for (int e = 0; e < 4; e++) {
+			for (int d = 0; d < 2; d++) {
+				int state = e * 2 + d;
+				for (int w = 0; w < 4; w++) {
+					int l = rotateLeft(w ^ (w >>> 1), d + 1) ^ e;
+					DECODE_PAIR[state * 4 + w] = (byte)l;
+					ENCODE_DIGIT[state * 4 + l] = (byte)w;
+					int entry = w == 0 ? 0 : 3 * (((w - 1) >>> 1) & 1);
+					int direction = w == 0 || w == 3 ? 0 : 1;
+					NEXT_STATE[state * 4 + w] = (byte)(((e ^ rotateLeft(entry, d + 1)) * 2) + ((d + direction + 1) & 1));
+				}
+			}
+		}
+	}
+
+	private static int rotateLeft(int bits, int shift) {
+		shift &= 1;
+		return ((bits << shift) | (bits >>> (2 - shift))) & 3;
+	}
+
+	/**
+	 * Number of bits of the x dimension.
+	 */
+	private final int mXBits;
+
+	/**
+	 * Number of bits of the y dimension.
+	 */
+	private final int mYBits;
+
+	/**
+	 * Per-thread uzaygezen state for differing precisions, null otherwise.
+	 */
+	private final ThreadLocal<CurveState> mCurve;
+
+	/**
+	 * Creates a new codec.
+	 *
+	 * @param xBits number of bits of the x dimension.
+	 * @param yBits number of bits of the y dimension.
+	 */
+	public HilbertCodec(int xBits, int yBits) {
+		if (xBits <= 0 || yBits <= 0 || xBits + yBits > 62)
+			throw new IllegalArgumentException("Unsupported precision " + xBits + "/" + yBits + ".");
+		mXBits = xBits;
+		mYBits = yBits;
+		if (xBits == yBits) {
+			mCurve = null;
+		} else {
+			mCurve = new ThreadLocal<CurveState>() {
+				@Override
+				protected CurveState initialValue() {
+					return new CurveState(mXBits, mYBits);
+				}
+			};
+		}
+	}
+
+	/**
+	 * @return the number of bits of the x dimension.
+	 */
+	public int getXBits() {
+		return mXBits;
+	}
+
+	/**
+	 * @return the number of bits of the y dimension.
+	 */
+	public int getYBits() {
+		return mYBits;
+	}
+
+	/**
+	 * @return the number of bits of an index.
+	 */
+	public int getIndexBits() {
+		return mXBits + mYBits;
+	}
+
+	/**
+	 * Returns the compact Hilbert index of the point.
+	 *
+	 * @param x the x coordinate.
+	 * @param y the y coordinate.
+	 * @return the index.
+	 */
+	public long encode(long x, long y) {
+		if (mCurve != null) {
+			CurveState curve = mCurve.get();
+			curve.mPoint[0].copyFrom(x);
+			curve.mPoint[1].copyFrom(y);
+			curve.mCurve.index(curve.mPoint, 0, curve.mIndex);
+			return curve.mIndex.toExactLong();
+		}
+		long index = 0;
+		int state = 0;
+		for (int i = mXBits - 1; i >= 0; i--) {
+			int pair = (int)(((y >>> i) & 1) << 1 | ((x >>> i) & 1));
+			int w = ENCODE_DIGIT[state * 4 + pair];
+			state = NEXT_STATE[state * 4 + w];
+			index = (index << 2) | w;
+		}
+		return index;
+	}
+
+	/**
+	 * Decodes a compact Hilbert index into the given array as {x, y}.
+	 *
+	 * @param index the index.
+	 * @param point the array receiving the coordinates, of length two at least.
+	 */
+	public void decode(long index, long[] point) {
+		if (mCurve != null) {
+			CurveState curve = mCurve.get();
+			curve.mIndex.copyFrom(index);
+			curve.mCurve.indexInverse(curve.mIndex, curve.mPoint);
+			point[0] = curve.mPoint[0].toExactLong();
+			point[1] = curve.mPoint[1].toExactLong();
+			return;
+		}
+		long x = 0, y = 0;
+		int state = 0;
+		for (int i = mXBits - 1; i >= 0; i--) {
+			int w = (int)((index >>> (2 * i)) & 3);
+			int pair = DECODE_PAIR[state * 4 + w];
+			state = NEXT_STATE[state * 4 + w];
+			x = (x << 1) | (pair & 1);
+			y = (y << 1) | (pair >>> 1);
+		}
+		point[0] = x;
+		point[1] = y;
+	}
+
+	/**
+	 * Returns the x coordinate of a compact Hilbert index.
+	 *
+	 * @param index the index.
+	 * @return the x coordinate.
+	 */
+	public long decodeX(long index) {
+		long[] point = new long[2];
+		decode(index, point);
+		return point[0];
+	}
+
+	/**
+	 * Returns the y coordinate of a compact Hilbert index.
+	 *
+	 * @param index the index.
+	 * @return the y coordinate.
+	 */
+	public long decodeY(long index) {
+		long[] point = new long[2];
+		decode(index, point);
+		return point[1];
+	}
+
+	/**
+	 * Returns the big endian row key of an index, as written by
+	 * {@link BitVector#toBigEndianByteArray()}.
+	 *
+	 * @param index the index.
+	 * @return the row key.
+	 */
+	public byte[] toRow(long index) {
+		byte[] row = new byte[(getIndexBits() + 7) >>> 3];
+		for (int i = row.length - 1; i >= 0; i--) {
+			row[i] = (byte)index;
+			index >>>= 8;
+		}
+		return row;
+	}
+
+	/**
+	 * Returns the binary key string of an index, padded to the index length as
+	 * written by {@link BitVector#toString()}.
+	 *
+	 * @param index the index.
+	 * @return the key.
+	 */
+	public String toKey(long index) {
+		char[] key = new char[getIndexBits()];
+		for (int i = key.length - 1; i >= 0; i--) {
+			key[i] = (char)('0' + (index & 1));
+			index >>>= 1;
+		}
+		return new String(key);
+	}
+
+	/**
+	 * Returns the index of a big endian row key.
+	 *
+	 * @param row the row key.
+	 * @return the index.
+	 */
+	public static long fromRow(byte[] row) {
+		long index = 0;
+		for (int i = 0; i < row.length; i++) {
+			index = (index << 8) | (row[i] & 0xFF);
+		}
+		return index;
+	}
+
+	/**
+	 * uzaygezen curve and buffers of one thread.
+	 */
+	private static class CurveState {
+		final CompactHilbertCurve mCurve;
+		final BitVector[] mPoint;
+		final BitVector mIndex;
+
+		CurveState(int xBits, int yBits) {
+			mCurve = new CompactHilbertCurve(new int[] {xBits, yBits});
+			mPoint = new BitVector[] {BitVectorFactories.OPTIMAL.apply(xBits), BitVectorFactories.OPTIMAL.apply(yBits)};
+			mIndex = BitVectorFactories.OPTIMAL.apply(xBits + yBits);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package mgrid.core;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * <p>Title: HilbertRegionFilter</p>
+ * <p/>
+ * <p>Description: HBase filter evaluated on the region server which decodes
+ * the compact Hilbert row key and drops rows lying outside the original x/y
+ * query window. The window is also given as a sorted list of Hilbert index
+ * ranges covering it; whenever a row falls in a gap between two ranges the
+ * scanner is asked to seek directly to the start of the next range, so the
+ * scanned bytes scale with the result size rather than with the length of the
+ * Hilbert interval.</p>
+ * <p/>
+ * <p>The jar containing this class (and uzaygezen) has to be on the region
+ * server classpath.</p>
+ */
+public class HilbertRegionFilter extends FilterBase {
+
+	/**
+	 * Number of bits of the x dimension.
+	 */
+	private int mXBits;
+
+	/**
+	 * Number of bits of the y dimension.
+	 */
+	private int mYBits;
+
+	/**
+	 * The original query window, both ends inclusive.
+	 */
+	private long mXMin, mXMax, mYMin, mYMax;
+
+	/**
+	 * Start (inclusive) of the covering Hilbert index ranges.
+	 */
+	private long[] mStarts;
+
+	/**
+	 * End (exclusive) of the covering Hilbert index ranges.
+	 */
+	private long[] mEnds;
+
+	/**
+	 * Decision taken for the current row.
+	 */
+	private ReturnCode mRowCode = null;
+
+	/**
+	 * Row to seek to if the current row lies in a gap.
+	 */
+	private byte[] mHint = null;
+
+	/**
+	 * True once a row beyond the last range has been seen.
+	 */
+	private boolean mDone = false;
+
+	/**
+	 * Decoding state, rebuilt after deserialization.
+	 */
+	private transient HilbertCodec mCodec = null;
+	private transient long[] mPoint = null;
+
+	/**
+	 * Default constructor used by the HBase deserialization.
+	 */
+	public HilbertRegionFilter() {
+	}
+
+	/**
+	 * Creates a new filter for the given window.
+	 *
+	 * @param xBits  number of bits of the x dimension.
+	 * @param yBits  number of bits of the y dimension.
+	 * @param xMin   the x lower bound (inclusive).
+	 * @param xMax   the x upper bound (inclusive).
+	 * @param yMin   the y lower bound (inclusive).
+	 * @param yMax   the y upper bound (inclusive).
+	 * @param ranges the sorted Hilbert index ranges covering the window.
+	 */
+	public HilbertRegionFilter(int xBits, int yBits, long xMin, long xMax, long yMin, long yMax, List<LongRange> ranges) {
+		mXBits = xBits;
+		mYBits = yBits;
+		mXMin = xMin;
+		mXMax = xMax;
+		mYMin = yMin;
+		mYMax = yMax;
+		mStarts = new long[ranges.size()];
+		mEnds = new long[ranges.size()];
+		for (int i = 0; i < ranges.size(); i++) {
+			mStarts[i] = ranges.get(i).getStart();
+			mEnds[i] = ranges.get(i).getEnd();
+		}
+	}
+
+	/**
+	 * Returns a new filter for the same window and ranges, without the state
+	 * of this one.
+	 *
+	 * @return the copy.
+	 */
+	public HilbertRegionFilter copy() {
+		HilbertRegionFilter copy = new HilbertRegionFilter();
+		copy.mXBits = mXBits;
+		copy.mYBits = mYBits;
+		copy.mXMin = mXMin;
+		copy.mXMax = mXMax;
+		copy.mYMin = mYMin;
+		copy.mYMax = mYMax;
+		copy.mStarts = mStarts;
+		copy.mEnds = mEnds;
+		return copy;
+	}
+
+	@Override
+	public void reset() {
+		mRowCode = null;
+	}
+
+	@Override
+	public boolean filterAllRemaining() {
+		return mDone;
+	}
+
+	@Override
+	public ReturnCode filterKeyValue(KeyValue kv) {
+		if (mRowCode == null)
+			mRowCode = decide(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+		return mRowCode;
+	}
+
+	@Override
+	public KeyValue getNextKeyHint(KeyValue currentKV) {
+		return KeyValue.createFirstOnRow(mHint);
+	}
+
+	/**
+	 * Returns true if the given row lies in one of the ranges and inside the
+	 * window. Used to apply the filter on the client when it is not deployed
+	 * on the region servers.
+	 *
+	 * @param row the row key.
+	 * @return true if the row is included.
+	 */
+	public boolean includes(byte[] row) {
+		return decide(row, 0, row.length) == ReturnCode.INCLUDE;
+	}
+
+	/**
+	 * Decides whether the given row is included, skipped or whether the scanner
+	 * should seek to the next covering range.
+	 */
+	private ReturnCode decide(byte[] buffer, int offset, int length) {
+		long index = 0;
+		for (int i = 0; i < length; i++) {
+			index = (index << 8) | (buffer[offset + i] & 0xFF);
+		}
+
+		// find the last range starting at or before the index
+		int low = 0, high = mStarts.length - 1, pos = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (mStarts[mid] <= index) {
+				pos = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+
+		if (pos >= 0 && index < mEnds[pos]) {
+			return contains(index) ? ReturnCode.INCLUDE : ReturnCode.NEXT_ROW;
+		}
+		if (pos + 1 < mStarts.length) {
+			// the row lies in a gap, jump to the next range
+			mHint = toRow(mStarts[pos + 1], length);
+			return ReturnCode.SEEK_NEXT_USING_HINT;
+		}
+		mDone = true;
+		return ReturnCode.NEXT_ROW;
+	}
+
+	/**
+	 * Returns true if the point of the given Hilbert index lies in the window.
+	 */
+	private boolean contains(long index) {
+		if (mCodec == null) {
+			mCodec = new HilbertCodec(mXBits, mYBits);
+			mPoint = new long[2];
+		}
+		mCodec.decode(index, mPoint);
+		long x = mPoint[0];
+		long y = mPoint[1];
+		return mXMin <= x && x <= mXMax && mYMin <= y && y <= mYMax;
+	}
+
+	/**
+	 * Encodes a Hilbert index as a big endian row key of the given length.
+	 */
+	private static byte[] toRow(long index, int length) {
+		byte[] row = new byte[length];
+		for (int i = length - 1; i >= 0; i--) {
+			row[i] = (byte)index;
+			index >>>= 8;
+		}
+		return row;
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(mXBits);
+		out.writeInt(mYBits);
+		out.writeLong(mXMin);
+		out.writeLong(mXMax);
+		out.writeLong(mYMin);
+		out.writeLong(mYMax);
+		out.writeInt(mStarts.length);
+		for (int i = 0; i < mStarts.length; i++) {
+			out.writeLong(mStarts[i]);
+			out.writeLong(mEnds[i]);
+		}
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		mXBits = in.readInt();
+		mYBits = in.readInt();
+		mXMin = in.readLong();
+		mXMax = in.readLong();
+		mYMin = in.readLong();
+		mYMax = in.readLong();
+		int size = in.readInt();
+		mStarts = new long[size];
+		mEnds = new long[size];
+		for (int i = 0; i < size; i++) {
+			mStarts[i] = in.readLong();
+			mEnds[i] = in.readLong();
+		}
+		mCodec = null;
+		mDone = false;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [" + mXMin + "," + mXMax + "]x[" + mYMin + "," + mYMax + "] " + mStarts.length + " ranges";
+	}
+}
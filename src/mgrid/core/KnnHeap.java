@@ -0,0 +1,270 @@
+package mgrid.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Title: KnnHeap</p>
+ * <p/>
+ * <p>Description: Bounded max-heap keeping the k points closest to a query
+ * point. Points are stored in parallel primitive arrays and ordered by their
+ * squared euclidean distance, so offering a point allocates nothing and never
+ * takes a square root. The root is the current k-th candidate; its distance
+ * is the bound a new point has to beat once the heap is full.</p>
+ * <p/>
+ * <p>Coordinates are at most 31 bits wide, hence squared distances fit in a
+ * long.</p>
+ */
+public class KnnHeap {
+
+	/**
+	 * The query point.
+	 */
+	private final long mQueryX, mQueryY;
+
+	/**
+	 * The number of points to keep.
+	 */
+	private final int mK;
+
+	/**
+	 * Squared distances, heap ordered with the largest at index 0.
+	 */
+	private final long[] mDist;
+
+	/**
+	 * Coordinates and ids of the points, in heap order.
+	 */
+	private final long[] mX, mY, mId;
+
+	/**
+	 * The number of points in the heap.
+	 */
+	private int mSize = 0;
+
+	/**
+	 * Creates a new heap keeping the k points closest to (x, y).
+	 *
+	 * @param x the x coordinate of the query point.
+	 * @param y the y coordinate of the query point.
+	 * @param k the number of points to keep.
+	 */
+	public KnnHeap(long x, long y, int k) {
+		if (k <= 0)
+			throw new IllegalArgumentException("k must be positive.");
+		mQueryX = x;
+		mQueryY = y;
+		mK = k;
+		mDist = new long[k];
+		mX = new long[k];
+		mY = new long[k];
+		mId = new long[k];
+	}
+
+	/**
+	 * Returns the squared distance of (x, y) to the query point.
+	 *
+	 * @param x the x coordinate.
+	 * @param y the y coordinate.
+	 * @return the squared distance.
+	 */
+	public long squaredDistance(long x, long y) {
+		long dx = x - mQueryX;
+		long dy = y - mQueryY;
+		return dx * dx + dy * dy;
+	}
+
+	/**
+	 * Returns true if a point at the given squared distance would be kept.
+	 *
+	 * @param squaredDistance the squared distance to the query point.
+	 * @return true if the point would enter the heap.
+	 */
+	public boolean accepts(long squaredDistance) {
+		return mSize < mK || squaredDistance < mDist[0];
+	}
+
+	/**
+	 * Offers a point to the heap.
+	 *
+	 * @param x  the x coordinate.
+	 * @param y  the y coordinate.
+	 * @param id the point id.
+	 * @return true if the point was kept.
+	 */
+	public boolean offer(long x, long y, long id) {
+		return offer(x, y, id, squaredDistance(x, y));
+	}
+
+	/**
+	 * Offers a point of which the squared distance is already known.
+	 *
+	 * @param x  the x coordinate.
+	 * @param y  the y coordinate.
+	 * @param id the point id.
+	 * @param squaredDistance the squared distance to the query point.
+	 * @return true if the point was kept.
+	 */
+	public boolean offer(long x, long y, long id, long squaredDistance) {
+		if (mSize < mK) {
+			siftUp(mSize++, x, y, id, squaredDistance);
+			return true;
+		}
+		if (squaredDistance >= mDist[0])
+			return false;
+		siftDown(0, x, y, id, squaredDistance);
+		return true;
+	}
+
+	/**
+	 * Offers a point to the heap.
+	 *
+	 * @param p the point.
+	 * @return true if the point was kept.
+	 */
+	public boolean offer(Point p) {
+		return offer(p.x, p.y, p.id);
+	}
+
+	/**
+	 * Places the given point at the free slot i or above.
+	 */
+	private void siftUp(int i, long x, long y, long id, long d) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (mDist[parent] >= d)
+				break;
+			move(parent, i);
+			i = parent;
+		}
+		set(i, x, y, id, d);
+	}
+
+	/**
+	 * Replaces the point at slot i by the given one and restores the heap
+	 * order below it.
+	 */
+	private void siftDown(int i, long x, long y, long id, long d) {
+		int half = mSize >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < mSize && mDist[child + 1] > mDist[child])
+				child++;
+			if (d >= mDist[child])
+				break;
+			move(child, i);
+			i = child;
+		}
+		set(i, x, y, id, d);
+	}
+
+	private void move(int from, int to) {
+		mDist[to] = mDist[from];
+		mX[to] = mX[from];
+		mY[to] = mY[from];
+		mId[to] = mId[from];
+	}
+
+	private void set(int i, long x, long y, long id, long d) {
+		mDist[i] = d;
+		mX[i] = x;
+		mY[i] = y;
+		mId[i] = id;
+	}
+
+	/**
+	 * @return the number of points in the heap.
+	 */
+	public int size() {
+		return mSize;
+	}
+
+	/**
+	 * @return true if the heap holds no point.
+	 */
+	public boolean isEmpty() {
+		return mSize == 0;
+	}
+
+	/**
+	 * @return true if the heap holds k points.
+	 */
+	public boolean isFull() {
+		return mSize == mK;
+	}
+
+	/**
+	 * @return the number of points to keep.
+	 */
+	public int getK() {
+		return mK;
+	}
+
+	/**
+	 * Returns the squared distance of the current k-th candidate, or
+	 * Long.MAX_VALUE as long as less than k points were offered.
+	 *
+	 * @return the squared k-th distance.
+	 */
+	public long kthSquaredDistance() {
+		return mSize < mK ? Long.MAX_VALUE : mDist[0];
+	}
+
+	/**
+	 * Returns the distance of the current k-th candidate, or infinity as long
+	 * as less than k points were offered.
+	 *
+	 * @return the k-th distance.
+	 */
+	public double kthDistance() {
+		return mSize < mK ? Double.POSITIVE_INFINITY : Math.sqrt(mDist[0]);
+	}
+
+	/**
+	 * Removes all points.
+	 */
+	public void clear() {
+		mSize = 0;
+	}
+
+	/**
+	 * Returns the points sorted by ascending distance. The heap is left
+	 * unchanged.
+	 *
+	 * @return the points, closest first.
+	 */
+	public List<Point> toSortedList() {
+		int n = mSize;
+		long[] dist = mDist.clone();
+		long[] xs = mX.clone();
+		long[] ys = mY.clone();
+		long[] ids = mId.clone();
+		Point[] sorted = new Point[n];
+		// heap sort on the copies: pop the farthest into the last free slot
+		for (int last = n - 1; last >= 0; last--) {
+			sorted[last] = new Point(xs[0], ys[0], ids[0]);
+			long d = dist[last], x = xs[last], y = ys[last], id = ids[last];
+			int i = 0, half = last >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < last && dist[child + 1] > dist[child])
+					child++;
+				if (d >= dist[child])
+					break;
+				dist[i] = dist[child];
+				xs[i] = xs[child];
+				ys[i] = ys[child];
+				ids[i] = ids[child];
+				i = child;
+			}
+			dist[i] = d;
+			xs[i] = x;
+			ys[i] = y;
+			ids[i] = id;
+		}
+		List<Point> result = new ArrayList<Point>(n);
+		for (int i = 0; i < n; i++)
+			result.add(sorted[i]);
+		return result;
+	}
+}
@@ -1,5 +1,6 @@
 package mgrid.core;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import pgrid.Properties;
@@ -7,13 +8,26 @@ import pgrid.interfaces.basic.PGridP2P;
 
 
 
+import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.Ints;
+import com.google.uzaygezen.core.BacktrackingQueryBuilder;
 import com.google.uzaygezen.core.BitVector;
 import com.google.uzaygezen.core.BitVectorFactories;
 import com.google.uzaygezen.core.CompactHilbertCurve;
+import com.google.uzaygezen.core.FilteredIndexRange;
+import com.google.uzaygezen.core.LongContent;
 import com.google.uzaygezen.core.MultiDimensionalSpec;
+import com.google.uzaygezen.core.PlainFilterCombiner;
+import com.google.uzaygezen.core.Query;
+import com.google.uzaygezen.core.QueryBuilder;
+import com.google.uzaygezen.core.RegionInspector;
+import com.google.uzaygezen.core.SimpleRegionInspector;
 import com.google.uzaygezen.core.SpaceFillingCurve;
+import com.google.uzaygezen.core.ZoomingSpaceVisitorAdapter;
+import com.google.uzaygezen.core.ranges.LongRange;
+import com.google.uzaygezen.core.ranges.LongRangeHome;
 
 
 
@@ -33,6 +47,11 @@ public class MGridUtils {
 	private static final 	MultiDimensionalSpec spec = new MultiDimensionalSpec(Ints.asList(
 			xBits, yBits));
 
+	/**
+	 * The shared Hilbert codec of the configured precision.
+	 */
+	public static final HilbertCodec HILBERT = new HilbertCodec(xBits, yBits);
+
 	/**
 	 * Converts two long numbers into Hilbert Mapping.
 	 * 
@@ -46,20 +65,8 @@ public class MGridUtils {
 	 */
 
 	public static BitVector HilbertConvertor(Long x, Long y) {
-		  int[] raw = new int[] {xBits,yBits};
-		CompactHilbertCurve chc = new CompactHilbertCurve(raw);
-		List<Integer> bitsPerDimension = chc.getSpec().getBitsPerDimension();
-		BitVector[] p = new BitVector[bitsPerDimension.size()];
-		for (int i = p.length; --i >= 0;) {
-			p[i] = BitVectorFactories.OPTIMAL.apply(bitsPerDimension.get(i));
-		}
-		p[0].copyFrom(x);
-		p[1].copyFrom(y);
-		BitVector chi = BitVectorFactories.OPTIMAL.apply(chc.getSpec()
-				.sumBitsPerDimension());
-		chc.index(p, 0, chi);
-		// System.out.println(String.format(Locale.ROOT, "index([%s, %s])=%s",
-		// p[0], p[1], chi));
+		BitVector chi = BitVectorFactories.OPTIMAL.apply(HILBERT.getIndexBits());
+		chi.copyFrom(HILBERT.encode(x, y));
 		return chi;
 	}
 
@@ -71,18 +78,7 @@ public class MGridUtils {
 	 * @return BitVector[]
 	 */
 	public static BitVector[] HilbertInverseConvertor(byte[] row) {
-		SpaceFillingCurve sfc = new CompactHilbertCurve(spec);
-		BitVector[] point = new BitVector[spec.getBitsPerDimension().size()];
-		BitVector index = BitVectorFactories.OPTIMAL.apply(spec
-				.sumBitsPerDimension());
-		for (int j = 0; j < spec.getBitsPerDimension().size(); ++j) {
-			point[j] = BitVectorFactories.OPTIMAL.apply(spec
-					.getBitsPerDimension().get(j));
-		}
-
-		index.copyFromBigEndian(row);
-		sfc.indexInverse(index, point);
-		return point;
+		return HilbertInverseConvertor(HilbertCodec.fromRow(row));
 	}
 
 	/**
@@ -95,21 +91,43 @@ public class MGridUtils {
 	 */
 
 	public static BitVector[] HilbertInverseConvertor(Long orig) {
-	
-		SpaceFillingCurve sfc = new CompactHilbertCurve(spec);
-		BitVector[] point = new BitVector[spec.getBitsPerDimension().size()];
+		long[] xy = new long[2];
+		HILBERT.decode(orig, xy);
+		BitVector[] point = new BitVector[] {BitVectorFactories.OPTIMAL.apply(xBits), BitVectorFactories.OPTIMAL.apply(yBits)};
+		point[0].copyFrom(xy[0]);
+		point[1].copyFrom(xy[1]);
+		return point;
+	}
 
-		BitVector index = BitVectorFactories.OPTIMAL.apply(spec
-				.sumBitsPerDimension());
-		for (int j = 0; j < spec.getBitsPerDimension().size(); ++j) {
-			point[j] = BitVectorFactories.OPTIMAL.apply(spec
-					.getBitsPerDimension().get(j));
+	/**
+	 * Decomposes a query window into at most <code>maxRanges</code> Hilbert index
+	 * ranges covering it. The ranges are sorted, start inclusive and end exclusive.
+	 * 
+	 * @param xmin the x lower bound (inclusive)
+	 * @param xmax the x upper bound (inclusive)
+	 * @param ymin the y lower bound (inclusive)
+	 * @param ymax the y upper bound (inclusive)
+	 * @param maxRanges the maximum number of ranges
+	 * @return the index ranges covering the window
+	 */
+	public static List<LongRange> queryIndexRanges(long xmin, long xmax, long ymin, long ymax, int maxRanges) {
+		List<LongRange> region = ImmutableList.of(LongRange.of(xmin, xmax + 1), LongRange.of(ymin, ymax + 1));
+		LongContent zero = new LongContent(0L);
+		LongContent one = new LongContent(1L);
+		Object filter = "";
+		RegionInspector<Object, LongContent> inspector = SimpleRegionInspector.create(ImmutableList.of(region),
+				one, Functions.constant(filter), LongRangeHome.INSTANCE, zero);
+		PlainFilterCombiner<Object, Long, LongContent, LongRange> combiner = new PlainFilterCombiner<>(filter);
+		QueryBuilder<Object, LongRange> queryBuilder = BacktrackingQueryBuilder.create(inspector, combiner, maxRanges, true,
+				LongRangeHome.INSTANCE, zero);
+		SpaceFillingCurve sfc = new CompactHilbertCurve(spec);
+		sfc.accept(new ZoomingSpaceVisitorAdapter(sfc, queryBuilder));
+		Query<Object, LongRange> query = queryBuilder.get();
+		List<LongRange> ranges = new ArrayList<LongRange>(query.getFilteredIndexRanges().size());
+		for (FilteredIndexRange<Object, LongRange> range : query.getFilteredIndexRanges()) {
+			ranges.add(range.getIndexRange());
 		}
-
-		index.copyFrom(orig);
-
-		sfc.indexInverse(index, point);
-		return point;
+		return ranges;
 	}
 
 	public static int[][] calculateRanges(Long x, Long y, double delta) {
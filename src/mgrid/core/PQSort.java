@@ -13,18 +13,16 @@ public class PQSort implements Comparator<Point> {
 	}
 
 	
-	private static double  distance(Long x, Long y , Point p) {
-		double xdiff = p.x - x;
-		double xpow = Math.pow(xdiff, 2);
-		double ydiff = p.y - y;
-		double ypow = Math.pow(ydiff, 2);
-		double value = Math.sqrt(xpow+ypow);
-		return value;
+	// the squared distance preserves the order and needs no square root
+	private static long distance(Long x, Long y , Point p) {
+		long xdiff = p.x - x;
+		long ydiff = p.y - y;
+		return xdiff * xdiff + ydiff * ydiff;
 	}
 	@Override
 	public int compare(Point o1, Point o2) {
-		double d1 = distance(pointX,pointY,o1);
-		double d2 = distance(pointX,pointY,o2);
+		long d1 = distance(pointX,pointY,o1);
+		long d2 = distance(pointX,pointY,o2);
 		if (d1 < d2) {
 			return -1;
 		}
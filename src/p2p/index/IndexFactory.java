@@ -27,6 +27,7 @@ import p2p.basic.P2P;
 import p2p.basic.GUID;
 
 import java.util.Collection;
+import java.util.List;
 
 import mgrid.core.Point;
 
@@ -118,6 +119,37 @@ public abstract class IndexFactory {
 	 */
 	public abstract Query createQuery(Type type, String lowerBound,
 			String upperBound, Long xmin, Long xmax, Long ymin, Long ymax) throws NoSuchTypeException;
+
+	/**
+	 * Create a Query instance over several ranges, e.g. the index ranges a query window decomposes into.
+	 * The whole list of ranges is sent as a single query.
+	 *
+	 * @param type        	the Type of items the query is for
+	 * @param lowerBounds	the lower bounds of the ranges, in ascending order
+	 * @param higherBounds	the higher bounds of the ranges
+	 * @param xmin the original query x minimum
+	 * @param xmax the original query x maximum
+	 * @param ymin the original query y minimum
+	 * @param ymax the original query y maximum
+	 * @return a Query instance
+	 * @throws NoSuchTypeException if the provided Type is unknown.
+	 */
+	public abstract Query createQuery(Type type, List<String> lowerBounds,
+			List<String> higherBounds, Long xmin, Long xmax, Long ymin, Long ymax) throws NoSuchTypeException;
+
+	/**
+	 * Create a k-nearest-neighbour Query instance. The search window grows
+	 * around the query point until the k nearest items are known; they are
+	 * returned sorted by ascending distance.
+	 *
+	 * @param type	the Type of items the query is for
+	 * @param x		the x coordinate of the query point
+	 * @param y		the y coordinate of the query point
+	 * @param k		the number of neighbours to find
+	 * @return a Query instance
+	 * @throws NoSuchTypeException if the provided Type is unknown.
+	 */
+	public abstract Query createKnnQuery(Type type, Long x, Long y, int k) throws NoSuchTypeException;
 	
 	/**
 	 * Create the concrete Storage implementation.
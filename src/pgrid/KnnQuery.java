@@ -0,0 +1,196 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid;
+
+import p2p.basic.GUID;
+import p2p.basic.KeyRange;
+import p2p.index.Type;
+import pgrid.interfaces.basic.PGridP2P;
+import pgrid.interfaces.basic.PGridP2PFactory;
+
+/**
+ * This class represents a k-nearest-neighbour query for a point.
+ * <p/>
+ * The query is not routed itself. The initiating peer searches square rings
+ * of growing radius around the point with {@link KnnRingQuery}s until the
+ * k-th nearest candidate is known to lie inside the searched area, see
+ * {@link pgrid.core.search.KnnSearch}.
+ *
+ * @version 1.0.0
+ */
+public class KnnQuery extends AbstractQuery {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The x coordinate of the query point.
+	 */
+	protected Long mQueryX;
+
+	/**
+	 * The y coordinate of the query point.
+	 */
+	protected Long mQueryY;
+
+	/**
+	 * The number of neighbours to find.
+	 */
+	protected int mK;
+
+	/**
+	 * The radius of the first ring, 0 to let the search guess it.
+	 */
+	protected long mInitialRadius = 0;
+
+	/**
+	 * Creates a new kNN Query. It is assumed that this peer is the initiator
+	 * of the query and its address will be bound with the query as the
+	 * destination for the result set.
+	 *
+	 * @param host  	Initiator host
+	 * @param type     the type of Query.
+	 * @param x        the x coordinate of the query point.
+	 * @param y        the y coordinate of the query point.
+	 * @param k        the number of neighbours to find.
+	 */
+	public KnnQuery(PGridHost host, Type type, Long x, Long y, int k) {
+		this(host, PGridP2PFactory.sharedInstance().generateGUID(), type, x, y, k);
+	}
+
+	/**
+	 * Creates a new kNN Query with the given GUID.
+	 *
+	 * @param host  	Initiator host
+	 * @param guid     the guid of the query.
+	 * @param type     the type of Query.
+	 * @param x        the x coordinate of the query point.
+	 * @param y        the y coordinate of the query point.
+	 * @param k        the number of neighbours to find.
+	 */
+	public KnnQuery(PGridHost host, GUID guid, Type type, Long x, Long y, int k) {
+		super(host, guid, type, 0, 1);
+		if (k <= 0)
+			throw new IllegalArgumentException("k must be positive.");
+		mQueryX = x;
+		mQueryY = y;
+		mK = k;
+		if (mRequestingHost == null)
+			mRequestingHost = PGridP2P.sharedInstance().getLocalHost();
+	}
+
+	/**
+	 * @return the x coordinate of the query point.
+	 */
+	public Long getQueryX() {
+		return mQueryX;
+	}
+
+	/**
+	 * @return the y coordinate of the query point.
+	 */
+	public Long getQueryY() {
+		return mQueryY;
+	}
+
+	/**
+	 * @return the number of neighbours to find.
+	 */
+	public int getK() {
+		return mK;
+	}
+
+	/**
+	 * @return the radius of the first ring, 0 if it should be guessed.
+	 */
+	public long getInitialRadius() {
+		return mInitialRadius;
+	}
+
+	/**
+	 * @param radius the radius of the first ring, 0 to let the search guess it.
+	 */
+	public void setInitialRadius(long radius) {
+		mInitialRadius = radius;
+	}
+
+	/**
+	 * @return a readable representation of the query.
+	 */
+	public String getRepresentation() {
+		return mK + "-NN of (" + mQueryX + "," + mQueryY + ")";
+	}
+
+	/**
+	 * A kNN query is resolved by ring queries and never routed itself.
+	 */
+	public KeyRange getKeyRange() {
+		return null;
+	}
+
+	public String getLowerBound() {
+		return getRepresentation();
+	}
+
+	public String getHigherBound() {
+		return getRepresentation();
+	}
+
+	public Long getOrigxMin() {
+		return mQueryX;
+	}
+
+	public Long getOrigxMax() {
+		return mQueryX;
+	}
+
+	public Long getOrigyMin() {
+		return mQueryY;
+	}
+
+	public Long getOrigyMax() {
+		return mQueryY;
+	}
+
+	public String getOriginalMin() {
+		return null;
+	}
+
+	public String getOriginalMax() {
+		return null;
+	}
+
+	public Long getHits() {
+		return null;
+	}
+
+	public Long setHits() {
+		return null;
+	}
+
+	/**
+	 * The initiating peer is responsible for a kNN query.
+	 */
+	public boolean isHostResponsible(PGridHost host) {
+		return host.equals(mRequestingHost);
+	}
+
+}
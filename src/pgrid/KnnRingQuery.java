@@ -0,0 +1,181 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid;
+
+import java.util.List;
+
+import p2p.basic.GUID;
+import p2p.basic.KeyRange;
+import p2p.index.Type;
+
+/**
+ * One round of a k-nearest-neighbour search. The query covers the square
+ * ring between the original query window (the outer square) and an inner
+ * square which was already searched in a previous round, given as the
+ * Hilbert index ranges covering the ring. Each responsible peer returns at
+ * most k points of the ring, the ones closest to the query point.
+ *
+ * @version 1.0.0
+ */
+public class KnnRingQuery extends MultiRangeQuery {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The x coordinate of the query point.
+	 */
+	protected Long mQueryX;
+
+	/**
+	 * The y coordinate of the query point.
+	 */
+	protected Long mQueryY;
+
+	/**
+	 * The number of neighbours to find.
+	 */
+	protected int mK;
+
+	/**
+	 * The already searched inner square, null for the first round.
+	 */
+	protected Long mInnerxMin, mInnerxMax, mInneryMin, mInneryMax;
+
+	/**
+	 * Creates a new empty ring Query.
+	 */
+	public KnnRingQuery() {
+		super();
+	}
+
+	/**
+	 * Creates a new ring Query. It is assumed that this peer is the initiator
+	 * of the query and its address will be bound with the query as the
+	 * destination for the result set.
+	 *
+	 * @param host  	Initiator host
+	 * @param guid     the guid of the query.
+	 * @param type     the type of Query.
+	 * @param key      the key ranges of the query
+	 * @param lowerBounds the lower bounds of the ranges, sorted
+	 * @param higherBounds the higher bounds of the ranges
+	 * @param outer    the outer square {xmin, xmax, ymin, ymax}
+	 * @param inner    the inner square {xmin, xmax, ymin, ymax} or null
+	 * @param x        the x coordinate of the query point.
+	 * @param y        the y coordinate of the query point.
+	 * @param k        the number of neighbours to find.
+	 */
+	public KnnRingQuery(PGridHost host, GUID guid, Type type, KeyRange key, List<String> lowerBounds, List<String> higherBounds,
+			long[] outer, long[] inner, Long x, Long y, int k) {
+		super(host, type, key, lowerBounds, higherBounds, outer[0], outer[1], outer[2], outer[3]);
+		mGUID = guid;
+		mResultMode = STREAM_RESULTS;
+		mQueryX = x;
+		mQueryY = y;
+		mK = k;
+		if (inner != null)
+			setInner(inner[0], inner[1], inner[2], inner[3]);
+	}
+
+	/**
+	 * @return the x coordinate of the query point.
+	 */
+	public Long getQueryX() {
+		return mQueryX;
+	}
+
+	/**
+	 * @param x the x coordinate of the query point.
+	 */
+	public void setQueryX(Long x) {
+		mQueryX = x;
+	}
+
+	/**
+	 * @return the y coordinate of the query point.
+	 */
+	public Long getQueryY() {
+		return mQueryY;
+	}
+
+	/**
+	 * @param y the y coordinate of the query point.
+	 */
+	public void setQueryY(Long y) {
+		mQueryY = y;
+	}
+
+	/**
+	 * @return the number of neighbours to find.
+	 */
+	public int getK() {
+		return mK;
+	}
+
+	/**
+	 * @param k the number of neighbours to find.
+	 */
+	public void setK(int k) {
+		mK = k;
+	}
+
+	/**
+	 * @return true if an inner square is excluded from this round.
+	 */
+	public boolean hasInner() {
+		return mInnerxMin != null;
+	}
+
+	public Long getInnerxMin() {
+		return mInnerxMin;
+	}
+
+	public Long getInnerxMax() {
+		return mInnerxMax;
+	}
+
+	public Long getInneryMin() {
+		return mInneryMin;
+	}
+
+	public Long getInneryMax() {
+		return mInneryMax;
+	}
+
+	/**
+	 * Sets the already searched inner square, both ends inclusive.
+	 */
+	public void setInner(Long xMin, Long xMax, Long yMin, Long yMax) {
+		mInnerxMin = xMin;
+		mInnerxMax = xMax;
+		mInneryMin = yMin;
+		mInneryMax = yMax;
+	}
+
+	/**
+	 * @see pgrid.QueryInterface#getRepresentation()
+	 */
+	public String getRepresentation() {
+		return mK + "-NN of (" + mQueryX + "," + mQueryY + ") ring " + super.getRepresentation();
+	}
+
+}
@@ -0,0 +1,152 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import p2p.basic.GUID;
+import p2p.basic.KeyRange;
+import p2p.index.Type;
+
+/**
+ * This class represents a range query over several disjoint key ranges, e.g.
+ * the Hilbert index ranges a query window decomposes into. The whole list of
+ * ranges is routed as a single message and each responsible peer executes
+ * all ranges it receives with a single scan.
+ * <p/>
+ * The lower and higher bounds of the query are the bounds of the first and
+ * the last range.
+ *
+ * @version 1.0.0
+ */
+public class MultiRangeQuery extends RangeQuery {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The lower bounds of the ranges.
+	 */
+	protected List<String> mLowerBounds = new ArrayList<String>();
+
+	/**
+	 * The higher bounds of the ranges.
+	 */
+	protected List<String> mHigherBounds = new ArrayList<String>();
+
+	/**
+	 * Creates a new empty multi-range Query.
+	 */
+	public MultiRangeQuery() {
+		super();
+	}
+
+	/**
+	 * Construct a multi-range query message
+	 *
+	 * @param guid        the unique range query number
+	 * @param type        the type of the query
+	 * @param hops        number of hops taken by this query
+	 * @param algorithm   to use
+	 * @param lowerBounds the lower bounds of the ranges
+	 * @param higherBounds the higher bounds of the ranges
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param kr          the key ranges of the query
+	 * @param index       represent the resolved portion of the query
+	 * @param prefix      prefix of the expected path
+	 * @param minSpeed    the connection speed
+	 * @param initialHost host that should recieve the result set
+	 */
+	public MultiRangeQuery(GUID guid, Type type, int hops, String algorithm, List<String> lowerBounds, List<String> higherBounds,
+			Long origxMin, Long origxMax, Long origyMin, Long origyMax, KeyRange kr, int index, String prefix, int minSpeed, PGridHost initialHost) {
+		super(guid, type, hops, algorithm, lowerBounds.get(0), higherBounds.get(higherBounds.size()-1),
+				origxMin, origxMax, origyMin, origyMax, kr, index, prefix, minSpeed, initialHost);
+		mLowerBounds.addAll(lowerBounds);
+		mHigherBounds.addAll(higherBounds);
+	}
+
+	/**
+	 * Creates a new multi-range Query. It is assumed that this peer is the
+	 * initiator of the query and its address will be bound with the query as
+	 * the destination for the result set.
+	 *
+	 * @param host  	Initiator host
+	 * @param type     the type of Query.
+	 * @param key      the key ranges of the query
+	 * @param lowerBounds the lower bounds of the ranges, sorted
+	 * @param higherBounds the higher bounds of the ranges
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 */
+	public MultiRangeQuery(PGridHost host, Type type, KeyRange key, List<String> lowerBounds, List<String> higherBounds,
+			Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
+		super(host, type, key, lowerBounds.get(0), higherBounds.get(higherBounds.size()-1),
+				origxMin, origxMax, origyMin, origyMax);
+		mLowerBounds.addAll(lowerBounds);
+		mHigherBounds.addAll(higherBounds);
+	}
+
+	/**
+	 * @return the lower bounds of the ranges.
+	 */
+	public List<String> getLowerBounds() {
+		return mLowerBounds;
+	}
+
+	/**
+	 * @return the higher bounds of the ranges.
+	 */
+	public List<String> getHigherBounds() {
+		return mHigherBounds;
+	}
+
+	/**
+	 * Adds a range to this query. Ranges have to be added in ascending order.
+	 *
+	 * @param lowerBound the lower bound of the range
+	 * @param higherBound the higher bound of the range
+	 */
+	public void addRange(String lowerBound, String higherBound) {
+		mLowerBounds.add(lowerBound);
+		mHigherBounds.add(higherBound);
+	}
+
+	/**
+	 * @return the number of ranges of this query.
+	 */
+	public int getRangeCount() {
+		return mLowerBounds.size();
+	}
+
+	/**
+	 * @see pgrid.QueryInterface#getRepresentation()
+	 */
+	public String getRepresentation() {
+		return mFirstQueryString + " - " + mSecondQueryString + " (" + mLowerBounds.size() + " ranges)";
+	}
+
+}
@@ -28,6 +28,7 @@ import p2p.basic.Peer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Serializable;
 
 import pgrid.interfaces.basic.PGridP2P;
@@ -146,6 +147,26 @@ public class PGridHost extends Host implements Peer, Comparable, Serializable {
 	 */
 	protected int mOffline = 0;
 
+	/**
+	 * Number of successive route attempts this host did not acknowledge
+	 */
+	protected int mRouteFailures = 0;
+
+	/**
+	 * Number of routed messages this host has not acknowledged yet
+	 */
+	protected final AtomicInteger mOutstanding = new AtomicInteger();
+
+	/**
+	 * Smoothed round trip time of routed messages in ms, -1 if unknown
+	 */
+	protected long mRtt = -1;
+
+	/**
+	 * Smoothed mean deviation of the round trip time in ms
+	 */
+	protected long mRttDeviation = 0;
+
 	/**
 	 * Creates a new host.
 	 */
@@ -673,4 +694,98 @@ public class PGridHost extends Host implements Peer, Comparable, Serializable {
 	public void setFirewalledStatus(boolean status) {
 		mFirewalled = status;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Records the time the host took to acknowledge a routed message. Mean and
+	 * deviation are smoothed like the TCP retransmission timer (gains 1/8 and
+	 * 1/4), and the host is considered healthy again.
+	 *
+	 * @param rtt the round trip time in ms.
+	 */
+	public synchronized void recordRtt(long rtt) {
+		if (mRtt < 0) {
+			mRtt = rtt;
+			mRttDeviation = rtt / 2;
+		} else {
+			mRttDeviation += (Math.abs(rtt - mRtt) - mRttDeviation) / 4;
+			mRtt += (rtt - mRtt) / 8;
+		}
+		mRouteFailures = 0;
+	}
+
+	/**
+	 * Returns the smoothed round trip time of routed messages.
+	 *
+	 * @return the round trip time in ms, or -1 if not measured yet.
+	 */
+	public synchronized long getRtt() {
+		return mRtt;
+	}
+
+	/**
+	 * Returns the time in ms within which this host acknowledges nearly all
+	 * routed messages, the smoothed round trip time plus twice its deviation.
+	 *
+	 * @return the latency bound, or -1 if not measured yet.
+	 */
+	public synchronized long getLatencyBound() {
+		if (mRtt < 0)
+			return -1;
+		return mRtt + 2 * mRttDeviation;
+	}
+
+	/**
+	 * Records a routed message waiting for the acknowledgment of this host.
+	 */
+	public void incOutstanding() {
+		mOutstanding.incrementAndGet();
+	}
+
+	/**
+	 * Records that a routed message of this host is not waited for anymore.
+	 */
+	public void decOutstanding() {
+		if (mOutstanding.decrementAndGet() < 0)
+			mOutstanding.incrementAndGet();
+	}
+
+	/**
+	 * Returns the number of routed messages this host has not acknowledged.
+	 *
+	 * @return the outstanding messages.
+	 */
+	public int getOutstanding() {
+		return mOutstanding.get();
+	}
+
+	/**
+	 * Records that a routed message could not be sent to this host or was not
+	 * acknowledged in time.
+	 */
+	public synchronized void incRouteFailures() {
+		++mRouteFailures;
+	}
+
+	/**
+	 * Returns true if the last route attempts to this host succeeded.
+	 *
+	 * @return true if the host is healthy.
+	 */
+	public synchronized boolean isHealthy() {
+		return mRouteFailures < 3;
+	}
+
+	/**
+	 * Returns the expected cost of routing a message to this host, its round
+	 * trip time scaled by the messages it has still to acknowledge. Hosts
+	 * without measurement cost nothing so that they get probed.
+	 *
+	 * @return the route cost.
+	 */
+	public long getRouteCost() {
+		long rtt = getRtt();
+		if (rtt < 0)
+			return 0;
+		return (rtt + 1) * (1 + mOutstanding.get());
+	}
+}
@@ -26,15 +26,38 @@ import p2p.basic.Key;
 import java.io.Serializable;
 
 /**
+ * A key of the P-Grid trie.
+ * <p/>
+ * Binary keys of at most {@link #MAX_BITS} bits, such as the Hilbert keys of
+ * spatial data and peer paths, are kept as a packed long plus a bit length
+ * instead of a string of '0' and '1' characters. Prefix, compare and common
+ * prefix operations on them are done with bit arithmetic; the string form is
+ * only built by {@link #toString()}. Other keys are kept as strings.
+ *
  * @author <a href="mailto:Renault John <renault.john@epfl.ch>">Renault John</a>
  * @version 1.2.0
  */
 public class PGridKey implements Key, Serializable {
 
 	/**
-	 * String representation of the key
+	 * Maximal length of a packed binary key.
+	 */
+	public static final int MAX_BITS = 63;
+
+	/**
+	 * String representation of a non binary key, null for packed keys
+	 */
+	protected String mKey = null;
+
+	/**
+	 * Bits of a packed binary key, right aligned
+	 */
+	protected long mBits = 0;
+
+	/**
+	 * Length in bits of a packed binary key, -1 for string keys
 	 */
-	protected String mKey;
+	protected int mLength = -1;
 
 	/**
 	 * Constructor
@@ -42,14 +65,179 @@ public class PGridKey implements Key, Serializable {
 	 * @param key
 	 */
 	public PGridKey(String key) {
-		mKey = key;
+		setKey(key);
+	}
+
+	/**
+	 * Constructor for a packed binary key
+	 *
+	 * @param bits   the bits of the key, right aligned
+	 * @param length the number of bits
+	 */
+	public PGridKey(long bits, int length) {
+		if (length < 0 || length > MAX_BITS)
+			throw new IllegalArgumentException("Unsupported key length "+length+".");
+		mBits = length == 0 ? 0 : bits & (-1L >>> (64 - length));
+		mLength = length;
+	}
+
+	/**
+	 * Packs the key if it is binary.
+	 */
+	private void setKey(String key) {
+		if (isBinary(key)) {
+			mBits = parseBits(key);
+			mLength = key.length();
+			mKey = null;
+		} else {
+			mKey = key;
+			mLength = -1;
+		}
+	}
+
+	/**
+	 * Returns true if the given string is a binary key short enough to be packed.
+	 *
+	 * @param key the key
+	 * @return true if the key can be packed
+	 */
+	public static boolean isBinary(String key) {
+		if (key == null || key.length() > MAX_BITS)
+			return false;
+		for (int i = 0; i < key.length(); i++) {
+			char c = key.charAt(i);
+			if (c != '0' && c != '1')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the bits of a binary string, right aligned.
+	 *
+	 * @param key a binary string of at most 63 characters
+	 * @return the bits
+	 */
+	public static long parseBits(String key) {
+		long bits = 0;
+		for (int i = 0; i < key.length(); i++) {
+			bits = (bits << 1) | (key.charAt(i) - '0');
+		}
+		return bits;
+	}
+
+	/**
+	 * Returns the binary string of the given bits.
+	 *
+	 * @param bits   the bits, right aligned
+	 * @param length the number of bits
+	 * @return the binary string
+	 */
+	public static String toBinaryString(long bits, int length) {
+		char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = (char)('0' + (bits & 1));
+			bits >>>= 1;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the value of the first bits of a key. Packed keys are not parsed.
+	 *
+	 * @param key    the key
+	 * @param length the number of leading bits, at most the key size
+	 * @return the value of the prefix
+	 */
+	public static long prefixBits(Key key, int length) {
+		if (key instanceof PGridKey && ((PGridKey)key).isBinary())
+			return ((PGridKey)key).prefix(length);
+		return parseBits(key.toString().substring(0, length));
+	}
+
+	/**
+	 * @return true if the key is a packed binary key
+	 */
+	public boolean isBinary() {
+		return mLength >= 0;
+	}
+
+	/**
+	 * Returns the bits of a packed binary key, right aligned.
+	 *
+	 * @return the bits
+	 */
+	public long getBits() {
+		if (mLength < 0)
+			throw new IllegalStateException("Key '"+mKey+"' is not binary.");
+		return mBits;
+	}
+
+	/**
+	 * Returns the value of the first bits of a packed binary key.
+	 *
+	 * @param length the number of leading bits, at most the key size
+	 * @return the value of the prefix
+	 */
+	public long prefix(int length) {
+		if (length < 0 || length > getLength())
+			throw new IndexOutOfBoundsException("Prefix "+length+" of a "+mLength+" bits key.");
+		return length == 0 ? 0 : mBits >>> (mLength - length);
+	}
+
+	/**
+	 * Returns the bit at the given position, 0 being the first bit.
+	 *
+	 * @param index the position
+	 * @return 0 or 1
+	 */
+	public int bitAt(int index) {
+		if (index < 0 || index >= getLength())
+			throw new IndexOutOfBoundsException("Bit "+index+" of a "+mLength+" bits key.");
+		return (int)((mBits >>> (mLength - 1 - index)) & 1);
+	}
+
+	/**
+	 * Returns the length of the common prefix of two packed binary keys.
+	 *
+	 * @param key the other key
+	 * @return the common prefix length
+	 */
+	public int commonPrefixLength(PGridKey key) {
+		int length = Math.min(getLength(), key.getLength());
+		if (length == 0)
+			return 0;
+		long diff = prefix(length) ^ key.prefix(length);
+		return diff == 0 ? length : Long.numberOfLeadingZeros(diff) - (64 - length);
+	}
+
+	/**
+	 * Compares two packed binary keys in path order: the shorter length of
+	 * both keys is compared and the empty key is greater than any other.
+	 *
+	 * @param key the other key
+	 * @return a negative value, zero or a positive value
+	 */
+	public int comparePath(PGridKey key) {
+		int l1 = getLength(), l2 = key.getLength();
+		if (l1 == 0 || l2 == 0)
+			return l1 == l2 ? 0 : (l1 == 0 ? 1 : -1);
+		int length = Math.min(l1, l2);
+		long p1 = prefix(length), p2 = key.prefix(length);
+		return p1 < p2 ? -1 : (p1 == p2 ? 0 : 1);
+	}
+
+	private int getLength() {
+		if (mLength < 0)
+			throw new IllegalStateException("Key '"+mKey+"' is not binary.");
+		return mLength;
 	}
 
 	/**
 	 * @see p2p.basic.Key#getBytes()
 	 */
 	public byte[] getBytes() {
-		return mKey.getBytes();
+		return toString().getBytes();
 	}
 
 	/**
@@ -59,7 +247,7 @@ public class PGridKey implements Key, Serializable {
 	 * @return the new key
 	 */
 	public Key append(Key toAppend) {
-		mKey = mKey + toAppend.toString();
+		setKey(toString() + toAppend.toString());
 		return this;
 	}
 
@@ -70,7 +258,7 @@ public class PGridKey implements Key, Serializable {
 	 * @return the new key
 	 */
 	public Key append(String toAppend) {
-		mKey = mKey + toAppend;
+		setKey(toString() + toAppend);
 		return this;
 	}
 
@@ -78,20 +266,29 @@ public class PGridKey implements Key, Serializable {
 	 * @see p2p.basic.Key#size()
 	 */
 	public int size() {
-		return mKey.length();
+		return mLength >= 0 ? mLength : mKey.length();
 	}
 
 	/**
 	 * @see java.lang.Object#toString()
 	 */
 	public String toString() {
-		return mKey;
+		return mLength >= 0 ? toBinaryString(mBits, mLength) : mKey;
 	}
 
 	public boolean equals(Object o) {
 		if (!(o instanceof PGridKey)) 
 			return false;
-		return ((PGridKey)o).mKey.equals(mKey);
+		PGridKey key = (PGridKey)o;
+		if (mLength >= 0 || key.mLength >= 0)
+			return mLength == key.mLength && mBits == key.mBits;
+		return key.mKey.equals(mKey);
+	}
+
+	public int hashCode() {
+		if (mLength >= 0)
+			return (int)(mBits ^ (mBits >>> 32)) * 31 + mLength;
+		return mKey.hashCode();
 	}
 
 }
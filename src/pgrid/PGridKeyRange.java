@@ -96,6 +96,13 @@ public class PGridKeyRange implements KeyRange {
 	 * @see p2p.basic.KeyRange#withinRange(p2p.basic.Key)
 	 */
 	public boolean withinRange(Key key) {
+		if (key instanceof PGridKey && mLowerKey instanceof PGridKey && mHigherKey instanceof PGridKey) {
+			PGridKey pKey = (PGridKey)key;
+			PGridKey lower = (PGridKey)mLowerKey;
+			PGridKey higher = (PGridKey)mHigherKey;
+			if (pKey.isBinary() && lower.isBinary() && higher.isBinary())
+				return pKey.comparePath(lower) >= 0 && pKey.comparePath(higher) <= 0;
+		}
 		String strKey = key.toString();
 
 		return ((pathComparator.compare(strKey, mLowerKey.toString()) >= 0 &&
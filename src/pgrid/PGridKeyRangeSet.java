@@ -0,0 +1,131 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import p2p.basic.Key;
+import p2p.basic.KeyRange;
+
+/**
+ * A sorted list of disjoint key ranges addressed as a whole. The lower and
+ * higher bounds are those of the first and the last range, but a key is only
+ * within this range if it is within one of its ranges. This lets the shower
+ * routing prune the subtrees falling in the gaps between the ranges.
+ *
+ * @version 1.0.0
+ */
+public class PGridKeyRangeSet implements KeyRange {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Range separator used in the toString method
+	 */
+	public static final String SEPARATOR = ",";
+
+	/**
+	 * The ranges of this set
+	 */
+	protected List<KeyRange> mRanges;
+
+	/**
+	 * Constructor for a set of key ranges
+	 *
+	 * @param ranges the sorted key ranges
+	 */
+	public PGridKeyRangeSet(List<KeyRange> ranges) {
+		if (ranges.isEmpty())
+			throw new IllegalArgumentException("A key range set needs at least one range.");
+		mRanges = Collections.unmodifiableList(new ArrayList<KeyRange>(ranges));
+	}
+
+	/**
+	 * Constructor for a set of key ranges out of a string
+	 *
+	 * @param key  the key ranges
+	 */
+	public PGridKeyRangeSet(String key) {
+		String[] keys = key.split(SEPARATOR);
+		List<KeyRange> ranges = new ArrayList<KeyRange>(keys.length);
+
+		for (String k: keys)
+			ranges.add(new PGridKeyRange(k));
+		mRanges = Collections.unmodifiableList(ranges);
+	}
+
+	/**
+	 * Returns true if the given string represents a set of key ranges.
+	 *
+	 * @param key the key string
+	 * @return true if the string contains more than one range
+	 */
+	public static boolean isRangeSet(String key) {
+		return key.indexOf(SEPARATOR) >= 0;
+	}
+
+	/**
+	 * @return the ranges of this set
+	 */
+	public List<KeyRange> getRanges() {
+		return mRanges;
+	}
+
+	/**
+	 * @see p2p.basic.KeyRange#getMin()
+	 */
+	public Key getMin() {
+		return mRanges.get(0).getMin();
+	}
+
+	/**
+	 * @see p2p.basic.KeyRange#getMax()
+	 */
+	public Key getMax() {
+		return mRanges.get(mRanges.size()-1).getMax();
+	}
+
+	public String toString() {
+		StringBuilder str = new StringBuilder();
+
+		for (KeyRange range: mRanges) {
+			if (str.length() > 0)
+				str.append(SEPARATOR);
+			str.append(range.toString());
+		}
+		return str.toString();
+	}
+
+	/**
+	 * @see p2p.basic.KeyRange#withinRange(p2p.basic.Key)
+	 */
+	public boolean withinRange(Key key) {
+		for (KeyRange range: mRanges) {
+			if (range.withinRange(key))
+				return true;
+		}
+		return false;
+	}
+
+}
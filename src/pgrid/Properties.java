@@ -125,10 +125,18 @@ public class Properties {
 	public static final String REPLICATION_BALANCE = "ReplicationBalance";
 
 	/**
-	 * Property "CompressionLevel", the used compression level.
+	 * Property "CompressionLevel", the used compression level: a level of the
+	 * deflater, or {@link pgrid.util.Compression#FAST_COMPRESSION} for the fast
+	 * codec.
 	 */
 	public static final String COMPRESSION_LEVEL = "CompressionLevel";
 
+	/**
+	 * Property "CompressionThreshold", the size in bytes below which messages
+	 * are sent uncompressed to hosts supporting it.
+	 */
+	public static final String COMPRESSION_THRESHOLD = "CompressionThreshold";
+
 	/**
 	 * Property "BootstrapHosts", the used bootstrap hosts.
 	 */
@@ -231,6 +239,70 @@ public class Properties {
     public static final String SSL_KEYSTORE_PASSWORD = "SSLKeyStorePwd";
 
     public static final String SSL_TRUSTSTORE_PASSWORD = "SSLTrustStorePwd";
+
+	/**
+	 * Property "NIOTransport", if established connections are read by a selector
+	 * instead of one thread each. Not used with SSL sockets.
+	 */
+	public static final String NIO_TRANSPORT = "NIOTransport";
+
+	/**
+	 * Property "BinaryCodec", if query and reply messages are sent in the binary
+	 * representation to hosts supporting it, instead of XML.
+	 */
+	public static final String BINARY_CODEC = "BinaryCodec";
+
+	/**
+	 * Property "BulkChannel", if files are streamed over a second connection to
+	 * hosts supporting it, so that they do not hold up the messages of the
+	 * first one.
+	 */
+	public static final String BULK_CHANNEL = "BulkChannel";
+
+	/**
+	 * Property "RouteHedging", if a routed message is sent to a second host of
+	 * the level when the first one has not acknowledged it within its usual
+	 * latency. Receivers must tolerate the duplicates this may cause.
+	 */
+	public static final String ROUTE_HEDGING = "RouteHedging";
+
+	/**
+	 * Property "RouteHedgingMinDelay", the minimum time in ms before a routed
+	 * message is hedged.
+	 */
+	public static final String ROUTE_HEDGING_MIN_DELAY = "RouteHedgingMinDelay";
+
+	/**
+	 * Property "SeenMessages", the number of recent message GUIDs the router
+	 * remembers to drop duplicates.
+	 */
+	public static final String SEEN_MESSAGES = "SeenMessages";
+
+	/**
+	 * Property "DirectRouting", if queries for a region whose owner is known
+	 * from recent replies or exchanges are sent directly to that owner.
+	 */
+	public static final String DIRECT_ROUTING = "DirectRouting";
+
+	/**
+	 * Property "LocationCacheSize", the number of key prefixes whose owner is
+	 * remembered for direct routing.
+	 */
+	public static final String LOCATION_CACHE_SIZE = "LocationCacheSize";
+
+	/**
+	 * Property "MessageBatchWindow", the time in ms messages and
+	 * acknowledgments to the same host are held back to be sent together, 0
+	 * to only join messages sent concurrently. The window is rounded up to the
+	 * resolution of the timers.
+	 */
+	public static final String MESSAGE_BATCH_WINDOW = "MessageBatchWindow";
+
+	/**
+	 * Property "MessageBatchSize", the number of queued bytes at which the
+	 * messages to a host are sent before the batch window elapsed.
+	 */
+	public static final String MESSAGE_BATCH_SIZE = "MessageBatchSize";
     
 	/**
 	 * The path to be assigned to a peer. In order it to be assigned by P-Grid leave it null
@@ -267,6 +339,81 @@ public class Properties {
 	 */
 	public static final String HTABLE_NAME="HBaseUserTable";
 	
+	/**
+	 * Property "RangeQueryResultMode", whether range queries return counts or stream points.
+	 */
+	public static final String RANGE_QUERY_RESULT_MODE = "RangeQueryResultMode";
+	
+	/**
+	 * Property "RangeQueryChunkSize", the maximum number of points per streamed reply.
+	 */
+	public static final String RANGE_QUERY_CHUNK_SIZE = "RangeQueryChunkSize";
+	
+	/**
+	 * Property "RangeQueryAggregation", whether forwarding peers merge the replies of their subtree.
+	 */
+	public static final String RANGE_QUERY_AGGREGATION = "RangeQueryAggregation";
+	
+	/**
+	 * Property "RangeQueryAggregationTimeout", the time in ms the initiator waits for an aggregated reply.
+	 */
+	public static final String RANGE_QUERY_AGGREGATION_TIMEOUT = "RangeQueryAggregationTimeout";
+	
+	/**
+	 * Property "HBaseRegionFilter", whether range scans are filtered on the region servers.
+	 */
+	public static final String HBASE_REGION_FILTER = "HBaseRegionFilter";
+	
+	/**
+	 * Property "HBaseSplitBits", the data table is pre-split into 2^bits regions below the local path.
+	 */
+	public static final String HBASE_SPLIT_BITS = "HBaseSplitBits";
+	
+	/**
+	 * Property "HBaseTablePoolSize", the number of idle table handles kept for concurrent queries.
+	 */
+	public static final String HBASE_TABLE_POOL_SIZE = "HBaseTablePoolSize";
+	
+	/**
+	 * Property "HBaseScanThreads", the number of threads reading the region slices of a range scan.
+	 */
+	public static final String HBASE_SCAN_THREADS = "HBaseScanThreads";
+	
+	/**
+	 * Property "CountPyramidLevel", the finest quadtree level of the pre-aggregated counts (0 to disable).
+	 */
+	public static final String COUNT_PYRAMID_LEVEL = "CountPyramidLevel";
+	
+	/**
+	 * Property "KnnInitialRadius", the half side of the first square searched by a kNN query.
+	 */
+	public static final String KNN_INITIAL_RADIUS = "KnnInitialRadius";
+	
+	/**
+	 * Property "KnnMaxRanges", the maximum number of index ranges per rectangle of a kNN ring.
+	 */
+	public static final String KNN_MAX_RANGES = "KnnMaxRanges";
+	
+	/**
+	 * Property "KnnRoundTimeout", the time in ms a kNN round waits for missing replies.
+	 */
+	public static final String KNN_ROUND_TIMEOUT = "KnnRoundTimeout";
+	
+	/**
+	 * Property "BulkLoadThreads", the number of threads writing a bulk load.
+	 */
+	public static final String BULK_LOAD_THREADS = "BulkLoadThreads";
+	
+	/**
+	 * Property "BulkLoadBatchSize", the number of entries a bulk load thread writes at once.
+	 */
+	public static final String BULK_LOAD_BATCH_SIZE = "BulkLoadBatchSize";
+	
+	/**
+	 * Property "BulkLoadHFileDir", if set initial loads are written as HFiles into this directory.
+	 */
+	public static final String BULK_LOAD_HFILE_DIR = "BulkLoadHFileDir";
+	
     /**
 	 * The default property values.
 	 */
@@ -305,10 +452,21 @@ public class Properties {
 			BOOTSTRAP_HOSTS, "localhost:1805",
 			MONITORING_HOST, "localhost:4096",
 			COMPRESSION_LEVEL, String.valueOf(Deflater.BEST_COMPRESSION),
+			COMPRESSION_THRESHOLD, "256",
 			CONNECTION_SPEED, "1000",
 			BEHIND_FIREWALL, "false",
 			RESOLVE_IP, "true",
 			START_LISTENER, "true",
+			NIO_TRANSPORT, "true",
+			BINARY_CODEC, "true",
+			BULK_CHANNEL, "true",
+			ROUTE_HEDGING, "false",
+			ROUTE_HEDGING_MIN_DELAY, "50",
+			SEEN_MESSAGES, "65536",
+			DIRECT_ROUTING, "false",
+			LOCATION_CACHE_SIZE, "1024",
+			MESSAGE_BATCH_WINDOW, "0",
+			MESSAGE_BATCH_SIZE, "65536",
             USE_SSLSOCKETS, "false",
             SSL_KEYSTORE_PASSWORD, "",
             SSL_TRUSTSTORE_PASSWORD, "",
@@ -330,6 +488,30 @@ public class Properties {
 			BITS_Y_DIMENSION,"27",
 			BALANCED_TRIE,"false",
 			HTABLE_NAME,"%",
+			"#", "Range query results: Count or Stream",
+			RANGE_QUERY_RESULT_MODE,"Count",
+			RANGE_QUERY_CHUNK_SIZE,"1000",
+			"#", "Merge the replies of a range query along the shower tree, and the initiator timeout (ms)",
+			RANGE_QUERY_AGGREGATION,"false",
+			RANGE_QUERY_AGGREGATION_TIMEOUT,"10000",
+			"#", "Filter range scans on the region servers (requires the MGrid jar on their classpath)",
+			HBASE_REGION_FILTER,"false",
+			"#", "Number of key bits below the local path the data table is pre-split by (0 for one region)",
+			HBASE_SPLIT_BITS,"4",
+			"#", "Idle table handles kept for concurrent queries (one per router thread)",
+			HBASE_TABLE_POOL_SIZE,"32",
+			"#", "Threads reading the regions of one range scan concurrently (1 to scan sequentially)",
+			HBASE_SCAN_THREADS,"8",
+			"#", "Finest level of the count pyramid answering count queries, even (0 to always scan)",
+			COUNT_PYRAMID_LEVEL,"16",
+			"#", "kNN queries: first square half side, ranges per ring rectangle and round timeout (ms)",
+			KNN_INITIAL_RADIUS,"10000",
+			KNN_MAX_RANGES,"32",
+			KNN_ROUND_TIMEOUT,"5000",
+			"#", "Bulk loading: writer threads, entries per batch and HFile directory (empty to write puts)",
+			BULK_LOAD_THREADS,"4",
+			BULK_LOAD_BATCH_SIZE,"5000",
+			BULK_LOAD_HFILE_DIR,"",
             "", "", };
 
 	/**
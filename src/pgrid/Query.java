@@ -182,8 +182,8 @@ public class Query extends AbstractQuery implements ExactQueryInterface {
 	 * @return true if the host is responsable for this query
 	 */
 	public boolean isHostResponsible(PGridHost host) {
-		String compath = pgrid.util.Utils.commonPrefix(mKey.toString(), host.getPath());
-		return ((compath.length() == mKey.getMin().size()) || (compath.length() == host.getPath().length()));
+		int compath = pgrid.util.Utils.commonPrefixLength(mKey.toString(), host.getPath());
+		return ((compath == mKey.getMin().size()) || (compath == host.getPath().length()));
 	}
 
 	@Override
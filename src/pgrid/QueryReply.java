@@ -22,6 +22,7 @@
 
 package pgrid;
 
+import mgrid.core.Point;
 import p2p.basic.GUID;
 
 import java.util.Collection;
@@ -68,6 +69,26 @@ public class QueryReply {
 	
 	private int mHits ;
 
+	/**
+	 * The sequence number of this chunk of a streamed reply, -1 if the reply is not streamed.
+	 */
+	private int mChunk = -1;
+
+	/**
+	 * True if this is the last chunk of a streamed reply.
+	 */
+	private boolean mLastChunk = true;
+
+	/**
+	 * The number of peers whose results an aggregated reply covers, -1 if the reply is not aggregated.
+	 */
+	private int mPeers = -1;
+
+	/**
+	 * True if an aggregated reply covers all peers its subtree was forwarded to.
+	 */
+	private boolean mComplete = true;
+
 	/**
 	 * Creates an empty query reply.
 	 */
@@ -100,6 +121,24 @@ public class QueryReply {
 		mHits = hits;
 	}
 
+	/**
+	 * Creates a new streamed query reply chunk with given values.
+	 *
+	 * @param guid      the GUID of the Query Reply.
+	 * @param type      the type of query reply.
+	 * @param resultSet the points of this chunk.
+	 * @param chunk     the sequence number of this chunk.
+	 * @param last      true if no further chunks follow.
+	 */
+	public QueryReply(GUID guid, int type, Collection<?> resultSet, int chunk, boolean last) {
+		mGUID = guid;
+		mType = type;
+		mResultSet = resultSet;
+		mHits = resultSet.size();
+		mChunk = chunk;
+		mLastChunk = last;
+	}
+
 	/**
 	 * Returns the number of hits.
 	 *
@@ -146,6 +185,16 @@ public class QueryReply {
 		mResultSet = r;
 	}
 
+	/**
+	 * Adds a streamed point to the result set.
+	 *
+	 * @param point the point.
+	 */
+	@SuppressWarnings("unchecked") // the result set is untyped
+	public void addPoint(Point point) {
+		mResultSet.add(point);
+	}
+
 	/**
 	 * Returns the query reply hits.
 	 *
@@ -176,4 +225,86 @@ public class QueryReply {
 	public void setType(int type) {
 		mType = type;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the sequence number of this chunk.
+	 *
+	 * @return the chunk sequence number, -1 if the reply is not streamed.
+	 */
+	public int getChunk() {
+		return mChunk;
+	}
+
+	/**
+	 * Set the chunk sequence number.
+	 */
+	public void setChunk(int chunk) {
+		mChunk = chunk;
+	}
+
+	/**
+	 * Returns true if this reply carries streamed points.
+	 *
+	 * @return true if streamed.
+	 */
+	public boolean isStreamed() {
+		return mChunk >= 0;
+	}
+
+	/**
+	 * Returns true if no further chunks follow this one.
+	 *
+	 * @return true if last chunk.
+	 */
+	public boolean isLastChunk() {
+		return mLastChunk;
+	}
+
+	/**
+	 * Set whether further chunks follow this one.
+	 */
+	public void setLastChunk(boolean last) {
+		mLastChunk = last;
+	}
+
+	/**
+	 * Returns true if this reply merges the replies of a subtree.
+	 *
+	 * @return true if aggregated.
+	 */
+	public boolean isAggregated() {
+		return mPeers >= 0;
+	}
+
+	/**
+	 * Returns the number of peers whose results this reply covers.
+	 *
+	 * @return the number of peers, -1 if the reply is not aggregated.
+	 */
+	public int getPeers() {
+		return mPeers;
+	}
+
+	/**
+	 * Set the number of peers whose results this reply covers.
+	 */
+	public void setPeers(int peers) {
+		mPeers = peers;
+	}
+
+	/**
+	 * Returns true if all peers of the subtree replied in time.
+	 *
+	 * @return true if complete.
+	 */
+	public boolean isComplete() {
+		return mComplete;
+	}
+
+	/**
+	 * Set whether all peers of the subtree replied in time.
+	 */
+	public void setComplete(boolean complete) {
+		mComplete = complete;
+	}
+}
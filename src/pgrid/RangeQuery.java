@@ -46,6 +46,18 @@ public class RangeQuery extends AbstractQuery implements RangeQueryInterface {
 	 */
 	public static String SHOWER_ALGORITHM = "Shower";
 
+	/**
+	 * Result mode in which each responsible peer only replies the number
+	 * of matching points.
+	 */
+	public static final String COUNT_RESULTS = "Count";
+
+	/**
+	 * Result mode in which each responsible peer streams the matching points
+	 * back to the initiator in bounded chunks.
+	 */
+	public static final String STREAM_RESULTS = "Stream";
+
 	/**
 	 * Bounds keys of the range query
 	 */
@@ -101,6 +113,11 @@ public class RangeQuery extends AbstractQuery implements RangeQueryInterface {
 	 */
 	protected Long mHits;
 	
+	/**
+	 * Indicate how results are returned. Legal values are count or stream
+	 */
+	protected String mResultMode = COUNT_RESULTS;
+	
 	
 	/**
 	 * Creates a new empty range Query.
@@ -237,6 +254,28 @@ public class RangeQuery extends AbstractQuery implements RangeQueryInterface {
 	public void setHits (Long hits) {
 		mHits = hits;
 	}
+	
+	/**
+	 * @return Returns the result mode.
+	 */
+	public String getResultMode() {
+		return mResultMode;
+	}
+	
+	/**
+	 * @param resultMode The result mode to set.
+	 */
+	public void setResultMode(String resultMode) {
+		mResultMode = resultMode;
+	}
+	
+	/**
+	 * Returns true if the matching points are streamed back instead of counted.
+	 * @return true if the results are streamed
+	 */
+	public boolean isStreamed() {
+		return STREAM_RESULTS.equals(mResultMode);
+	}
 	/**
 	 * Construct a range query message
 	 *
@@ -491,6 +530,7 @@ public class RangeQuery extends AbstractQuery implements RangeQueryInterface {
 		mIndex = 0;
 		mHops = 1;
 		mAlgorithm = PGridP2P.sharedInstance().propertyString(Properties.RANGE_QUERY_ALGORITHM);
+		mResultMode = PGridP2P.sharedInstance().propertyString(Properties.RANGE_QUERY_RESULT_MODE);
 		morigxMin = origxMin;
 		morigxMax = origxMax;
 		morigyMin = origyMin;
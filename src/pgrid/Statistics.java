@@ -24,6 +24,8 @@ package pgrid;
 
 import pgrid.network.PGridMessageMapping;
 import pgrid.network.protocol.QueryMessage;
+import pgrid.util.TimerListener;
+import pgrid.util.TimerManager;
 import pgrid.util.Tokenizer;
 import pgrid.util.monitoring.MonitoringManager;
 import pgrid.core.index.CSVIndexTable;
@@ -37,9 +39,6 @@ import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.TimerTask;
-
-import ch.epfl.lsir.nbench.util.Util;
 
 /**
  * This class represents the statistics of P-Grid.
@@ -684,12 +683,14 @@ public class Statistics {
 		t.start();
 		
 		
-		// Report Local Path every 15 seconds
-		Util.timer.schedule(new TimerTask() {
-            public void run() {
-            	MonitoringManager.sharedInstance().reportLocalPath(PGridP2P.sharedInstance().getLocalPath());
-            }
-        }, 1000, 15 * 1000);
+		// Report Local Path after one second, then every 15 seconds
+		TimerManager.sharedInstance().register(1000, null, new TimerListener() {
+			public void timerTriggered(Object id) {
+				MonitoringManager.sharedInstance().reportLocalPath(PGridP2P.sharedInstance().getLocalPath());
+				if (id == null)
+					TimerManager.sharedInstance().register(15 * 1000, this, this, true);
+			}
+		}, false);
 		
 	}
 
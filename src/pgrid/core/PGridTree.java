@@ -37,7 +37,6 @@ import java.util.Arrays;
 import java.util.Vector;
 import java.util.logging.Level;
 
-import com.google.uzaygezen.core.BitVector;
 import com.google.uzaygezen.core.HilbertIndexMasks;
 
 import mgrid.core.MGridUtils;
@@ -114,8 +113,7 @@ public class PGridTree {
 	 * @return the binary represantation.
 	 */
 	public String findKey(Point point) {
-		BitVector row = MGridUtils.HilbertConvertor(point.x,point.y);
-		return row.toString();
+		return MGridUtils.HILBERT.toKey(MGridUtils.HILBERT.encode(point.x, point.y));
 	
 	}
 	/**
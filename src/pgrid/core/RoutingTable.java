@@ -78,6 +78,11 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 	 */
 	protected Random mRnd = new Random();
 
+	/**
+	 * The snapshot of the current content, null if it has to be taken again.
+	 */
+	protected volatile RoutingTableSnapshot mSnapshot = null;
+
 	/**
 	 * Create a new empty routing table.
 	 */
@@ -95,12 +100,37 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 
 	public void acquireWriteLock() {
 		mRTLock.writeLock().lock();
+		mSnapshot = null;
 	}
 
 	public void releaseWriteLock() {
+		mSnapshot = null;
 		mRTLock.writeLock().unlock();
 	}
 
+	/**
+	 * Returns an immutable snapshot of the routing table. The snapshot is
+	 * shared until the table is modified.
+	 *
+	 * @return the snapshot.
+	 */
+	public RoutingTableSnapshot getSnapshot() {
+		RoutingTableSnapshot snapshot = mSnapshot;
+		if (snapshot != null)
+			return snapshot;
+
+		acquireReadLock();
+		try {
+			snapshot = new RoutingTableSnapshot(mLevels, mReplicas, mFidgets, mLocalHost);
+			// a writer may still modify the table before releasing its lock
+			if (!((ReentrantReadWriteLock)mRTLock).isWriteLockedByCurrentThread())
+				mSnapshot = snapshot;
+		} finally {
+			releaseReadLock();
+		}
+		return snapshot;
+	}
+
 	/**
 	 * Returns a random subset of the given collection of the given size.
 	 *
@@ -184,8 +214,7 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 				for (int j = 0; j < refs.length; j++) {
 					if (refs[j].getRevision() == 0)
 						continue;
-					String commonPrefix = Utils.commonPrefix(mLocalHost.getPath(), refs[j].getPath());
-					int cl = commonPrefix.length();
+					int cl = Utils.commonPrefixLength(mLocalHost.getPath(), refs[j].getPath());
 					// if the host has another path than it should have
 					if ((cl != i) || (refs[j].getPath().length() == i)) {
 						lLen = mLocalHost.getPath().length() - cl;
@@ -206,8 +235,7 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 				if (refs[i].getRevision() == 0)
 					continue;
 				if (!mLocalHost.getPath().equals(refs[i].getPath())) {
-					String commonPrefix = Utils.commonPrefix(mLocalHost.getPath(), refs[i].getPath());
-					int cl = commonPrefix.length();
+					int cl = Utils.commonPrefixLength(mLocalHost.getPath(), refs[i].getPath());
 					lLen = mLocalHost.getPath().length() - cl;
 					rLen = refs[i].getPath().length() - cl;
 					// peers have incompatible paths
@@ -365,20 +393,7 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 	 * @return an array of all fidget hosts.
 	 */
 	public PGridHost[] getFidgets() {
-		acquireReadLock();
-
-		PGridHost[] hosts;
-		try {
-			if (mFidgets.size() > 0) {
-				hosts = new PGridHost[mFidgets.size()];
-				System.arraycopy(mFidgets.toArray(), 0, hosts, 0, hosts.length);
-			} else {
-				hosts = new PGridHost[0];
-			}
-		} finally {
-			releaseReadLock();
-		}
-		return hosts;
+		return getSnapshot().getFidgets().clone();
 	}
 
 	/**
@@ -403,19 +418,10 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 	 * @return an array of all references.
 	 */
 	public PGridHost[][] getLevels() {
-		acquireReadLock();
-		PGridHost[][] refs = null;
-		try {
-			if (mLevels.size() == 0) {
-				refs = new PGridHost[0][0];
-			} else {
-				refs = new PGridHost[mLevels.size()][];
-				for (int i = 0; i < refs.length; i++)
-					refs[i] = getLevel(i);
-			}
-		} finally {
-			releaseReadLock();
-		}
+		RoutingTableSnapshot snapshot = getSnapshot();
+		PGridHost[][] refs = new PGridHost[snapshot.getLevelCount()][];
+		for (int i = 0; i < refs.length; i++)
+			refs[i] = snapshot.getLevel(i).clone();
 		return refs;
 	}
 
@@ -425,14 +431,7 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 	 * @return the amount of levels.
 	 */
 	public int getLevelCount() {
-		acquireReadLock();
-		int s;
-		try {
-			s = mLevels.size();
-		} finally {
-			releaseReadLock();
-		}
-		return s;
+		return getSnapshot().getLevelCount();
 	}
 
 	/**
@@ -442,24 +441,7 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 	 * @return an array of the level.
 	 */
 	public PGridHost[] getLevel(int level) {
-		PGridHost[] hosts;
-		acquireReadLock();
-		try {
-			if (level >= mLevels.size()) {
-		//		Constants.LOGGER.log(Level.WARNING, "Illegal Argument in RoutingTable.getLevel() for level " + level, new Throwable());
-				hosts = new PGridHost[0];
-			} else if (((Collection)mLevels.get(level)).size() > 0) {
-				hosts = new PGridHost[((Collection)mLevels.get(level)).size()];
-
-				System.arraycopy(((Collection)mLevels.get(level)).toArray(), 0, hosts, 0, hosts.length);
-			} else {
-				hosts = new PGridHost[0];
-			}
-
-		} finally {
-			releaseReadLock();
-		}
-		return hosts;
+		return getSnapshot().getLevel(level).clone();
 	}
 
 	/**
@@ -528,19 +510,7 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 	 * @return an array of all replicas.
 	 */
 	public PGridHost[] getReplicas() {
-		acquireReadLock();
-		PGridHost[] hosts;
-		try {
-			if (mReplicas.size() > 0) {
-				hosts = new PGridHost[mReplicas.size()];
-				System.arraycopy(mReplicas.toArray(), 0, hosts, 0, hosts.length);
-			} else {
-				hosts = new PGridHost[0];
-			}
-		} finally {
-			releaseReadLock();
-		}
-		return hosts;
+		return getSnapshot().getReplicas().clone();
 	}
 
 	/**
@@ -947,6 +917,7 @@ public class RoutingTable extends DefaultHandler implements Cloneable {
 			((RoutingTable)clone).mLevels = (Vector) mLevels.clone();
 			((RoutingTable)clone).mReplicas = Collections.synchronizedCollection(new TreeSet(mReplicas));
 			((RoutingTable)clone).mRTLock = new ReentrantReadWriteLock();
+			((RoutingTable)clone).mSnapshot = null;
 		} finally{
 			releaseReadLock();
 		}
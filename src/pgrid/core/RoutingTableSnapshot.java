@@ -0,0 +1,172 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package pgrid.core;
+
+import pgrid.PGridHost;
+import pgrid.PGridKey;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable copy of a {@link RoutingTable}. The routing table replaces its
+ * snapshot whenever it is modified, so routing can read the levels without
+ * locking and copying them for every message. The paths of the level hosts
+ * are parsed into bits when the snapshot is taken; should a host change its
+ * path afterwards, its bits are parsed again on access.
+ * <p/>
+ * The returned arrays are shared and must not be modified.
+ *
+ * @version 1.0.0
+ */
+public final class RoutingTableSnapshot {
+
+	/**
+	 * An empty level.
+	 */
+	private static final PGridHost[] EMPTY = new PGridHost[0];
+
+	/**
+	 * The hosts per level.
+	 */
+	private final PGridHost[][] mLevels;
+
+	/**
+	 * The paths of the level hosts when the snapshot was taken.
+	 */
+	private final String[][] mPaths;
+
+	/**
+	 * The bits of these paths.
+	 */
+	private final long[][] mPathBits;
+
+	/**
+	 * The replicas.
+	 */
+	private final PGridHost[] mReplicas;
+
+	/**
+	 * The fidgets.
+	 */
+	private final PGridHost[] mFidgets;
+
+	/**
+	 * The local host.
+	 */
+	private final PGridHost mLocalHost;
+
+	/**
+	 * Creates a snapshot of the given routing table content. The caller holds
+	 * the read lock of the table.
+	 *
+	 * @param levels    the collections of hosts per level.
+	 * @param replicas  the replicas.
+	 * @param fidgets   the fidgets.
+	 * @param localHost the local host.
+	 */
+	RoutingTableSnapshot(List<?> levels, Collection<?> replicas, Collection<?> fidgets, PGridHost localHost) {
+		int count = levels.size();
+		mLevels = new PGridHost[count][];
+		mPaths = new String[count][];
+		mPathBits = new long[count][];
+		for (int i = 0; i < count; i++) {
+			Collection<?> level = (Collection<?>)levels.get(i);
+			PGridHost[] hosts = (level == null || level.isEmpty() ? EMPTY : level.toArray(new PGridHost[level.size()]));
+			mLevels[i] = hosts;
+			mPaths[i] = new String[hosts.length];
+			mPathBits[i] = new long[hosts.length];
+			for (int j = 0; j < hosts.length; j++) {
+				String path = hosts[j].getPath();
+				mPaths[i][j] = path;
+				if (path != null)
+					mPathBits[i][j] = PGridKey.parseBits(path);
+			}
+		}
+		mReplicas = (replicas.isEmpty() ? EMPTY : replicas.toArray(new PGridHost[replicas.size()]));
+		mFidgets = (fidgets.isEmpty() ? EMPTY : fidgets.toArray(new PGridHost[fidgets.size()]));
+		mLocalHost = localHost;
+	}
+
+	/**
+	 * Returns the amount of levels.
+	 *
+	 * @return the amount of levels.
+	 */
+	public int getLevelCount() {
+		return mLevels.length;
+	}
+
+	/**
+	 * Returns the hosts of a level.
+	 *
+	 * @param level the level.
+	 * @return the hosts, empty if the level does not exist.
+	 */
+	public PGridHost[] getLevel(int level) {
+		if (level < 0 || level >= mLevels.length)
+			return EMPTY;
+		return mLevels[level];
+	}
+
+	/**
+	 * Returns the path of a level host as bits, right aligned.
+	 *
+	 * @param level the level.
+	 * @param index the index of the host in the level.
+	 * @return the path bits.
+	 */
+	public long getPathBits(int level, int index) {
+		String path = mLevels[level][index].getPath();
+		if (path != mPaths[level][index])
+			return PGridKey.parseBits(path);
+		return mPathBits[level][index];
+	}
+
+	/**
+	 * Returns the replicas.
+	 *
+	 * @return the replicas.
+	 */
+	public PGridHost[] getReplicas() {
+		return mReplicas;
+	}
+
+	/**
+	 * Returns the fidgets.
+	 *
+	 * @return the fidgets.
+	 */
+	public PGridHost[] getFidgets() {
+		return mFidgets;
+	}
+
+	/**
+	 * Returns the local host.
+	 *
+	 * @return the local host.
+	 */
+	public PGridHost getLocalHost() {
+		return mLocalHost;
+	}
+}
@@ -38,7 +38,6 @@ import java.util.TreeSet;
 import java.util.concurrent.locks.*;
 import java.util.logging.Logger;
 
-import com.google.uzaygezen.core.BitVector;
 
 import mgrid.core.MGridUtils;
 import mgrid.core.Point;
@@ -367,9 +366,10 @@ public class CSVIndexTable{
 			Type type = (Type) PGridIndexFactory.sharedInstance().getTypeByString(TYPE_NAME);
 			PGridKey key = new PGridKey(tkns[0]);
 			PGridHost host = PGridHost.getHost(tkns[4], tkns[3], String.valueOf(PORT_NUMBER));
-			BitVector[]  xy = MGridUtils.HilbertInverseConvertor(Long.parseLong(key.toString(), 2));
-			Long x = xy[0].toExactLong();
-			Long y = xy[1].toExactLong();
+			long[] xy = new long[2];
+			MGridUtils.HILBERT.decode(PGridKey.prefixBits(key, key.size()), xy);
+			Long x = xy[0];
+			Long y = xy[1];
 			Long id = Long.parseLong(tkns[1]);
 			Point data = new Point(x, y, id);
 			ie = IndexManager.getInstance().createIndexEntry(dGuid, type, key, host, data);
@@ -37,7 +37,6 @@ import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.security.SecureRandom;
 
-import com.google.uzaygezen.core.BitVector;
 
 import mgrid.core.HBaseManager;
 import mgrid.core.MGridUtils;
@@ -824,6 +823,7 @@ public class DBIndexTable extends IndexTable {
 			Long x;
 			Long y;
 			Long id;
+			long[] xy = new long[2];
 
 			while (rs.next()) {
 				guid = rs.getString("dGUID");
@@ -831,10 +831,10 @@ public class DBIndexTable extends IndexTable {
 				key = rs.getString("KEY");
 				host = PGridHost.getHost(rs.getString("hGUID"), rs.getString("ADDR"),String.valueOf(PORT_NUMBER));
 				data = rs.getString("KEY");
-				BitVector[]  xy = MGridUtils.HilbertInverseConvertor(Long.parseLong(key, 2));
+				MGridUtils.HILBERT.decode(Long.parseLong(key, 2), xy);
 				
-				x = xy[0].toExactLong();
-				y = xy[0].toExactLong();
+				x = xy[0];
+				y = xy[1];
 				id = Long.parseLong(rs.getString("ID"));
 				Point point = new Point(x,y,id);
 				IDBDataTypeHandler dbDataTypeHandler = mDBManager.getDBTypeHandler(type.toString());
@@ -983,7 +983,7 @@ public Collection getIndexEntriesPrefixed(String dataPrefix, long limit, long of
 	 * @param origxMax the original query x maximum
 	 * @param origyMin the original query y minimum
 	 * @param origyMax the original query y maximum
-	 * @return the list of data items.
+	 * @return the list of data items, null if the scan failed.
 	 * @throws IOException 
 	 */	
 	public Collection getIndexEntriesPrefixed(String ldataPrefix, String hdataPrefix, Long origxMin, Long origxMax, Long origyMin, Long origyMax,long limit, long offset) {
@@ -992,6 +992,73 @@ public Collection getIndexEntriesPrefixed(String dataPrefix, long limit, long of
 		return res;
 	}
 
+	/**
+	 * Streams the data items with the given prefix to the listener in chunks.
+	 *
+	 * @param ldataPrefix the lower bound of the selected data items.
+	 * @param hdataPrefix the higher bound of the selected data items.
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param chunkSize the maximum number of points per chunk
+	 * @param guid the GUID of the query
+	 * @param listener the listener receiving each chunk
+	 * @return the number of streamed data items, -1 if the scan failed.
+	 */
+	public long streamIndexEntriesPrefixed(String ldataPrefix, String hdataPrefix, Long origxMin, Long origxMax, Long origyMin, Long origyMax,
+			int chunkSize, p2p.basic.GUID guid, p2p.index.events.SearchListener listener) {
+		// call HBaseIndex
+		return mHBManager.streamRangeRecords(ldataPrefix, hdataPrefix, origxMin, origxMax, origyMin, origyMax, chunkSize, guid, listener);
+	}
+
+	/**
+	 * Returns the number of data items within the given ranges, read with a single scan.
+	 *
+	 * @param ldataPrefixes the lower bounds of the ranges.
+	 * @param hdataPrefixes the higher bounds of the ranges.
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @return the list of data items, null if the scan failed.
+	 */
+	public Collection<IndexEntry> getIndexEntriesPrefixed(List<String> ldataPrefixes, List<String> hdataPrefixes, Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
+		// call HBaseIndex
+		return mHBManager.getRangeRecords(ldataPrefixes, hdataPrefixes, origxMin, origxMax, origyMin, origyMax);
+	}
+
+	/**
+	 * Streams the data items within the given ranges to the listener in chunks.
+	 *
+	 * @param ldataPrefixes the lower bounds of the ranges.
+	 * @param hdataPrefixes the higher bounds of the ranges.
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param chunkSize the maximum number of points per chunk
+	 * @param guid the GUID of the query
+	 * @param listener the listener receiving each chunk
+	 * @return the number of streamed data items, -1 if the scan failed.
+	 */
+	public long streamIndexEntriesPrefixed(List<String> ldataPrefixes, List<String> hdataPrefixes, Long origxMin, Long origxMax, Long origyMin, Long origyMax,
+			int chunkSize, p2p.basic.GUID guid, p2p.index.events.SearchListener listener) {
+		// call HBaseIndex
+		return mHBManager.streamRangeRecords(ldataPrefixes, hdataPrefixes, origxMin, origxMax, origyMin, origyMax, chunkSize, guid, listener);
+	}
+
+	/**
+	 * Returns the at most k data items of a kNN ring closest to the query point.
+	 *
+	 * @param query the ring query.
+	 * @return the closest points, ordered by ascending distance; null if the scan failed.
+	 */
+	public List<mgrid.core.Point> getNearestIndexEntries(pgrid.KnnRingQuery query) {
+		// call HBaseIndex
+		return mHBManager.getNearestRecords(query);
+	}
+
 	/**
 	 * Returns the list of data items with the given prefix.
 	 *
@@ -24,6 +24,7 @@ package pgrid.core.index;
 
 import pgrid.Constants;
 import pgrid.IndexEntry;
+import pgrid.PGridKey;
 import pgrid.util.Utils;
 import pgrid.core.maintenance.DbCsvUtils;
 import pgrid.interfaces.basic.PGridP2P;
@@ -239,21 +240,22 @@ class Distributor extends pgrid.util.WorkerThread {
 	synchronized ArrayList[] sortByLevel(Collection items) {
 		String localPath = mPGridP2P.getLocalPath();
 		ArrayList[] level = new ArrayList[localPath.length() + 1];
+		PGridKey localKey = new PGridKey(localPath);
 		if(items != null){
 //			Collection items = new ArrayList(itms);
 			for (Iterator it = items.iterator(); it.hasNext();) {
 				IndexEntry item = (IndexEntry)it.next();
-				String comPath = Utils.commonPrefix(localPath, item.getKey().toString());
-				if ((comPath.length() == localPath.length()) || (comPath.length() == item.getKey().size())) {
+				int comLength = Utils.commonPrefixLength(item.getKey(), localKey);
+				if ((comLength == localPath.length()) || (comLength == item.getKey().size())) {
 					// data item belongs to local host => inform replicas
 					if (level[level.length-1] == null)
 						level[level.length-1] = new ArrayList();
 					level[level.length-1].add(item);
 				} else {
 					// data item belongs to other host => inform host of responsible level
-					if (level[comPath.length()] == null)
-						level[comPath.length()] = new ArrayList();
-					level[comPath.length()].add(item);
+					if (level[comLength] == null)
+						level[comLength] = new ArrayList();
+					level[comLength].add(item);
 				}
 			}
 		}
@@ -409,8 +411,8 @@ class Distributor extends pgrid.util.WorkerThread {
 				int i = 0;
 				while((line = csvItems.getNextLine()) != null){
 					String key = line.split(",")[0];
-					String comPath = Utils.commonPrefix(localPath, key);
-					if ((comPath.length() == localPath.length()) || (comPath.length() == key.length())) {
+					int comLength = Utils.commonPrefixLength(localPath, key);
+					if ((comLength == localPath.length()) || (comLength == key.length())) {
 						// data item belongs to local host => inform replicas
 						if (csvLevels[csvLevels.length-1] == null){
 							csvLevels[csvLevels.length-1] = new CSVIndexTable("I_"+preName+"_CSV_LEVEL_"+(csvLevels.length-1)+".csv");
@@ -420,12 +422,12 @@ class Distributor extends pgrid.util.WorkerThread {
 						csvLevels[csvLevels.length-1].addIndexEntry(line);
 					} else {
 						// data item belongs to other host => inform host of responsible level
-						if (csvLevels[comPath.length()] == null){
-							csvLevels[comPath.length()] = new CSVIndexTable("I_"+preName+"_CSV_LEVEL_"+(comPath.length())+".csv");
-							Constants.LOGGER.finest("Creating file : "+"I_"+preName+"_CSV_LEVEL_"+(comPath.length())+".csv");
-							csvLevels[comPath.length()].openFileForWriting();
+						if (csvLevels[comLength] == null){
+							csvLevels[comLength] = new CSVIndexTable("I_"+preName+"_CSV_LEVEL_"+(comLength)+".csv");
+							Constants.LOGGER.finest("Creating file : "+"I_"+preName+"_CSV_LEVEL_"+(comLength)+".csv");
+							csvLevels[comLength].openFileForWriting();
 						}
-						csvLevels[comPath.length()].addIndexEntry(line);
+						csvLevels[comLength].addIndexEntry(line);
 					}
 				}
 			}catch (Exception e) {
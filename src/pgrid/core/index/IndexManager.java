@@ -414,6 +414,33 @@ public class IndexManager {
 		return rQuery;
 	}
 
+	/**
+	 * Create a multi-range Query instance compatible with the Storage implementation including the original query co-ordinates.
+	 *
+	 * @param type        	the Type of items the query is for
+	 * @param refGuids		All GUID references for this query.
+	 * @param lowerBounds	the lower bounds of the ranges, in ascending order
+	 * @param higherBounds	the higher bounds of the ranges
+	 * @return a Query instance
+	 * @throws NoSuchTypeException if the provided Type is unknown.
+	 */
+	public p2p.index.Query createQuery(p2p.index.Type type, Collection<p2p.basic.GUID> refGuids, Peer host, List<String> lowerBounds, List<String> higherBounds,
+			 Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
+
+		TypeHandler handler = mStorageFactory.getTypeHandler(type);
+
+		List<KeyRange> keys = new ArrayList<KeyRange>(lowerBounds.size());
+		for (int i = 0; i < lowerBounds.size(); i++)
+			keys.add(handler.generateKeyRange(lowerBounds.get(i), higherBounds.get(i)));
+
+		MultiRangeQuery rQuery = new MultiRangeQuery((PGridHost)host, type, new PGridKeyRangeSet(keys), lowerBounds, higherBounds,
+				origxMin, origxMax, origyMin, origyMax);
+		if (refGuids != null)
+			rQuery.setQueryReferences(refGuids);
+
+		return rQuery;
+	}
+
 	/**
 	 * Inserts the given data items.
 	 * @param items the items to insert.
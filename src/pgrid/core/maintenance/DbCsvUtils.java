@@ -26,7 +26,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Random;
 import java.util.logging.Logger;
 
@@ -34,7 +36,6 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 
-import com.google.uzaygezen.core.BitVector;
 
 import mgrid.core.HBaseManager;
 import mgrid.core.MGridUtils;
@@ -234,15 +235,7 @@ public class DbCsvUtils {
 		
 			try {
 				mCSVIndexTable.openFileForReading();
-				String line = "";
-			while ((line = mCSVIndexTable.getNextLine()) != null) {
-				try {
-					mHBManager.addIndexEntry((IndexEntry) stringToIndexEntry(line));
-				} catch (Exception e) {
-					System.err.println("Error in this line:" + line);
-					e.printStackTrace();
-				}  
-				}
+				mHBManager.createBulkLoader(true).load(mCSVIndexTable);
 			} catch (Exception e) {
 				e.printStackTrace();
 			} finally {
@@ -416,18 +409,13 @@ public class DbCsvUtils {
 
 			LOGGER.finest("(BEGIN)Received Distri Items into local store. num = "
 					+ mDistrCSVIndexTable.count());
-			String line = "";
 
 			boolean isException = false;
 
 			try {
 				mDistrCSVIndexTable.openFileForReading();
 			//	mCSVIndexTable.openFileForWriting();
-				while ((line = mDistrCSVIndexTable.getNextLine()) != null) {
-				//	mCSVIndexTable.addIndexEntry(line);
-					mHBManager
-							.addIndexEntry((IndexEntry) stringToIndexEntry(line));
-				}
+				mHBManager.createBulkLoader(false).load(mDistrCSVIndexTable);
 			} catch (Exception e) {
 				isException = true;
 				e.printStackTrace();
@@ -496,9 +484,10 @@ public class DbCsvUtils {
 		Type type = (Type) PGridIndexFactory.sharedInstance().getTypeByString(TYPE_NAME);
 		PGridKey key = new PGridKey(tkns[0]);
 		PGridHost host = PGridHost.getHost(tkns[4], tkns[3], String.valueOf(PORT_NUMBER));
-		BitVector[] xy = MGridUtils.HilbertInverseConvertor(Long.parseLong(key.toString(), 2));
-		Long x= xy[0].toExactLong();
-		Long y = xy[0].toExactLong();
+		long[] xy = new long[2];
+		MGridUtils.HILBERT.decode(PGridKey.prefixBits(key, key.size()), xy);
+		Long x= xy[0];
+		Long y = xy[1];
 		Long id = Long.parseLong(tkns[1]);
 		Point point = new Point(x,y,id);
 		return IndexManager.getInstance().createIndexEntry(dGuid, type, key, host, point);
@@ -511,14 +500,17 @@ public class DbCsvUtils {
 			boolean inSync = mDBIndexTable.getSignature().equals(
 					mCSVIndexTable.getSignature());
 
+			List<IndexEntry> local = new ArrayList<IndexEntry>();
 			for (Object obj : items) {
 				if (PGridP2P.sharedInstance().isLocalPeerResponsible(
 						((IndexEntry) obj).getKey())) {
-					mHBManager.addIndexEntry((IndexEntry) obj);
+					local.add((IndexEntry) obj);
 				} else {
 					mToDistrCSVIndexTable.addIndexEntry((IndexEntry) obj);
 				}
 			}
+			if (!local.isEmpty())
+				mHBManager.createBulkLoader(false).loadEntries(local);
 
 			if (inSync) {
 				mCSVIndexTable.setSignature(mDBIndexTable.getSignature());
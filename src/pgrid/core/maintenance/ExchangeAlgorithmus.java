@@ -368,6 +368,10 @@ class ExchangeAlgorithmus extends Exchanger {
 		LOGGER.finest("L("+mPGridP2P.getLocalHost().toHostString()+") : ("+lInitPath+")\t--->\t ("+lFinalPath+")");
 		LOGGER.finest("R("+host.toHostString()+") : ("+rInitPath+")\t--->\t ("+rFinalPath+")");
 		LOGGER.finest("*************************************************************");
+
+		// the remote host is known with its final path
+		if (mPGridP2P.propertyBoolean(Properties.DIRECT_ROUTING))
+			mPGridP2P.getRouter().getLocationCache().learn(host);
 		
 		mExchangeCount++;
 		Signature signature = mIndexManager.getPredictionSubset().getSignature();
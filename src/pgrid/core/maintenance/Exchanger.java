@@ -687,8 +687,8 @@ class Exchanger extends pgrid.util.WorkerThread implements MessageWaiter {
 			}
 		} else {
 			// construct common path and its length
-			String commonPath = Utils.commonPrefix(mPGridP2P.getLocalPath(), path);
-			int len = commonPath.length();
+			int len = Utils.commonPrefixLength(mPGridP2P.getLocalPath(), path);
+			String commonPath = path.substring(0, len);
 
 			// compute path lengths, union table, and table selections
 			int lLen = mPGridP2P.getLocalPath().length() - len;
@@ -830,10 +830,10 @@ class Exchanger extends pgrid.util.WorkerThread implements MessageWaiter {
 
 	private void uploadData(GUID guid, PGridHost host, DBIndexTable dbIndexTable, String remotePath, String oldRemotePath,String oldLocalPath, String localPath) {
 		tInvStage = timeElapsed(tBegin);
-		int lenOld = Utils.commonPrefix(oldLocalPath, oldRemotePath).length();
+		int lenOld = Utils.commonPrefixLength(oldLocalPath, oldRemotePath);
 		int lLenOld = oldLocalPath.length() - lenOld;
 		int rLenOld = oldRemotePath.length() - lenOld;
-		int len = Utils.commonPrefix(localPath, remotePath).length();
+		int len = Utils.commonPrefixLength(localPath, remotePath);
 
 //		// send data to remote host
 //		DBIndexTable db = new TransferDBIndexTable();
@@ -989,7 +989,7 @@ class Exchanger extends pgrid.util.WorkerThread implements MessageWaiter {
 			return;
 		}
 
-		int len = Utils.commonPrefix(path, remotePath).length();
+		int len = Utils.commonPrefixLength(path, remotePath);
 		// send data to remote host
 		TransferDBIndexTable dataItems = new TransferDBIndexTable();
 		if (remotePath.length() > len && path.length() > len)
@@ -90,7 +90,7 @@ public class CoFPolicy extends CoUPolicy {
 			if (mPGridP2P.getRoutingTable().getReplicaVector().contains(host)) {
 				hosts = mPGridP2P.getRoutingTable().getReplicas();
 			} else {
-				int commun = Utils.commonPrefix(mPGridP2P.getLocalPath(), host.getPath()).length();
+				int commun = Utils.commonPrefixLength(mPGridP2P.getLocalPath(), host.getPath());
 				hosts = mPGridP2P.getRoutingTable().getLevel(commun);
 			}
 
@@ -488,8 +488,7 @@ public class ReplicationBalancer extends pgrid.util.WorkerThread implements Mess
 		if (request.getCode() == SearchPathReplyMessage.CODE_PATH_CHANGED) {
 			// the path of the reference has changed => remove reference and try another host
 			mPGridP2P.getRoutingTable().removeLevel(host);
-			int level = pgrid.util.Utils.commonPrefix(mPGridP2P.getLocalPath(),
-						request.mReply.getPath()).length();
+			int level = pgrid.util.Utils.commonPrefixLength(mPGridP2P.getLocalPath(), request.mReply.getPath());
 
 			ReplicationBalancer.LOGGER.fine("received local search path reply messeage from host " + host.toHostString() + " with code 'Path Changed'.");
 			searchPathAndClone(level);
@@ -562,6 +561,10 @@ public class ReplicationBalancer extends pgrid.util.WorkerThread implements Mess
 		Request request = new Request();
 		GUID guid = searchPathReply.getReferencedMsgGUID();
 
+		// the replying peer owns its path
+		if (mPGridP2P.propertyBoolean(Properties.DIRECT_ROUTING))
+			mPGridP2P.getRouter().getLocationCache().learn(searchPathReply.getHeader().getHost(), searchPathReply.getPath());
+
 		// differentiate local load balancing then remote one
 		if (mCurrentMsg != null && mCurrentMsg.getGUID().equals(guid)) {
 			request.mType = RequestType.localReply;
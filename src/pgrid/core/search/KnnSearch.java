@@ -0,0 +1,411 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package pgrid.core.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import mgrid.core.KnnHeap;
+import mgrid.core.MGridUtils;
+import mgrid.core.Point;
+
+import p2p.basic.GUID;
+import p2p.basic.KeyRange;
+import p2p.index.TypeHandler;
+import p2p.index.events.SearchListener;
+import pgrid.Constants;
+import pgrid.KnnQuery;
+import pgrid.KnnRingQuery;
+import pgrid.PGridKeyRangeSet;
+import pgrid.Properties;
+import pgrid.core.index.IndexManager;
+import pgrid.interfaces.basic.PGridP2P;
+import pgrid.interfaces.basic.PGridP2PFactory;
+import pgrid.util.TimerListener;
+import pgrid.util.TimerManager;
+
+import com.google.uzaygezen.core.BitVector;
+import com.google.uzaygezen.core.BitVectorFactories;
+import com.google.uzaygezen.core.ranges.LongRange;
+
+/**
+ * Drives a distributed k-nearest-neighbour search from the initiating peer.
+ * <p/>
+ * The search runs in rounds. Each round sends one {@link KnnRingQuery} for the
+ * square ring between the square searched so far and a larger square around
+ * the query point. Responsible peers reply with their local top-k of the ring
+ * and the initiator keeps the global top-k. The search ends as soon as the
+ * k-th best distance lies inside the searched square, since no unseen point
+ * can be closer. Otherwise the square grows to the k-th best distance, or is
+ * estimated from the point density seen so far if less than k points were
+ * found. A round ends when the paths of the replying peers cover all ranges
+ * of the ring, or on a timeout; no thread is blocked while waiting. With reply
+ * aggregation the single reply covers the whole ring.
+ *
+ * @version 1.0.0
+ */
+public class KnnSearch implements SearchListener, TimerListener {
+
+	/**
+	 * The user query.
+	 */
+	private final KnnQuery mQuery;
+
+	/**
+	 * The search manager.
+	 */
+	private final SearchManager mSearchManager;
+
+	/**
+	 * The global top-k.
+	 */
+	private final KnnHeap mNearest;
+
+	/**
+	 * The largest coordinate of the space.
+	 */
+	private final long mXLimit, mYLimit;
+
+	/**
+	 * The GUID of the current round.
+	 */
+	private GUID mRound = null;
+
+	/**
+	 * Number of rounds sent.
+	 */
+	private int mRounds = 0;
+
+	/**
+	 * Half side of the current square.
+	 */
+	private long mRadius;
+
+	/**
+	 * The current square {xmin, xmax, ymin, ymax}, null before the first round.
+	 */
+	private long[] mOuter = null;
+
+	/**
+	 * The ranges of the current round not covered by a reply yet.
+	 */
+	private List<LongRange> mUncovered = null;
+
+	/**
+	 * Replies received for the current round.
+	 */
+	private int mReceived;
+
+	/**
+	 * True once the results were delivered.
+	 */
+	private boolean mFinished = false;
+
+	/**
+	 * Creates a new kNN search for the given query.
+	 *
+	 * @param query the user query.
+	 * @param searchManager the search manager used to send the rounds.
+	 */
+	public KnnSearch(KnnQuery query, SearchManager searchManager) {
+		mQuery = query;
+		mSearchManager = searchManager;
+		mNearest = new KnnHeap(query.getQueryX(), query.getQueryY(), query.getK());
+		mXLimit = (1L << MGridUtils.xBits) - 1;
+		mYLimit = (1L << MGridUtils.yBits) - 1;
+		mRadius = query.getInitialRadius() > 0 ? query.getInitialRadius() :
+				PGridP2P.sharedInstance().propertyInteger(Properties.KNN_INITIAL_RADIUS);
+	}
+
+	/**
+	 * Sends the first round.
+	 */
+	public synchronized void start() {
+		Constants.LOGGER.fine("Start kNN search (" + mQuery.getGUID() + ") for " + mQuery.getK() + " neighbour(s) of ("
+				+ mQuery.getQueryX() + "," + mQuery.getQueryY() + ").");
+		nextRound();
+	}
+
+	/**
+	 * Sends the ring between the current square and the square of half side
+	 * mRadius.
+	 */
+	private void nextRound() {
+		long x = mQuery.getQueryX();
+		long y = mQuery.getQueryY();
+		long[] outer = new long[] {Math.max(0, x - mRadius), Math.min(mXLimit, x + mRadius),
+				Math.max(0, y - mRadius), Math.min(mYLimit, y + mRadius)};
+		long[] inner = mOuter;
+
+		int maxRanges = PGridP2P.sharedInstance().propertyInteger(Properties.KNN_MAX_RANGES);
+		List<LongRange> ranges = new ArrayList<LongRange>();
+		if (inner == null) {
+			ranges.addAll(MGridUtils.queryIndexRanges(outer[0], outer[1], outer[2], outer[3], maxRanges));
+		} else {
+			// the ring as up to four rectangles: bottom, top, left and right
+			if (outer[2] < inner[2])
+				ranges.addAll(MGridUtils.queryIndexRanges(outer[0], outer[1], outer[2], inner[2] - 1, maxRanges));
+			if (inner[3] < outer[3])
+				ranges.addAll(MGridUtils.queryIndexRanges(outer[0], outer[1], inner[3] + 1, outer[3], maxRanges));
+			if (outer[0] < inner[0])
+				ranges.addAll(MGridUtils.queryIndexRanges(outer[0], inner[0] - 1, inner[2], inner[3], maxRanges));
+			if (inner[1] < outer[1])
+				ranges.addAll(MGridUtils.queryIndexRanges(inner[1] + 1, outer[1], inner[2], inner[3], maxRanges));
+		}
+		mOuter = outer;
+		mRounds++;
+
+		if (ranges.isEmpty()) {
+			// the whole space has been searched
+			finish();
+			return;
+		}
+		ranges = coalesce(ranges);
+
+		// the last index of the space is not representable as an exclusive end
+		int bits = MGridUtils.xBits + MGridUtils.yBits;
+		long maxIndex = (1L << bits) - 1;
+		BitVector bv = BitVectorFactories.OPTIMAL.apply(bits);
+		List<String> lowers = new ArrayList<String>(ranges.size());
+		List<String> highers = new ArrayList<String>(ranges.size());
+		for (LongRange range : ranges) {
+			bv.copyFrom(range.getStart());
+			lowers.add(bv.toString());
+			bv.copyFrom(Math.min(range.getEnd(), maxIndex));
+			highers.add(bv.toString());
+		}
+
+		KnnRingQuery ring;
+		try {
+			TypeHandler handler = IndexManager.getInstance().getTypeHandler(mQuery.getType());
+			List<KeyRange> keys = new ArrayList<KeyRange>(lowers.size());
+			for (int i = 0; i < lowers.size(); i++)
+				keys.add(handler.generateKeyRange(lowers.get(i), highers.get(i)));
+			mRound = PGridP2PFactory.sharedInstance().generateGUID();
+			ring = new KnnRingQuery(mQuery.getRequestingHost(), mRound, mQuery.getType(), new PGridKeyRangeSet(keys),
+					lowers, highers, outer, inner, mQuery.getQueryX(), mQuery.getQueryY(), mQuery.getK());
+			mUncovered = ranges;
+			mReceived = 0;
+			Constants.LOGGER.fine("kNN search (" + mQuery.getGUID() + ") round " + mRounds + " with radius " + mRadius
+					+ " and " + ranges.size() + " range(s).");
+			TimerManager.sharedInstance().register(PGridP2P.sharedInstance().propertyInteger(Properties.KNN_ROUND_TIMEOUT),
+					mRound, this, false);
+			mSearchManager.search(ring, this, mRound);
+		} catch (Exception e) {
+			Constants.LOGGER.warning("kNN search (" + mQuery.getGUID() + ") failed: " + e.getMessage());
+			TimerManager.sharedInstance().remove(mRound);
+			mFinished = true;
+			for (SearchListener listener : mSearchManager.getListeners(mQuery.getGUID()))
+				listener.searchFailed(mQuery.getGUID());
+		}
+	}
+
+	/**
+	 * Sorts the ranges and merges the overlapping or adjacent ones.
+	 */
+	private static List<LongRange> coalesce(List<LongRange> ranges) {
+		Collections.sort(ranges, new Comparator<LongRange>() {
+			public int compare(LongRange r1, LongRange r2) {
+				return r1.getStart() < r2.getStart() ? -1 : (r1.getStart() == r2.getStart() ? 0 : 1);
+			}
+		});
+		List<LongRange> merged = new ArrayList<LongRange>(ranges.size());
+		long start = ranges.get(0).getStart();
+		long end = ranges.get(0).getEnd();
+		for (int i = 1; i < ranges.size(); i++) {
+			LongRange range = ranges.get(i);
+			if (range.getStart() <= end) {
+				end = Math.max(end, range.getEnd());
+			} else {
+				merged.add(LongRange.of(start, end));
+				start = range.getStart();
+				end = range.getEnd();
+			}
+		}
+		merged.add(LongRange.of(start, end));
+		return merged;
+	}
+
+	/**
+	 * Ends the current round: either delivers the result or sends the next ring.
+	 */
+	private void endRound() {
+		TimerManager.sharedInstance().remove(mRound);
+		mRound = null;
+
+		int k = mQuery.getK();
+		boolean whole = mOuter[0] == 0 && mOuter[1] == mXLimit && mOuter[2] == 0 && mOuter[3] == mYLimit;
+		if (mNearest.isFull()) {
+			if (mNearest.kthSquaredDistance() <= mRadius * mRadius || whole) {
+				finish();
+				return;
+			}
+			// the next square contains the circle of the current k-th distance
+			mRadius = (long)Math.ceil(mNearest.kthDistance());
+		} else if (whole) {
+			finish();
+			return;
+		} else if (mNearest.isEmpty()) {
+			mRadius *= 2;
+		} else {
+			// assume a uniform density around the query point
+			double estimate = 1.1 * mRadius * Math.sqrt((double)k / mNearest.size());
+			mRadius = (long)Math.ceil(Math.max(1.25 * mRadius, estimate));
+		}
+		nextRound();
+	}
+
+	/**
+	 * Delivers the neighbours, sorted by ascending distance, to the listeners
+	 * of the user query.
+	 */
+	private void finish() {
+		mFinished = true;
+		List<Point> result = mNearest.toSortedList();
+		Constants.LOGGER.fine("kNN search (" + mQuery.getGUID() + ") finished after " + mRounds + " round(s) with "
+				+ result.size() + " neighbour(s).");
+		GUID guid = mQuery.getGUID();
+		for (SearchListener listener : mSearchManager.getListeners(guid)) {
+			if (result.isEmpty())
+				listener.noResultsFound(guid);
+			else
+				listener.newSearchResult(guid, result);
+			listener.searchFinished(guid);
+		}
+	}
+
+	/**
+	 * Marks the part of the ring a peer answered for, after its results were
+	 * merged. The round ends once the whole ring is covered.
+	 *
+	 * @param guid the GUID of the round
+	 * @param path the path of the replying peer, the empty path for a reply
+	 *             covering the whole ring
+	 */
+	synchronized void replyReceived(GUID guid, String path) {
+		if (mFinished || !guid.equals(mRound) || path == null)
+			return;
+		mReceived++;
+		int bits = MGridUtils.xBits + MGridUtils.yBits;
+		int length = Math.min(path.length(), bits);
+		long prefix = length == 0 ? 0 : Long.parseLong(path.substring(0, length), 2);
+		long start = prefix << (bits - length);
+		long end = (prefix + 1) << (bits - length);
+		List<LongRange> uncovered = new ArrayList<LongRange>(mUncovered.size() + 1);
+		for (LongRange range : mUncovered) {
+			if (range.getEnd() <= start || end <= range.getStart()) {
+				uncovered.add(range);
+				continue;
+			}
+			if (range.getStart() < start)
+				uncovered.add(LongRange.of(range.getStart(), start));
+			if (end < range.getEnd())
+				uncovered.add(LongRange.of(end, range.getEnd()));
+		}
+		mUncovered = uncovered;
+		if (mUncovered.isEmpty())
+			endRound();
+	}
+
+	/**
+	 * Merges the nearest points of a peer into the global top-k. Late replies
+	 * of earlier rounds are merged as well.
+	 *
+	 * @param guid    the GUID of the round
+	 * @param results the nearest points of a peer
+	 */
+	@SuppressWarnings("rawtypes") // as declared by SearchListener
+	public synchronized void newSearchResult(GUID guid, Collection results) {
+		if (mFinished)
+			return;
+		for (Object o : results) {
+			mNearest.offer((Point)o);
+		}
+	}
+
+	/**
+	 * Ring queries are never answered with counts.
+	 *
+	 * @param guid the GUID of the round
+	 * @param hits the number of hits
+	 */
+	public void newSearchResult(GUID guid, int hits) {
+		// do nothing
+	}
+
+	/**
+	 * Invoked when a peer found nothing in the ring, followed by searchFinished.
+	 *
+	 * @param guid the GUID of the round
+	 */
+	public void noResultsFound(GUID guid) {
+		// do nothing
+	}
+
+	/**
+	 * Invoked when a peer failed to answer the ring, followed by
+	 * {@link #replyReceived(GUID, String)}.
+	 *
+	 * @param guid the GUID of the round
+	 */
+	public void searchFailed(GUID guid) {
+		// do nothing
+	}
+
+	/**
+	 * Invoked when a peer answered the ring, followed by
+	 * {@link #replyReceived(GUID, String)}.
+	 *
+	 * @param guid the GUID of the round
+	 */
+	public void searchFinished(GUID guid) {
+		// do nothing
+	}
+
+	/**
+	 * Invoked when a search started (reached a responsible peer).
+	 *
+	 * @param guid the GUID of the round
+	 * @param message the explanation message.
+	 */
+	public void searchStarted(GUID guid, String message) {
+		// do nothing
+	}
+
+	/**
+	 * Ends a round of which some replies are missing.
+	 *
+	 * @param id the GUID of the round
+	 */
+	public synchronized void timerTriggered(Object id) {
+		if (!mFinished && id.equals(mRound)) {
+			Constants.LOGGER.fine("kNN search (" + mQuery.getGUID() + ") round " + mRounds + " timed out after "
+					+ mReceived + " repl(y/ies), " + mUncovered.size() + " range(s) not covered.");
+			endRound();
+		}
+	}
+
+}
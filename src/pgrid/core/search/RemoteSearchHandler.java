@@ -30,7 +30,9 @@ import pgrid.network.RemoteMessageHandler;
 import pgrid.network.protocol.*;
 import pgrid.AbstractQuery;
 import pgrid.Constants;
+import pgrid.KnnRingQuery;
 import pgrid.QueryReply;
+import pgrid.RangeQuery;
 import pgrid.Statistics;
 import pgrid.interfaces.basic.PGridP2P;
 import pgrid.core.index.IndexManager;
@@ -38,6 +40,9 @@ import pgrid.core.index.IndexManager;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Hashtable;
+import java.util.Vector;
+
+import mgrid.core.Point;
 
 /**
  * This class processes search requests.
@@ -56,6 +61,11 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 
 	private Hashtable<GUID, RemoteSearchHandler.QueryData> mQueryRefs = new Hashtable<GUID, RemoteSearchHandler.QueryData>();
 
+	/**
+	 * The aggregator merging the local results with the replies of the subtrees.
+	 */
+	private ReplyAggregator mAggregator = ReplyAggregator.sharedInstance();
+
 	/**
 	 * Creates a new RemoteSearchHandler.
 	 */
@@ -75,6 +85,36 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 		if (data == null) {
 	
 			Constants.LOGGER.config("no query '" + guid.toString() + "' found for search results!");
+		} else if (data.mAggregated) {
+			// hand the results to the aggregation, a count ends the local search
+			if (data.mQuery instanceof KnnRingQuery || data.isStreamed()) {
+				mAggregator.localPoints(guid, results);
+			} else {
+				mQueryRefs.remove(guid);
+				mAggregator.localHits(guid, results.size());
+				mAggregator.localFinished(guid, false);
+			}
+		} else if (data.mQuery instanceof KnnRingQuery) {
+			// the local top-k of a kNN ring fits in a single, last chunk
+			Constants.LOGGER.fine("return "+results.size()+" nearest points for query '" + guid.toString() + "' to host: "+data.mQuery.getRequestingHost().toHostString()+".");
+			QueryReplyMessage msg = new QueryReplyMessage(guid, QueryReply.TYPE_OK, results, 0, true);
+
+			// statistic
+			if (PGridP2P.sharedInstance().isInTestMode())
+				PGridP2P.sharedInstance().getStatistics().incMessageStat(Statistics.messageStats.found, msg.getHeader().getDesc());
+
+			mMsgMng.reply(data.mQuery.getRequestingHost(), msg, data.mMsg, null, null);
+			mQueryRefs.remove(guid);
+		} else if (data.isStreamed()) {
+			// reply this chunk to the requesting host, further chunks may follow
+			Constants.LOGGER.fine("return chunk "+data.mChunks+" with "+results.size()+" results for query '" + guid.toString() + "' to host: "+data.mQuery.getRequestingHost().toHostString()+".");
+			QueryReplyMessage msg = new QueryReplyMessage(guid, QueryReply.TYPE_OK, results, data.mChunks++, false);
+
+			// statistic
+			if (PGridP2P.sharedInstance().isInTestMode())
+				PGridP2P.sharedInstance().getStatistics().incMessageStat(Statistics.messageStats.found, msg.getHeader().getDesc());
+
+			mMsgMng.reply(data.mQuery.getRequestingHost(), msg, data.mMsg, null, null);
 		} else {
 			// reply the results to the requesting host
 			Constants.LOGGER.fine("return "+results.size()+" results for query '" + guid.toString() + "' to host: "+data.mQuery.getRequestingHost().toHostString()+".");
@@ -103,6 +143,10 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 		RemoteSearchHandler.QueryData data = mQueryRefs.get(guid);
 		if (data == null) {
 			Constants.LOGGER.config("no query '" + guid.toString() + "' found for search results!");
+		} else if (data.mAggregated) {
+			mQueryRefs.remove(guid);
+			mAggregator.localHits(guid, hits);
+			mAggregator.localFinished(guid, false);
 		} else {
 			// reply the results to the requesting host
 			Constants.LOGGER.fine("return "+hits+" results for query '" + guid.toString() + "' to host: "+data.mQuery.getRequestingHost().toHostString()+".");
@@ -147,6 +191,9 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 		RemoteSearchHandler.QueryData data = mQueryRefs.get(guid);
 		if (data == null) {
 			Constants.LOGGER.config("no query '" + guid.toString() + "' found for search results!");
+		} else if (data.mAggregated) {
+			mQueryRefs.remove(guid);
+			mAggregator.localFinished(guid, false);
 		} else if (!data.mBroadcasted) {
 			// reply with not found message
 			Constants.LOGGER.fine("return no results for query '" + guid.toString() + "'.");
@@ -193,6 +240,9 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 		RemoteSearchHandler.QueryData data = mQueryRefs.get(guid);
 		if (data == null) {
 			Constants.LOGGER.config("no query '" + guid.toString() + "' found for search results!");
+		} else if (data.mAggregated) {
+			mQueryRefs.remove(guid);
+			mAggregator.localFinished(guid, true);
 		} else if (!data.mBroadcasted) {
 			// reply with bad request message
 			Constants.LOGGER.fine("return search failed for query '" + guid.toString() + "'.");
@@ -212,7 +262,15 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 	 */
 	public void searchFinished(GUID guid) {
 		// remove the query from the list of treated queries
-		mQueryRefs.remove(guid);
+		RemoteSearchHandler.QueryData data = mQueryRefs.remove(guid);
+		if (data != null && data.mAggregated) {
+			mAggregator.localFinished(guid, false);
+		} else if (data != null && data.isStreamed()) {
+			// close the stream with an empty last chunk
+			Constants.LOGGER.fine("return last chunk "+data.mChunks+" for query '" + guid.toString() + "'.");
+			QueryReplyMessage msg = new QueryReplyMessage(guid, QueryReply.TYPE_OK, new Vector<Point>(), data.mChunks, true);
+			mMsgMng.reply(data.mQuery.getRequestingHost(), msg, data.mMsg, null, null);
+		}
 	}
 
 	/**
@@ -241,6 +299,11 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 
 		} else if(msg instanceof RangeQueryMessage) {
 			data = new RemoteSearchHandler.QueryData(((RangeQueryMessage)msg).getQuery(), msg, broadcasted);
+			if (ReplyAggregator.isAggregated(msg)) {
+				// the local results are merged with those of the subtrees
+				mAggregator.open((RangeQueryMessage)msg, true);
+				data.mAggregated = true;
+			}
 		} else {
 			Constants.LOGGER.warning("Unknown query type for message '" + msg.getGUID() + "'!");
 			return;
@@ -282,6 +345,11 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 	 * @param msg
 	 */
 	public void failedToRoute(PGridMessage msg) {
+		if (ReplyAggregator.isAggregated(msg)) {
+			// the aggregation of the local peer reports the missing subtree
+			mAggregator.forwardFailed(msg.getGUID());
+			return;
+		}
 		//sent a query reply with a fail to route
 		Constants.LOGGER.fine("Cannot route query '" + msg.getGUID().toString() + "' further. Send a query reply to the requesting host.");
 
@@ -304,12 +372,18 @@ public class RemoteSearchHandler implements SearchListener, RemoteMessageHandler
 		public AbstractQuery mQuery;
 		public PGridMessage mMsg;
 		public boolean mBroadcasted;
+		public int mChunks = 0;
+		public boolean mAggregated = false;
 
 		public QueryData(AbstractQuery mQuery, PGridMessage mMsg, boolean broadcasted) {
 			this.mQuery = mQuery;
 			this.mMsg = mMsg;
 			this.mBroadcasted = broadcasted;
 		}
+
+		public boolean isStreamed() {
+			return (mQuery instanceof RangeQuery) && ((RangeQuery)mQuery).isStreamed();
+		}
 	}
 
 	
@@ -0,0 +1,522 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package pgrid.core.search;
+
+import mgrid.core.KnnHeap;
+import mgrid.core.Point;
+import p2p.basic.GUID;
+import pgrid.AbstractQuery;
+import pgrid.Constants;
+import pgrid.KnnRingQuery;
+import pgrid.PGridHost;
+import pgrid.Properties;
+import pgrid.QueryReply;
+import pgrid.RangeQuery;
+import pgrid.interfaces.basic.PGridP2P;
+import pgrid.interfaces.basic.PGridP2PFactory;
+import pgrid.network.MessageManager;
+import pgrid.network.protocol.PGridMessage;
+import pgrid.network.protocol.QueryReplyMessage;
+import pgrid.network.protocol.RangeQueryMessage;
+import pgrid.network.router.MessageWaiter;
+import pgrid.util.TimerListener;
+import pgrid.util.TimerManager;
+
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+ * Merges the replies of a range query along the shower tree.
+ * <p/>
+ * In aggregation mode a range query carries the key of the aggregation of the
+ * peer that forwarded it. Every peer handling the query, responsible or only
+ * forwarding, opens an aggregation of its own and forwards the query to its
+ * subtrees with the key of that aggregation. Once the local search is done and
+ * every subtree the query was sent to has replied, the peer sends one reply to
+ * the peer it received the query from: the summed count, the merged top-k of a
+ * kNN ring or the points re-packed into full chunks. The reply tells how many
+ * peers it covers and whether every subtree answered before the timeout, so
+ * the initiator receives exactly one reply per query.
+ * <p/>
+ * A reply references the key of the receiving aggregation, which waits for
+ * it as a message waiter; the root references the query GUID itself.
+ *
+ * @version 1.0.0
+ */
+public class ReplyAggregator implements MessageWaiter, TimerListener {
+
+	/**
+	 * The header attribute holding the key of the aggregation the replies go to.
+	 */
+	public static final String XML_AGGREGATE = "Aggregate";
+
+	/**
+	 * The header attribute holding the time in ms the receiving peer may wait for its subtrees.
+	 */
+	public static final String XML_AGGREGATE_TIMEOUT = "AggregateTimeout";
+
+	/**
+	 * Replies carry the count of their subtree.
+	 */
+	private static final int MODE_COUNT = 0;
+
+	/**
+	 * Replies carry the points of their subtree in chunks.
+	 */
+	private static final int MODE_STREAM = 1;
+
+	/**
+	 * Replies carry the top-k of their subtree.
+	 */
+	private static final int MODE_NEAREST = 2;
+
+	/**
+	 * The reference to the only instance of this class (Singleton
+	 * pattern). This differs from the C++ standard implementation by Gamma
+	 * et.al. since Java ensures the order of static initialization at runtime.
+	 *
+	 * @see <a href="http://www.javaworld.com/javaworld/javatips/jw-javatip67.html">
+	 *      Lazy instantiation - Balancing performance and resource usage</a>
+	 */
+	private static final ReplyAggregator SHARED_INSTANCE = new ReplyAggregator();
+
+	/**
+	 * The open aggregations by query GUID.
+	 */
+	private final Hashtable<GUID, Aggregation> mQueries = new Hashtable<GUID, Aggregation>();
+
+	/**
+	 * The open aggregations by aggregation key.
+	 */
+	private final Hashtable<GUID, Aggregation> mKeys = new Hashtable<GUID, Aggregation>();
+
+	/**
+	 * The Message Manager.
+	 */
+	private MessageManager mMsgMng = MessageManager.sharedInstance();
+
+	/**
+	 * The constructor must be protected to ensure that only subclasses can
+	 * call it and that only one instance can ever get created.
+	 */
+	protected ReplyAggregator() {
+	}
+
+	/**
+	 * This creates the only instance of this class. This differs from the C++ standard implementation by Gamma et.al.
+	 * since Java ensures the order of static initialization at runtime.
+	 *
+	 * @return the shared instance of this class.
+	 * @see <a href="http://www.javaworld.com/javaworld/javatips/jw-javatip67.html">
+	 *      Lazy instantiation - Balancing performance and resource usage</a>
+	 */
+	public static ReplyAggregator sharedInstance() {
+		return SHARED_INSTANCE;
+	}
+
+	/**
+	 * Tests if the replies of a query message are aggregated.
+	 *
+	 * @param msg the query message.
+	 * @return true if aggregated.
+	 */
+	public static boolean isAggregated(PGridMessage msg) {
+		return msg.getHeader().getAdditionalAttribute(XML_AGGREGATE) != null;
+	}
+
+	/**
+	 * Marks a range query message of the local peer for aggregation. The
+	 * single reply references the query GUID, on which the search listeners
+	 * wait.
+	 *
+	 * @param msg the query message.
+	 */
+	public void prepare(RangeQueryMessage msg) {
+		msg.getHeader().setAdditionalAttribute(XML_AGGREGATE, msg.getGUID().toString());
+		msg.getHeader().setAdditionalAttribute(XML_AGGREGATE_TIMEOUT,
+				String.valueOf(PGridP2P.sharedInstance().propertyInteger(Properties.RANGE_QUERY_AGGREGATION_TIMEOUT)));
+	}
+
+	/**
+	 * Opens the aggregation of a query, if not done yet.
+	 *
+	 * @param msg   the query message, as received.
+	 * @param local true if the local peer searches its data as well.
+	 */
+	public void open(RangeQueryMessage msg, boolean local) {
+		Aggregation aggregation = getAggregation(msg);
+		synchronized (aggregation) {
+			if (local)
+				aggregation.mLocal = true;
+		}
+	}
+
+	/**
+	 * Sets the aggregation key of the local peer, and the time its subtrees
+	 * may wait, in the header of a query before it is forwarded.
+	 *
+	 * @param msg the query message.
+	 */
+	public void forwarding(RangeQueryMessage msg) {
+		Aggregation aggregation = getAggregation(msg);
+		// a subtree has to reply before this peer times out
+		long timeout = aggregation.mTimeout - aggregation.mTimeout / 8;
+		msg.getHeader().setAdditionalAttribute(XML_AGGREGATE, aggregation.mKey.toString());
+		msg.getHeader().setAdditionalAttribute(XML_AGGREGATE_TIMEOUT, String.valueOf(timeout));
+	}
+
+	/**
+	 * Sets the number of subtrees a query was forwarded to.
+	 *
+	 * @param guid     the query GUID.
+	 * @param subtrees the number of subtrees.
+	 */
+	public void forwarded(GUID guid, int subtrees) {
+		Aggregation aggregation = mQueries.get(guid);
+		if (aggregation == null)
+			return;
+		synchronized (aggregation) {
+			aggregation.mExpected = subtrees;
+			checkFinished(aggregation);
+		}
+	}
+
+	/**
+	 * Marks the reply of a subtree as missing, since the query could not be
+	 * sent to it.
+	 *
+	 * @param guid the query GUID.
+	 */
+	public void forwardFailed(GUID guid) {
+		Aggregation aggregation = mQueries.get(guid);
+		if (aggregation == null)
+			return;
+		synchronized (aggregation) {
+			aggregation.mComplete = false;
+		}
+	}
+
+	/**
+	 * Adds the number of local hits.
+	 *
+	 * @param guid the query GUID.
+	 * @param hits the number of hits.
+	 */
+	public void localHits(GUID guid, int hits) {
+		Aggregation aggregation = mQueries.get(guid);
+		if (aggregation == null)
+			return;
+		synchronized (aggregation) {
+			aggregation.mHits += hits;
+		}
+	}
+
+	/**
+	 * Adds local points.
+	 *
+	 * @param guid   the query GUID.
+	 * @param points the points.
+	 */
+	public void localPoints(GUID guid, Collection<?> points) {
+		Aggregation aggregation = mQueries.get(guid);
+		if (aggregation == null)
+			return;
+		synchronized (aggregation) {
+			aggregation.add(points);
+		}
+	}
+
+	/**
+	 * Ends the local search.
+	 *
+	 * @param guid   the query GUID.
+	 * @param failed true if the local search failed.
+	 */
+	public void localFinished(GUID guid, boolean failed) {
+		Aggregation aggregation = mQueries.get(guid);
+		if (aggregation == null)
+			return;
+		synchronized (aggregation) {
+			if (!aggregation.mLocal)
+				return;
+			aggregation.mLocal = false;
+			if (failed)
+				aggregation.mComplete = false;
+			else
+				aggregation.mPeers++;
+			checkFinished(aggregation);
+		}
+	}
+
+	/**
+	 * Merges the reply of a subtree.
+	 *
+	 * @param msg  the reply.
+	 * @param guid the key of the aggregation.
+	 */
+	public void newMessage(PGridMessage msg, GUID guid) {
+		if (!(msg instanceof QueryReplyMessage))
+			return;
+		Aggregation aggregation = mKeys.get(guid);
+		if (aggregation == null) {
+			Constants.LOGGER.finer("Late reply for the aggregation (" + guid + ") from host "
+					+ msg.getHeader().getHost().toHostString() + ".");
+			return;
+		}
+		QueryReply reply = ((QueryReplyMessage)msg).getQueryReply();
+		synchronized (aggregation) {
+			if (reply.getType() == QueryReply.TYPE_OK) {
+				if (reply.isStreamed())
+					aggregation.add(reply.getResultSet());
+				else
+					aggregation.mHits += reply.getmHits();
+			} else if (reply.getType() == QueryReply.TYPE_BAD_REQUEST) {
+				aggregation.mComplete = false;
+			}
+			if (reply.isStreamed() && !reply.isLastChunk())
+				return;
+			aggregation.mReceived++;
+			if (reply.isAggregated()) {
+				aggregation.mPeers += reply.getPeers();
+				aggregation.mComplete &= reply.isComplete();
+			}
+			checkFinished(aggregation);
+		}
+	}
+
+	/**
+	 * Sends the reply of an aggregation of which some subtrees are missing.
+	 *
+	 * @param id the key of the aggregation
+	 */
+	public void timerTriggered(Object id) {
+		Aggregation aggregation = mKeys.get(id);
+		if (aggregation == null)
+			return;
+		synchronized (aggregation) {
+			if (aggregation.mFinished)
+				return;
+			Constants.LOGGER.fine("Aggregation of query (" + aggregation.mQueryGUID + ") timed out with " + aggregation.mReceived
+					+ " of " + aggregation.mExpected + " subtree(s)" + (aggregation.mLocal ? " and the local search pending." : "."));
+			aggregation.mComplete = false;
+			finish(aggregation);
+		}
+	}
+
+	/**
+	 * Returns the aggregation of a query, opening it if needed.
+	 */
+	private Aggregation getAggregation(RangeQueryMessage msg) {
+		GUID guid = msg.getGUID();
+		synchronized (mQueries) {
+			Aggregation aggregation = mQueries.get(guid);
+			if (aggregation == null) {
+				aggregation = new Aggregation(msg);
+				mQueries.put(guid, aggregation);
+				mKeys.put(aggregation.mKey, aggregation);
+				mMsgMng.registerWaiter(aggregation.mKey, this);
+				TimerManager.sharedInstance().register(aggregation.mTimeout, aggregation.mKey, this, false);
+			}
+			return aggregation;
+		}
+	}
+
+	/**
+	 * Sends the reply of an aggregation once the local search and all
+	 * subtrees are done. The caller holds the lock of the aggregation.
+	 */
+	private void checkFinished(Aggregation aggregation) {
+		if (!aggregation.mFinished && !aggregation.mLocal && aggregation.mExpected >= 0
+				&& aggregation.mReceived >= aggregation.mExpected)
+			finish(aggregation);
+	}
+
+	/**
+	 * Closes an aggregation and sends its reply. The caller holds the lock of
+	 * the aggregation.
+	 */
+	private void finish(Aggregation aggregation) {
+		aggregation.mFinished = true;
+		mQueries.remove(aggregation.mQueryGUID);
+		mKeys.remove(aggregation.mKey);
+		mMsgMng.removeWaiter(aggregation.mKey);
+		TimerManager.sharedInstance().remove(aggregation.mKey);
+
+		QueryReplyMessage reply;
+		GUID guid = aggregation.mParentKey;
+		if (aggregation.mMode == MODE_COUNT)
+			reply = new QueryReplyMessage(guid, QueryReply.TYPE_OK, (int)aggregation.mHits);
+		else if (aggregation.mMode == MODE_NEAREST)
+			reply = new QueryReplyMessage(guid, QueryReply.TYPE_OK, aggregation.mNearest.toSortedList(), aggregation.mChunks++, true);
+		else
+			reply = new QueryReplyMessage(guid, QueryReply.TYPE_OK, aggregation.mPoints, aggregation.mChunks++, true);
+		Constants.LOGGER.fine("Return the aggregated reply of query (" + aggregation.mQueryGUID + ") covering "
+				+ aggregation.mPeers + " peer(s)" + (aggregation.mComplete ? "" : ", incomplete") + ", to host "
+				+ aggregation.mParent.toHostString() + ".");
+		send(aggregation, reply);
+	}
+
+	/**
+	 * Sends a reply, referencing the aggregation of the parent, to the parent.
+	 */
+	private void send(Aggregation aggregation, QueryReplyMessage reply) {
+		reply.getQueryReply().setPeers(aggregation.mPeers);
+		reply.getQueryReply().setComplete(aggregation.mComplete);
+		mMsgMng.sendMessage(aggregation.mParent, reply, null);
+	}
+
+	/**
+	 * The aggregation of one query on the local peer.
+	 */
+	private class Aggregation {
+
+		/**
+		 * The query GUID.
+		 */
+		final GUID mQueryGUID;
+
+		/**
+		 * The key the replies of the subtrees reference.
+		 */
+		final GUID mKey = PGridP2PFactory.sharedInstance().generateGUID();
+
+		/**
+		 * The peer the query was received from.
+		 */
+		final PGridHost mParent;
+
+		/**
+		 * The key of the aggregation of the parent.
+		 */
+		final GUID mParentKey;
+
+		/**
+		 * The time to wait for the subtrees.
+		 */
+		final long mTimeout;
+
+		/**
+		 * How the results are merged.
+		 */
+		final int mMode;
+
+		/**
+		 * The merged top-k in nearest mode.
+		 */
+		KnnHeap mNearest = null;
+
+		/**
+		 * The points not sent yet in stream mode.
+		 */
+		Vector<Point> mPoints = null;
+
+		/**
+		 * The number of points per chunk in stream mode.
+		 */
+		int mChunkSize = 0;
+
+		/**
+		 * The number of chunks sent.
+		 */
+		int mChunks = 0;
+
+		/**
+		 * The summed hits in count mode.
+		 */
+		long mHits = 0;
+
+		/**
+		 * True while the local search is pending.
+		 */
+		boolean mLocal = false;
+
+		/**
+		 * The number of subtrees the query was forwarded to, -1 until known.
+		 */
+		int mExpected = -1;
+
+		/**
+		 * The number of subtrees which replied.
+		 */
+		int mReceived = 0;
+
+		/**
+		 * The number of peers covered so far.
+		 */
+		int mPeers = 0;
+
+		/**
+		 * False once a subtree or the local search failed.
+		 */
+		boolean mComplete = true;
+
+		/**
+		 * True once the reply was sent.
+		 */
+		boolean mFinished = false;
+
+		Aggregation(RangeQueryMessage msg) {
+			mQueryGUID = msg.getGUID();
+			mParent = msg.getHeader().getHost();
+			mParentKey = pgrid.GUID.getGUID(msg.getHeader().getAdditionalAttribute(XML_AGGREGATE));
+			String timeout = msg.getHeader().getAdditionalAttribute(XML_AGGREGATE_TIMEOUT);
+			mTimeout = (timeout == null ? PGridP2P.sharedInstance().propertyInteger(Properties.RANGE_QUERY_AGGREGATION_TIMEOUT)
+					: Long.parseLong(timeout));
+			AbstractQuery query = msg.getQuery();
+			if (query instanceof KnnRingQuery) {
+				KnnRingQuery ring = (KnnRingQuery)query;
+				mMode = MODE_NEAREST;
+				mNearest = new KnnHeap(ring.getQueryX(), ring.getQueryY(), ring.getK());
+			} else if (((RangeQuery)query).isStreamed()) {
+				mMode = MODE_STREAM;
+				mChunkSize = Math.max(1, PGridP2P.sharedInstance().propertyInteger(Properties.RANGE_QUERY_CHUNK_SIZE));
+				mPoints = new Vector<Point>(mChunkSize);
+			} else {
+				mMode = MODE_COUNT;
+			}
+		}
+
+		/**
+		 * Merges points. Full chunks are sent upstream right away in stream mode.
+		 */
+		void add(Collection<?> points) {
+			if (mMode == MODE_NEAREST) {
+				for (Object point : points)
+					mNearest.offer((Point)point);
+			} else if (mMode == MODE_STREAM) {
+				for (Object point : points)
+					mPoints.add((Point)point);
+				while (mPoints.size() >= mChunkSize) {
+					Vector<Point> chunk = new Vector<Point>(mPoints.subList(0, mChunkSize));
+					mPoints.subList(0, mChunkSize).clear();
+					send(this, new QueryReplyMessage(mParentKey, QueryReply.TYPE_OK,
+							chunk, mChunks++, false));
+				}
+			} else {
+				mHits += points.size();
+			}
+		}
+	}
+
+}
@@ -31,10 +31,11 @@ import pgrid.network.router.MessageWaiter;
 import pgrid.network.protocol.PGridMessage;
 import pgrid.network.protocol.QueryReplyMessage;
 import pgrid.network.protocol.QueryMessage;
+import pgrid.network.protocol.KnnRingQueryMessage;
+import pgrid.network.protocol.MultiRangeQueryMessage;
 import pgrid.network.protocol.RangeQueryMessage;
 import pgrid.network.MessageManager;
 import pgrid.interfaces.basic.PGridP2P;
-import test.demo.KnnQuery;
 
 import java.util.*;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -160,6 +161,19 @@ public class SearchManager extends pgrid.util.WorkerThread implements MessageWai
 		listeners.add(listener);
 	}
 
+	/**
+	 * Returns the listeners registered for a given query.
+	 *
+	 * @param guid guid of the query.
+	 * @return the registered listeners, never null.
+	 */
+	Collection<SearchListener> getListeners(GUID guid) {
+		Collection<SearchListener> listeners = mListeners.get(guid);
+		if (listeners == null)
+			return new Vector<SearchListener>();
+		return listeners;
+	}
+
 	/**
 	 * Search the network for matching items. Implemented as
 	 * an asynchronous operation, because search might take
@@ -219,13 +233,25 @@ public class SearchManager extends pgrid.util.WorkerThread implements MessageWai
 			mRequests.clear();
 		}
 		p2p.index.Query q;
+		// range queries reply once, merged along the shower tree
+		boolean aggregate = mPGridP2P.propertyBoolean(pgrid.Properties.RANGE_QUERY_AGGREGATION);
 		
 		while (requests.hasNext()) {
 			q = (p2p.index.Query) requests.next();
 			PGridHost initiator = (((pgrid.AbstractQuery)q).getRequestingHost() == null) ? mPGridP2P.getLocalHost() : ((pgrid.AbstractQuery)q).getRequestingHost();
 		
 			
-			if (q instanceof pgrid.Query || (q instanceof pgrid.RangeQuery && (q.getLowerBound().equals(q.getHigherBound()) && q.getKeyRange().getMin().equals(q.getKeyRange().getMax())))) {
+			if (q instanceof pgrid.KnnQuery) {
+				// rounds of ring queries driven by their replies
+				new KnnSearch((pgrid.KnnQuery)q, this).start();
+			}
+			else if (q instanceof pgrid.KnnRingQuery) {
+				KnnRingQueryMessage msg = new KnnRingQueryMessage((pgrid.KnnRingQuery)q, initiator);
+				if (aggregate)
+					ReplyAggregator.sharedInstance().prepare(msg);
+				mMsgMng.route(q.getKeyRange(),msg,null,this);
+			}
+			else if (q instanceof pgrid.Query || (q instanceof pgrid.RangeQuery && (q.getLowerBound().equals(q.getHigherBound()) && q.getKeyRange().getMin().equals(q.getKeyRange().getMax())))) {
 				
 				QueryMessage msg = new QueryMessage(q.getGUID(),q.getType(), q.getLowerBound(), q.getKeyRange().getMin(),0,0,initiator,0,null);
 			
@@ -234,14 +260,30 @@ public class SearchManager extends pgrid.util.WorkerThread implements MessageWai
 					msg.getHeader().setReferences(new Vector<GUID>(q.getQueryReferences()));
 				mMsgMng.route(q.getKeyRange().getMin(),msg,null,this);
 			}
+			else if (q instanceof pgrid.MultiRangeQuery) {
+				pgrid.MultiRangeQuery mq = (pgrid.MultiRangeQuery)q;
+				MultiRangeQueryMessage msg = new MultiRangeQueryMessage(q.getGUID(), q.getType(), 0,
+						RangeQuery.SHOWER_ALGORITHM, mq.getLowerBounds(), mq.getHigherBounds(),
+						q.getOrigxMin(), q.getOrigxMax(), q.getOrigyMin(), q.getOrigyMax(),
+						q.getKeyRange(), 0, "", 0, initiator);
+				msg.getQuery().setResultMode(mq.getResultMode());
+				if (!q.getQueryReferences().isEmpty())
+					msg.getHeader().setReferences(new Vector<GUID>(q.getQueryReferences()));
+				if (aggregate)
+					ReplyAggregator.sharedInstance().prepare(msg);
+				mMsgMng.route(q.getKeyRange(),msg,null,this);
+			}
 			else if (q instanceof pgrid.RangeQuery) {
 	
 				RangeQueryMessage msg = new RangeQueryMessage(q.getGUID(),q.getType(), 0, 
 						RangeQuery.SHOWER_ALGORITHM, q.getLowerBound(), q.getHigherBound(), 
 						q.getOrigxMin(), q.getOrigxMax(), q.getOrigyMin(), q.getOrigyMax(), 
 						q.getKeyRange(), 0, "",0, initiator, q.getHits());
+				msg.getQuery().setResultMode(((pgrid.RangeQuery)q).getResultMode());
 				if (!q.getQueryReferences().isEmpty())
 					msg.getHeader().setReferences(new Vector<GUID>(q.getQueryReferences()));
+				if (aggregate)
+					ReplyAggregator.sharedInstance().prepare(msg);
 				mMsgMng.route(q.getKeyRange(),msg,null,this);
 				
 				
@@ -273,7 +315,19 @@ public class SearchManager extends pgrid.util.WorkerThread implements MessageWai
 			}
 
 			Constants.LOGGER.fine("Response for remote search (" + guid.toString() + ") received with " + query.getQueryReply().getmHits()+ " hit(s).");
-			if (query.getQueryReply().getType() == QueryReply.TYPE_OK) {
+			if (query.getQueryReply().isAggregated() && (!query.getQueryReply().isStreamed() || query.getQueryReply().isLastChunk()))
+				Constants.LOGGER.fine("Aggregated response for remote search (" + guid.toString() + ") covers " + query.getQueryReply().getPeers()
+						+ " peer(s)" + (query.getQueryReply().isComplete() ? "." : ", some subtrees did not reply in time."));
+			if (query.getQueryReply().getType() == QueryReply.TYPE_OK && query.getQueryReply().isStreamed()) {
+				// streamed reply => hand over this chunk, finish with the last one
+				Constants.LOGGER.fine("Chunk " + query.getQueryReply().getChunk() + " with " + query.getQueryReply().getResultSet().size() + " point(s) for the search (" + guid.toString() + ") returned from host " + query.getHeader().getHost().toHostString() + ".");
+				for (SearchListener listener: listeners) {
+					if (!query.getQueryReply().getResultSet().isEmpty())
+						listener.newSearchResult(guid, query.getQueryReply().getResultSet());
+					if (query.getQueryReply().isLastChunk())
+						listener.searchFinished(guid);
+				}
+			} else if (query.getQueryReply().getType() == QueryReply.TYPE_OK) {
 				// local request => add results
 			
 				Constants.LOGGER.fine("" + query.getQueryReply().getmHits() + " hit(s) for the search (" + guid.toString() + ") returned from host " + query.getHeader().getHost().toHostString() + ".");
@@ -306,6 +360,16 @@ public class SearchManager extends pgrid.util.WorkerThread implements MessageWai
 					}
 				}
 			}
+
+			// a reply to a kNN ring covers the part of the key space of the replying peer
+			QueryReply reply = query.getQueryReply();
+			if (listeners != null && (reply.getType() != QueryReply.TYPE_OK || !reply.isStreamed() || reply.isLastChunk())) {
+				String path = reply.isAggregated() ? "" : query.getHeader().getHost().getPath();
+				for (SearchListener listener: listeners) {
+					if (listener instanceof KnnSearch)
+						((KnnSearch)listener).replyReceived(guid, path);
+				}
+			}
 		} // end of first if 
 	}
 
@@ -22,6 +22,7 @@
 
 package pgrid.interfaces.basic;
 
+import mgrid.core.HBaseManager;
 import p2p.basic.Key;
 import p2p.basic.Message;
 import p2p.basic.Peer;
@@ -349,7 +350,7 @@ public class PGridP2P implements P2P {
 
 		// PGrid Routing Table
 		Constants.LOGGER.config("initializing P-Grid Routing Table ...");
-		mRoutingTable = new LocalRoutingTable(Constants.DATA_DIR+propertyString(pgrid.Properties.ROUTING_TABLE), localPort);
+		initRoutingTable(Constants.DATA_DIR+propertyString(pgrid.Properties.ROUTING_TABLE), localPort);
 		
 		// set local host properties
 		getLocalHost().setSpeed(propertyInteger(pgrid.Properties.CONNECTION_SPEED));
@@ -454,8 +455,8 @@ public class PGridP2P implements P2P {
 	if (key == null)
 	  throw new NullPointerException();
 
-	String compath = Utils.commonPrefix(key.toString(), getLocalPath());
-	if ((compath.length() == key.size()) || (compath.length() == getLocalPath().length()) || getLocalPath().length() == 0)
+	int compath = Utils.commonPrefixLength(key.toString(), getLocalPath());
+	if ((compath == key.size()) || (compath == getLocalPath().length()) || getLocalPath().length() == 0)
 	  return true;
 	else
 	  return false;
@@ -471,6 +472,14 @@ public class PGridP2P implements P2P {
 	  if (key == null)
 		  throw new NullPointerException();
 
+	  if (key instanceof PGridKeyRangeSet) {
+		  for (KeyRange range: ((PGridKeyRangeSet)key).getRanges()) {
+			  if (isLocalPeerResponsible(range))
+				  return true;
+		  }
+		  return false;
+	  }
+
 	  PathComparator pathComparator = new PathComparator();
 	  return getLocalPath().length() == 0 ||
 			  ((pathComparator.compare(getLocalPath(), key.getMin().toString()) >= 0) &&
@@ -834,6 +843,8 @@ public class PGridP2P implements P2P {
 			}
 		}
 		mStatistics.PathLength = path.length();
+		if (HBaseManager.sharedInstance() != null)
+			HBaseManager.sharedInstance().splitForPath(path);
 	}
 
 	/**
@@ -857,6 +868,18 @@ public class PGridP2P implements P2P {
 		return mRoutingTable;
 	}
 
+	/**
+	 * Reads the Routing Table from the given file, or creates it. Done by the
+	 * initialization; tools building messages without joining the network
+	 * only need this.
+	 *
+	 * @param routeFile the file of the Routing Table.
+	 * @param localPort the local listening port.
+	 */
+	public void initRoutingTable(String routeFile, int localPort) {
+		mRoutingTable = new LocalRoutingTable(routeFile, localPort);
+	}
+
 	/**
 	 * Returns the P-Grid statistics.
 	 *
@@ -35,6 +35,7 @@ import java.io.File;
 
 import javax.swing.text.html.HTMLDocument.HTMLReader.IsindexAction;
 
+import mgrid.core.MGridUtils;
 import mgrid.core.Point;
 
 /**
@@ -100,9 +101,11 @@ public class PGridP2PFactory extends P2PFactory {
 	 */
 	public Key generateKey(Object obj) {
 	//	return new PGridKey(mHasher.findKey((String)obj));
-		if (obj instanceof Point)
-		return new PGridKey(mHasher.findKey((Point)obj));
-		else
+		if (obj instanceof Point) {
+			// spatial keys are packed, no binary string is built
+			Point point = (Point)obj;
+			return new PGridKey(MGridUtils.HILBERT.encode(point.x, point.y), MGridUtils.HILBERT.getIndexBits());
+		} else
 			return new PGridKey(mHasher.findKey((String)obj));
 	}
 
@@ -30,6 +30,7 @@ import pgrid.interfaces.basic.PGridP2PFactory;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import com.google.common.primitives.Ints;
 
@@ -131,6 +132,37 @@ public class DefaultTypeHandler implements TypeHandler {
 		String lower = query.getLowerBound().toUpperCase();
 		String higher = query.getHigherBound().toUpperCase();
 		boolean equal = lower.equals(higher);
+		if (query instanceof pgrid.KnnRingQuery) {
+			// local top-k pruning, at most k candidates leave this peer
+			List<mgrid.core.Point> nearest = PGridIndex.sharedInstance().getLocalNearestEntries((pgrid.KnnRingQuery)query);
+			if (nearest == null) {
+				listener.searchFailed(query.getGUID());
+			} else if (nearest.isEmpty()) {
+				listener.noResultsFound(query.getGUID());
+			} else {
+				listener.newSearchResult(query.getGUID(), nearest);
+				listener.searchFinished(query.getGUID());
+			}
+			return;
+		}
+		if (query instanceof pgrid.MultiRangeQuery) {
+			handleLocalMultiRangeSearch((pgrid.MultiRangeQuery)query, listener);
+			return;
+		}
+		if (!equal && query instanceof pgrid.RangeQuery && ((pgrid.RangeQuery)query).isStreamed()) {
+			// page the matching points back instead of counting them
+			int chunkSize = PGridP2P.sharedInstance().propertyInteger(pgrid.Properties.RANGE_QUERY_CHUNK_SIZE);
+			long hits = PGridIndex.sharedInstance().streamLocalIndexEntries(query.getLowerBound(), query.getHigherBound(),
+					query.getOrigxMin(), query.getOrigxMax(), query.getOrigyMin(), query.getOrigyMax(),
+					chunkSize, query.getGUID(), listener);
+			if (hits < 0)
+				listener.searchFailed(query.getGUID());
+			else if (hits > 0)
+				listener.searchFinished(query.getGUID());
+			else
+				listener.noResultsFound(query.getGUID());
+			return;
+		}
 		if (equal) {
 		
 			result = PGridIndex.sharedInstance().getLocalIndexEntries(query.getLowerBound());
@@ -138,6 +170,10 @@ public class DefaultTypeHandler implements TypeHandler {
 		} else {
 			result = PGridIndex.sharedInstance().getLocalIndexEntries(query.getLowerBound(),query.getHigherBound(),
 					query.getOrigxMin(), query.getOrigxMax(), query.getOrigyMin(), query.getOrigyMax());
+			if (result == null) {
+				listener.searchFailed(query.getGUID());
+				return;
+			}
 			for (Iterator it = result.iterator(); it.hasNext();) {
 				IndexEntry entry = (IndexEntry) it.next();
 				resultSize = Integer.parseInt(entry.getKey().toString());
@@ -150,6 +186,45 @@ public class DefaultTypeHandler implements TypeHandler {
 			listener.noResultsFound(query.getGUID());
 	}
 
+	/**
+	 * Searches all ranges of a multi-range query with a single local scan.
+	 *
+	 * @param query the query.
+	 * @param listener the search listener.
+	 */
+	protected void handleLocalMultiRangeSearch(pgrid.MultiRangeQuery query, SearchListener listener) {
+		long hits;
+		if (query.isStreamed()) {
+			int chunkSize = PGridP2P.sharedInstance().propertyInteger(pgrid.Properties.RANGE_QUERY_CHUNK_SIZE);
+			hits = PGridIndex.sharedInstance().streamLocalIndexEntries(query.getLowerBounds(), query.getHigherBounds(),
+					query.getOrigxMin(), query.getOrigxMax(), query.getOrigyMin(), query.getOrigyMax(),
+					chunkSize, query.getGUID(), listener);
+			if (hits < 0)
+				listener.searchFailed(query.getGUID());
+			else if (hits > 0)
+				listener.searchFinished(query.getGUID());
+			else
+				listener.noResultsFound(query.getGUID());
+			return;
+		}
+
+		hits = 0;
+		Collection<? extends IndexEntry> result = PGridIndex.sharedInstance().getLocalIndexEntries(query.getLowerBounds(), query.getHigherBounds(),
+				query.getOrigxMin(), query.getOrigxMax(), query.getOrigyMin(), query.getOrigyMax());
+		if (result == null) {
+			listener.searchFailed(query.getGUID());
+			return;
+		}
+		for (Iterator<? extends IndexEntry> it = result.iterator(); it.hasNext();) {
+			IndexEntry entry = it.next();
+			hits = Long.parseLong(entry.getKey().toString());
+		}
+		if (hits > 0)
+			listener.newSearchResult(query.getGUID(), (int)hits);
+		else
+			listener.noResultsFound(query.getGUID());
+	}
+
 	/**
 	 * Construct the string out of the lowerbound that will be use to query
 	 * the network. <br/>
@@ -31,6 +31,7 @@ import p2p.index.Type;
 import p2p.index.events.NoSuchTypeException;
 import p2p.index.events.SearchListener;
 import p2p.index.events.IndexListener;
+import pgrid.IndexEntry;
 import pgrid.core.index.IndexManager;
 import pgrid.core.search.SearchManager;
 import pgrid.interfaces.basic.PGridP2P;
@@ -201,12 +202,83 @@ public class PGridIndex implements Index {
 	 * @param origxMax the original query x maximum
 	 * @param origyMin the original query y minimum
 	 * @param origyMax the original query y maximum
-	 * @return the local data items.
+	 * @return the local data items, null if the local scan failed.
 	 */
 	public Collection getLocalIndexEntries(String lowerPrefix, String higherPrefix,  Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
 		return mIndexManager.getIndexTable().getIndexEntriesPrefixed(lowerPrefix, higherPrefix, origxMin,  origxMax, origyMin, origyMax);
 	}
 
+	/**
+	 * Streams the local data items between the given prefixes which fall inside
+	 * the original query window to the listener, in chunks of at most
+	 * <code>chunkSize</code> points.
+	 *
+	 * @param lowerPrefix prefixing the data item data field
+	 * @param higherPrefix prefixing the data item data field
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param chunkSize the maximum number of points per chunk
+	 * @param guid the GUID of the query
+	 * @param listener the listener receiving each chunk
+	 * @return the number of streamed data items, -1 if the local scan failed.
+	 */
+	public long streamLocalIndexEntries(String lowerPrefix, String higherPrefix, Long origxMin, Long origxMax, Long origyMin, Long origyMax,
+			int chunkSize, GUID guid, SearchListener listener) {
+		return mIndexManager.getIndexTable().streamIndexEntriesPrefixed(lowerPrefix, higherPrefix, origxMin, origxMax, origyMin, origyMax,
+				chunkSize, guid, listener);
+	}
+
+	/**
+	 * Get collection of the local data items within the given ranges
+	 * which fall inside the original query window.
+	 *
+	 * @param lowerPrefixes the lower bounds of the ranges
+	 * @param higherPrefixes the higher bounds of the ranges
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @return the local data items, null if the local scan failed.
+	 */
+	public Collection<IndexEntry> getLocalIndexEntries(List<String> lowerPrefixes, List<String> higherPrefixes, Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
+		return mIndexManager.getIndexTable().getIndexEntriesPrefixed(lowerPrefixes, higherPrefixes, origxMin, origxMax, origyMin, origyMax);
+	}
+
+	/**
+	 * Streams the local data items within the given ranges which fall inside
+	 * the original query window to the listener, in chunks of at most
+	 * <code>chunkSize</code> points.
+	 *
+	 * @param lowerPrefixes the lower bounds of the ranges
+	 * @param higherPrefixes the higher bounds of the ranges
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param chunkSize the maximum number of points per chunk
+	 * @param guid the GUID of the query
+	 * @param listener the listener receiving each chunk
+	 * @return the number of streamed data items, -1 if the local scan failed.
+	 */
+	public long streamLocalIndexEntries(List<String> lowerPrefixes, List<String> higherPrefixes, Long origxMin, Long origxMax, Long origyMin, Long origyMax,
+			int chunkSize, GUID guid, SearchListener listener) {
+		return mIndexManager.getIndexTable().streamIndexEntriesPrefixed(lowerPrefixes, higherPrefixes, origxMin, origxMax, origyMin, origyMax,
+				chunkSize, guid, listener);
+	}
+
+	/**
+	 * Get the at most k local data items of a kNN ring which are the closest
+	 * to the query point.
+	 *
+	 * @param query the ring query
+	 * @return the closest points, ordered by ascending distance; null if the local scan failed.
+	 */
+	public List<mgrid.core.Point> getLocalNearestEntries(pgrid.KnnRingQuery query) {
+		return mIndexManager.getIndexTable().getNearestIndexEntries(query);
+	}
+
 	/**
 	 * Get collection of the local data items.
 	 *
@@ -41,6 +41,7 @@ import pgrid.Constants;
 
 import java.util.Hashtable;
 import java.util.Collection;
+import java.util.List;
 
 import mgrid.core.Point;
 
@@ -191,6 +192,40 @@ public class PGridIndexFactory extends IndexFactory {
 		
 		return mIndexManager.createQuery(type, mLocalHost, lowerBound, higherBound, origxMin, origxMax, origyMin, origyMax);
 	}
+
+	/**
+	 * Create a Query instance over several ranges which sends the original query co-ordinates.
+	 *
+	 * @param type        	the Type of items the query is for
+	 * @param lowerBounds	the lower bounds of the ranges, in ascending order
+	 * @param higherBounds	the higher bounds of the ranges
+	 * @return a Query instance
+	 * @throws NoSuchTypeException if the provided Type is unknown.
+	 */
+	public Query createQuery(Type type, List<String> lowerBounds, List<String> higherBounds, Long origxMin, Long origxMax, Long origyMin, Long origyMax) {
+		if ((type == null) || (lowerBounds == null) || (higherBounds == null))
+			throw new NullPointerException();
+		if (lowerBounds.isEmpty() || lowerBounds.size() != higherBounds.size())
+			throw new IllegalArgumentException("Expected the same non-zero number of lower and higher bounds.");
+
+		return mIndexManager.createQuery(type, null, mLocalHost, lowerBounds, higherBounds, origxMin, origxMax, origyMin, origyMax);
+	}
+
+	/**
+	 * Create a k-nearest-neighbour Query instance compatible with the Storage implementation.
+	 *
+	 * @param type	the Type of items the query is for
+	 * @param x		the x coordinate of the query point
+	 * @param y		the y coordinate of the query point
+	 * @param k		the number of neighbours to find
+	 * @return a Query instance
+	 */
+	public Query createKnnQuery(Type type, Long x, Long y, int k) {
+		if ((type == null) || (x == null) || (y == null))
+			throw new NullPointerException();
+
+		return new pgrid.KnnQuery(mLocalHost, type, x, y, k);
+	}
 	/**
 	 * Create a Query instance compatible with the Storage implementation.
 	 *
@@ -28,6 +28,8 @@ import pgrid.Constants;
 import pgrid.interfaces.basic.PGridP2P;
 import pgrid.network.protocol.InitMessage;
 import pgrid.network.protocol.InitResponseMessage;
+import pgrid.network.protocol.MessageHeader;
+import pgrid.util.Compression;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -142,6 +144,28 @@ class Acceptor implements Runnable {
 					mConn.setCompression(false);
 				}
 				msgInitResp.setHeaderField(InitResponseMessage.HEADER_COMPRESSION, "yes");
+				// hosts announcing their codecs mark the compression of every message, the field above does not matter to them
+				msgInitResp.setHeaderField(InitResponseMessage.HEADER_COMPRESSORS, Compression.getCodecNames());
+				String compressors = msgInit.getHeaderField(InitMessage.HEADER_COMPRESSORS);
+				if (compressors != null) {
+					mConn.setCompressor(Compression.selectCodec(mPGridP2P.propertyInteger(Properties.COMPRESSION_LEVEL), compressors));
+					mConn.setCompression(mPGridP2P.propertyInteger(Properties.COMPRESSION_LEVEL) != Deflater.NO_COMPRESSION);
+				}
+				// older hosts do not send the codec field and get XML contents
+				if (mPGridP2P.propertyBoolean(Properties.BINARY_CODEC) &&
+						MessageHeader.ENCODING_BINARY.equals(msgInit.getHeaderField(InitMessage.HEADER_CODEC))) {
+					msgInitResp.setHeaderField(InitResponseMessage.HEADER_CODEC, MessageHeader.ENCODING_BINARY);
+					mConn.setBinaryCodec(true);
+				} else {
+					mConn.setBinaryCodec(false);
+				}
+				// older hosts do not send the channel field and only use one connection
+				String channel = msgInit.getHeaderField(InitMessage.HEADER_CHANNEL);
+				if (mPGridP2P.propertyBoolean(Properties.BULK_CHANNEL) && channel != null) {
+					msgInitResp.setHeaderField(InitResponseMessage.HEADER_CHANNEL, channel);
+					mConn.setBulkChannel(true);
+					mConn.setBulk(channel.equals(InitMessage.CHANNEL_BULK));
+				}
 				// Constants.LOGGER.finest("Init response message:\n" + msgInitResp.toXMLString());
 				writer.write(msgInitResp.getBytes());
 				mConn.setStatus(Connection.STATUS_CONNECTED);
@@ -0,0 +1,158 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package pgrid.network;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers the writers encode message headers into. A header
+ * is encoded once, straight from its characters, and the buffer is handed to
+ * the channel without another copy. Texts which do not fit in a pooled buffer
+ * get a buffer of their own.
+ */
+class BufferPool {
+
+	/**
+	 * The capacity of a pooled buffer.
+	 */
+	static final int BUFFER_SIZE = 4096;
+
+	/**
+	 * The maximal number of idle buffers kept.
+	 */
+	private static final int MAX_IDLE = 256;
+
+	/**
+	 * The reference to the only instance of this class (Singleton pattern).
+	 */
+	private static final BufferPool SHARED_INSTANCE = new BufferPool();
+
+	/**
+	 * The UTF-8 charset.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The encoder of each thread, as encoders keep a state. Malformed
+	 * characters are replaced, as by {@link String#getBytes}.
+	 */
+	private static final ThreadLocal<CharsetEncoder> ENCODER = new ThreadLocal<CharsetEncoder>() {
+		@Override
+		protected CharsetEncoder initialValue() {
+			return UTF8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
+
+	/**
+	 * The idle buffers.
+	 */
+	private final Queue<ByteBuffer> mIdle = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * The number of idle buffers.
+	 */
+	private final AtomicInteger mIdleCount = new AtomicInteger();
+
+	/**
+	 * This creates the only instance of this class.
+	 */
+	private BufferPool() {
+	}
+
+	/**
+	 * Returns the only instance of this class.
+	 *
+	 * @return the only instance of this class.
+	 */
+	static BufferPool sharedInstance() {
+		return SHARED_INSTANCE;
+	}
+
+	/**
+	 * Returns an empty buffer of {@link #BUFFER_SIZE} bytes.
+	 *
+	 * @return the buffer.
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buffer = mIdle.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(BUFFER_SIZE);
+		mIdleCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. Buffers not taken from the pool are
+	 * ignored.
+	 *
+	 * @param buffer the buffer.
+	 */
+	void release(ByteBuffer buffer) {
+		if (!buffer.isDirect() || buffer.capacity() != BUFFER_SIZE)
+			return;
+		if (mIdleCount.incrementAndGet() > MAX_IDLE) {
+			mIdleCount.decrementAndGet();
+			return;
+		}
+		mIdle.offer(buffer);
+	}
+
+	/**
+	 * Encodes a text in UTF-8 into a buffer ready to be written. The buffer
+	 * should be released once written.
+	 *
+	 * @param text the text.
+	 * @return the buffer holding the encoded text.
+	 */
+	ByteBuffer encode(CharSequence text) {
+		ByteBuffer buffer = acquire();
+		CharsetEncoder encoder = ENCODER.get();
+		encoder.reset();
+		CoderResult result = encoder.encode(CharBuffer.wrap(text), buffer, true);
+		if (!result.isOverflow())
+			result = encoder.flush(buffer);
+		if (result.isOverflow()) {
+			release(buffer);
+			try {
+				return encoder.encode(CharBuffer.wrap(text));
+			} catch (CharacterCodingException e) {
+				// not thrown as malformed characters are replaced
+				return ByteBuffer.wrap(text.toString().getBytes(UTF8));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+}
@@ -74,6 +74,27 @@ public class Connection {
 	 */
 	private boolean mCompressionFlag = false;
 
+	/**
+	 * If message contents may be written by the binary codec.
+	 */
+	private boolean mBinaryCodecFlag = false;
+
+	/**
+	 * The codec messages are compressed with, null if the remote host reads
+	 * every message compressed by deflate.
+	 */
+	private String mCompressor = null;
+
+	/**
+	 * If the remote host accepts a bulk connection for streamed files.
+	 */
+	private boolean mBulkChannelFlag = false;
+
+	/**
+	 * If this is the bulk connection to the remote host.
+	 */
+	private boolean mBulkFlag = false;
+
 	/**
 	 * The start time of the connection.
 	 */
@@ -243,6 +264,80 @@ public class Connection {
 		mCompressionFlag = flag;
 	}
 
+	/**
+	 * Returns the codec messages are compressed with. If set, every message
+	 * is marked with its compression, and may be sent uncompressed.
+	 *
+	 * @return the codec name, or null if the remote host reads every message compressed by deflate.
+	 */
+	public String getCompressor() {
+		return mCompressor;
+	}
+
+	/**
+	 * Sets the codec messages are compressed with.
+	 *
+	 * @param codec the codec name, or null if the remote host reads every message compressed by deflate.
+	 */
+	public void setCompressor(String codec) {
+		mCompressor = codec;
+	}
+
+	/**
+	 * Tests if the remote host reads binary message contents.
+	 *
+	 * @return <code>true</code> if the binary codec is used, <code>false</code> if contents are written in XML.
+	 */
+	public boolean isBinaryCodec() {
+		return mBinaryCodecFlag;
+	}
+
+	/**
+	 * Sets if the remote host reads binary message contents.
+	 *
+	 * @param flag <code>true</code> if the binary codec is used, <code>false</code> otherwise.
+	 */
+	public void setBinaryCodec(boolean flag) {
+		mBinaryCodecFlag = flag;
+	}
+
+	/**
+	 * Tests if the remote host accepts a bulk connection for streamed files.
+	 *
+	 * @return <code>true</code> if files may be streamed over a bulk connection, <code>false</code> otherwise.
+	 */
+	public boolean isBulkChannel() {
+		return mBulkChannelFlag;
+	}
+
+	/**
+	 * Sets if the remote host accepts a bulk connection for streamed files.
+	 *
+	 * @param flag <code>true</code> if files may be streamed over a bulk connection, <code>false</code> otherwise.
+	 */
+	public void setBulkChannel(boolean flag) {
+		mBulkChannelFlag = flag;
+	}
+
+	/**
+	 * Tests if this is the bulk connection to the remote host, which carries
+	 * streamed files and is not used for other messages.
+	 *
+	 * @return <code>true</code> for a bulk connection, <code>false</code> otherwise.
+	 */
+	public boolean isBulk() {
+		return mBulkFlag;
+	}
+
+	/**
+	 * Sets if this is the bulk connection to the remote host.
+	 *
+	 * @param flag <code>true</code> for a bulk connection, <code>false</code> otherwise.
+	 */
+	public void setBulk(boolean flag) {
+		mBulkFlag = flag;
+	}
+
 	/**
 	 * Tests if connected or not.
 	 *
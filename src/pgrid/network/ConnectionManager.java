@@ -28,10 +28,16 @@ import pgrid.interfaces.basic.PGridP2P;
 import pgrid.PGridHost;
 import pgrid.Properties;
 import pgrid.core.maintenance.identity.IdentityManager;
+import pgrid.interfaces.utils.IFileStreamingMessage;
 import pgrid.network.protocol.PGridMessage;
+import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 
 /**
  * The Communication Manager adminstrates all connection to other hosts.
@@ -99,7 +105,27 @@ public class ConnectionManager {
 	/**
 	 * Hashtable of all Writers, by Host GUID.
 	 */
-	private Hashtable mWriters = new Hashtable();
+	private Hashtable<GUID, PGridWriter> mWriters = new Hashtable<GUID, PGridWriter>();
+
+	/**
+	 * Hashtable of the bulk connections streaming files, by Host GUID.
+	 */
+	private Hashtable<GUID, Connection> mBulkConnections = new Hashtable<GUID, Connection>();
+
+	/**
+	 * Hashtable of the writers of bulk connections, by Host GUID.
+	 */
+	private Hashtable<GUID, PGridWriter> mBulkWriters = new Hashtable<GUID, PGridWriter>();
+
+	/**
+	 * Hashtable of the locks opening bulk connections, by Host GUID.
+	 */
+	private Hashtable<GUID, Object> mBulkLocks = new Hashtable<GUID, Object>();
+
+	/**
+	 * True if files are streamed over bulk connections.
+	 */
+	private boolean mBulkChannel = false;
 
 	/**
 	 * Hashtable of all timestamp of offline host, by Host GUID.
@@ -121,6 +147,25 @@ public class ConnectionManager {
 	 */
 	protected int mAttemps;
 
+	/**
+	 * The transport reading the established connections, null if every
+	 * connection is read by its own thread.
+	 */
+	private NioTransport mTransport = null;
+
+	/**
+	 * The threads accepting and establishing connections.
+	 */
+	private ExecutorService mHandshakes = Executors.newCachedThreadPool(new ThreadFactory() {
+		private int mCount = 0;
+
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "P-Grid Handshake " + (++mCount));
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
 	/**
 	 * The constructor must be protected to ensure that only subclasses can
 	 * call it and that only one instance can ever get created. A client that
@@ -150,9 +195,7 @@ public class ConnectionManager {
 		Connection conn = new Connection(socket);
 
 		conn.setStatus(Connection.STATUS_ACCEPTING);
-		Thread t = new Thread(new Acceptor(conn), "Acceptor - " + conn.getGUID());
-		t.setDaemon(true);
-		t.start();
+		mHandshakes.execute(new Acceptor(conn));
 	}
 
 	/**
@@ -165,9 +208,7 @@ public class ConnectionManager {
 		Connection conn = new Connection(socket);
 
 		conn.setStatus(Connection.STATUS_ACCEPTING);
-		Thread t = new Thread(new Acceptor(conn, greeting), "Acceptor - " + conn.getGUID());
-		t.setDaemon(true);
-		t.start();
+		mHandshakes.execute(new Acceptor(conn, greeting));
 	}
 
 	/**
@@ -189,6 +230,13 @@ public class ConnectionManager {
 			return;
 		}
 
+		// a bulk connection carries files only, it is not the connection of the host
+		if (conn.isBulk()) {
+			if (conn.getStatus() == Connection.STATUS_CONNECTED)
+				startBulk(conn);
+			return;
+		}
+
 		// process the acceptance
 		synchronized (mConnectionLock) {
 			connectionLock = mConnectionLock.get(conn.getHost());
@@ -208,11 +256,7 @@ public class ConnectionManager {
 				}
 				mConnections.put(conn.getHost().getGUID(), conn);
 
-				mWriters.put(conn.getHost().getGUID(), new PGridWriter(conn));
-				PGridReader pr = new PGridReader(conn, mMsgMgr);
-				Thread t = new Thread(pr, "Reader for '" + conn.getHost().toHostString() + "' - " + conn.getGUID());
-				t.setDaemon(true);
-				t.start();
+				startReading(conn);
 
 				if (PGridP2P.sharedInstance().isInDebugMode())
 					Constants.LOGGER.finest("Incomming connection ("+conn.getGUID()+") with host " + (conn.getHost() == null? "\"unknown\"": conn.getHost().toHostString()) + " established.");
@@ -307,9 +351,7 @@ public class ConnectionManager {
 		// establish new connection
 		conn = new Connection(host);
 		conn.setStatus(Connection.STATUS_CONNECTING);
-		Thread t = new Thread(new Connector(conn), "Connect to '" + host.toHostString() + "' - " + conn.hashCode());
-		t.setDaemon(true);
-		t.start();
+		mHandshakes.execute(new Connector(conn));
 
 		// wait for established connection
 
@@ -343,7 +385,6 @@ public class ConnectionManager {
 		boolean challengeSucceeded = true;
 		boolean bootstrap = false;
 		PGridHost host = conn.getHost();
-		Thread readerThread = null;
 
 		// if the host uses a temp. GUID (because it was not know before) => set the correct guid
 		// INFO (Roman): I changed it to guid only because the GUID is temp. for bootstrap requests
@@ -351,6 +392,13 @@ public class ConnectionManager {
 			host.setGUID(guid);
 		}
 
+		// a bulk connection is opened by the sending thread, nobody waits for it
+		if (conn.isBulk()) {
+			if (conn.getStatus() == Connection.STATUS_CONNECTED)
+				startBulk(conn);
+			return;
+		}
+
 		// connection has been established
 		if (conn.getStatus() == Connection.STATUS_CONNECTED) {
 			if (host.getGUID() == null) {
@@ -359,11 +407,7 @@ public class ConnectionManager {
 			}
 
 
-			mWriters.put(host.getGUID(), new PGridWriter(conn));
-			PGridReader pr = new PGridReader(conn, mMsgMgr);
-			readerThread = new Thread(pr, "Reader for '" + host.toHostString() + "' - " + conn.getGUID());
-			readerThread.setDaemon(true);
-			readerThread.start();
+			startReading(conn);
 			if (PGridP2P.sharedInstance().isInDebugMode())
 				Constants.LOGGER.finer("Connection "+conn.getGUID()+" with host '" + host.toHostString() + "' established with code: "+conn.getStatusString()+".");
 			if (mSecuredConnection && !bootstrap) {
@@ -408,6 +452,53 @@ public class ConnectionManager {
 		}
 	}
 
+	/**
+	 * Registers the writer of an established connection and starts to read
+	 * its messages, on the NIO transport if the socket has a channel or by a
+	 * dedicated thread otherwise.
+	 *
+	 * @param conn the connection.
+	 */
+	private void startReading(Connection conn) {
+		PGridHost host = conn.getHost();
+		PGridReader pr = new PGridReader(conn, mMsgMgr);
+		NioTransport.Endpoint endpoint = null;
+		if (mTransport != null) {
+			try {
+				endpoint = mTransport.register(conn, pr);
+			} catch (IOException e) {
+				Constants.LOGGER.log(Level.FINE, "Connection with host '" + host.toHostString() + "' is read by its own thread.", e);
+			}
+		}
+
+		// the writer has to be known before the first message is processed
+		PGridWriter writer = new PGridWriter(conn, endpoint);
+		if (conn.isBulk())
+			mBulkWriters.put(host.getGUID(), writer);
+		else
+			mWriters.put(host.getGUID(), writer);
+		if (endpoint != null) {
+			mTransport.activate(endpoint);
+		} else {
+			Thread t = new Thread(pr, "Reader for '" + host.toHostString() + "' - " + conn.getGUID());
+			t.setDaemon(true);
+			t.start();
+		}
+	}
+
+	/**
+	 * Starts to read an established bulk connection and uses it for the files
+	 * streamed to its host, in place of an older one.
+	 *
+	 * @param conn the connection.
+	 */
+	private void startBulk(Connection conn) {
+		synchronized (mBulkConnections) {
+			startReading(conn);
+			mBulkConnections.put(conn.getHost().getGUID(), conn);
+		}
+	}
+
 	/**
 	 * Initializes the Connection Manager.
 	 *
@@ -421,6 +512,18 @@ public class ConnectionManager {
 			mIdentMgr = IdentityManager.sharedInstance();
 
 		mAttemps = PGridP2P.sharedInstance().propertyInteger(Properties.IDENTITY_CONNECTION_ATTEMPS);
+		mBulkChannel = PGridP2P.sharedInstance().propertyBoolean(Properties.BULK_CHANNEL);
+
+		// SSL sockets have no channel and are always read by a thread each
+		if (mTransport == null && PGridP2P.sharedInstance().propertyBoolean(Properties.NIO_TRANSPORT)
+				&& !PGridP2P.sharedInstance().propertyBoolean(Properties.USE_SSLSOCKETS)) {
+			try {
+				mTransport = new NioTransport();
+				mTransport.start();
+			} catch (IOException e) {
+				Constants.LOGGER.log(Level.WARNING, "Cannot open the connection selector, every connection is read by its own thread.", e);
+			}
+		}
 		
 		if (startListener) {
 			
@@ -484,6 +587,13 @@ public class ConnectionManager {
 				mConnections.remove(conn.getHost().getGUID());
 
 		}
+		// messages held back for the closed connection are not written anymore
+		if (conn.getHost() != null && conn.getHost().getGUID() != null) {
+			PGridWriter writer = (conn.isBulk() ? mBulkWriters : mWriters).get(conn.getHost().getGUID());
+			if (writer != null && writer.getConnection() == conn)
+				writer.close();
+		}
+		removeBulk(conn);
 		conn.close();
 
 	}
@@ -527,7 +637,10 @@ public class ConnectionManager {
 		}
 		Connection conn = connect(host);
 		if (conn != null && conn.getStatus() == Connection.STATUS_CONNECTED) {
-			PGridWriter writer = (PGridWriter)mWriters.get(host.getGUID());
+			// files are streamed aside so that they do not hold up the other messages
+			if (msg instanceof IFileStreamingMessage && sendBulk(host, conn, msg))
+				return true;
+			PGridWriter writer = mWriters.get(host.getGUID());
 			if (writer != null) {
 				if (writer.sendMsg(msg)) {
 					if (PGridP2P.sharedInstance().isInDebugMode()) {
@@ -559,7 +672,7 @@ public class ConnectionManager {
 		
 		conn = connect(relay);
 		if (conn != null && conn.getStatus() == Connection.STATUS_CONNECTED) {
-			PGridWriter writer = (PGridWriter)mWriters.get(relay.getGUID());
+			PGridWriter writer = mWriters.get(relay.getGUID());
 			if (writer != null) {
 				if (writer.sendMsg(msg)) {
 					if (PGridP2P.sharedInstance().isInDebugMode()) {
@@ -575,6 +688,64 @@ public class ConnectionManager {
 		return false;
 	}
 
+	/**
+	 * Streams a file message over the bulk connection to the delivered host,
+	 * which is opened if needed and if the host accepts it.
+	 *
+	 * @param host the receiving host.
+	 * @param conn the connection to the host carrying the other messages.
+	 * @param msg  the message to send.
+	 * @return <code>true</code> if the message was sent, <code>false</code> if it has to be sent over the connection.
+	 */
+	private boolean sendBulk(PGridHost host, Connection conn, PGridMessage msg) {
+		if (!mBulkChannel)
+			return false;
+
+		Object lock;
+		synchronized (mBulkLocks) {
+			lock = mBulkLocks.get(host.getGUID());
+			if (lock == null) {
+				lock = new Object();
+				mBulkLocks.put(host.getGUID(), lock);
+			}
+		}
+		synchronized (lock) {
+			Connection bulk = mBulkConnections.get(host.getGUID());
+			if (bulk == null || bulk.getStatus() != Connection.STATUS_CONNECTED) {
+				// a host behind a firewall can only open the bulk connection itself
+				if (!conn.isBulkChannel() || host.isBehindFirewall())
+					return false;
+				bulk = new Connection(host);
+				bulk.setBulk(true);
+				bulk.setStatus(Connection.STATUS_CONNECTING);
+				new Connector(bulk).run();
+				if (bulk.getStatus() != Connection.STATUS_CONNECTED) {
+					Constants.LOGGER.fine("No bulk connection to host " + host.toHostString() + " (" + bulk.getStatusString() + "), files are sent over the connection.");
+					conn.setBulkChannel(false);
+					return false;
+				}
+			}
+		}
+		PGridWriter writer = mBulkWriters.get(host.getGUID());
+		return writer != null && writer.sendMsg(msg);
+	}
+
+	/**
+	 * Forgets a closed bulk connection.
+	 *
+	 * @param conn the connection.
+	 */
+	private void removeBulk(Connection conn) {
+		if (!conn.isBulk() || conn.getHost() == null)
+			return;
+		synchronized (mBulkConnections) {
+			if (mBulkConnections.get(conn.getHost().getGUID()) == conn) {
+				mBulkConnections.remove(conn.getHost().getGUID());
+				mBulkWriters.remove(conn.getHost().getGUID());
+			}
+		}
+	}
+
 	/**
 	 * Sends the delivered message to the delivered host through a specific connection.
 	 *
@@ -585,7 +756,7 @@ public class ConnectionManager {
 	 */
 	boolean sendPGridMessage(PGridHost host, Connection conn, PGridMessage msg) {
 		if (conn.getStatus() == Connection.STATUS_CONNECTED) {
-			PGridWriter writer = (PGridWriter)mWriters.get(host.getGUID());
+			PGridWriter writer = mWriters.get(host.getGUID());
 			if (writer != null) {
 				return writer.sendMsg(msg);
 			}
@@ -593,6 +764,18 @@ public class ConnectionManager {
 		return false;
 	}
 
+	/**
+	 * Returns the writer of the connection to the given host.
+	 *
+	 * @param host the host.
+	 * @return the writer, or null if the host is not connected.
+	 */
+	PGridWriter getWriter(PGridHost host) {
+		if (host.getGUID() == null)
+			return null;
+		return mWriters.get(host.getGUID());
+	}
+
 	/**
 	 * Returns the connection for the given host and protocol.
 	 *
@@ -627,6 +810,7 @@ public class ConnectionManager {
 
 		if (mConnections.containsValue(conn))
 			mConnections.remove(conn.getHost().getGUID());
+		removeBulk(conn);
 
 		// check if it is time to close the connection
 		if ((time - conn.getLastIOTime()) >= conn.getIOTimeOut() && conn.getStatus() == Connection.STATUS_CONNECTED) {
@@ -24,32 +24,55 @@ package pgrid.network;
 
 import java.io.*;
 import java.net.SocketTimeoutException;
-import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.CharsetDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 
-import pgrid.Constants;
+import pgrid.XMLizable;
+import pgrid.network.protocol.MessageHeader;
 import pgrid.util.Compression;
 
 /**
  * The Communication Reader provides basic functions to read messages from an
- * Input Stream.
+ * Input Stream or a non-blocking socket channel.
+ * <p/>
+ * Bytes are read in bulk into a buffer which lines and contents are taken
+ * from, so reading a message header costs a scan of the buffer. For a
+ * non-blocking channel the reader waits for further bytes through the
+ * endpoint of the connection; {@link #hasMessage()} tells whether the buffer
+ * already holds a complete message, which can then be read without waiting.
  *
  * @author @author <a href="mailto:Roman Schmidt <Roman.Schmidt@epfl.ch>">Roman Schmidt</a>
  * @version 1.0.0
  */
 class ConnectionReader {
 
-	private ByteBuffer mByteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
-	private CharBuffer mCharBuffer = CharBuffer.allocate(BUFFER_SIZE);
-
 	/**
 	 * Buffer size
 	 */
-	static private int BUFFER_SIZE = 256;
+	static private int BUFFER_SIZE = 8192;
 
+	/**
+	 * Capacity above which an emptied buffer is replaced by one of the default
+	 * size.
+	 */
+	static private int MAX_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The line separator.
+	 */
+	static private final byte NEW_LINE = (byte)'\n';
+
+	/**
+	 * The attribute of the leading line giving the content length.
+	 */
+	static private final byte[] CONTENT_LENGTH = (MessageHeader.XML_HEADER_CONTENT_LENGTH + XMLizable.XML_ATTR_OPEN).getBytes();
+
+	/**
+	 * The line ending the leading header part.
+	 */
+	static private final byte[] HEADER_END = (XMLizable.XML_ELEMENT_OPEN_END + MessageHeader.XML_HEADER + XMLizable.XML_ELEMENT_CLOSE).getBytes();
 
 	/**
 	 * Unicode charset
@@ -57,19 +80,19 @@ class ConnectionReader {
 	static private Charset mCharset = Charset.forName("UTF-8");
 
 	/**
-	 * Unicode decoder
+	 * The read bytes not consumed yet, between position and limit.
 	 */
-	private CharsetDecoder mDecoder = mCharset.newDecoder();
+	private ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
 
 	/**
-	 * The buffered Input Stream reader.
+	 * The channel to read from.
 	 */
-	private DataInputStream mDataReader = null;
+	private ReadableByteChannel mIn = null;
 
 	/**
-	 * The Input Stream.
+	 * The endpoint to wait on if the channel is non-blocking, null otherwise.
 	 */
-	private InputStream mIn = null;
+	private NioTransport.Endpoint mEndpoint = null;
 
 	/**
 	 * P-Grid conection
@@ -82,9 +105,165 @@ class ConnectionReader {
 	 * @param in the Input Stream.
 	 */
 	ConnectionReader(InputStream in, Connection conn) {
+		this(Channels.newChannel(in), conn, null);
+	}
+
+	/**
+	 * Creates a reader for a channel.
+	 *
+	 * @param in       the channel.
+	 * @param conn     the connection.
+	 * @param endpoint the endpoint if the channel is non-blocking, null otherwise.
+	 */
+	ConnectionReader(ReadableByteChannel in, Connection conn, NioTransport.Endpoint endpoint) {
 		mConn = conn;
 		mIn = in;
-		mDataReader = new DataInputStream(new BufferedInputStream(mIn));
+		mEndpoint = endpoint;
+		mBuffer.flip();
+	}
+
+	/**
+	 * Reads the bytes available on the channel into the buffer, without
+	 * waiting for them. The buffer is grown if it is full.
+	 *
+	 * @return the number of read bytes, -1 at the end of the stream.
+	 * @throws IOException an I/O error occured.
+	 */
+	int readAvailable() throws IOException {
+		if (!mBuffer.hasRemaining() && mBuffer.capacity() > MAX_BUFFER_SIZE) {
+			mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+			mBuffer.flip();
+		}
+		if (mBuffer.position() == 0 && mBuffer.limit() == mBuffer.capacity())
+			ensureCapacity(mBuffer.capacity() * 2);
+		mBuffer.compact();
+		try {
+			int len = mIn.read(mBuffer);
+			if (len > 0)
+				mConn.resetIOTimer();
+			return len;
+		} finally {
+			mBuffer.flip();
+		}
+	}
+
+	/**
+	 * Reads further bytes into the buffer, waiting for them if the channel is
+	 * non-blocking.
+	 *
+	 * @return the number of read bytes, -1 at the end of the stream.
+	 * @throws IOException an I/O error occured.
+	 */
+	private int fill() throws IOException {
+		while (true) {
+			int len = readAvailable();
+			if (len != 0 || mEndpoint == null)
+				return len;
+			mEndpoint.awaitReadable();
+		}
+	}
+
+	/**
+	 * Grows the buffer to hold at least the given number of bytes.
+	 */
+	private void ensureCapacity(int capacity) {
+		if (mBuffer.capacity() >= capacity)
+			return;
+		ByteBuffer buffer = ByteBuffer.allocate(Math.max(capacity, mBuffer.capacity() * 2));
+		buffer.put(mBuffer);
+		buffer.flip();
+		mBuffer = buffer;
+	}
+
+	/**
+	 * Tests if the buffer holds a complete message, from the leading header
+	 * part to the closing line, without consuming it. The buffer is grown if
+	 * the announced content does not fit.
+	 *
+	 * @return <code>true</code> if a message can be read without waiting.
+	 */
+	boolean hasMessage() {
+		byte[] data = mBuffer.array();
+		int start = mBuffer.position();
+		int end = mBuffer.limit();
+		int lineStart = start;
+		int contentLen = -1;
+		for (int i = start; i < end; i++) {
+			if (data[i] != NEW_LINE)
+				continue;
+			if (lineStart == start) {
+				contentLen = contentLength(data, start, i);
+			} else if (isHeaderEnd(data, lineStart, i)) {
+				// a header without a valid length is dropped by the PGridReader
+				if (contentLen < 0)
+					return true;
+				int closing = i + 1 + contentLen;
+				for (int j = closing; j < end; j++) {
+					if (data[j] == NEW_LINE)
+						return true;
+				}
+				ensureCapacity(closing - start + BUFFER_SIZE);
+				return false;
+			}
+			lineStart = i + 1;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the content length given by the leading line of a message, or -1.
+	 */
+	private static int contentLength(byte[] data, int start, int end) {
+		search:
+		for (int i = start; i <= end - CONTENT_LENGTH.length; i++) {
+			for (int j = 0; j < CONTENT_LENGTH.length; j++) {
+				if (data[i + j] != CONTENT_LENGTH[j])
+					continue search;
+			}
+			int len = 0;
+			int digits = 0;
+			for (int k = i + CONTENT_LENGTH.length; k < end && data[k] >= '0' && data[k] <= '9' && digits < 10; k++, digits++)
+				len = len * 10 + (data[k] - '0');
+			return digits == 0 || len < 0 ? -1 : len;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tests if the line, ignoring surrounding white space, ends the leading
+	 * header part.
+	 */
+	private static boolean isHeaderEnd(byte[] data, int start, int end) {
+		while (start < end && (data[start] & 0xFF) <= ' ')
+			start++;
+		while (end > start && (data[end - 1] & 0xFF) <= ' ')
+			end--;
+		if (end - start != HEADER_END.length)
+			return false;
+		for (int i = 0; i < HEADER_END.length; i++) {
+			if (data[start + i] != HEADER_END[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads up to the delivered amount of bytes, waiting for one byte at least.
+	 *
+	 * @param data the array receiving the bytes.
+	 * @param off  the offset of the first byte.
+	 * @param len  the maximal number of bytes.
+	 * @return the number of read bytes, -1 at the end of the stream.
+	 * @throws IOException an I/O error occured.
+	 */
+	int read(byte[] data, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!mBuffer.hasRemaining() && fill() < 0)
+			return -1;
+		len = Math.min(len, mBuffer.remaining());
+		mBuffer.get(data, off, len);
+		return len;
 	}
 
 	/**
@@ -101,8 +280,13 @@ class ConnectionReader {
 			throw new IllegalArgumentException("len " + String.valueOf(len) + " is illegal!");
 		byte[] data = new byte[len];
 		try {
-			mDataReader.readFully(data, 0, len);
-			mConn.resetIOTimer();
+			int off = 0;
+			while (off < len) {
+				int read = read(data, off, len - off);
+				if (read < 0)
+					throw new EOFException();
+				off += read;
+			}
 		} catch (EOFException e) {
 			throw new ConnectionClosedException();
 		} catch (SocketTimeoutException e) {
@@ -125,58 +309,29 @@ class ConnectionReader {
 	 * @throws ConnectionTimeoutException the connection has timed out.
 	 */
 	String readLine() throws ConnectionClosedException, ConnectionTimeoutException {
-
-		mByteBuffer.clear();
-		mCharBuffer.clear();
-
-		StringBuffer line = new StringBuffer(10);
-		
 		try {
-			byte ch;
-			byte endline = (byte)'\n';
+			int scanned = 0;
 			while (true) {
-				ch = (byte) mDataReader.read();
-				mConn.resetIOTimer();
-				if (ch == endline) // New line in Unicode || end of stream
-					break;
-				if (ch == -1) throw new ConnectionClosedException();
-
-				mByteBuffer.put(ch);
-
-				if (mByteBuffer.position() == mByteBuffer.capacity()-1) {
-					mByteBuffer.flip();
-					mDecoder.decode(mByteBuffer,mCharBuffer,false);
-					mCharBuffer.flip();
-					line.append(mCharBuffer.toString());
-					mCharBuffer.clear();
-					mByteBuffer.compact();
+				byte[] data = mBuffer.array();
+				int start = mBuffer.position();
+				int end = mBuffer.limit();
+				for (int i = start + scanned; i < end; i++) {
+					if (data[i] == NEW_LINE) {
+						mBuffer.position(i + 1);
+						return new String(data, start, i - start, mCharset);
+					}
 				}
+				scanned = end - start;
+				if (fill() < 0)
+					throw new ConnectionClosedException();
 			}
-		} catch (EOFException e) {
-			throw new ConnectionClosedException();
 		} catch (SocketTimeoutException e) {
 			throw new ConnectionTimeoutException();
 		} catch (InterruptedIOException e) {
 			throw new ConnectionTimeoutException();
-		} catch (SocketException e)    {
-			throw new ConnectionClosedException();
 		} catch (IOException e) {
 			throw new ConnectionClosedException();
-		} catch (java.nio.BufferOverflowException e) {
-			System.err.println("Buffer overflow. Position: "+mByteBuffer.position()+" capacity: "+(mByteBuffer.capacity()-1));
 		}
-		
-		mByteBuffer.flip();
-		mDecoder.decode(mByteBuffer,mCharBuffer,true);
-		mCharBuffer.flip();
-		line.append(mCharBuffer.toString());
-		mDecoder.flush(mCharBuffer);
-		mCharBuffer.flip();
-		line.append(mCharBuffer.toString());
-
-		mDecoder.reset();
-
-		return line.toString();
 	}
 
 	/**
@@ -212,10 +367,14 @@ class ConnectionReader {
 			if ((len < 1) || (len > 65536)) {
 				throw new IllegalArgumentException("len " + String.valueOf(len) + " is illegal!");
 			}
-			mConn.getSocket().setSoTimeout(10*1000);
+			if (mEndpoint == null)
+				mConn.getSocket().setSoTimeout(10*1000);
 			while (skipLen != len) {
-				skipLen += mDataReader.skipBytes((int)(len - skipLen));
-				mConn.resetIOTimer();
+				if (!mBuffer.hasRemaining() && fill() < 0)
+					throw new ConnectionClosedException();
+				int skip = (int)Math.min(len - skipLen, mBuffer.remaining());
+				mBuffer.position(mBuffer.position() + skip);
+				skipLen += skip;
 			}
 		} catch (SocketTimeoutException e) {
 			throw new ConnectionTimeoutException();
@@ -228,52 +387,33 @@ class ConnectionReader {
 	}
 
 	/**
-	 * Reads bytesAmount bytes from current connection and sends them to DataOutputStream out
-	 * This function is used as a relay for NaFT hanflding
-	 * 
-	 * @param bytesAmount number of bytes to transmit to outputstream
-	 * @param out outputstream
+	 * Reads bytesAmount bytes from current connection and sends them to the writer
+	 * of another connection. This function is used as a relay for NaFT hanflding
+	 *
+	 * @param bytesAmount number of bytes to transmit
+	 * @param out the writer of the outgoing connection, or null to drop the bytes
+	 * @return <code>true</code> if all bytes were relayed.
 	 */
-	public void readBytesToStream(int bytesAmount, DataOutputStream out){
-		
+	boolean readBytesToWriter(int bytesAmount, PGridWriter out) {
+
 		NaFTManager.LOGGER.fine("Reading " + bytesAmount + " bytes and write them to outputstream");
-		
-		int BUFFER = 256;
-		byte[] data = new byte[BUFFER];
 
-		int count=0,bytesSoFar = 0;
-		int bytesToRead = BUFFER;
-		int bytesLeft = bytesAmount;
+		byte[] data = new byte[BUFFER_SIZE];
+		int count, bytesLeft = bytesAmount;
+		boolean relayed = out != null;
 		try {
-
-			do {
-				NaFTManager.LOGGER.fine("Writing " + count + " bytes");
-				out.write(data,0,count);
-				mConn.resetIOTimer();
+			while (bytesLeft > 0 && (count = read(data, 0, Math.min(bytesLeft, data.length))) != -1) {
+				// the remaining bytes have to be consumed even if the relay failed
+				if (relayed)
+					relayed = out.writeRaw(data, 0, count);
 				bytesLeft -= count;
-				bytesSoFar += count;
-				if (bytesLeft == 0) break;
-				
-				if (bytesLeft < BUFFER) {
-					bytesToRead = bytesLeft;
-				}
-			} while ((count = mDataReader.read(data, 0, bytesToRead)) != -1);
-			
-			NaFTManager.LOGGER.fine("Total bytes sent: " + bytesSoFar + " bytes (of " + bytesAmount + ")");
-			
-			out.flush();
-			
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		finally{
-			try {
-				out.flush();
-				out.close();
-			} catch (IOException e) {
-				e.printStackTrace();
 			}
+		} catch (IOException e) {
+			NaFTManager.LOGGER.fine("Relay stopped after " + (bytesAmount - bytesLeft) + " bytes: " + e);
+			return false;
 		}
+		NaFTManager.LOGGER.fine("Total bytes sent: " + (bytesAmount - bytesLeft) + " bytes (of " + bytesAmount + ")");
+		return relayed && bytesLeft == 0;
 	}
 	
 	
@@ -340,7 +480,7 @@ class ConnectionReader {
 				if (bytesLeft < BUFFER) {
 					bytesToRead = bytesLeft;
 				}
-			} while ((count = mDataReader.read(data, 0, bytesToRead)) != -1);
+			} while ((count = read(data, 0, bytesToRead)) != -1);
 			
 			out.flush();
 			
@@ -400,7 +540,7 @@ class ConnectionReader {
 				if (bytesLeft < BUFFER) {
 					bytesToRead = bytesLeft;
 				}
-			} while ((count = mDataReader.read(data, 0, bytesToRead)) != -1);
+			} while ((count = read(data, 0, bytesToRead)) != -1);
 			
 			out.flush();
 			
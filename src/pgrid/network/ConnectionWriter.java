@@ -32,19 +32,26 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import pgrid.Constants;
 import pgrid.util.Compression;
 
 /**
  * The Communication Writer provides basic functions to write messages to an
- * Output Stream.
+ * Output Stream or a non-blocking socket channel.
  *
  * @author @author <a href="mailto:Roman Schmidt <Roman.Schmidt@epfl.ch>">Roman Schmidt</a>
  * @version 1.0.0
  */
 class ConnectionWriter {
 
+	/**
+	 * Size of the chunks a file is written to an Output Stream in.
+	 */
+	private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 * The data output stream writer.
 	 */
@@ -55,6 +62,16 @@ class ConnectionWriter {
 	 */
 	private OutputStream mOut = null;
 
+	/**
+	 * The endpoint of a non-blocking channel, null for an Output Stream.
+	 */
+	private NioTransport.Endpoint mEndpoint = null;
+
+	/**
+	 * Copy of direct buffers written to the Output Stream.
+	 */
+	private byte[] mCopy = null;
+
 	/**
 	 * Creates a writer.
 	 *
@@ -65,6 +82,15 @@ class ConnectionWriter {
 		mDataWriter = new DataOutputStream(new BufferedOutputStream(mOut));
 	}
 
+	/**
+	 * Creates a writer for the non-blocking channel of an endpoint.
+	 *
+	 * @param endpoint the endpoint.
+	 */
+	ConnectionWriter(NioTransport.Endpoint endpoint) {
+		mEndpoint = endpoint;
+	}
+
 	/**
 	 * Writes an array of bytes to the Output Stream.
 	 *
@@ -72,8 +98,7 @@ class ConnectionWriter {
 	 * @throws IOException
 	 */
 	void write(byte[] data) throws IOException {
-		mDataWriter.write(data, 0, data.length);
-		mDataWriter.flush();
+		write(data, 0, data.length);
 	}
 
 	/**
@@ -85,10 +110,57 @@ class ConnectionWriter {
 	 * @throws IOException
 	 */
 	void write(byte[] data, int start, int len) throws IOException {
+		if (mEndpoint != null) {
+			ByteBuffer buffer = ByteBuffer.wrap(data, start, len);
+			while (buffer.hasRemaining()) {
+				// the socket buffer is full, wait until the selector reports it writable
+				if (mEndpoint.getChannel().write(buffer) == 0)
+					mEndpoint.awaitWritable();
+			}
+			return;
+		}
 		mDataWriter.write(data, start, len);
 		mDataWriter.flush();
 	}
 
+	/**
+	 * Writes the remaining bytes of several buffers as one write, gathered by
+	 * the channel or flushed once to the Output Stream.
+	 *
+	 * @param buffers the buffers.
+	 * @throws IOException
+	 */
+	void write(ByteBuffer[] buffers) throws IOException {
+		if (mEndpoint != null) {
+			long left = 0;
+			for (ByteBuffer buffer : buffers)
+				left += buffer.remaining();
+			while (left > 0) {
+				long written = mEndpoint.getChannel().write(buffers);
+				// the socket buffer is full, wait until the selector reports it writable
+				if (written == 0)
+					mEndpoint.awaitWritable();
+				left -= written;
+			}
+			return;
+		}
+		for (ByteBuffer buffer : buffers) {
+			if (buffer.hasArray()) {
+				mDataWriter.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+				buffer.position(buffer.limit());
+				continue;
+			}
+			if (mCopy == null)
+				mCopy = new byte[BufferPool.BUFFER_SIZE];
+			while (buffer.hasRemaining()) {
+				int len = Math.min(buffer.remaining(), mCopy.length);
+				buffer.get(mCopy, 0, len);
+				mDataWriter.write(mCopy, 0, len);
+			}
+		}
+		mDataWriter.flush();
+	}
+
 //	/**
 //	* Given file location this function writes the contents from this file to the network output stream
 //	* 
@@ -135,7 +207,9 @@ class ConnectionWriter {
 	
 	
 	/**
-	 * Sending a file over the network.
+	 * Sending a file over the network. A channel gets the file by
+	 * {@link FileChannel#transferTo}, without copying it through the heap; an
+	 * Output Stream gets it in large chunks and is flushed once.
 	 * @throws Exception 
 	 */
 	void writeFileToStream(String filePath, boolean compressed) throws Exception{
@@ -143,19 +217,28 @@ class ConnectionWriter {
 		String fileLocation = filePath;
 		if (compressed) fileLocation += ".zip";
 
-		int BUFFER = 256;
-		byte[] data = new byte[BUFFER];
-		BufferedInputStream bis = null;
-		int count=0,bytesWritten=0;
+		FileInputStream fis = null;
 		try {
-			bis = new BufferedInputStream(new FileInputStream(fileLocation),BUFFER);
+			fis = new FileInputStream(fileLocation);
+			FileChannel file = fis.getChannel();
 
-			while( (count = bis.read(data, 0, BUFFER)) != -1){
-				bytesWritten+=count;
-				mDataWriter.write(data,0,count);
+			if (mEndpoint != null) {
+				long position = 0;
+				long size = file.size();
+				while (position < size) {
+					long count = file.transferTo(position, size - position, mEndpoint.getChannel());
+					// the socket buffer is full, wait until the selector reports it writable
+					if (count == 0)
+						mEndpoint.awaitWritable();
+					position += count;
+				}
+			} else {
+				byte[] data = new byte[FILE_BUFFER_SIZE];
+				int count;
+				while ((count = fis.read(data)) != -1)
+					mDataWriter.write(data, 0, count);
 				mDataWriter.flush();
 			}
-			mDataWriter.flush();
 
 		} catch (FileNotFoundException e) {
 			Constants.LOGGER.warning("Trying to send a file which doesnot exists :"+new File(fileLocation).getName());
@@ -166,7 +249,7 @@ class ConnectionWriter {
 			e.printStackTrace();
 		} finally{
 			try {
-				bis.close();
+				if (fis != null) fis.close();
 				if (compressed) {
 //					if(new File(fileLocation+".old").exists()) new File(fileLocation+".old").delete();
 //					new File(fileLocation).renameTo(new File(fileLocation+".old"));//renaming the sent zipped file
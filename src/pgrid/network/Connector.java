@@ -26,12 +26,15 @@ import pgrid.Properties;
 import pgrid.interfaces.basic.PGridP2P;
 import pgrid.network.protocol.InitMessage;
 import pgrid.network.protocol.InitResponseMessage;
+import pgrid.network.protocol.MessageHeader;
+import pgrid.util.Compression;
 import static pgrid.network.PGridSSL.*;
 
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.zip.Deflater;
 
 /**
@@ -47,6 +50,11 @@ class Connector implements Runnable {
 	 */
 	private static final int CONNECT_TIMEOUT = 60 * 3; // ~ 3m.
 
+	/**
+	 * Timout to wait for the socket to be opened.
+	 */
+	private static final int OPEN_TIMEOUT = 1000*10; // ~ 10 sec.
+
 	/**
 	 * Timout to wait for a message to receive.
 	 */
@@ -116,6 +124,11 @@ class Connector implements Runnable {
 				msgInit.setHeaderField(InitMessage.HEADER_COMPRESSION, "yes");
 			else
 				msgInit.setHeaderField(InitMessage.HEADER_COMPRESSION, "no");
+			msgInit.setHeaderField(InitMessage.HEADER_COMPRESSORS, Compression.getCodecNames());
+			if (mPGridP2P.propertyBoolean(Properties.BINARY_CODEC))
+				msgInit.setHeaderField(InitMessage.HEADER_CODEC, MessageHeader.ENCODING_BINARY);
+			if (mPGridP2P.propertyBoolean(Properties.BULK_CHANNEL))
+				msgInit.setHeaderField(InitMessage.HEADER_CHANNEL, (mConn.isBulk() ? InitMessage.CHANNEL_BULK : InitMessage.CHANNEL_CONTROL));
 			// Constants.LOGGER.finest("Init message:\n" + msgInit.toXMLString());
 			mWriter.write(msgInit.getBytes());
 
@@ -133,6 +146,16 @@ class Connector implements Runnable {
 				return null;
 			}
 			mConn.setCompression((msgInit.getHeaderField(InitMessage.HEADER_COMPRESSION).toLowerCase().equals("yes") ? true : false));
+			mConn.setBinaryCodec(MessageHeader.ENCODING_BINARY.equals(msg.getHeaderField(InitResponseMessage.HEADER_CODEC)));
+			String compressors = msg.getHeaderField(InitResponseMessage.HEADER_COMPRESSORS);
+			if (compressors != null)
+				mConn.setCompressor(Compression.selectCodec(mPGridP2P.propertyInteger(Properties.COMPRESSION_LEVEL), compressors));
+			mConn.setBulkChannel(msg.getHeaderField(InitResponseMessage.HEADER_CHANNEL) != null);
+			if (mConn.isBulk() && !mConn.isBulkChannel()) {
+				mConn.setStatus(Connection.STATUS_ERROR, "Bulk connection refused");
+				mConnMgr.connectingFinished(mConn, null);
+				return null;
+			}
 			pgrid.GUID returnGUID = pgrid.GUID.getGUID(msg.getHeaderField(InitResponseMessage.HEADER_GUID));
 			return returnGUID;
 		} catch (IllegalArgumentException e) {
@@ -164,21 +187,6 @@ class Connector implements Runnable {
 			return false;
 		}
 
-		Thread timeoutThread = new Thread() {
-			public void run() {
-				try {
-					Thread.sleep(10*1000);
-				} catch (InterruptedException e) {
-					return;
-				}
-				if ((mSocket == null) && (mConn.getStatus() != Connection.STATUS_ERROR)) {
-					mConn.setStatus(Connection.STATUS_ERROR, "Timeout in open socket");
-					mConnMgr.connectingFinished(mConn, null);
-				}
-			}
-		};
-		timeoutThread.setDaemon(true);
-		timeoutThread.start();
 		try {
 			if (mInetAddr == null) {
 				mConn.getHost().resolve();
@@ -189,25 +197,21 @@ class Connector implements Runnable {
 					return false;
 				}
 			}
-            mSocket = PGridSocket.sharedInstance().getSocket(mInetAddr,mPort);
+            mSocket = PGridSocket.sharedInstance().getSocket(mInetAddr, mPort, OPEN_TIMEOUT);
             mSocket.setSoLinger(true, CONNECT_TIMEOUT);
 			mSocket.setTcpNoDelay(false);
-			timeoutThread.interrupt();
-			if (mConn.getStatus() == Connection.STATUS_ERROR) return false;
 
+		} catch (SocketTimeoutException e) {
+			mConn.setStatus(Connection.STATUS_ERROR, "Timeout in open socket");
+			mConnMgr.connectingFinished(mConn, null);
+			return false;
 		} catch (SocketException e) {
-			if (timeoutThread.isAlive()) {
-				timeoutThread.interrupt();
-				mConn.setStatus(Connection.STATUS_ERROR, "Not available");
-				mConnMgr.connectingFinished(mConn, null);
-			}
+			mConn.setStatus(Connection.STATUS_ERROR, "Not available");
+			mConnMgr.connectingFinished(mConn, null);
 			return false;
 		} catch (IOException e) {
-			if (timeoutThread.isAlive()) {
-				timeoutThread.interrupt();
-				mConn.setStatus(Connection.STATUS_ERROR, "Not available");
-				mConnMgr.connectingFinished(mConn, null);
-			}
+			mConn.setStatus(Connection.STATUS_ERROR, "Not available");
+			mConnMgr.connectingFinished(mConn, null);
 			return false;
 		}
 		mConn.setSocket(mSocket);
@@ -353,6 +353,17 @@ public class MessageManager implements MessageDispatcher {
 		}
 	}
 
+	/**
+	 * Removes the waiter of a given message GUID.
+	 *
+	 * @param guid the message guid.
+	 */
+	public void removeWaiter(GUID guid) {
+		if (guid != null) {
+			mWaiters.remove(guid);
+		}
+	}
+
 	/**
 	 * Registers a message handler for a given message type (desc). All remote mesage handler found int the mapping
 	 * XML file are automatically registereted
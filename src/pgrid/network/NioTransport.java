@@ -0,0 +1,406 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package pgrid.network;
+
+import pgrid.Constants;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+
+/**
+ * The NIO Transport reads all established connections with one selector
+ * thread instead of one reader thread per connection. The selector only
+ * watches the non-blocking channels: a readable connection is handed to a
+ * worker, which reads the available bytes in bulk and processes every message
+ * complete in the buffer before the connection is watched again. A connection
+ * is processed by one worker at a time, so its messages keep their order, and
+ * an idle connection holds no thread.
+ * <p/>
+ * Writers, and readers of a file streamed after a message, wait for the
+ * readiness of the channel through the {@link Endpoint} of the connection.
+ */
+class NioTransport implements Runnable {
+
+	/**
+	 * Maximal time to block in a select, which is also the period of the idle
+	 * connection check.
+	 */
+	private static final long SELECT_TIMEOUT = 1000;
+
+	/**
+	 * The Communication Manager.
+	 */
+	private ConnectionManager mConnMgr = ConnectionManager.sharedInstance();
+
+	/**
+	 * The endpoints of all registered connections.
+	 */
+	private final Set<Endpoint> mEndpoints = Collections.newSetFromMap(new ConcurrentHashMap<Endpoint, Boolean>());
+
+	/**
+	 * Endpoints whose watched operations changed since the last select.
+	 */
+	private final Queue<Endpoint> mChanges = new ConcurrentLinkedQueue<Endpoint>();
+
+	/**
+	 * The selector.
+	 */
+	private final Selector mSelector;
+
+	/**
+	 * The workers reading and processing the messages of readable connections.
+	 */
+	private final ExecutorService mWorkers;
+
+	/**
+	 * Creates a new transport.
+	 *
+	 * @throws IOException if the selector cannot be opened.
+	 */
+	NioTransport() throws IOException {
+		mSelector = Selector.open();
+		mWorkers = Executors.newCachedThreadPool(new ThreadFactory() {
+			private int mCount = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "P-Grid Reader " + (++mCount));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts the selector thread.
+	 */
+	void start() {
+		Thread t = new Thread(this, "P-Grid Selector");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/**
+	 * Switches the channel of an established connection to non-blocking mode
+	 * and creates its endpoint. The connection is read once it is activated.
+	 *
+	 * @param conn   the connection.
+	 * @param reader the reader processing the messages of the connection.
+	 * @return the endpoint, or null if the socket of the connection has no channel.
+	 * @throws IOException if the channel cannot be configured.
+	 */
+	Endpoint register(Connection conn, PGridReader reader) throws IOException {
+		if (conn.getSocket() == null || conn.getSocket().getChannel() == null)
+			return null;
+		SocketChannel channel = conn.getSocket().getChannel();
+		channel.configureBlocking(false);
+		Endpoint endpoint = new Endpoint(conn, channel, reader);
+		reader.setConnectionReader(endpoint.mIn);
+		return endpoint;
+	}
+
+	/**
+	 * Starts to read the connection of an endpoint.
+	 *
+	 * @param endpoint the endpoint.
+	 */
+	void activate(Endpoint endpoint) {
+		mEndpoints.add(endpoint);
+		endpoint.watch(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Runs the selector.
+	 */
+	public void run() {
+		long lastCheck = System.currentTimeMillis();
+		while (true) {
+			try {
+				mSelector.select(SELECT_TIMEOUT);
+
+				Endpoint changed;
+				while ((changed = mChanges.poll()) != null)
+					changed.update();
+
+				Iterator<SelectionKey> it = mSelector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					((Endpoint)key.attachment()).ready(key);
+				}
+
+				long time = System.currentTimeMillis();
+				if (time - lastCheck >= SELECT_TIMEOUT) {
+					lastCheck = time;
+					checkEndpoints(time);
+				}
+			} catch (IOException e) {
+				Constants.LOGGER.log(Level.WARNING, "Error in the connection selector.", e);
+			} catch (RuntimeException e) {
+				Constants.LOGGER.log(Level.WARNING, "Error in the connection selector.", e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the endpoints of closed connections and times out idle ones, as
+	 * a blocking read on the socket would.
+	 */
+	private void checkEndpoints(long time) {
+		for (final Endpoint endpoint : mEndpoints) {
+			if (!endpoint.mChannel.isOpen()) {
+				endpoint.close();
+			} else if (time - endpoint.mConn.getLastIOTime() >= endpoint.mConn.getIOTimeOut()) {
+				mWorkers.execute(new Runnable() {
+					public void run() {
+						mConnMgr.connectionTimeout(endpoint.mConn);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * The state of a connection handled by the transport.
+	 */
+	class Endpoint implements Runnable {
+
+		/**
+		 * The connection.
+		 */
+		private final Connection mConn;
+
+		/**
+		 * The non-blocking channel of the connection.
+		 */
+		private final SocketChannel mChannel;
+
+		/**
+		 * The reader processing the messages.
+		 */
+		private final PGridReader mReader;
+
+		/**
+		 * The reader buffering the bytes of the channel.
+		 */
+		private final ConnectionReader mIn;
+
+		/**
+		 * The selection key, null until registered by the selector.
+		 */
+		private SelectionKey mKey = null;
+
+		/**
+		 * The operations to watch.
+		 */
+		private int mInterest = 0;
+
+		/**
+		 * The ready operations not consumed by a waiting thread yet.
+		 */
+		private int mReady = 0;
+
+		/**
+		 * True while a thread waits for bytes to read; the connection is not
+		 * handed to a worker then.
+		 */
+		private boolean mReadWaiting = false;
+
+		Endpoint(Connection conn, SocketChannel channel, PGridReader reader) {
+			mConn = conn;
+			mChannel = channel;
+			mReader = reader;
+			mIn = new ConnectionReader(channel, conn, this);
+		}
+
+		/**
+		 * @return the non-blocking channel.
+		 */
+		SocketChannel getChannel() {
+			return mChannel;
+		}
+
+		/**
+		 * Waits until the channel is readable.
+		 *
+		 * @throws IOException if the connection is closed or has timed out.
+		 */
+		void awaitReadable() throws IOException {
+			await(SelectionKey.OP_READ);
+		}
+
+		/**
+		 * Waits until the channel is writable.
+		 *
+		 * @throws IOException if the connection is closed or has timed out.
+		 */
+		void awaitWritable() throws IOException {
+			await(SelectionKey.OP_WRITE);
+		}
+
+		private void await(int op) throws IOException {
+			long deadline = System.currentTimeMillis() + mConn.getIOTimeOut();
+			synchronized (this) {
+				mReady &= ~op;
+				if (op == SelectionKey.OP_READ)
+					mReadWaiting = true;
+			}
+			watch(op);
+			synchronized (this) {
+				try {
+					while ((mReady & op) == 0) {
+						if (!mChannel.isOpen())
+							throw new ClosedChannelException();
+						long left = deadline - System.currentTimeMillis();
+						if (left <= 0)
+							throw new SocketTimeoutException("Connection " + mConn.getGUID() + " timed out.");
+						wait(Math.min(left, SELECT_TIMEOUT));
+					}
+					mReady &= ~op;
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				} finally {
+					if (op == SelectionKey.OP_READ)
+						mReadWaiting = false;
+				}
+			}
+		}
+
+		/**
+		 * Adds operations to watch and lets the selector apply them.
+		 */
+		private void watch(int ops) {
+			synchronized (this) {
+				mInterest |= ops;
+			}
+			mChanges.add(this);
+			mSelector.wakeup();
+		}
+
+		/**
+		 * Registers the channel or updates the watched operations. Called by
+		 * the selector thread.
+		 */
+		private synchronized void update() {
+			try {
+				if (mKey == null)
+					mKey = mChannel.register(mSelector, mInterest, this);
+				else if (mKey.isValid())
+					mKey.interestOps(mInterest);
+			} catch (ClosedChannelException e) {
+				notifyAll();
+			} catch (CancelledKeyException e) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Handles the ready operations of the channel. A ready operation is no
+		 * longer watched until asked for again. Called by the selector thread.
+		 */
+		private void ready(SelectionKey key) {
+			boolean dispatch = false;
+			synchronized (this) {
+				if (!key.isValid()) {
+					notifyAll();
+					return;
+				}
+				int ops = key.readyOps();
+				mInterest &= ~ops;
+				key.interestOps(mInterest);
+				mReady |= ops;
+				if ((ops & SelectionKey.OP_READ) != 0 && !mReadWaiting) {
+					mReady &= ~SelectionKey.OP_READ;
+					dispatch = true;
+				}
+				notifyAll();
+			}
+			if (dispatch)
+				mWorkers.execute(this);
+		}
+
+		/**
+		 * Reads the available bytes and processes the complete messages. Called
+		 * by a worker.
+		 */
+		public void run() {
+			try {
+				int len = mIn.readAvailable();
+				while (isActive() && mIn.hasMessage())
+					mReader.readMsg();
+				if (len < 0)
+					throw new ConnectionClosedException();
+				if (isActive()) {
+					watch(SelectionKey.OP_READ);
+					return;
+				}
+			} catch (ConnectionClosedException e) {
+				mConn.setStatus(Connection.STATUS_ERROR, "Closed");
+			} catch (ConnectionTimeoutException e) {
+				mConnMgr.connectionTimeout(mConn);
+				if (isActive()) {
+					watch(SelectionKey.OP_READ);
+					return;
+				}
+			} catch (IOException e) {
+				mConn.setStatus(Connection.STATUS_ERROR, "Closed");
+			}
+			mConnMgr.socketClosed(mConn);
+			close();
+		}
+
+		/**
+		 * Tests if messages are still read from the connection.
+		 */
+		private boolean isActive() {
+			return mChannel.isOpen() && (mConn.getStatus() == Connection.STATUS_CONNECTED || mConn.isClosing());
+		}
+
+		/**
+		 * Forgets the endpoint and wakes up waiting threads.
+		 */
+		private void close() {
+			mEndpoints.remove(this);
+			synchronized (this) {
+				notifyAll();
+			}
+		}
+
+	}
+
+}
@@ -65,7 +65,7 @@ public class PGridDecoder {
 		if (message.getHeader().isCompressed()) {
 			byte[] byteArray;
 			try {
-				byteArray = Compression.decompress(msgContent, 0, msgContent.length);
+				byteArray = Compression.decompress(message.getHeader().getCompressor(), msgContent, 0, msgContent.length);
 			} catch (DataFormatException e) {
 				Constants.LOGGER.log(Level.WARNING, "Error while decompressing message data.", e);
 				return null;
@@ -97,6 +97,9 @@ public class PGridDecoder {
 	 * @return the decompressed message
 	 */
 	public PGridMessage decode(PGridCompressedMessage message) {
+		if (message.getHeader().isBinary())
+			return decodeBinary(message);
+
 		XMLReader parser = message.getHeader().getParser();
 
 		String msgString = getDecompressedData(message);
@@ -148,6 +151,44 @@ public class PGridDecoder {
 		return recvMsg;
 	}
 
+	/**
+	 * Decode a P-Grid message whose content was written by the binary codec
+	 * @param message to decode
+	 * @return the decoded message
+	 */
+	private PGridMessage decodeBinary(PGridCompressedMessage message) {
+		byte[] msgContent = message.getBytes();
+
+		if (message.getHeader().isCompressed()) {
+			try {
+				msgContent = Compression.decompress(message.getHeader().getCompressor(), msgContent, 0, msgContent.length);
+			} catch (DataFormatException e) {
+				Constants.LOGGER.log(Level.WARNING, "Error while decompressing message data.", e);
+				return null;
+			}
+			message.setBytes(msgContent);
+			message.getHeader().setCompressedFlag(false);
+		}
+
+		PGridMessage recvMsg = mMapping.getPGridMessage(message.getHeader());
+		if (!(recvMsg instanceof BinaryMessage)) {
+			Constants.LOGGER.warning("Message type " + message.getHeader().getDesc() + " has no binary representation.");
+			return null;
+		}
+		try {
+			BinaryCodec.decode((BinaryMessage)recvMsg, msgContent);
+		} catch (IOException e) {
+			Constants.LOGGER.log(Level.WARNING, "Unable to decode binary message:\n" + message.getHeader().toXMLString(MessageHeader.LEADING_PART), e);
+			return null;
+		} catch (RuntimeException e) {
+			Constants.LOGGER.log(Level.WARNING, "Unable to decode binary message:\n" + message.getHeader().toXMLString(MessageHeader.LEADING_PART), e);
+			return null;
+		}
+
+		Constants.LOGGER.finer("PGrid " + recvMsg.getDescString() + " Message received from " + recvMsg.getHeader().getHost().toHostString());
+		return recvMsg;
+	}
+
 	/**
 	 * Decode a compressed P-Grid message
 	 * @param header message header
@@ -33,8 +33,6 @@ import pgrid.network.protocol.*;
 import pgrid.network.router.Router;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
-import java.io.BufferedOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.util.Iterator;
@@ -126,6 +124,17 @@ public class PGridReader implements Runnable {
 		}
 	}
 
+	/**
+	 * Sets the reader of a connection handled by the NIO transport, which
+	 * calls {@link #readMsg()} for each complete message instead of running
+	 * this reader in its own thread.
+	 *
+	 * @param reader the connection reader.
+	 */
+	void setConnectionReader(ConnectionReader reader) {
+		mReader = reader;
+	}
+
 	/**
 	 * Reads and returns a PGridP2P message header from the Input Stream.
 	 *
@@ -156,7 +165,7 @@ public class PGridReader implements Runnable {
 	 * @throws ConnectionClosedException  the connection was closed by the remote host.
 	 * @throws ConnectionTimeoutException the connection has timed out.
 	 */
-	private void readMsg() throws ConnectionClosedException, ConnectionTimeoutException {
+	void readMsg() throws ConnectionClosedException, ConnectionTimeoutException {
 		// read message header
 		String headerStr = readHeader();
 		if (headerStr == null)
@@ -215,8 +224,8 @@ public class PGridReader implements Runnable {
 		msgHeader.incHops();
 		PGridCompressedMessage recvMsg = new PGridCompressedMessage(msgHeader, msgContent);
 
-		// check if the message is compressed
-		if (mConn.isCompressed()) {
+		// check if the message is compressed, unmarked messages are if the connection is
+		if (msgHeader.getCompressor() == null && mConn.isCompressed()) {
 			msgHeader.setCompressedFlag(true);
 		}
 		mConn.getHost().setPort(recvMsg.getHeader().getHost().getPort());
@@ -271,20 +280,19 @@ public class PGridReader implements Runnable {
 					NaFTManager.LOGGER.fine("TCP connection relay is needed from host " + mConn.getHost().toHostString() + " to " + destinationHost.toHostString() + "(msg: " + recvMsg.getGUID() + ")");
 					
 					Connection outConn = ConnectionManager.sharedInstance().connect(destinationHost);
-					if (outConn != null && outConn.getStatus() == Connection.STATUS_CONNECTED) {
-											
-						DataOutputStream out = null;
-						try {
-							out = new DataOutputStream(new BufferedOutputStream(outConn.getSocket().getOutputStream()));
-						} catch (IOException e) {
-							e.printStackTrace();
-						}
-						mReader.readBytesToStream(Integer.parseInt(msgHeader.getAdditionalAttribute("FileLength")), out);
+					PGridWriter out = null;
+					if (outConn != null && outConn.getStatus() == Connection.STATUS_CONNECTED)
+						out = mConnMgr.getWriter(destinationHost);
+					int fileLength = Integer.parseInt(msgHeader.getAdditionalAttribute("FileLength"));
+					if (out != null) {
+						out.relay(mReader, fileLength);
 						
 						NaFTManager.LOGGER.fine("TCP connection relay should be closed now (from host " + mConn.getHost().toHostString() + " to " + destinationHost.toHostString() + ")");
 						
 					} else {
 						NaFTManager.LOGGER.warning("Streaming message " + recvMsg.getGUID() + " for host " + destinationHost.toHostString() + " has no outgoing connection available. Wrong relay ?");
+						// the streamed bytes still have to be consumed
+						mReader.readBytesToWriter(fileLength, null);
 					}
 				}
 				
@@ -145,4 +145,9 @@ public class PGridSSL {
         socketFactory = ctx.getSocketFactory();
         return (SSLSocket) socketFactory.createSocket(adr,port);
     }
+
+    public SSLSocket createSSLSocket() throws IOException {
+        socketFactory = ctx.getSocketFactory();
+        return (SSLSocket) socketFactory.createSocket();
+    }
 }
\ No newline at end of file
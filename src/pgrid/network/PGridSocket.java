@@ -29,6 +29,9 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.io.IOException;
 import java.util.logging.Level;
 
@@ -42,6 +45,7 @@ import java.util.logging.Level;
 public class PGridSocket {
     private static final PGridSocket SHARED_INSTANCE = new PGridSocket();
     private boolean mUseSSLSockets = false;
+    private boolean mUseChannels = false;
     private PGridP2P mPGridP2P = PGridP2P.sharedInstance(); 
 
     /**
@@ -68,11 +72,19 @@ public class PGridSocket {
        {
            PGridSSL.sharedInstance().init();
        }
+       // plain sockets are opened through channels to be handed over to the NIO transport
+       mUseChannels = !mUseSSLSockets && mPGridP2P.propertyBoolean(Properties.NIO_TRANSPORT);
     }
 
     public ServerSocket getServerSocket(int port)
     {
         try {
+            if (mUseChannels) {
+                ServerSocket socket = ServerSocketChannel.open().socket();
+                socket.setReuseAddress(true);
+                socket.bind(new InetSocketAddress(port));
+                return socket;
+            }
             return (mUseSSLSockets ? (PGridSSL.sharedInstance().getSSLServerSocket(port)) : (new ServerSocket(port)));
         }
 
@@ -97,4 +109,24 @@ public class PGridSocket {
         return (mUseSSLSockets ? (PGridSSL.sharedInstance().getSSLSocket(adr,port)) : (new Socket(adr,port)));
     }
 
+    /*
+     Connects with the given timeout in ms, through a channel if the NIO transport is used
+     */
+    public Socket getSocket(InetAddress adr, int port, int timeout) throws IOException {
+        Socket socket;
+        if (mUseSSLSockets)
+            socket = PGridSSL.sharedInstance().createSSLSocket();
+        else if (mUseChannels)
+            socket = SocketChannel.open().socket();
+        else
+            socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(adr, port), timeout);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
 }
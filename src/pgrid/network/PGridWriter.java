@@ -24,21 +24,33 @@ package pgrid.network;
 
 //import test.planetlab.RangeQueryTester;
 import pgrid.Constants;
+import pgrid.Properties;
 import pgrid.RangeQuery;
+import pgrid.XMLizable;
 import pgrid.interfaces.basic.PGridP2P;
 import pgrid.interfaces.utils.IFileStreamingMessage;
+import pgrid.network.protocol.BinaryCodec;
+import pgrid.network.protocol.BinaryMessage;
 import pgrid.network.protocol.GetFileReply;
 import pgrid.network.protocol.MessageHeader;
 import pgrid.network.protocol.PGridMessage;
 import pgrid.network.protocol.PGridCompressedMessage;
 import pgrid.util.Compression;
+import pgrid.util.TimerListener;
+import pgrid.util.TimerManager;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
 import java.util.Vector;
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 
 import javax.swing.text.html.HTMLDocument.HTMLReader.IsindexAction;
 
@@ -50,6 +62,15 @@ import javax.swing.text.html.HTMLDocument.HTMLReader.IsindexAction;
  */
 public class PGridWriter {
 
+	/**
+	 * The ending part of every message header.
+	 */
+	private static final ByteBuffer ENDING_PART = ByteBuffer.allocateDirect(MessageHeader.CLOSING_TAG.length() + 1);
+
+	static {
+		ENDING_PART.put((MessageHeader.CLOSING_TAG + XMLizable.XML_NEW_LINE).getBytes()).flip();
+	}
+
 	/**
 	 * The Communication Manager.
 	 */
@@ -80,6 +101,83 @@ public class PGridWriter {
 	 */
 	private ConnectionWriter mWriter = null;
 
+	/**
+	 * The decoder of relayed binary messages for hosts reading XML only.
+	 */
+	private PGridDecoder mDecoder = new PGridDecoder();
+
+	/**
+	 * The pool of the buffers headers are encoded into.
+	 */
+	private BufferPool mBufferPool = BufferPool.sharedInstance();
+
+	/**
+	 * The compression level.
+	 */
+	private int mCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+	/**
+	 * Messages smaller than this are sent uncompressed to hosts reading marked messages.
+	 */
+	private int mCompressionThreshold = 0;
+
+	/**
+	 * The time in ms messages are held back to be written together, 0 to
+	 * write them at once.
+	 */
+	private int mBatchWindow = 0;
+
+	/**
+	 * The number of queued bytes at which the queued messages are written
+	 * without waiting for the batch window.
+	 */
+	private int mBatchSize = 0;
+
+	/**
+	 * The messages waiting to be written.
+	 */
+	private final LinkedList<Frame> mPending = new LinkedList<Frame>();
+
+	/**
+	 * The number of bytes waiting to be written.
+	 */
+	private int mPendingBytes = 0;
+
+	/**
+	 * If a timer is set to write the queued messages.
+	 */
+	private boolean mFlushScheduled = false;
+
+	/**
+	 * The threads writing queued messages when their batch window elapsed, as
+	 * the timer thread must not block on a write.
+	 */
+	private static final ExecutorService FLUSHER = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "Message flush");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Writes the queued messages.
+	 */
+	private final Runnable mFlushTask = new Runnable() {
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * Hands the queued messages to a flush thread when the batch window elapsed.
+	 */
+	private final TimerListener mFlushListener = new TimerListener() {
+		public void timerTriggered(Object id) {
+			FLUSHER.execute(mFlushTask);
+		}
+	};
+
 	/**
 	 * Register a P-Grid Writer listener. This listener will be called just before
 	 * the processing of the message to be sent
@@ -95,7 +193,25 @@ public class PGridWriter {
 	 * @param conn the connection.
 	 */
 	PGridWriter(Connection conn) {
+		this(conn, null);
+	}
+
+	/**
+	 * Creates a new writer for a connection handled by the NIO transport.
+	 *
+	 * @param conn     the connection.
+	 * @param endpoint the endpoint of the connection, null to write to the socket stream.
+	 */
+	PGridWriter(Connection conn, NioTransport.Endpoint endpoint) {
 		mConn = conn;
+		mCompressionLevel = mPGridP2P.propertyInteger(Properties.COMPRESSION_LEVEL);
+		mCompressionThreshold = mPGridP2P.propertyInteger(Properties.COMPRESSION_THRESHOLD);
+		mBatchWindow = mPGridP2P.propertyInteger(Properties.MESSAGE_BATCH_WINDOW);
+		mBatchSize = mPGridP2P.propertyInteger(Properties.MESSAGE_BATCH_SIZE);
+		if (endpoint != null) {
+			mWriter = new ConnectionWriter(endpoint);
+			return;
+		}
 		try {
 			mWriter = new ConnectionWriter(conn.getSocket().getOutputStream());
 		} catch (IOException e) {
@@ -103,6 +219,148 @@ public class PGridWriter {
 		}
 	}
 
+	/**
+	 * Relays the given number of bytes read from another connection, i.e. the
+	 * file following a streaming message forwarded for another host. No other
+	 * message is written in between.
+	 *
+	 * @param in  the reader of the incoming connection.
+	 * @param len the number of bytes.
+	 * @return <code>true</code> if all bytes were relayed.
+	 */
+	boolean relay(ConnectionReader in, int len) {
+		synchronized (mLock) {
+			return in.readBytesToWriter(len, this);
+		}
+	}
+
+	/**
+	 * Writes bytes which are not part of a message.
+	 *
+	 * @param data  the bytes.
+	 * @param start the first byte to write.
+	 * @param len   the length to write.
+	 * @return <code>true</code> if the bytes were written.
+	 */
+	boolean writeRaw(byte[] data, int start, int len) {
+		synchronized (mLock) {
+			try {
+				mWriter.write(data, start, len);
+				mConn.resetIOTimer();
+				return true;
+			} catch (IOException e) {
+				mConn.setStatus(Connection.STATUS_ERROR);
+				mConnMgr.socketClosed(mConn, false);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Queues the buffers of a message.
+	 *
+	 * @param frame the buffers of the message.
+	 * @return <code>true</code> if the caller has to write the queued messages.
+	 */
+	private boolean enqueue(Frame frame) {
+		synchronized (mPending) {
+			mPending.add(frame);
+			mPendingBytes += frame.mSize;
+			if (mBatchWindow <= 0 || mPendingBytes >= mBatchSize)
+				return true;
+			if (!mFlushScheduled) {
+				mFlushScheduled = true;
+				TimerManager.sharedInstance().schedule(mBatchWindow, null, mFlushListener);
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Writes all queued messages with one gathering write. The caller has to
+	 * hold the write lock.
+	 *
+	 * @throws IOException if the messages cannot be written.
+	 */
+	private void writePending() throws IOException {
+		Frame[] frames;
+		synchronized (mPending) {
+			if (mPending.isEmpty())
+				return;
+			frames = mPending.toArray(new Frame[mPending.size()]);
+			mPending.clear();
+			mPendingBytes = 0;
+			mFlushScheduled = false;
+		}
+		ByteBuffer[] buffers = new ByteBuffer[frames.length * Frame.BUFFERS];
+		for (int i = 0; i < frames.length; i++)
+			System.arraycopy(frames[i].mBuffers, 0, buffers, i * Frame.BUFFERS, Frame.BUFFERS);
+		try {
+			mWriter.write(buffers);
+			mConn.resetIOTimer();
+		} catch (IOException e) {
+			for (Frame frame : frames)
+				frame.mFailed = true;
+			throw e;
+		} finally {
+			for (Frame frame : frames) {
+				frame.mDone = true;
+				mBufferPool.release(frame.mBuffers[0]);
+			}
+		}
+	}
+
+	/**
+	 * Writes the queued messages, if another thread has not done it yet. The
+	 * senders of these messages are not waiting anymore, so a failure is logged.
+	 */
+	private void flush() {
+		synchronized (mLock) {
+			int count;
+			synchronized (mPending) {
+				count = mPending.size();
+			}
+			try {
+				writePending();
+			} catch (IOException e) {
+				Constants.LOGGER.log(Level.WARNING, count + " queued messages could not be written to " + mConn.getHost().toHostString() + ".", e);
+				mConn.setStatus(Connection.STATUS_ERROR);
+				mConnMgr.socketClosed(mConn, false);
+			}
+		}
+	}
+
+	/**
+	 * Drops the messages still queued when the connection closes. A sender
+	 * waiting to write them is told that they failed, the others are logged.
+	 */
+	void close() {
+		Frame[] frames;
+		synchronized (mPending) {
+			if (mPending.isEmpty())
+				return;
+			frames = mPending.toArray(new Frame[mPending.size()]);
+			mPending.clear();
+			mPendingBytes = 0;
+			mFlushScheduled = false;
+		}
+		for (Frame frame : frames) {
+			frame.mFailed = true;
+			frame.mDone = true;
+			mBufferPool.release(frame.mBuffers[0]);
+		}
+		Constants.LOGGER.warning(frames.length + " queued messages to " + mConn.getHost().toHostString() + " were dropped, the connection closed.");
+	}
+
+	/**
+	 * Returns the connection written to.
+	 *
+	 * @return the connection.
+	 */
+	Connection getConnection() {
+		return mConn;
+	}
+
 	/**
 	 * Writes a PGrid message to the Output Stream.
 	 *
@@ -117,35 +375,76 @@ public class PGridWriter {
 				return true;
 			}
 		}
+		if (msg instanceof PGridCompressedMessage && msg.getHeader().isBinary() && !mConn.isBinaryCodec()) {
+			// a relayed binary message has to be rewritten in XML for this host
+			msg = mDecoder.decode(new PGridCompressedMessage((MessageHeader)msg.getHeader().clone(), msg.getBytes()));
+			if (msg == null)
+				return false;
+		}
 		MessageHeader header = (MessageHeader) msg.getHeader().clone();
 		header.setHost(mPGridP2P.getLocalHost());
-		byte[] content = msg.getBytes();
+		if (!(msg instanceof PGridCompressedMessage))
+			header.setBinaryFlag(mConn.isBinaryCodec() && msg instanceof BinaryMessage);
+		byte[] content;
+		if (header.isBinary() && msg instanceof BinaryMessage) {
+			try {
+				content = BinaryCodec.encode((BinaryMessage)msg);
+			} catch (IOException e) {
+				Constants.LOGGER.log(Level.WARNING, "Error while encoding a binary message.", e);
+				return false;
+			}
+		} else {
+			content = msg.getBytes();
+		}
 		byte[] msgContent;
 		boolean sent = true;
-		// compress the bytes if necessary. PGridCompressedMessage are not compress twice
-		if (mConn.isCompressed() && !header.isCompressed()) {
-			msgContent = Compression.compress(content, 0, content.length);
-		}	else if (!mConn.isCompressed() && header.isCompressed()) {
+		// compress the bytes with the codec of the connection, or not at all if the message is
+		// small and the host reads marked messages. PGridCompressedMessage are not compress twice
+		String codec = null;
+		if (mConn.isCompressed() && (mConn.getCompressor() == null || content.length >= mCompressionThreshold))
+			codec = (mConn.getCompressor() == null ? Compression.DEFLATE : mConn.getCompressor());
+		String current = null;
+		if (header.isCompressed())
+			current = (header.getCompressor() == null ? Compression.DEFLATE : header.getCompressor());
+		if (codec == null ? current == null : codec.equals(current)) {
+			msgContent = content;
+		} else {
 			try {
-				msgContent = Compression.decompress(content, 0, content.length);
+				if (current != null)
+					content = Compression.decompress(current, content, 0, content.length);
+				msgContent = (codec == null ? content : Compression.compress(codec, content, 0, content.length, mCompressionLevel));
 			} catch (DataFormatException e) {
 				Constants.LOGGER.log(Level.WARNING, "Error while decompressing message data.", e);
 				return false;
 			}
-		} else
-			msgContent = content;
+		}
+		header.setCompressedFlag(codec != null);
+		if (mConn.getCompressor() == null)
+			header.setCompressor(null);
+		else
+			header.setCompressor(codec == null ? MessageHeader.COMPRESSION_NONE : codec);
 		
 		header.setContentLen(msgContent.length);
 
+		// the header is encoded once, its size is taken from the encoded bytes
+		ByteBuffer leading = mBufferPool.encode(header.toXMLString(MessageHeader.LEADING_PART));
+		int headerSize = leading.remaining() + ENDING_PART.remaining();
+		Frame frame = new Frame(new ByteBuffer[] {leading, ByteBuffer.wrap(msgContent), ENDING_PART.duplicate()});
+
+		// messages queued for this host are written together with this one, unless the batch
+		// window holds them back. Streaming messages are never held back
+		boolean streaming = msg instanceof IFileStreamingMessage;
+		boolean write = streaming || enqueue(frame);
 		try {
 			synchronized(mLock) {
-				mWriter.write(header.getBytes(MessageHeader.LEADING_PART));
-				mWriter.write(msgContent);
-				mWriter.write(header.getBytes(MessageHeader.ENDING_PART));
-				mConn.resetIOTimer();
+				// the file has to follow its message directly
+				if (streaming)
+					enqueue(frame);
+				if (write && !frame.mDone)
+					writePending();
 				
 				//if the message is a file stream message then the contents of the file must be written to the stream.
-				if (msg instanceof IFileStreamingMessage) {
+				if (streaming) {
 					IFileStreamingMessage fileStreamMsg = (IFileStreamingMessage) msg;
 					Constants.LOGGER.finest("Sending a fileStream Message :"+fileStreamMsg.getFileName()+" of size "+fileStreamMsg.getFileSize() + " to host " + mConn.getHost().toHostString() + "(" + header.getHost().toHostString() + ")");
 					
@@ -185,8 +484,8 @@ public class PGridWriter {
 		if (PGridP2P.sharedInstance().isInTestMode()) {
 			// statistics
 			mPGridP2P.getStatistics().Messages[header.getDesc()]++;
-			mPGridP2P.getStatistics().Bandwidth[header.getDesc()] += msgContent.length + header.getSize();
-			mPGridP2P.getStatistics().BandwidthUncompr[header.getDesc()] += content.length + header.getSize();
+			mPGridP2P.getStatistics().Bandwidth[header.getDesc()] += msgContent.length + headerSize;
+			mPGridP2P.getStatistics().BandwidthUncompr[header.getDesc()] += content.length + headerSize;
 
 			Iterator it = mListener.iterator();
 
@@ -196,11 +495,58 @@ public class PGridWriter {
 		}
 
 		mConn.incSentCount();
-		mConn.incSentBytes(msgContent.length + header.getSize());
+		mConn.incSentBytes(msgContent.length + headerSize);
+
 
 
+		// another sender may have written this message, and failed
+		return !frame.mFailed;
+	}
+
+	/**
+	 * The buffers of a message waiting to be written.
+	 */
+	private static class Frame {
+
+		/**
+		 * The number of buffers of a message: the leading part of the header,
+		 * the content and the ending part of the header.
+		 */
+		static final int BUFFERS = 3;
+
+		/**
+		 * The buffers.
+		 */
+		final ByteBuffer[] mBuffers;
+
+		/**
+		 * The number of bytes.
+		 */
+		final int mSize;
+
+		/**
+		 * If the message was written, or the write failed.
+		 */
+		volatile boolean mDone = false;
+
+		/**
+		 * If the write failed or the message was dropped.
+		 */
+		volatile boolean mFailed = false;
+
+		/**
+		 * Creates a new frame.
+		 *
+		 * @param buffers the buffers of the message.
+		 */
+		Frame(ByteBuffer[] buffers) {
+			mBuffers = buffers;
+			int size = 0;
+			for (ByteBuffer buffer : buffers)
+				size += buffer.remaining();
+			mSize = size;
+		}
 
-		return true;
 	}
 
 }
\ No newline at end of file
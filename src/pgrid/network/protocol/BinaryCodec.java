@@ -0,0 +1,287 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package pgrid.network.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The binary representation of message contents. The content starts with the
+ * codec version followed by the fields written by the message itself; numbers
+ * are written as variable length integers and strings are prefixed with their
+ * length, so no markup has to be built or parsed. The message header and the
+ * framing of a message stay the same as for XML contents, the header only
+ * flags that the content is binary.
+ */
+public final class BinaryCodec {
+
+	/**
+	 * The version of the binary representation.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Output buffers grown beyond this size are not kept.
+	 */
+	private static final int MAX_KEPT_OUTPUT = 1024 * 1024;
+
+	/**
+	 * The charset of strings.
+	 */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The output buffer of each writing thread, kept between messages.
+	 */
+	private static final ThreadLocal<Output> OUTPUT = new ThreadLocal<Output>() {
+		@Override
+		protected Output initialValue() {
+			return new Output();
+		}
+	};
+
+	private BinaryCodec() {
+	}
+
+	/**
+	 * Returns the binary content of a message.
+	 *
+	 * @param msg the message.
+	 * @return the content bytes.
+	 * @throws IOException if the message cannot be written.
+	 */
+	public static byte[] encode(BinaryMessage msg) throws IOException {
+		Output output = OUTPUT.get();
+		output.reset();
+		output.mData.writeByte(VERSION);
+		msg.writeBinary(output.mData);
+		byte[] content = output.toByteArray();
+		if (output.isOversized())
+			OUTPUT.remove();
+		return content;
+	}
+
+	/**
+	 * Reads the binary content of a message into an empty message.
+	 *
+	 * @param msg  the empty message with its header set.
+	 * @param data the content bytes.
+	 * @throws IOException if the content is malformed or of an unknown version.
+	 */
+	public static void decode(BinaryMessage msg, byte[] data) throws IOException {
+		DataInputStream in = new DataInputStream(new Input(data));
+		int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unknown binary content version " + version + ".");
+		msg.readBinary(in);
+	}
+
+	/**
+	 * Writes a number as a variable length integer, seven bits per byte.
+	 * Negative numbers are zig-zag encoded to stay short.
+	 *
+	 * @param out   the output.
+	 * @param value the number.
+	 * @throws IOException if the output fails.
+	 */
+	public static void writeLong(DataOutput out, long value) throws IOException {
+		value = (value << 1) ^ (value >> 63);
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	/**
+	 * Reads a number written by {@link #writeLong(DataOutput, long)}.
+	 *
+	 * @param in the input.
+	 * @return the number.
+	 * @throws IOException if the input is malformed.
+	 */
+	public static long readLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return (value >>> 1) ^ -(value & 1);
+		}
+		throw new IOException("Malformed variable length integer.");
+	}
+
+	/**
+	 * Writes a number which may be null.
+	 *
+	 * @param out   the output.
+	 * @param value the number or null.
+	 * @throws IOException if the output fails.
+	 */
+	public static void writeOptionalLong(DataOutput out, Long value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			writeLong(out, value.longValue());
+	}
+
+	/**
+	 * Reads a number written by {@link #writeOptionalLong}.
+	 *
+	 * @param in the input.
+	 * @return the number or null.
+	 * @throws IOException if the input is malformed.
+	 */
+	public static Long readOptionalLong(DataInput in) throws IOException {
+		if (!in.readBoolean())
+			return null;
+		return readLong(in);
+	}
+
+	/**
+	 * Writes a string which may be null, prefixed with its length.
+	 *
+	 * @param out   the output.
+	 * @param value the string or null.
+	 * @throws IOException if the output fails.
+	 */
+	public static void writeString(DataOutput out, String value) throws IOException {
+		if (value == null) {
+			writeLong(out, -1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		writeLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString}.
+	 *
+	 * @param in the input.
+	 * @return the string or null.
+	 * @throws IOException if the input is malformed.
+	 */
+	public static String readString(DataInput in) throws IOException {
+		long len = readLong(in);
+		if (len == -1)
+			return null;
+		byte[] bytes = new byte[checkCount(in, len, 1)];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Reads the number of elements following in the content.
+	 *
+	 * @param in       the input.
+	 * @param minBytes the least number of bytes an element is written with.
+	 * @return the number of elements.
+	 * @throws IOException if the number is negative or the content too short.
+	 */
+	public static int readCount(DataInput in, int minBytes) throws IOException {
+		return checkCount(in, readLong(in), minBytes);
+	}
+
+	/**
+	 * Checks a number of elements read from the content before anything is
+	 * allocated for them, as it is sent by the remote peer.
+	 */
+	private static int checkCount(DataInput in, long count, int minBytes) throws IOException {
+		// the content is read from memory, all of it is available
+		long remaining = in instanceof InputStream ? ((InputStream)in).available() : Integer.MAX_VALUE;
+		if (count < 0 || count > remaining / minBytes)
+			throw new IOException("Malformed length " + count + ", " + remaining + " bytes left.");
+		return (int)count;
+	}
+
+	/**
+	 * A byte array output without the synchronization of its super class, as
+	 * the codec writes single bytes.
+	 */
+	private static class Output extends ByteArrayOutputStream {
+
+		/**
+		 * The data output writing to this buffer.
+		 */
+		private final DataOutputStream mData = new DataOutputStream(this);
+
+		Output() {
+			super(512);
+		}
+
+		boolean isOversized() {
+			return buf.length > MAX_KEPT_OUTPUT;
+		}
+
+		@Override
+		public void write(int b) {
+			if (count == buf.length)
+				buf = Arrays.copyOf(buf, buf.length << 1);
+			buf[count++] = (byte)b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			if (count + len > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + len));
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+	}
+
+	/**
+	 * A byte array input without the synchronization of its super class.
+	 */
+	private static class Input extends ByteArrayInputStream {
+
+		Input(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public int read() {
+			return pos < count ? buf[pos++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (pos >= count)
+				return -1;
+			len = Math.min(len, count - pos);
+			System.arraycopy(buf, pos, b, off, len);
+			pos += len;
+			return len;
+		}
+
+	}
+
+}
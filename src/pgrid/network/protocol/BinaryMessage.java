@@ -0,0 +1,54 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package pgrid.network.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * This interface is implemented by messages which can also be sent in the
+ * compact binary representation of {@link BinaryCodec} instead of XML. The
+ * binary representation is only used on connections for which both hosts
+ * agreed on it during the handshake.
+ */
+public interface BinaryMessage extends PGridMessage {
+
+	/**
+	 * Writes the content of the message, without the header.
+	 *
+	 * @param out the output.
+	 * @throws IOException if the content cannot be written.
+	 */
+	public void writeBinary(DataOutput out) throws IOException;
+
+	/**
+	 * Reads the content of the message written by {@link #writeBinary}. The
+	 * header of the message is already set.
+	 *
+	 * @param in the input.
+	 * @throws IOException if the content is malformed.
+	 */
+	public void readBinary(DataInput in) throws IOException;
+
+}
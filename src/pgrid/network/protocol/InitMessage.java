@@ -54,6 +54,33 @@ public class InitMessage implements PGridMessage, XMLizable {
 	 */
 	public static final String HEADER_COMPRESSION = "Compression";
 
+	/**
+	 * The compression codecs read, separated by commas. Hosts sending it mark
+	 * the compression of each message.
+	 */
+	public static final String HEADER_COMPRESSORS = "Compressors";
+
+	/**
+	 * The content encodings understood besides XML, i.e. "binary".
+	 */
+	public static final String HEADER_CODEC = "Codec";
+
+	/**
+	 * The kind of the connection, i.e. "control" or "bulk". Only sent by hosts
+	 * accepting bulk connections.
+	 */
+	public static final String HEADER_CHANNEL = "Channel";
+
+	/**
+	 * The channel value of a connection carrying the messages.
+	 */
+	public static final String CHANNEL_CONTROL = "control";
+
+	/**
+	 * The channel value of a connection carrying streamed files.
+	 */
+	public static final String CHANNEL_BULK = "bulk";
+
 	/**
 	 * "yes" if the peer is behind a firewall.
 	 */
@@ -53,6 +53,23 @@ public class InitResponseMessage implements PGridMessage, XMLizable {
 	 */
 	public static final String HEADER_COMPRESSION = "Compression";
 
+	/**
+	 * The compression codecs read, separated by commas. Hosts sending it mark
+	 * the compression of each message.
+	 */
+	public static final String HEADER_COMPRESSORS = "Compressors";
+
+	/**
+	 * The content encodings understood besides XML, i.e. "binary".
+	 */
+	public static final String HEADER_CODEC = "Codec";
+
+	/**
+	 * The kind of the connection, i.e. "control" or "bulk". Only sent by hosts
+	 * accepting bulk connections.
+	 */
+	public static final String HEADER_CHANNEL = "Channel";
+
 	/**
 	 * A part of the XML string.
 	 */
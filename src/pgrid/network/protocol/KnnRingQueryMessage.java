@@ -0,0 +1,260 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid.network.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import pgrid.*;
+
+/**
+ * This class represents one ring of a k-nearest-neighbour search.
+ *
+ * @version 1.0.0
+ */
+public class KnnRingQueryMessage extends MultiRangeQueryMessage {
+
+	/**
+	 * A part of the XML string.
+	 */
+	public static final String XML_QUERY = "KnnRingQuery";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_KNN = "Knn";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_KNN_X = "X";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_KNN_Y = "Y";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_KNN_K = "K";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_INNER_X_MIN = "InnerXMinimum";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_INNER_X_MAX = "InnerXMaximum";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_INNER_Y_MIN = "InnerYMinimum";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_INNER_Y_MAX = "InnerYMaximum";
+
+	/**
+	 * Returns the XML message name for this message
+	 *
+	 * @return the XML message name for this message
+	 */
+	protected String getXMLMessageName() {
+		return XML_QUERY;
+	}
+
+	/**
+	 * Default constructor
+	 */
+	public KnnRingQueryMessage() {
+		super();
+	}
+
+	/**
+	 * Creates an empty ring query message.
+	 *
+	 * @param header the message header.
+	 */
+	public KnnRingQueryMessage(MessageHeader header) {
+		super(header);
+	}
+
+	/**
+	 * Creates a new message for the given ring query.
+	 *
+	 * @param query       the query.
+	 * @param initialHost host that should recieve the result set.
+	 */
+	public KnnRingQueryMessage(KnnRingQuery query, PGridHost initialHost) {
+		super(query.getGUID(), query, initialHost);
+	}
+
+	/**
+	 * Creates an empty query of the type carried by this message.
+	 *
+	 * @return an empty query.
+	 */
+	protected MultiRangeQuery createQuery() {
+		return new KnnRingQuery();
+	}
+
+	/**
+	 * Copies the given query into the given empty query.
+	 *
+	 * @param query the query to copy.
+	 * @param copy  the empty query.
+	 */
+	protected void copyQuery(MultiRangeQuery query, MultiRangeQuery copy) {
+		super.copyQuery(query, copy);
+		KnnRingQuery ring = (KnnRingQuery)query;
+		KnnRingQuery ringCopy = (KnnRingQuery)copy;
+		ringCopy.setQueryX(ring.getQueryX());
+		ringCopy.setQueryY(ring.getQueryY());
+		ringCopy.setK(ring.getK());
+		if (ring.hasInner())
+			ringCopy.setInner(ring.getInnerxMin(), ring.getInnerxMax(), ring.getInneryMin(), ring.getInneryMax());
+	}
+
+	/**
+	 * Tests if this message is valid.
+	 *
+	 * @return <code>true</code> if valid.
+	 */
+	public boolean isValid() {
+		if (!super.isValid())
+			return false;
+		if (getQuery().getQueryX() == null || getQuery().getQueryY() == null)
+			return false;
+		if (getQuery().getK() <= 0)
+			return false;
+		return true;
+	}
+
+	/**
+	 * The Parser will invoke this method at the beginning of every element in the XML document; there will be a
+	 * corresponding endElement event for every startElement event (even when the element is empty). All of the element's
+	 * content will be reported, in order, before the corresponding endElement event.
+	 *
+	 * @param uri   the Namespace URI.
+	 * @param lName the local name (without prefix), or the empty string if Namespace processing is not being performed.
+	 * @param qName the qualified name (with prefix), or the empty string if qualified names are not available.
+	 * @param attrs the attributes attached to the element. If there are no attributes, it shall be an empty Attributes
+	 *              object.
+	 * @throws org.xml.sax.SAXException any SAX exception, possibly wrapping another exception.
+	 */
+	public void startElement(String uri, String lName, String qName, Attributes attrs) throws SAXException {
+		if (qName.equals(XML_KNN)) {
+			KnnRingQuery query = getQuery();
+			query.setQueryX(Long.parseLong(attrs.getValue(XML_KNN_X)));
+			query.setQueryY(Long.parseLong(attrs.getValue(XML_KNN_Y)));
+			query.setK(Integer.parseInt(attrs.getValue(XML_KNN_K)));
+			if (attrs.getValue(XML_INNER_X_MIN) != null) {
+				query.setInner(Long.parseLong(attrs.getValue(XML_INNER_X_MIN)), Long.parseLong(attrs.getValue(XML_INNER_X_MAX)),
+						Long.parseLong(attrs.getValue(XML_INNER_Y_MIN)), Long.parseLong(attrs.getValue(XML_INNER_Y_MAX)));
+			}
+		} else {
+			super.startElement(uri, lName, qName, attrs);
+		}
+	}
+
+	/**
+	 * Returns the XML representation of the ranges and the kNN parameters.
+	 *
+	 * @param prefix  the XML prefix before each element in a new line.
+	 * @param newLine the new line string.
+	 * @return the XML string.
+	 */
+	protected String toXMLContent(String prefix, String newLine) {
+		KnnRingQuery query = getQuery();
+		StringBuilder strBuff = new StringBuilder(super.toXMLContent(prefix, newLine));
+
+		strBuff.append(prefix + XML_ELEMENT_OPEN + XML_KNN + // {prefix}<Knn
+				XML_SPACE + XML_KNN_X + XML_ATTR_OPEN + query.getQueryX() + XML_ATTR_CLOSE + // _X="X"
+				XML_SPACE + XML_KNN_Y + XML_ATTR_OPEN + query.getQueryY() + XML_ATTR_CLOSE + // _Y="Y"
+				XML_SPACE + XML_KNN_K + XML_ATTR_OPEN + query.getK() + XML_ATTR_CLOSE); // _K="K"
+		if (query.hasInner()) {
+			strBuff.append(XML_SPACE + XML_INNER_X_MIN + XML_ATTR_OPEN + query.getInnerxMin() + XML_ATTR_CLOSE + // _InnerXMinimum="XMIN"
+					XML_SPACE + XML_INNER_X_MAX + XML_ATTR_OPEN + query.getInnerxMax() + XML_ATTR_CLOSE + // _InnerXMaximum="XMAX"
+					XML_SPACE + XML_INNER_Y_MIN + XML_ATTR_OPEN + query.getInneryMin() + XML_ATTR_CLOSE + // _InnerYMinimum="YMIN"
+					XML_SPACE + XML_INNER_Y_MAX + XML_ATTR_OPEN + query.getInneryMax() + XML_ATTR_CLOSE); // _InnerYMaximum="YMAX"
+		}
+		strBuff.append(XML_ELEMENT_END_CLOSE + newLine); // />
+		return strBuff.toString();
+	}
+
+	/**
+	 * Writes the binary representation of the ranges and the kNN parameters.
+	 *
+	 * @param out the output.
+	 * @throws IOException if the content cannot be written.
+	 */
+	protected void writeBinaryContent(DataOutput out) throws IOException {
+		super.writeBinaryContent(out);
+		KnnRingQuery query = getQuery();
+		BinaryCodec.writeOptionalLong(out, query.getQueryX());
+		BinaryCodec.writeOptionalLong(out, query.getQueryY());
+		BinaryCodec.writeLong(out, query.getK());
+		out.writeBoolean(query.hasInner());
+		if (query.hasInner()) {
+			BinaryCodec.writeOptionalLong(out, query.getInnerxMin());
+			BinaryCodec.writeOptionalLong(out, query.getInnerxMax());
+			BinaryCodec.writeOptionalLong(out, query.getInneryMin());
+			BinaryCodec.writeOptionalLong(out, query.getInneryMax());
+		}
+	}
+
+	/**
+	 * Reads the ranges and the kNN parameters written by {@link #writeBinaryContent}.
+	 *
+	 * @param in the input.
+	 * @throws IOException if the content is malformed.
+	 */
+	protected void readBinaryContent(DataInput in) throws IOException {
+		super.readBinaryContent(in);
+		KnnRingQuery query = getQuery();
+		query.setQueryX(BinaryCodec.readOptionalLong(in));
+		query.setQueryY(BinaryCodec.readOptionalLong(in));
+		query.setK((int)BinaryCodec.readLong(in));
+		if (in.readBoolean()) {
+			Long xMin = BinaryCodec.readOptionalLong(in);
+			Long xMax = BinaryCodec.readOptionalLong(in);
+			Long yMin = BinaryCodec.readOptionalLong(in);
+			query.setInner(xMin, xMax, yMin, BinaryCodec.readOptionalLong(in));
+		}
+	}
+
+	/**
+	 * Return the buisiness logic object
+	 * @return the buisiness logic object
+	 */
+	public KnnRingQuery getQuery() {
+		return (KnnRingQuery)mRangeQuery;
+	}
+}
@@ -63,7 +63,7 @@ public class MessageHeader extends pgrid.util.LexicalDefaultHandler implements P
 	/**
 	 * A part of the XML string.
 	 */
-	private static final String XML_HEADER_CONTENT_LENGTH = "Content-Length";
+	public static final String XML_HEADER_CONTENT_LENGTH = "Content-Length";
 
 	/**
 	 * A part of the XML string.
@@ -120,6 +120,26 @@ public class MessageHeader extends pgrid.util.LexicalDefaultHandler implements P
 	 */
 	public static final String XML_HAS_BEEND_DELEGATED = "Delegated";
 	
+	/**
+	 * A part of the XML string.
+	 */
+	public static final String XML_ENCODING = "Encoding";
+
+	/**
+	 * The encoding attribute value of binary contents.
+	 */
+	public static final String ENCODING_BINARY = "binary";
+
+	/**
+	 * A part of the XML string.
+	 */
+	public static final String XML_COMPRESSION = "Compression";
+
+	/**
+	 * The compression attribute value of uncompressed contents.
+	 */
+	public static final String COMPRESSION_NONE = "none";
+	
 	/**
 	 * A part of the XML string.
 	 */
@@ -231,6 +251,16 @@ public class MessageHeader extends pgrid.util.LexicalDefaultHandler implements P
 	 */
 	private boolean mCompressed = false;
 
+	/**
+	 * true if the content is written by the binary codec instead of XML
+	 */
+	private boolean mBinary = false;
+
+	/**
+	 * the compression marked by the sending host, i.e. a codec name or "none", null if not marked
+	 */
+	private String mCompressor = null;
+
 	/**
 	 * GUID of this message
 	 */
@@ -397,6 +427,38 @@ public class MessageHeader extends pgrid.util.LexicalDefaultHandler implements P
 		mCompressed = flag;
 	}
 
+	/**
+	 * the compression marked by the sending host
+	 * @return the codec name or "none", null if the compression is not marked
+	 */
+	public String getCompressor() {
+		return mCompressor;
+	}
+
+	/**
+	 * Set the compression mark, written if not null
+	 * @param codec the codec name or "none"
+	 */
+	public void setCompressor(String codec) {
+		mCompressor = codec;
+	}
+
+	/**
+	 * true if the content is written by the {@link BinaryCodec}
+	 * @return true if the content is binary
+	 */
+	public boolean isBinary() {
+		return mBinary;
+	}
+
+	/**
+	 * Set the binary content flag
+	 * @param flag
+	 */
+	public void setBinaryFlag(boolean flag) {
+		mBinary = flag;
+	}
+
 	/**
 	 * Get the message content.
 	 *
@@ -610,6 +672,17 @@ public class MessageHeader extends pgrid.util.LexicalDefaultHandler implements P
 				// don't double decode delegate attribute in additional attr.
 				++extra;
 			}
+			String encoding = attrs.getValue(XML_ENCODING);
+			if (encoding != null) {
+				mBinary = encoding.equals(ENCODING_BINARY);
+				++extra;
+			}
+			String compressor = attrs.getValue(XML_COMPRESSION);
+			if (compressor != null) {
+				mCompressor = compressor;
+				mCompressed = !compressor.equals(COMPRESSION_NONE);
+				++extra;
+			}
 			// retrieve all remaining properties
 			int len = attrs.getLength();
 			for(int i=extra; i<len ;i++) {
@@ -755,6 +828,10 @@ public class MessageHeader extends pgrid.util.LexicalDefaultHandler implements P
 			if (mDelegated != DelegateStatus.direct)
 				buf.append(XML_SPACE + XML_DELEGATE_STATUS + XML_ATTR_OPEN + mDelegated + XML_ATTR_CLOSE);
 			buf.append(XML_SPACE + XML_HOPS + XML_ATTR_OPEN + mHop + XML_ATTR_CLOSE); // Hops="HOPS">{newLine}
+			if (mBinary)
+				buf.append(XML_SPACE + XML_ENCODING + XML_ATTR_OPEN + ENCODING_BINARY + XML_ATTR_CLOSE); // _Encoding="binary"
+			if (mCompressor != null)
+				buf.append(XML_SPACE + XML_COMPRESSION + XML_ATTR_OPEN + mCompressor + XML_ATTR_CLOSE); // _Compression="CODEC"
 
 			// append addition attr.
 			if (!mAdditionalAttributes.isEmpty()) {
@@ -842,6 +919,8 @@ public class MessageHeader extends pgrid.util.LexicalDefaultHandler implements P
 		msg = new MessageHeader(mVersion, mContentLen, mHost.getHost(), mType);
 		msg.mAdditionalAttributes = (Hashtable<String, String>) mAdditionalAttributes.clone();
 		msg.mCompressed = mCompressed;
+		msg.mBinary = mBinary;
+		msg.mCompressor = mCompressor;
 		msg.mGUID = mGUID;
 		msg.mHop = mHop;
 		msg.mReferences = (TreeSet<GUID>) mReferences.clone();
@@ -0,0 +1,321 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid.network.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import p2p.basic.GUID;
+import p2p.basic.KeyRange;
+import pgrid.*;
+
+/**
+ * This class represents a range query message carrying several key ranges.
+ *
+ * @version 1.0.0
+ */
+public class MultiRangeQueryMessage extends RangeQueryMessage {
+
+	/**
+	 * A part of the XML string.
+	 */
+	public static final String XML_QUERY = "MultiRangeQuery";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_RANGE = "Range";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_RANGE_LOWER_BOUND = "Lower";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_RANGE_HIGHER_BOUND = "Higher";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_RANGE_LOWER_KEY = "LowerKey";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_RANGE_HIGHER_KEY = "HigherKey";
+
+	/**
+	 * The key ranges parsed so far.
+	 */
+	private List<KeyRange> mParsedRanges = null;
+
+	/**
+	 * Returns the XML message name for this message
+	 *
+	 * @return the XML message name for this message
+	 */
+	protected String getXMLMessageName() {
+		return XML_QUERY;
+	}
+
+	/**
+	 * Default constructor
+	 */
+	public MultiRangeQueryMessage() {
+		super();
+		mRangeQuery = createQuery();
+		mRangeQuery.setPrefix("");
+
+		mRangeQuery.setGUID(getHeader().getReferences().iterator().next());
+		mRangeQuery.setAlgorithm(getHeader().getRouteHeader().getStrategy());
+	}
+
+	/**
+	 * Creates an empty multi-range query message.
+	 *
+	 * @param header the message header.
+	 */
+	public MultiRangeQueryMessage(MessageHeader header) {
+		super(header);
+		mRangeQuery = createQuery();
+		mRangeQuery.setPrefix("");
+	}
+
+	/**
+	 * Creates a new multi-range query message with given values.
+	 *
+	 * @param guid      the guid of the query.
+	 * @param type     	the type of the query.
+	 * @param hops     the hop count.
+	 * @param algorithm the routing algorithm.
+	 * @param lowerBounds  the lower bounds of the ranges.
+	 * @param higherBounds  the higher bounds of the ranges.
+	 * @param origxMin the original query x minimum
+	 * @param origxMax the original query x maximum
+	 * @param origyMin the original query y minimum
+	 * @param origyMax the original query y maximum
+	 * @param rq      the key ranges (binary represantation of the search query).
+	 * @param index    the search progress.
+	 * @param prefix   the prefix of the expected path.
+	 * @param minSpeed the minimal speed for responding hosts.
+	 * @param initialHost host that should recieve the result set.
+	 */
+	public MultiRangeQueryMessage(GUID guid, p2p.index.Type type, int hops, String algorithm,
+			List<String> lowerBounds, List<String> higherBounds, Long origxMin, Long origxMax, Long origyMin, Long origyMax,
+			KeyRange rq, int index, String prefix, int minSpeed, PGridHost initialHost) {
+		super(guid, new MultiRangeQuery(guid, type, hops, algorithm, lowerBounds, higherBounds, origxMin, origxMax,
+				origyMin, origyMax, rq, index, prefix, minSpeed, initialHost), initialHost);
+	}
+
+	/**
+	 * Creates a new message for the given query.
+	 *
+	 * @param guid        the guid of the query.
+	 * @param query       the query.
+	 * @param initialHost host that should recieve the result set.
+	 */
+	protected MultiRangeQueryMessage(GUID guid, MultiRangeQuery query, PGridHost initialHost) {
+		super(guid, query, initialHost);
+	}
+
+	/**
+	 * Creates an empty query of the type carried by this message.
+	 *
+	 * @return an empty query.
+	 */
+	protected MultiRangeQuery createQuery() {
+		return new MultiRangeQuery();
+	}
+
+	/**
+	 * Copies the given query into the given empty query.
+	 *
+	 * @param query the query to copy.
+	 * @param copy  the empty query.
+	 */
+	protected void copyQuery(MultiRangeQuery query, MultiRangeQuery copy) {
+		copy.setGUID(query.getGUID());
+		copy.setType(query.getType());
+		copy.setAlgorithm(query.getAlgorithm());
+		copy.setLowerBound(query.getLowerBound());
+		copy.setHigherBound(query.getHigherBound());
+		copy.setKeyRange(query.getKeyRange());
+		copy.setPrefix(query.getPrefix());
+		copy.setMinSpeed(query.getMinSpeed());
+		copy.setHops(query.getHops());
+		copy.setRequestingHost(query.getRequestingHost());
+		copy.setResultMode(query.getResultMode());
+		copy.setOrigxMin(query.getOrigxMin());
+		copy.setOrigxMax(query.getOrigxMax());
+		copy.setOrigyMin(query.getOrigyMin());
+		copy.setOrigyMax(query.getOrigyMax());
+		for (int i = 0; i < query.getRangeCount(); i++)
+			copy.addRange(query.getLowerBounds().get(i), query.getHigherBounds().get(i));
+	}
+
+	/**
+	 * Create a copy of this message.
+	 *
+	 * @return a copy of this message.
+	 */
+	public Object clone() {
+		MultiRangeQueryMessage msg = (MultiRangeQueryMessage) super.clone();
+		MultiRangeQuery copy = createQuery();
+
+		copyQuery(getQuery(), copy);
+		msg.mParsedRanges = null;
+		msg.mRangeQuery = copy;
+
+		return msg;
+	}
+
+	/**
+	 * Tests if this message is valid.
+	 *
+	 * @return <code>true</code> if valid.
+	 */
+	public boolean isValid() {
+		if (!super.isValid())
+			return false;
+		if (getQuery().getRangeCount() == 0)
+			return false;
+		return true;
+	}
+
+	/**
+	 * The Parser will invoke this method at the beginning of every element in the XML document; there will be a
+	 * corresponding endElement event for every startElement event (even when the element is empty). All of the element's
+	 * content will be reported, in order, before the corresponding endElement event.
+	 *
+	 * @param uri   the Namespace URI.
+	 * @param lName the local name (without prefix), or the empty string if Namespace processing is not being performed.
+	 * @param qName the qualified name (with prefix), or the empty string if qualified names are not available.
+	 * @param attrs the attributes attached to the element. If there are no attributes, it shall be an empty Attributes
+	 *              object.
+	 * @throws org.xml.sax.SAXException any SAX exception, possibly wrapping another exception.
+	 */
+	public void startElement(String uri, String lName, String qName, Attributes attrs) throws SAXException {
+		if (qName.equals(XML_RANGE)) {
+			if (mParsedRanges == null)
+				mParsedRanges = new ArrayList<KeyRange>();
+			getQuery().addRange(attrs.getValue(XML_RANGE_LOWER_BOUND), attrs.getValue(XML_RANGE_HIGHER_BOUND));
+			mParsedRanges.add(new PGridKeyRange(new PGridKey(attrs.getValue(XML_RANGE_LOWER_KEY)),
+					new PGridKey(attrs.getValue(XML_RANGE_HIGHER_KEY))));
+		} else {
+			super.startElement(uri, lName, qName, attrs);
+		}
+	}
+
+	/**
+	 * The SAX parser will invoke this method at the end of every element in the XML document; there will be a
+	 * corresponding startElement event for every endElement event (even when the element is empty).
+	 *
+	 * @param uri   the Namespace URI.
+	 * @param lName the local name (without prefix), or the empty string if Namespace processing is not being performed.
+	 * @param qName the qualified name (with prefix), or the empty string if qualified names are not available.
+	 * @throws SAXException any SAX exception, possibly wrapping another exception.
+	 */
+	public void endElement(String uri, String lName, String qName) throws SAXException {
+		if (qName.equals(getXMLMessageName()) && mParsedRanges != null) {
+			mRangeQuery.setKeyRange(new PGridKeyRangeSet(mParsedRanges));
+			mParsedRanges = null;
+		}
+		super.endElement(uri, lName, qName);
+	}
+
+	/**
+	 * Returns the XML representation of the ranges of the query.
+	 *
+	 * @param prefix  the XML prefix before each element in a new line.
+	 * @param newLine the new line string.
+	 * @return the XML string.
+	 */
+	protected String toXMLContent(String prefix, String newLine) {
+		MultiRangeQuery query = getQuery();
+		List<KeyRange> keys = ((PGridKeyRangeSet)query.getKeyRange()).getRanges();
+		StringBuilder strBuff = new StringBuilder();
+
+		for (int i = 0; i < query.getRangeCount(); i++) {
+			strBuff.append(prefix + XML_ELEMENT_OPEN + XML_RANGE + // {prefix}<Range
+					XML_SPACE + XML_RANGE_LOWER_BOUND + XML_ATTR_OPEN + query.getLowerBounds().get(i) + XML_ATTR_CLOSE + // _Lower="LOWER"
+					XML_SPACE + XML_RANGE_HIGHER_BOUND + XML_ATTR_OPEN + query.getHigherBounds().get(i) + XML_ATTR_CLOSE + // _Higher="HIGHER"
+					XML_SPACE + XML_RANGE_LOWER_KEY + XML_ATTR_OPEN + keys.get(i).getMin() + XML_ATTR_CLOSE + // _LowerKey="KEY"
+					XML_SPACE + XML_RANGE_HIGHER_KEY + XML_ATTR_OPEN + keys.get(i).getMax() + XML_ATTR_CLOSE + // _HigherKey="KEY"
+					XML_ELEMENT_END_CLOSE + newLine); // />
+		}
+		return strBuff.toString();
+	}
+
+	/**
+	 * Writes the binary representation of the ranges of the query.
+	 *
+	 * @param out the output.
+	 * @throws IOException if the content cannot be written.
+	 */
+	protected void writeBinaryContent(DataOutput out) throws IOException {
+		MultiRangeQuery query = getQuery();
+		List<KeyRange> keys = ((PGridKeyRangeSet)query.getKeyRange()).getRanges();
+
+		BinaryCodec.writeLong(out, query.getRangeCount());
+		for (int i = 0; i < query.getRangeCount(); i++) {
+			BinaryCodec.writeString(out, query.getLowerBounds().get(i));
+			BinaryCodec.writeString(out, query.getHigherBounds().get(i));
+			BinaryCodec.writeString(out, keys.get(i).getMin().toString());
+			BinaryCodec.writeString(out, keys.get(i).getMax().toString());
+		}
+	}
+
+	/**
+	 * Reads the ranges written by {@link #writeBinaryContent}.
+	 *
+	 * @param in the input.
+	 * @throws IOException if the content is malformed.
+	 */
+	protected void readBinaryContent(DataInput in) throws IOException {
+		// a range is written as four strings
+		int count = BinaryCodec.readCount(in, 4);
+		if (count == 0)
+			return;
+		List<KeyRange> ranges = new ArrayList<KeyRange>(count);
+		for (int i = 0; i < count; i++) {
+			getQuery().addRange(BinaryCodec.readString(in), BinaryCodec.readString(in));
+			PGridKey min = new PGridKey(BinaryCodec.readString(in));
+			ranges.add(new PGridKeyRange(min, new PGridKey(BinaryCodec.readString(in))));
+		}
+		mRangeQuery.setKeyRange(new PGridKeyRangeSet(ranges));
+	}
+
+	/**
+	 * Return the buisiness logic object
+	 * @return the buisiness logic object
+	 */
+	public MultiRangeQuery getQuery() {
+		return (MultiRangeQuery)mRangeQuery;
+	}
+}
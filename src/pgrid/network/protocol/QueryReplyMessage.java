@@ -32,19 +32,24 @@ import pgrid.XMLizable;
 import pgrid.core.index.IndexManager;
 import pgrid.interfaces.basic.PGridP2P;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Vector;
 
 import p2p.basic.GUID;
 
+import mgrid.core.Point;
+
 /**
  * This class represents a query reply.
  *
  * @author @author <a href="mailto:Roman Schmidt <Roman.Schmidt@epfl.ch>">Roman Schmidt</a>
  * @version 1.0.0
  */
-public class QueryReplyMessage extends PGridMessageImp {
+public class QueryReplyMessage extends PGridMessageImp implements BinaryMessage {
 
 	 /**
 	  *  read the default values from ini file
@@ -88,6 +93,46 @@ public class QueryReplyMessage extends PGridMessageImp {
 	 */
 	private static final String XML_HITS="Hits";
 
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_CHUNK = "Chunk";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_LAST_CHUNK = "Last";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_PEERS = "Peers";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_COMPLETE = "Complete";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_POINT = "Point";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_POINT_X = "X";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_POINT_Y = "Y";
+
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_POINT_ID = "ID";
+
 	/**
 	 * The Query Hit reply code.
 	 */
@@ -181,6 +226,26 @@ public class QueryReplyMessage extends PGridMessageImp {
 	}
 
 
+	/**
+	 * Creates a new query reply message carrying one chunk of a streamed result set.
+	 *
+	 * @param guid   the GUID of the Query Reply.
+	 * @param type   the query reply type.
+	 * @param points the points of this chunk.
+	 * @param chunk  the sequence number of this chunk.
+	 * @param last   true if no further chunks follow.
+	 */
+	public QueryReplyMessage(p2p.basic.GUID guid, int type, Collection<?> points, int chunk, boolean last) {
+		super(guid);
+		mQueryReply = new QueryReply(guid, type, points, chunk, last);
+		mIndexManager = PGridP2P.sharedInstance().getIndexManager();
+
+		if (type == QueryReply.TYPE_OK)
+			mCode = CODE_OK;
+		else if (type == QueryReply.TYPE_NOT_FOUND)
+			mCode = CODE_NOT_FOUND;
+	}
+
 	/**
 	 * Tests if this query hit message is valid.
 	 *
@@ -272,6 +337,20 @@ public class QueryReplyMessage extends PGridMessageImp {
 			if (mCode == CODE_OK) {
 				mQueryReply.setResultSet(new Vector());
 			}
+			String chunk = attrs.getValue(XML_CHUNK);
+			if (chunk != null) {
+				mQueryReply.setChunk(Integer.parseInt(chunk));
+				mQueryReply.setLastChunk(Boolean.valueOf(attrs.getValue(XML_LAST_CHUNK)));
+			}
+			String peers = attrs.getValue(XML_PEERS);
+			if (peers != null) {
+				mQueryReply.setPeers(Integer.parseInt(peers));
+				mQueryReply.setComplete(Boolean.valueOf(attrs.getValue(XML_COMPLETE)));
+			}
+		} else if (qName.equals(XML_POINT)) {
+			// streamed point
+			mQueryReply.addPoint(new Point(Long.parseLong(attrs.getValue(XML_POINT_X)),
+					Long.parseLong(attrs.getValue(XML_POINT_Y)), Long.parseLong(attrs.getValue(XML_POINT_ID))));
 		} else if (qName.equals(XMLIndexEntry.XML_INDEX_ITEM)) {
 			// Query Reply Result
 		//	mParsedObject = (XMLIndexEntry) mIndexManager.createIndexEntry(TYPE_NAME);
@@ -303,10 +382,20 @@ public class QueryReplyMessage extends PGridMessageImp {
 	 */
 	public String toXMLString(String prefix, String newLine) {
 		StringBuffer strBuff;
-		strBuff = new StringBuffer(500);
+		if (mQueryReply.isStreamed())
+			strBuff = new StringBuffer(100 + mQueryReply.getmHits() * 64);
+		else
+			strBuff = new StringBuffer(500);
 		strBuff.append(prefix + XML_ELEMENT_OPEN + XML_QUERY_REPLY); // {prefix}<QueryReply
 		strBuff.append(XML_SPACE + XML_QUERY_REPLY_CODE + XML_ATTR_OPEN + mCode + XML_ATTR_CLOSE); // _Code="CODE"
-		
+		if (mQueryReply.isStreamed()) {
+			strBuff.append(XML_SPACE + XML_CHUNK + XML_ATTR_OPEN + mQueryReply.getChunk() + XML_ATTR_CLOSE); // _Chunk="CHUNK"
+			strBuff.append(XML_SPACE + XML_LAST_CHUNK + XML_ATTR_OPEN + mQueryReply.isLastChunk() + XML_ATTR_CLOSE); // _Last="LAST"
+		}
+		if (mQueryReply.isAggregated()) {
+			strBuff.append(XML_SPACE + XML_PEERS + XML_ATTR_OPEN + mQueryReply.getPeers() + XML_ATTR_CLOSE); // _Peers="PEERS"
+			strBuff.append(XML_SPACE + XML_COMPLETE + XML_ATTR_OPEN + mQueryReply.isComplete() + XML_ATTR_CLOSE); // _Complete="COMPLETE"
+		}
 	
 		if (mQueryReply.getmHits() != 0) {
 			
@@ -314,6 +403,17 @@ public class QueryReplyMessage extends PGridMessageImp {
 		
 			strBuff.append(prefix + XML_ELEMENT_OPEN + XML_QUERY_REPLY_HITS + XML_SPACE+ XML_HITS
 					+ XML_ATTR_OPEN + mQueryReply.getmHits()+ XML_ATTR_CLOSE +  XML_ELEMENT_END_CLOSE +newLine);
+			if (mQueryReply.isStreamed()) {
+				for (Iterator<?> it = mQueryReply.getResultSet().iterator(); it.hasNext();) {
+					Point point = (Point)it.next();
+					// {prefix}<Point X="X" Y="Y" ID="ID"/>{newLine}
+					strBuff.append(prefix).append(XML_TAB).append(XML_ELEMENT_OPEN).append(XML_POINT);
+					strBuff.append(XML_SPACE).append(XML_POINT_X).append(XML_ATTR_OPEN).append(point.x).append(XML_ATTR_CLOSE);
+					strBuff.append(XML_SPACE).append(XML_POINT_Y).append(XML_ATTR_OPEN).append(point.y).append(XML_ATTR_CLOSE);
+					strBuff.append(XML_SPACE).append(XML_POINT_ID).append(XML_ATTR_OPEN).append(point.id).append(XML_ATTR_CLOSE);
+					strBuff.append(XML_ELEMENT_END_CLOSE).append(newLine);
+				}
+			}
 			strBuff.append(prefix + XML_ELEMENT_OPEN_END + XML_QUERY_REPLY + XML_ELEMENT_CLOSE + newLine); // {prefix}</QueryReply>{newLine}
 		} else {
 			strBuff.append(XML_ELEMENT_END_CLOSE + newLine); // />{newLine}
@@ -321,6 +421,72 @@ public class QueryReplyMessage extends PGridMessageImp {
 	
 		return strBuff.toString();
 	}
+	/**
+	 * Writes the binary representation of this message. The points of a
+	 * streamed reply are written as x, y and id each, the coverage of an
+	 * aggregated reply follows them.
+	 *
+	 * @param out the output.
+	 * @throws IOException if the content cannot be written.
+	 */
+	public void writeBinary(DataOutput out) throws IOException {
+		BinaryCodec.writeLong(out, mCode);
+		BinaryCodec.writeLong(out, mQueryReply.getChunk());
+		if (mQueryReply.isStreamed())
+			out.writeBoolean(mQueryReply.isLastChunk());
+		BinaryCodec.writeLong(out, mQueryReply.getmHits());
+		if (mQueryReply.isStreamed() && mQueryReply.getmHits() != 0) {
+			BinaryCodec.writeLong(out, mQueryReply.getResultSet().size());
+			for (Iterator<?> it = mQueryReply.getResultSet().iterator(); it.hasNext();) {
+				Point point = (Point)it.next();
+				BinaryCodec.writeLong(out, point.x);
+				BinaryCodec.writeLong(out, point.y);
+				BinaryCodec.writeLong(out, point.id);
+			}
+		}
+		BinaryCodec.writeLong(out, mQueryReply.getPeers());
+		if (mQueryReply.isAggregated())
+			out.writeBoolean(mQueryReply.isComplete());
+	}
+
+	/**
+	 * Reads the binary representation of this message.
+	 *
+	 * @param in the input.
+	 * @throws IOException if the content is malformed.
+	 */
+	public void readBinary(DataInput in) throws IOException {
+		mCode = (int)BinaryCodec.readLong(in);
+		if (mCode == CODE_OK)
+			mQueryReply.setType(QueryReply.TYPE_OK);
+		else if (mCode == CODE_NOT_FOUND)
+			mQueryReply.setType(QueryReply.TYPE_NOT_FOUND);
+		else if (mCode == CODE_BAD_REQUEST)
+			mQueryReply.setType(QueryReply.TYPE_BAD_REQUEST);
+		if (mCode == CODE_OK)
+			mQueryReply.setResultSet(new Vector<Point>());
+		int chunk = (int)BinaryCodec.readLong(in);
+		if (chunk >= 0) {
+			mQueryReply.setChunk(chunk);
+			mQueryReply.setLastChunk(in.readBoolean());
+		}
+		mQueryReply.setmHits((int)BinaryCodec.readLong(in));
+		if (mQueryReply.isStreamed() && mQueryReply.getmHits() != 0) {
+			// a point is written as three numbers
+			int count = BinaryCodec.readCount(in, 3);
+			if (mQueryReply.getResultSet() == null)
+				mQueryReply.setResultSet(new Vector<Point>(count));
+			for (int i = 0; i < count; i++) {
+				long x = BinaryCodec.readLong(in);
+				long y = BinaryCodec.readLong(in);
+				mQueryReply.addPoint(new Point(x, y, BinaryCodec.readLong(in)));
+			}
+		}
+		mQueryReply.setPeers((int)BinaryCodec.readLong(in));
+		if (mQueryReply.isAggregated())
+			mQueryReply.setComplete(in.readBoolean());
+	}
+
 	/**
 	 * Returns the XML representation of this object.
 	 *
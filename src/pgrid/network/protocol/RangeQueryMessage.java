@@ -29,12 +29,16 @@ import pgrid.interfaces.index.PGridIndexFactory;
 import pgrid.*;
 import pgrid.Type;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * This class represents a Gridella range query message.
  *
  * @author <a href="mailto:Renault JOHN <renault.john@epfl.ch>">Renault JOHN</a>
  */
-public class RangeQueryMessage extends PGridMessageImp {
+public class RangeQueryMessage extends PGridMessageImp implements BinaryMessage {
 
 	/**
 	 * A part of the XML string.
@@ -101,6 +105,11 @@ public class RangeQueryMessage extends PGridMessageImp {
 	 */
 	private static final String HITS = "Hits";
 
+	/**
+	 * A part of the XML string.
+	 */
+	private static final String XML_RESULT_MODE = "ResultMode";
+
 	/**
 	 * Temporary int use for parsing
 	 */
@@ -109,7 +118,7 @@ public class RangeQueryMessage extends PGridMessageImp {
 	/**
 	 * The range query message.
 	 */
-	private RangeQuery mRangeQuery = null;
+	protected RangeQuery mRangeQuery = null;
 
 	/**
 	 * The temporary variable during parsing.
@@ -160,6 +169,7 @@ public class RangeQueryMessage extends PGridMessageImp {
 		msg.mRangeQuery = new RangeQuery(mRangeQuery.getGUID(),mRangeQuery.getType(), mRangeQuery.getAlgorithm(),
 				mRangeQuery.getLowerBound(), mRangeQuery.getHigherBound(), mRangeQuery.getKeyRange(),
 				mRangeQuery.getPrefix(), mRangeQuery.getMinSpeed(), mRangeQuery.getHops(), mRangeQuery.getRequestingHost());
+		msg.mRangeQuery.setResultMode(mRangeQuery.getResultMode());
 
 		return msg;
 	}
@@ -224,6 +234,20 @@ public class RangeQueryMessage extends PGridMessageImp {
 	}
 
 
+	/**
+	 * Creates a new message for the given query.
+	 *
+	 * @param guid        the guid of the query.
+	 * @param query       the query.
+	 * @param initialHost host that should recieve the result set.
+	 */
+	protected RangeQueryMessage(GUID guid, RangeQuery query, PGridHost initialHost) {
+		super(guid);
+		mRangeQuery = query;
+		getHeader().setGUID(guid);
+		getHeader().setRequestorHost(initialHost);
+	}
+
 	/**
 	 * Tests if this init response message is valid.
 	 *
@@ -302,7 +326,7 @@ public class RangeQueryMessage extends PGridMessageImp {
 	 * @throws org.xml.sax.SAXException any SAX exception, possibly wrapping another exception.
 	 */
 	public void startElement(String uri, String lName, String qName, Attributes attrs) throws SAXException {
-		if (qName.equals(XML_QUERY)) {
+		if (qName.equals(getXMLMessageName())) {
 			// Query
 			mRangeQuery.setType((Type) PGridIndexFactory.sharedInstance().getTypeByString(attrs.getValue(XML_QUERY_TYPE)));
 			mRangeQuery.setKeyRange(new PGridKeyRange(new PGridKey(attrs.getValue(XML_LOWER_BOUND_KEY)),
@@ -324,6 +348,12 @@ public class RangeQueryMessage extends PGridMessageImp {
 
 			mRangeQuery.setPrefix(attrs.getValue(XML_QUERY_PREFIX));
 
+			String resultMode = attrs.getValue(XML_RESULT_MODE);
+			if (resultMode == null)
+				mRangeQuery.setResultMode(RangeQuery.COUNT_RESULTS);
+			else
+				mRangeQuery.setResultMode(resultMode);
+
 		} else if (qName.equals(XML_KEYWORD)) {
 			mFirstParsed++;
 		}
@@ -339,7 +369,7 @@ public class RangeQueryMessage extends PGridMessageImp {
 	 * @throws SAXException any SAX exception, possibly wrapping another exception.
 	 */
 	public void endElement(String uri, String lName, String qName) throws SAXException {
-		if (qName.equals(XML_QUERY)) {
+		if (qName.equals(getXMLMessageName())) {
 			mRangeQuery.setGUID(getHeader().getGUID());
 			mRangeQuery.setInitialHost(getHeader().getRequestorHost());
 		}
@@ -362,7 +392,7 @@ public class RangeQueryMessage extends PGridMessageImp {
 	 * @return the XML string.
 	 */
 	public String toXMLString(String prefix, String newLine) {
-		String xmlMessage = prefix + XML_ELEMENT_OPEN + XML_QUERY + // {prefix}<RangeQuery
+		String xmlMessage = prefix + XML_ELEMENT_OPEN + getXMLMessageName() + // {prefix}<RangeQuery
 				XML_SPACE + XML_QUERY_TYPE + XML_ATTR_OPEN + mRangeQuery.getTypeString() + XML_ATTR_CLOSE + // _Type="TYPE"
 				XML_SPACE + XML_QUERY_INDEX + XML_ATTR_OPEN + mRangeQuery.getIndex() + XML_ATTR_CLOSE + // _Index="INDEX"
 				XML_SPACE + XML_QUERY_PREFIX + XML_ATTR_OPEN + mRangeQuery.getPrefix() + XML_ATTR_CLOSE + // _Prefix="PREFIX"
@@ -372,6 +402,7 @@ public class RangeQueryMessage extends PGridMessageImp {
 				XML_SPACE + XML_X_MAX + XML_ATTR_OPEN + mRangeQuery.getOrigxMax() + XML_ATTR_CLOSE + // _Xmax="XMAX"
 				XML_SPACE + XML_Y_MIN + XML_ATTR_OPEN + mRangeQuery.getOrigyMin() + XML_ATTR_CLOSE + // _Ymin="YMIN"
 				XML_SPACE + XML_Y_MAX + XML_ATTR_OPEN + mRangeQuery.getOrigyMax() + XML_ATTR_CLOSE + // _Ymax="YMAX"
+				XML_SPACE + XML_RESULT_MODE + XML_ATTR_OPEN + mRangeQuery.getResultMode() + XML_ATTR_CLOSE + // _ResultMode="MODE"
 				XML_SPACE + XML_QUERY_MINSPEED + XML_ATTR_OPEN + mRangeQuery.getMinSpeed() + XML_ATTR_CLOSE + XML_ELEMENT_CLOSE + newLine + // _MinSpeed="MINSPEED"
 				prefix + XML_TAB + XML_ELEMENT_OPEN + XML_KEYWORD + XML_ELEMENT_CLOSE + // <Keyword>
 				XML_CDATA_OPEN + mRangeQuery.getLowerBound() + XML_CDATA_CLOSE + // <![CDATA[QUERY-STRING]]>
@@ -379,10 +410,89 @@ public class RangeQueryMessage extends PGridMessageImp {
 				prefix + XML_TAB + XML_ELEMENT_OPEN + XML_KEYWORD + XML_ELEMENT_CLOSE + // <Keyword>
 				XML_CDATA_OPEN + mRangeQuery.getHigherBound() + XML_CDATA_CLOSE + // <![CDATA[QUERY-STRING]]>
 				XML_ELEMENT_OPEN_END + XML_KEYWORD + XML_ELEMENT_CLOSE + newLine + // </ Keyword>
-				prefix + XML_ELEMENT_OPEN_END + XML_QUERY + XML_ELEMENT_CLOSE + newLine; // </RangeQuery>
+				toXMLContent(prefix + XML_TAB, newLine) +
+				prefix + XML_ELEMENT_OPEN_END + getXMLMessageName() + XML_ELEMENT_CLOSE + newLine; // </RangeQuery>
 		return xmlMessage;
 	}
+
+	/**
+	 * Returns the XML representation of additional elements of the query.
+	 *
+	 * @param prefix  the XML prefix before each element in a new line.
+	 * @param newLine the new line string.
+	 * @return the XML string.
+	 */
+	protected String toXMLContent(String prefix, String newLine) {
+		return "";
+	}
 	
+	/**
+	 * Writes the binary representation of this message.
+	 *
+	 * @param out the output.
+	 * @throws IOException if the content cannot be written.
+	 */
+	public void writeBinary(DataOutput out) throws IOException {
+		BinaryCodec.writeString(out, mRangeQuery.getTypeString());
+		BinaryCodec.writeLong(out, mRangeQuery.getIndex());
+		BinaryCodec.writeString(out, mRangeQuery.getPrefix());
+		BinaryCodec.writeString(out, mRangeQuery.getKeyRange().getMin().toString());
+		BinaryCodec.writeString(out, mRangeQuery.getKeyRange().getMax().toString());
+		BinaryCodec.writeOptionalLong(out, mRangeQuery.getOrigxMin());
+		BinaryCodec.writeOptionalLong(out, mRangeQuery.getOrigxMax());
+		BinaryCodec.writeOptionalLong(out, mRangeQuery.getOrigyMin());
+		BinaryCodec.writeOptionalLong(out, mRangeQuery.getOrigyMax());
+		BinaryCodec.writeString(out, mRangeQuery.getResultMode());
+		BinaryCodec.writeLong(out, mRangeQuery.getMinSpeed());
+		BinaryCodec.writeString(out, mRangeQuery.getLowerBound());
+		BinaryCodec.writeString(out, mRangeQuery.getHigherBound());
+		writeBinaryContent(out);
+	}
+
+	/**
+	 * Reads the binary representation of this message.
+	 *
+	 * @param in the input.
+	 * @throws IOException if the content is malformed.
+	 */
+	public void readBinary(DataInput in) throws IOException {
+		mRangeQuery.setType((Type) PGridIndexFactory.sharedInstance().getTypeByString(BinaryCodec.readString(in)));
+		mRangeQuery.setIndex((int)BinaryCodec.readLong(in));
+		mRangeQuery.setPrefix(BinaryCodec.readString(in));
+		PGridKey min = new PGridKey(BinaryCodec.readString(in));
+		mRangeQuery.setKeyRange(new PGridKeyRange(min, new PGridKey(BinaryCodec.readString(in))));
+		mRangeQuery.setOrigxMin(BinaryCodec.readOptionalLong(in));
+		mRangeQuery.setOrigxMax(BinaryCodec.readOptionalLong(in));
+		mRangeQuery.setOrigyMin(BinaryCodec.readOptionalLong(in));
+		mRangeQuery.setOrigyMax(BinaryCodec.readOptionalLong(in));
+		String resultMode = BinaryCodec.readString(in);
+		mRangeQuery.setResultMode(resultMode == null ? RangeQuery.COUNT_RESULTS : resultMode);
+		mRangeQuery.setMinSpeed((int)BinaryCodec.readLong(in));
+		mRangeQuery.setLowerBound(BinaryCodec.readString(in));
+		mRangeQuery.setHigherBound(BinaryCodec.readString(in));
+		readBinaryContent(in);
+		mRangeQuery.setGUID(getHeader().getGUID());
+		mRangeQuery.setInitialHost(getHeader().getRequestorHost());
+	}
+
+	/**
+	 * Writes the binary representation of additional fields of the query.
+	 *
+	 * @param out the output.
+	 * @throws IOException if the content cannot be written.
+	 */
+	protected void writeBinaryContent(DataOutput out) throws IOException {
+	}
+
+	/**
+	 * Reads the additional fields written by {@link #writeBinaryContent}.
+	 *
+	 * @param in the input.
+	 * @throws IOException if the content is malformed.
+	 */
+	protected void readBinaryContent(DataInput in) throws IOException {
+	}
+
 /*	public String toXMLString(String prefix, String newLine) {
 		String xmlMessage = prefix + XML_ELEMENT_OPEN + XML_QUERY + // {prefix}<RangeQuery
 				XML_SPACE + XML_QUERY_TYPE + XML_ATTR_OPEN + mRangeQuery.getTypeString() + XML_ATTR_CLOSE + // _Type="TYPE"
@@ -25,6 +25,10 @@ import p2p.basic.GUID;
 import org.xml.sax.SAXException;
 import org.xml.sax.Attributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * Class description goes here
  *
@@ -32,7 +36,7 @@ import org.xml.sax.Attributes;
  * @version 1.0.0
  */
 
-public class RouterACKMessage extends PGridMessageImp {
+public class RouterACKMessage extends PGridMessageImp implements BinaryMessage {
 	/**
 	 * The acknowledgment code "message already seen".
 	 */
@@ -249,4 +253,26 @@ public class RouterACKMessage extends PGridMessageImp {
 		return msg;
 	}
 
+	/**
+	 * Writes the binary representation of this message.
+	 *
+	 * @param out the output.
+	 * @throws IOException if the content cannot be written.
+	 */
+	public void writeBinary(DataOutput out) throws IOException {
+		BinaryCodec.writeLong(out, mCode);
+		BinaryCodec.writeString(out, mMsg);
+	}
+
+	/**
+	 * Reads the binary representation of this message.
+	 *
+	 * @param in the input.
+	 * @throws IOException if the content is malformed.
+	 */
+	public void readBinary(DataInput in) throws IOException {
+		mCode = (int)BinaryCodec.readLong(in);
+		mMsg = BinaryCodec.readString(in);
+	}
+
 }
@@ -84,7 +84,7 @@ class GreedyRoutingStrategy extends pgrid.network.router.RoutingStrategy {
 
 			return RouterACKMessage.CODE_OK;
 		}
-		else compath = Utils.commonPrefix(key.toString(), PGridP2P.sharedInstance().getLocalPath()).length();
+		else compath = Utils.commonPrefixLength(key.toString(), PGridP2P.sharedInstance().getLocalPath());
 		rheader.setDepth(compath);
 
 		if (compath == mPGridP2P.getLocalPath().length() || compath == key.toString().length()) {
@@ -0,0 +1,203 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid.network.router;
+
+import p2p.basic.Key;
+import p2p.basic.KeyRange;
+import pgrid.PGridHost;
+import pgrid.util.Utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the hosts responsible for key prefixes, learned from the
+ * peers the local peer talked to. It lets a message go directly to the owner
+ * of a recently used region instead of crossing the trie level by level.
+ * <p/>
+ * An entry remembers the path revision of its host when it was learned and is
+ * dropped as soon as the host is known with a newer path revision. The least
+ * recently used entries are evicted first.
+ *
+ * @version 1.0.0
+ */
+public class LocationCache {
+
+	/**
+	 * The prefix to host entries in access order.
+	 */
+	private final LinkedHashMap<String, Location> mLocations;
+
+	/**
+	 * The length of the longest cached prefix.
+	 */
+	private int mMaxLength = 0;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param capacity the maximum number of cached prefixes.
+	 */
+	public LocationCache(final int capacity) {
+		mLocations = new LinkedHashMap<String, Location>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, Location> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Learns that the given host is responsible for its current path.
+	 *
+	 * @param host the host.
+	 */
+	public void learn(PGridHost host) {
+		if (host != null)
+			learn(host, host.getPath());
+	}
+
+	/**
+	 * Learns that the given host is responsible for the given path.
+	 *
+	 * @param host the host.
+	 * @param path the path of the host.
+	 */
+	public void learn(PGridHost host, String path) {
+		if (host == null || host.isLocalHost() || path == null || path.length() == 0)
+			return;
+		synchronized (mLocations) {
+			mLocations.put(path, new Location(host, host.getRevision()));
+			mMaxLength = Math.max(mMaxLength, path.length());
+		}
+	}
+
+	/**
+	 * Returns the cached prefix responsible for the whole key range.
+	 *
+	 * @param range the key range.
+	 * @return the longest cached prefix of both bounds, or null.
+	 */
+	public String lookup(KeyRange range) {
+		String min = range.getMin().toString();
+		String max = range.getMax().toString();
+		return lookup(min.substring(0, Utils.commonPrefixLength(min, max)));
+	}
+
+	/**
+	 * Returns the cached prefix responsible for the key.
+	 *
+	 * @param key the key.
+	 * @return the longest cached prefix of the key, or null.
+	 */
+	public String lookup(Key key) {
+		return lookup(key.toString());
+	}
+
+	/**
+	 * Returns the longest cached prefix of the given binary string whose host
+	 * did not change its path since.
+	 *
+	 * @param key the binary string.
+	 * @return the prefix, or null.
+	 */
+	private String lookup(String key) {
+		synchronized (mLocations) {
+			for (int len = Math.min(mMaxLength, key.length()); len > 0; len--) {
+				String prefix = key.substring(0, len);
+				Location location = mLocations.get(prefix);
+				if (location == null)
+					continue;
+				if (location.mHost.getRevision() != location.mRevision) {
+					mLocations.remove(prefix);
+					continue;
+				}
+				return prefix;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the host cached for a prefix returned by lookup.
+	 *
+	 * @param prefix the prefix.
+	 * @return the host, or null if the prefix is not cached anymore.
+	 */
+	public PGridHost getHost(String prefix) {
+		synchronized (mLocations) {
+			Location location = mLocations.get(prefix);
+			return (location == null ? null : location.mHost);
+		}
+	}
+
+	/**
+	 * Forgets the host of a prefix, for instance when it rejected a message.
+	 *
+	 * @param prefix the prefix.
+	 */
+	public void invalidate(String prefix) {
+		synchronized (mLocations) {
+			mLocations.remove(prefix);
+		}
+	}
+
+	/**
+	 * Forgets all prefixes of the given host.
+	 *
+	 * @param host the host.
+	 */
+	public void invalidate(PGridHost host) {
+		synchronized (mLocations) {
+			for (Iterator<Location> it = mLocations.values().iterator(); it.hasNext();) {
+				if (it.next().mHost.equals(host))
+					it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of cached prefixes.
+	 *
+	 * @return the number of prefixes.
+	 */
+	public int size() {
+		synchronized (mLocations) {
+			return mLocations.size();
+		}
+	}
+
+	/**
+	 * A cached host with the path revision it was learned at.
+	 */
+	private static class Location {
+
+		private final PGridHost mHost;
+
+		private final long mRevision;
+
+		Location(PGridHost host, long revision) {
+			mHost = host;
+			mRevision = revision;
+		}
+	}
+}
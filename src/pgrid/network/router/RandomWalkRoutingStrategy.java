@@ -99,7 +99,7 @@ class RandomWalkRoutingStrategy extends RoutingStrategy {
 			String rPath = rheader.getKey();
 			Router.LOGGER.fine("received remote messeage from host " + host.toHostString() + " with path " + rPath + ", and common len " + rheader.getDepth() + ".");
 
-			int len = Utils.commonPrefix(mPGridP2P.getLocalPath(), rPath).length();
+			int len = Utils.commonPrefixLength(mPGridP2P.getLocalPath(), rPath);
 
 			// the common length of the paths are not as required => reply with 'Path Changed' code
 			if ((len != commonLen) || (mPGridP2P.getLocalPath().length() == 0) && rPath.length() != 0) {
@@ -26,7 +26,9 @@ import p2p.basic.Message;
 import java.util.Collection;
 import java.util.Iterator;
 
+import pgrid.PGridHost;
 import pgrid.interfaces.basic.PGridP2P;
+import pgrid.util.HashedWheelTimer;
 
 /**
  * Created by IntelliJ IDEA.
@@ -45,6 +47,20 @@ class RouteAttempt implements Runnable{
 
 	private long mStartTime = 0;
 
+	private PGridHost mHost = null;
+
+	private PGridHost mHedgeHost = null;
+
+	private long mHedgeTime = 0;
+
+	private HashedWheelTimer.Timeout mTimeout = null;
+
+	private HashedWheelTimer.Timeout mHedgeTimeout = null;
+
+	private String mDirectPrefix = null;
+
+	private RoutingStrategy mFallback = null;
+
 	public RouteAttempt(Message msg, Collection col, Iterator it) {
 		mMessage = msg;
 		mCollection = col;
@@ -60,6 +76,42 @@ class RouteAttempt implements Runnable{
 		return mIterator;
 	}
 
+	/**
+	 * Marks the attempt as sent directly to the cached owner of a prefix.
+	 *
+	 * @param prefix   the cached prefix.
+	 * @param fallback the strategy to route the message with if the owner rejects it.
+	 */
+	public void setDirect(String prefix, RoutingStrategy fallback) {
+		mDirectPrefix = prefix;
+		mFallback = fallback;
+	}
+
+	public boolean isDirect() {return mDirectPrefix != null;}
+
+	public String getDirectPrefix() {return mDirectPrefix;}
+
+	public RoutingStrategy getFallback() {return mFallback;}
+
+	/**
+	 * Tests if a host is left to try. A hedge may take it before the caller
+	 * does, so {@link #nextHost()} can still return null.
+	 *
+	 * @return true if a host is left.
+	 */
+	public synchronized boolean hasNextHost() {
+		return mIterator.hasNext();
+	}
+
+	/**
+	 * Returns the next host to try.
+	 *
+	 * @return the host, or null if all hosts were tried.
+	 */
+	public synchronized PGridHost nextHost() {
+		return mIterator.hasNext() ? (PGridHost)mIterator.next() : null;
+	}
+
 	public Message getMessage() {
 		return mMessage;
 	}
@@ -68,6 +120,104 @@ class RouteAttempt implements Runnable{
 
 	public void resetSentTime() {mStartTime = System.currentTimeMillis();}
 
+	/**
+	 * Records the host the message was sent to. The host counts the message as
+	 * outstanding until the attempt is released.
+	 *
+	 * @param host the host.
+	 */
+	public synchronized void sent(PGridHost host) {
+		release();
+		mHost = host;
+		mStartTime = System.currentTimeMillis();
+		host.incOutstanding();
+	}
+
+	/**
+	 * Records the host the message was additionally sent to because the first
+	 * one was slow.
+	 *
+	 * @param host the host.
+	 */
+	public synchronized void hedged(PGridHost host) {
+		mHedgeHost = host;
+		mHedgeTime = System.currentTimeMillis();
+		host.incOutstanding();
+	}
+
+	public synchronized PGridHost getHost() {return mHost;}
+
+	public synchronized boolean isHedged() {return mHedgeHost != null;}
+
+	/**
+	 * Records the acknowledgment of the given host and releases the attempt.
+	 *
+	 * @param host the acknowledging host.
+	 */
+	public synchronized void acknowledged(PGridHost host) {
+		long now = System.currentTimeMillis();
+		if (host.equals(mHost))
+			mHost.recordRtt(now - mStartTime);
+		else if (host.equals(mHedgeHost))
+			mHedgeHost.recordRtt(now - mHedgeTime);
+		release();
+	}
+
+	/**
+	 * Records that no host acknowledged in time and releases the attempt.
+	 */
+	public synchronized void timedOut() {
+		if (mHost != null)
+			mHost.incRouteFailures();
+		if (mHedgeHost != null)
+			mHedgeHost.incRouteFailures();
+		release();
+	}
+
+	/**
+	 * Sets the timer re-routing the message if it is not acknowledged, and
+	 * cancels the previous one.
+	 *
+	 * @param timeout the timer, or null.
+	 */
+	public synchronized void setTimeout(HashedWheelTimer.Timeout timeout) {
+		if (mTimeout != null)
+			mTimeout.cancel();
+		mTimeout = timeout;
+	}
+
+	/**
+	 * Sets the timer hedging the message if it is not acknowledged, and
+	 * cancels the previous one.
+	 *
+	 * @param timeout the timer, or null.
+	 */
+	public synchronized void setHedgeTimeout(HashedWheelTimer.Timeout timeout) {
+		if (mHedgeTimeout != null)
+			mHedgeTimeout.cancel();
+		mHedgeTimeout = timeout;
+	}
+
+	/**
+	 * Cancels the timers of the attempt.
+	 */
+	public synchronized void cancelTimeouts() {
+		setTimeout(null);
+		setHedgeTimeout(null);
+	}
+
+	/**
+	 * Stops counting the message as outstanding at the hosts it was sent to.
+	 */
+	public synchronized void release() {
+		if (mHost != null)
+			mHost.decOutstanding();
+		if (mHedgeHost != null)
+			mHedgeHost.decOutstanding();
+		mHost = null;
+		mHedgeHost = null;
+	}
+
 	public void run() {
 		PGridP2P.sharedInstance().getRouter().route(this);
 	}
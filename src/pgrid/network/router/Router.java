@@ -27,8 +27,9 @@ import p2p.basic.events.NoRouteToKeyException;
 import pgrid.Constants;
 import pgrid.PGridHost;
 import pgrid.Properties;
+import pgrid.PGridKey;
 import pgrid.Statistics;
-import pgrid.core.RoutingTable;
+import pgrid.core.RoutingTableSnapshot;
 import pgrid.interfaces.basic.PGridP2P;
 import pgrid.network.MessageManager;
 import pgrid.network.PGridDecoder;
@@ -36,19 +37,21 @@ import pgrid.network.ConnectionManager;
 import pgrid.network.PGridMessageMapping;
 import pgrid.network.protocol.PGridMessage;
 import pgrid.network.protocol.PGridCompressedMessage;
+import pgrid.network.protocol.QueryReplyMessage;
 import pgrid.network.protocol.RouteHeader;
 import pgrid.network.protocol.RouterACKMessage;
 import pgrid.network.protocol.MessageHeader;
 import pgrid.util.logging.LogFormatter;
+import pgrid.util.TimerListener;
 import pgrid.util.TimerManager;
 import test.demo.KnnQuery;
 import test.demo.RangeQuery;
 
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Logger;
 
 /**
@@ -139,6 +142,12 @@ public class Router implements pgrid.util.TimerListener {
 	 */
 	public static final String RANDOM_STRATEGY = "Random";
 
+	/**
+	 * Header attribute holding the cached prefix a message was sent directly
+	 * to.
+	 */
+	public static final String XML_DIRECT_PREFIX = "DirectPrefix";
+
 	/**
 	 * Connection manager
 	 */
@@ -170,10 +179,15 @@ public class Router implements pgrid.util.TimerListener {
 	protected PGridP2P mPGridP2P = PGridP2P.sharedInstance();
 
 	/**
-	 * Queue of recently seen message to identify already seen msg which should
-	 * be ignored.
+	 * Recently seen messages to identify already seen msg which should be
+	 * ignored.
+	 */
+	private SeenSet mSeenMsg = null;
+
+	/**
+	 * Owners of recently used key prefixes
 	 */
-	private final LinkedBlockingQueue mSeenMsg = new LinkedBlockingQueue(100);
+	private LocationCache mLocationCache = null;
 
 	/**
 	 * Thread pool
@@ -193,6 +207,78 @@ public class Router implements pgrid.util.TimerListener {
 
 	private Hashtable<GUID, RouteAttempt> mRouteAttempts = new Hashtable<GUID, RouteAttempt>();
 
+	/**
+	 * Orders the hosts of a level healthy first, then by their expected
+	 * latency. Both change while messages are routed, so they are read once
+	 * before sorting to keep the order consistent.
+	 *
+	 * @param list the hosts to order.
+	 */
+	private static void sortByLatency(List<PGridHost> list) {
+		int n = list.size();
+		final boolean[] healthy = new boolean[n];
+		final long[] cost = new long[n];
+		PGridHost[] hosts = list.toArray(new PGridHost[n]);
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			healthy[i] = hosts[i].isHealthy();
+			cost[i] = hosts[i].getRouteCost();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				if (healthy[i1] != healthy[i2])
+					return healthy[i1] ? -1 : 1;
+				long c1 = cost[i1];
+				long c2 = cost[i2];
+				return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < n; i++)
+			list.set(i, hosts[order[i]]);
+	}
+
+	/**
+	 * Hedges route attempts not acknowledged in time
+	 */
+	private final TimerListener mHedgeListener = new TimerListener() {
+		public void timerTriggered(Object id) {
+			hedge((RouteAttempt) id);
+		}
+	};
+
+	/**
+	 * Acknowledgments waiting to be sent, by receiver and code
+	 */
+	private final HashMap<String, PendingACK> mPendingACKs = new HashMap<String, PendingACK>();
+
+	/**
+	 * The time in ms acknowledgments are held back to be sent together
+	 */
+	private int mBatchWindow = 0;
+
+	/**
+	 * Sends acknowledgments held back when their batch window elapsed. The
+	 * timer thread only hands them to the thread pool, as sending may connect.
+	 */
+	private final TimerListener mACKListener = new TimerListener() {
+		public void timerTriggered(Object id) {
+			final PendingACK pending = (PendingACK) id;
+			synchronized (mPendingACKs) {
+				mPendingACKs.remove(pending.mKey);
+			}
+			try {
+				mThreadPool.execute(new Runnable() {
+					public void run() {
+						mConMng.sendPGridMessage(pending.mHost, pending.mACK);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				Router.LOGGER.finer("Router shut down, acknowledgment to " + pending.mHost.toHostString() + " dropped.");
+			}
+		}
+	};
+
 	/**
 	 * True if the router is activated
 	 */
@@ -223,6 +309,9 @@ public class Router implements pgrid.util.TimerListener {
 		mThreadPool = Executors.newFixedThreadPool(32);
 
 		mConMng = ConnectionManager.sharedInstance();
+		mSeenMsg = new SeenSet(mPGridP2P.propertyInteger(Properties.SEEN_MESSAGES));
+		mLocationCache = new LocationCache(mPGridP2P.propertyInteger(Properties.LOCATION_CACHE_SIZE));
+		mBatchWindow = mPGridP2P.propertyInteger(Properties.MESSAGE_BATCH_WINDOW);
 
 		// Register strategies
 		registerStrategy(new ShowerRoutingStrategy(this));
@@ -232,7 +321,6 @@ public class Router implements pgrid.util.TimerListener {
 		registerStrategy(new RandomWalkRoutingStrategy(this));
 		registerStrategy(new BroadcastRoutingStrategy(this));
 
-		mTimerManager.register(1000, null, this, true);
 	}
 
 	/**
@@ -263,7 +351,8 @@ public class Router implements pgrid.util.TimerListener {
 	}
 
 	/**
-	 * Check new response was received.
+	 * Check new response was received. Acknowledgments sent together
+	 * reference all acknowledged messages.
 	 * 
 	 * @param message
 	 *            the response message.
@@ -275,6 +364,8 @@ public class Router implements pgrid.util.TimerListener {
 			if (attempt == null) {
 				continue;
 			}
+			attempt.acknowledged(message.getHeader().getHost());
+			attempt.cancelTimeouts();
 			PGridMessage msg = (PGridMessage) attempt.getMessage();
 
 			if (message.getCode() == RouterACKMessage.CODE_OK) {
@@ -282,7 +373,6 @@ public class Router implements pgrid.util.TimerListener {
 				Router.LOGGER.finer("Received ACK OK for message \"" + guid
 						+ "\".");
 				routingSucceeded(guid);
-				return;
 			} else if (message.getCode() == RouterACKMessage.CODE_MSG_ALREADY_SEEN
 					|| message.getCode() == RouterACKMessage.CODE_WRONG_ROUTE
 					|| message.getCode() == RouterACKMessage.CODE_CANNOT_ROUTE
@@ -317,17 +407,15 @@ public class Router implements pgrid.util.TimerListener {
 
 				// message has been seen by host already => try another host if
 				// available, otherwise routing failed
-				if (attempt.getIterator().hasNext()) {
+				if (attempt.hasNextHost()) {
 					Router.LOGGER.finer("Route failed for message \"" + guid
 							+ "\". Try to find an other path.");
 					mThreadPool.execute(attempt);
-					return;
-				} else {
+				} else if (!fallBack(attempt)) {
 					Router.LOGGER.finer("Route failed for message \"" + guid
 							+ "\". No other path available.");
 					routingFailed(guid);
 					mMsgMgr.failedToRoute(message);
-					return;
 				}
 			}
 		}
@@ -362,10 +450,8 @@ public class Router implements pgrid.util.TimerListener {
 	 * @return true if the attemp has succeeded
 	 */
 	protected boolean routeAtLevel(Message msg, int level, Key key) {
-		RoutingTable rTable = mPGridP2P.getRoutingTable();
-
 		// determine the responsible routing table level
-		PGridHost[] hosts = rTable.getLevel(level);
+		PGridHost[] hosts = mPGridP2P.getRoutingTable().getSnapshot().getLevel(level);
 
 		// if no hosts are available in this level => throw exception
 		if ((hosts == null) || (hosts.length == 0)) {
@@ -374,10 +460,9 @@ public class Router implements pgrid.util.TimerListener {
 					+ mPGridP2P.getLocalHost().toHostString()+ "].");
 		}
 
-		// create and shuffle hosts list and iterate throw it
-		List list = Arrays.asList(hosts);
-
-	//	Collections.shuffle(list);
+		// create hosts list ordered by latency and iterate throw it
+		List<PGridHost> list = Arrays.asList(hosts.clone());
+		sortByLatency(list);
 		Iterator it = list.iterator();
 
 		RouteAttempt attempt = new RouteAttempt(msg, list, it);
@@ -395,10 +480,8 @@ public class Router implements pgrid.util.TimerListener {
 	 * @return true if the attemp has succeeded
 	 */
 	protected boolean routeAtLevel(Message msg, int level) {
-		RoutingTable rTable = mPGridP2P.getRoutingTable();
-
 		// determine the responsible routing table level
-		PGridHost[] hosts = rTable.getLevel(level);
+		PGridHost[] hosts = mPGridP2P.getRoutingTable().getSnapshot().getLevel(level);
 
 		// if no hosts are available in this level => throw exception
 		if ((hosts == null) || (hosts.length == 0)) {
@@ -407,10 +490,9 @@ public class Router implements pgrid.util.TimerListener {
 					+ mPGridP2P.getLocalHost().toHostString()+ "].");
 		}
 
-		// create and shuffle hosts list and iterate throw it
-		List list = Arrays.asList(hosts);
-
-	//	Collections.shuffle(list);
+		// create hosts list ordered by latency and iterate throw it
+		List<PGridHost> list = Arrays.asList(hosts.clone());
+		sortByLatency(list);
 		Iterator it = list.iterator();
 
 		RouteAttempt attempt = new RouteAttempt(msg, list, it);
@@ -430,96 +512,61 @@ public class Router implements pgrid.util.TimerListener {
 	protected boolean routeAtLevel(Message msg, int level, KeyRange keyRange,
 			boolean otherTrie) {
 
-		RoutingTable rTable = mPGridP2P.getRoutingTable();
 		// determine the responsible routing table level
-		PGridHost[] hosts = rTable.getLevel(level);
+		RoutingTableSnapshot snapshot = mPGridP2P.getRoutingTable().getSnapshot();
+		PGridHost[] hosts = snapshot.getLevel(level);
 		String localpath = mPGridP2P.getLocalPath();
 		int prefixLength = localpath.length();
 
-		String tempLowerkey = keyRange.getMin().toString()
-				.substring(0, prefixLength);
-		Long lkey = Long.parseLong(tempLowerkey, 2);
-		String tempHigherKey = keyRange.getMax().toString()
-				.substring(0, prefixLength);
-		Long hkey = Long.parseLong(tempHigherKey, 2);
-		Long localKey = Long.parseLong(localpath,2);
-		List<PGridHost> list = new ArrayList<PGridHost>(Arrays.asList(hosts));
-		final Iterator<PGridHost> itList = list.iterator();
+		// prefixes of the bounds at the local path length, taken from the packed keys
+		long lkey = PGridKey.prefixBits(keyRange.getMin(), prefixLength);
+		long hkey = PGridKey.prefixBits(keyRange.getMax(), prefixLength);
+		long localKey = PGridKey.parseBits(localpath);
 		boolean balancedTrie = mPGridP2P
 				.propertyBoolean(Properties.BALANCED_TRIE);
-		if (balancedTrie) {
-			// case 1, the lower and upper bound of query do not have the same
-			// common prefix
-			if (!tempLowerkey.equalsIgnoreCase(tempHigherKey)) {
-				while (itList.hasNext()) {
-					Long hostPath = Long.parseLong(itList.next().getPath(), 2);
-					if (!(lkey <= hostPath & hostPath <= hkey)) {
-						itList.remove();
-					}
-				}
-			}
-			if (tempLowerkey.equalsIgnoreCase(tempHigherKey)) {
-				// traverse the hosts and delete the references of hosts which
-				// do not have the same common prefix
-				while (itList.hasNext()) {
-					if (!itList.next().getPath()
-							.equalsIgnoreCase(tempHigherKey)) {
-						itList.remove();
-					}
-				}
-			}
-		}
+		boolean partitioned = !mPGridP2P.propertyString(Properties.HTABLE_NAME).equalsIgnoreCase("%");
+		// the local peer is responsible for a range over several partitions containing its own
+		boolean localRange = lkey != hkey
+				&& ((lkey < localKey && localKey < hkey) || lkey == localKey || hkey == localKey);
+
 		// if no hosts are available in this level => throw exception
-		if ((hosts == null) || (hosts.length == 0)) {
+		if (hosts.length == 0) {
 			// decrease the request count
 			KnnQuery.requestCount--;
 		}
-	
-		String tableName = new String(mPGridP2P.propertyString(Properties.HTABLE_NAME));
-		// if not msg has common prefix
-		if (!tableName.equalsIgnoreCase("%")) {
-		if (!(hkey == lkey) ) {
-						while (itList.hasNext()) {
-					Long hostPath = Long.parseLong(itList.next().getPath(), 2);
-					if ( lkey < localKey & localKey < hkey) {
-						// local peer is reposible for range query message, remove all the hosts
-				//		System.out.println("in first if lkey: "+lkey+" localkey "+localKey+" hkey "+hkey+" for query range "+keyRange.getMin().toString()+" "+keyRange.getMax().toString());
-						if (hostPath != localKey) {
-							itList.remove();
-						}
-					} 
-						
-						if (lkey == localKey || hkey == localKey ) {
-						//	System.out.println("in second if lkey: "+lkey+" localkey "+localKey+" hkey "+hkey+" for query range "+keyRange.getMin().toString()+" "+keyRange.getMax().toString());
-						//	System.out.println(" hostlist is "+ list.size()+" for query range "+keyRange.getMin().toString()+" "+keyRange.getMax().toString());
-							if (hostPath != localKey) {
-								itList.remove();
-						//		System.out.println(" removing hostpath "+Long.toBinaryString(hostPath)+" list size "+list.size());
-						}
-						}			
-		} // end of while 
-						if (list.size() > 1) {
-						//	System.out.println("inside list size check hostlist is "+ list.size()+" for query range "+keyRange.getMin().toString()+" "+keyRange.getMax().toString());
-							for (int i =list.size(); i > 1; i-- )
-								list.remove(i-1);
-						//	System.out.println(" hostlist now is "+ list.size()+" for query range "+keyRange.getMin().toString()+" "+keyRange.getMax().toString());
-						}
-		} else {
-			if  (hkey == lkey)  {
-				while (itList.hasNext()) {
-					Long hostPath = Long.parseLong(itList.next().getPath(), 2);
-				//	System.out.println("lkey  = hkey, hostlist is "+ list.size()+" for query range "+keyRange.getMin().toString()+" "+keyRange.getMax().toString());
-					if (hostPath != lkey) {
-						itList.remove();
-					//	System.out.println(" removed hostpath "+Long.toBinaryString(hostPath)+" new list size "+list.size());
-					}
+
+		List<PGridHost> list = new ArrayList<PGridHost>(hosts.length);
+		for (int i = 0; i < hosts.length; i++) {
+			long hostPath = snapshot.getPathBits(level, i);
+			if (balancedTrie) {
+				if (lkey != hkey) {
+					// case 1, the lower and upper bound of query do not have the same
+					// common prefix
+					if (!(lkey <= hostPath && hostPath <= hkey))
+						continue;
+				} else if (hosts[i].getPath().length() != prefixLength || hostPath != hkey) {
+					// skip the hosts which do not have the same common prefix
+					continue;
 				}
+			} else if (partitioned) {
+				if (localRange && hostPath != localKey)
+					continue;
+				if (lkey == hkey && hostPath != lkey)
+					continue;
 			}
+			list.add(hosts[i]);
 		}
-		
-		} 
-		// create and shuffle hosts list and iterate throw it
+		// no host of the level covers the range
+		if (list.isEmpty())
+			return false;
 
+		// try the fastest hosts first
+		sortByLatency(list);
+		// a range over several partitions is sent to one host only
+		if (partitioned && lkey != hkey) {
+			while (list.size() > 1)
+				list.remove(list.size() - 1);
+		}
 		Iterator<PGridHost>  it = list.iterator();
 		RouteAttempt attempt = new RouteAttempt(msg, list,it);
 		// send query message
@@ -536,42 +583,35 @@ public class Router implements pgrid.util.TimerListener {
 	protected boolean route(RouteAttempt attempt) {
 		PGridMessage msg = (PGridMessage) attempt.getMessage();
 		GUID guid = msg.getHeader().getGUID();
-		Iterator it = attempt.getIterator();
 		attempt.resetSentTime();
-		mRouteAttempts.put(guid, attempt);
+		RouteAttempt previous = mRouteAttempts.put(guid, attempt);
+		// an attempt for the same message to an other level cannot be
+		// acknowledged anymore
+		if (previous != null && previous != attempt) {
+			previous.release();
+			previous.cancelTimeouts();
+		}
+		attempt.setTimeout(mTimerManager.schedule(Constants.ROUTE_TIMEOUT, attempt, this));
 
-		while (it.hasNext()) {
-			PGridHost host;
-			try {
-				host = (PGridHost) it.next();
-			} catch (NoSuchElementException e) {
-				return false;
-			}
+		while (true) {
+			// a hedge may have taken the last host meanwhile
+			PGridHost host = attempt.nextHost();
+			if (host == null)
+				return noHostLeft(attempt);
 		
 			LOGGER.fine("Try to send message (" + guid.toString() + ") to "
 					+ host.toHostString() +" message content "+msg.toXMLString()+  ".");
 			boolean sent = mConMng.sendPGridMessage(host, msg);
 			if (!sent) {
-				if (it.hasNext()) {
-					LOGGER.fine("Failed to send message (" + guid.toString()
-							+ "), try an other host.");
-					continue;
-				} else {
-					LOGGER.fine("not sent and no more hosts for message ("
-							+ guid.toString() + ").");
-					PGridMessage recvMsg = (PGridMessage) attempt.getMessage();
-					if (recvMsg instanceof PGridCompressedMessage)
-						recvMsg = mDecoder
-								.decode((PGridCompressedMessage) attempt
-										.getMessage());
-
-					if (recvMsg != null)
-						mMsgMgr.failedToRoute(recvMsg);
-					return false;
-				}
+				host.incRouteFailures();
+				LOGGER.fine("Failed to send message (" + guid.toString()
+						+ "), try an other host.");
+				continue;
 			} else {
 				LOGGER.fine("Message (" + guid.toString() + ") sent to "
 						+ host.toHostString() + ".");
+				attempt.sent(host);
+				scheduleHedge(attempt, host);
 				if (PGridP2P.sharedInstance().isInTestMode()) {
 					int type = msg.getHeader().getDesc();
 					if (!msg.getHeader().getHost()
@@ -581,9 +621,90 @@ public class Router implements pgrid.util.TimerListener {
 				}
 			}
 
-			break;
+			return true;
 		}
-		return true;
+	}
+
+	/**
+	 * Ends an attempt all hosts of which were tried: a direct route falls back
+	 * to the strategy of the message, otherwise routing failed.
+	 *
+	 * @param attempt
+	 *            the route attempt
+	 * @return true if the message is routed again
+	 */
+	private boolean noHostLeft(RouteAttempt attempt) {
+		if (fallBack(attempt))
+			return true;
+		GUID guid = ((PGridMessage) attempt.getMessage()).getHeader().getGUID();
+		LOGGER.fine("not sent and no more hosts for message ("
+				+ guid.toString() + ").");
+		synchronized (mRouteAttempts) {
+			if (mRouteAttempts.get(guid) == attempt)
+				mRouteAttempts.remove(guid);
+		}
+		attempt.cancelTimeouts();
+		routingFailed(guid);
+		PGridMessage recvMsg = (PGridMessage) attempt.getMessage();
+		if (recvMsg instanceof PGridCompressedMessage)
+			recvMsg = mDecoder
+					.decode((PGridCompressedMessage) attempt
+							.getMessage());
+
+		if (recvMsg != null)
+			mMsgMgr.failedToRoute(recvMsg);
+		return false;
+	}
+
+	/**
+	 * Schedules sending the message of the attempt to the next host of the
+	 * level if the given host does not acknowledge it within the time it
+	 * usually takes for nearly all messages. Hosts without measurement are
+	 * not hedged.
+	 *
+	 * @param attempt
+	 *            the route attempt
+	 * @param host
+	 *            the host the message was sent to
+	 */
+	private void scheduleHedge(RouteAttempt attempt, PGridHost host) {
+		attempt.setHedgeTimeout(null);
+		if (!mPGridP2P.propertyBoolean(Properties.ROUTE_HEDGING) || !attempt.hasNextHost())
+			return;
+		long bound = host.getLatencyBound();
+		if (bound < 0)
+			return;
+		long delay = Math.max(bound, mPGridP2P.propertyLong(Properties.ROUTE_HEDGING_MIN_DELAY));
+		if (delay < Constants.ROUTE_TIMEOUT)
+			attempt.setHedgeTimeout(mTimerManager.schedule(delay, attempt, mHedgeListener));
+	}
+
+	/**
+	 * Sends the message of a not yet acknowledged attempt to the next host of
+	 * the level. The first acknowledgment of either host completes the
+	 * attempt.
+	 *
+	 * @param attempt
+	 *            the route attempt
+	 */
+	private void hedge(final RouteAttempt attempt) {
+		final PGridMessage msg = (PGridMessage) attempt.getMessage();
+		final GUID guid = msg.getHeader().getGUID();
+		if (mRouteAttempts.get(guid) != attempt || attempt.isHedged())
+			return;
+		mThreadPool.execute(new Runnable() {
+			public void run() {
+				PGridHost host = attempt.nextHost();
+				if (host == null)
+					return;
+				LOGGER.fine("Message (" + guid.toString() + ") not acknowledged in time, hedge it to "
+						+ host.toHostString() + ".");
+				if (mConMng.sendPGridMessage(host, msg))
+					attempt.hedged(host);
+				else
+					host.incRouteFailures();
+			}
+		});
 	}
 
 	/**
@@ -656,9 +777,90 @@ public class Router implements pgrid.util.TimerListener {
 			registerRouterListener(msg.getGUID(), routerListener);
 
 		}
+		if (routeDirect(msg, rs, routingInfo))
+			return;
 		registerMsg(new Request(msg, rs, true));
 	}
 
+	/**
+	 * Sends a message directly to the cached owner of the region it is
+	 * addressed to, if direct routing is enabled and the local peer is not
+	 * responsible itself. The owner handles the message as if it had been
+	 * routed down to its prefix.
+	 * 
+	 * @param msg
+	 *            Message to route
+	 * @param rs
+	 *            Strategy the message would be routed with
+	 * @param routingInfo
+	 *            the key or key range of the message
+	 * @return true if the message is sent directly
+	 */
+	private boolean routeDirect(PGridMessage msg, RoutingStrategy rs, Object routingInfo) {
+		if (!mPGridP2P.propertyBoolean(Properties.DIRECT_ROUTING) || mPGridP2P.getLocalPath().length() == 0)
+			return false;
+
+		String prefix;
+		if (rs instanceof ShowerRoutingStrategy && routingInfo instanceof KeyRange)
+			prefix = mLocationCache.lookup((KeyRange) routingInfo);
+		else if (rs instanceof GreedyRoutingStrategy && routingInfo instanceof Key)
+			prefix = mLocationCache.lookup((Key) routingInfo);
+		else
+			return false;
+		PGridHost host = (prefix == null ? null : mLocationCache.getHost(prefix));
+		if (host == null || rs.isResponsible(msg))
+			return false;
+
+		msg.getHeader().setAdditionalAttribute(XML_DIRECT_PREFIX, prefix);
+		msg.getHeader().getRouteHeader().setDepth(prefix.length());
+		List<PGridHost> list = Collections.singletonList(host);
+		RouteAttempt attempt = new RouteAttempt(msg, list, list.iterator());
+		attempt.setDirect(prefix, rs);
+		LOGGER.fine("Send message (" + msg.getGUID().toString() + ") directly to "
+				+ host.toHostString() + ", owner of '" + prefix + "'.");
+		registerMsg(new Request(attempt));
+		return true;
+	}
+
+	/**
+	 * Routes a message again with its strategy after its direct route to a
+	 * cached owner failed, and forgets that owner.
+	 * 
+	 * @param attempt
+	 *            the failed attempt
+	 * @return true if the attempt was a direct one
+	 */
+	private boolean fallBack(RouteAttempt attempt) {
+		if (!attempt.isDirect())
+			return false;
+
+		PGridMessage msg = (PGridMessage) attempt.getMessage();
+		GUID guid = msg.getHeader().getGUID();
+		synchronized (mRouteAttempts) {
+			if (mRouteAttempts.get(guid) == attempt)
+				mRouteAttempts.remove(guid);
+		}
+		attempt.cancelTimeouts();
+		attempt.release();
+		mLocationCache.invalidate(attempt.getDirectPrefix());
+
+		msg.getHeader().getAdditionalAttributes().remove(XML_DIRECT_PREFIX);
+		msg.getHeader().getRouteHeader().setDepth(0);
+		LOGGER.fine("Direct route of message (" + guid.toString() + ") failed, route it with strategy "
+				+ attempt.getFallback().getStrategyName() + ".");
+		registerMsg(new Request(msg, attempt.getFallback(), true));
+		return true;
+	}
+
+	/**
+	 * Returns the cache of the owners of recently used key prefixes.
+	 * 
+	 * @return the location cache.
+	 */
+	public LocationCache getLocationCache() {
+		return mLocationCache;
+	}
+
 	/**
 	 * Routes a message using a given algorithm.
 	 * 
@@ -732,6 +934,11 @@ public class Router implements pgrid.util.TimerListener {
 				} else
 					recvMsg = msg;
 
+				// the sender of a reply owns (part of) the queried region
+				if (recvMsg instanceof QueryReplyMessage
+						&& mPGridP2P.propertyBoolean(Properties.DIRECT_ROUTING))
+					mLocationCache.learn(recvMsg.getHeader().getHost());
+
 				mMsgMgr.dispatchMessage(recvMsg);
 			}
 
@@ -761,6 +968,18 @@ public class Router implements pgrid.util.TimerListener {
 		// Do some pre processing on Routing header if needed
 		rs.preProcessMessage(msg);
 
+		// a message sent directly to this peer as the cached owner of a
+		// region it is not responsible for anymore
+		if (msg.getHeader().getAdditionalAttribute(XML_DIRECT_PREFIX) != null) {
+			if (!rs.isResponsible(msg)) {
+				sendACK(msg.getHeader().getHost(),
+						RouterACKMessage.CODE_WRONG_ROUTE, msg.getHeader()
+								.getGUID());
+				return;
+			}
+			msg.getHeader().getAdditionalAttributes().remove(XML_DIRECT_PREFIX);
+		}
+
 		// check if local peer is responsible for this message
 		if (rs.isResponsible(msg)) {
 			if (msg instanceof PGridCompressedMessage) {
@@ -843,8 +1062,25 @@ public class Router implements pgrid.util.TimerListener {
 	 *            the guid of the ACK message
 	 */
 	protected void sendACK(PGridHost host, int code, GUID guid) {
-		RouterACKMessage ack = new RouterACKMessage(guid, code);
-		mConMng.sendPGridMessage(host, ack);
+		if (mBatchWindow <= 0 || host.getGUID() == null) {
+			mConMng.sendPGridMessage(host, new RouterACKMessage(guid, code));
+			return;
+		}
+
+		// acknowledgments with the same code to the same host are sent as one
+		// message referencing all acknowledged messages
+		String key = host.getGUID() + ":" + code;
+		PendingACK pending;
+		synchronized (mPendingACKs) {
+			pending = mPendingACKs.get(key);
+			if (pending != null) {
+				pending.mACK.getHeader().addReference(guid);
+				return;
+			}
+			pending = new PendingACK(key, host, new RouterACKMessage(guid, code));
+			mPendingACKs.put(key, pending);
+		}
+		mTimerManager.schedule(mBatchWindow, pending, mACKListener);
 	}
 
 	/**
@@ -858,27 +1094,31 @@ public class Router implements pgrid.util.TimerListener {
 	}
 
 	/**
-	 * Timer triggered callback method. This method will remove all routing
-	 * attempts older then a certain amount of time and all old client
-	 * informations.
+	 * Timer triggered callback method. Called when a routing attempt was not
+	 * acknowledged in time: the message is routed to the next host, or the
+	 * attempt is dropped if all hosts were tried.
 	 * 
 	 * @param id
+	 *            the route attempt
 	 */
 	public void timerTriggered(Object id) {
-		// check if there was a time out
-		long now = System.currentTimeMillis();
-		int mult = 1;
-
-		Vector<RouteAttempt> attemps = new Vector(mRouteAttempts.values());
-		for (RouteAttempt a : attemps) {
-			if ((now - a.getSentTime()) * mult >= Constants.ROUTE_TIMEOUT) {
-				if (PGridP2P.sharedInstance().isInTestMode())
-					mPGridP2P.getStatistics().incMessageStat(
-							Statistics.messageStats.timeout,
-							((PGridMessage) a.getMessage()).getHeader()
-									.getDesc());
-				registerMsg(new Request(a));
-			}
+		RouteAttempt a = (RouteAttempt) id;
+		GUID guid = ((PGridMessage) a.getMessage()).getHeader().getGUID();
+		if (mRouteAttempts.get(guid) != a)
+			return;
+
+		if (PGridP2P.sharedInstance().isInTestMode())
+			mPGridP2P.getStatistics().incMessageStat(
+					Statistics.messageStats.timeout,
+					((PGridMessage) a.getMessage()).getHeader()
+							.getDesc());
+		a.timedOut();
+		if (a.hasNextHost()) {
+			registerMsg(new Request(a));
+		} else if (!noHostLeft(a)) {
+			// the searches waiting for the message are told by noHostLeft
+			LOGGER.finer("Route timed out for message \"" + guid
+					+ "\". No other path available.");
 		}
 	}
 
@@ -904,19 +1144,30 @@ public class Router implements pgrid.util.TimerListener {
 		// check if the query was already seen
 		GUID qID = msg.getHeader().getGUID();
 
-		synchronized (mSeenMsg) {
-			if (mSeenMsg.contains(qID)) {
-				Constants.LOGGER.finer("Remote search request for query ("
-						+ qID + ") already seen.");
-				return true;
-			} else {
-				// add query to seen query queue
-				if (mSeenMsg.remainingCapacity() == 0)
-					mSeenMsg.poll();
-				mSeenMsg.offer(qID);
-				return false;
-			}
+		if (mSeenMsg.seen(qID)) {
+			Constants.LOGGER.finer("Remote search request for query ("
+					+ qID + ") already seen.");
+			return true;
 		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of received messages dropped as already seen.
+	 * 
+	 * @return the number of duplicates.
+	 */
+	public long getDuplicateMessages() {
+		return mSeenMsg.getDuplicates();
+	}
+
+	/**
+	 * Returns the number of distinct messages received for routing.
+	 * 
+	 * @return the number of messages.
+	 */
+	public long getSeenMessages() {
+		return mSeenMsg.getMessages();
 	}
 
 	/**
@@ -983,4 +1234,19 @@ public class Router implements pgrid.util.TimerListener {
 			ConnectionManager.sharedInstance().sendPGridMessage(mHost, mMsg);
 		}
 	}
+
+	/**
+	 * An acknowledgment held back to be sent with others to the same host
+	 */
+	private static class PendingACK {
+		final String mKey;
+		final PGridHost mHost;
+		final RouterACKMessage mACK;
+
+		PendingACK(String key, PGridHost host, RouterACKMessage ack) {
+			mKey = key;
+			mHost = host;
+			mACK = ack;
+		}
+	}
 }
\ No newline at end of file
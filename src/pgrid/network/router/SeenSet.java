@@ -0,0 +1,106 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid.network.router;
+
+import p2p.basic.GUID;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The GUIDs of the most recently seen messages. Lookups go to a concurrent
+ * hash set, and a ring buffer evicts the oldest GUID once the set is full, so
+ * a check costs constant time and takes no lock.
+ *
+ * @version 1.0.0
+ */
+class SeenSet {
+
+	/**
+	 * The remembered GUIDs.
+	 */
+	private final ConcurrentHashMap<GUID, Boolean> mSeen;
+
+	/**
+	 * The remembered GUIDs in insertion order.
+	 */
+	private final AtomicReferenceArray<GUID> mRing;
+
+	/**
+	 * The number of GUIDs added so far.
+	 */
+	private final AtomicLong mAdded = new AtomicLong();
+
+	/**
+	 * The number of messages recognized as already seen.
+	 */
+	private final AtomicLong mDuplicates = new AtomicLong();
+
+	/**
+	 * Creates a new set remembering the given number of GUIDs.
+	 *
+	 * @param capacity the number of GUIDs.
+	 */
+	SeenSet(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		mSeen = new ConcurrentHashMap<GUID, Boolean>(capacity * 4 / 3 + 1, 0.75f, 32);
+		mRing = new AtomicReferenceArray<GUID>(capacity);
+	}
+
+	/**
+	 * Adds the GUID unless it is already remembered.
+	 *
+	 * @param guid the GUID of a message.
+	 * @return true if the GUID was already seen.
+	 */
+	boolean seen(GUID guid) {
+		if (mSeen.putIfAbsent(guid, Boolean.TRUE) != null) {
+			mDuplicates.incrementAndGet();
+			return true;
+		}
+		int slot = (int)(mAdded.getAndIncrement() % mRing.length());
+		GUID evicted = mRing.getAndSet(slot, guid);
+		if (evicted != null)
+			mSeen.remove(evicted);
+		return false;
+	}
+
+	/**
+	 * Returns the number of messages recognized as already seen.
+	 *
+	 * @return the duplicates.
+	 */
+	long getDuplicates() {
+		return mDuplicates.get();
+	}
+
+	/**
+	 * Returns the number of distinct messages seen.
+	 *
+	 * @return the messages.
+	 */
+	long getMessages() {
+		return mAdded.get();
+	}
+}
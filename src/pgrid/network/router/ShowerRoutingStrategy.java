@@ -22,6 +22,7 @@
 package pgrid.network.router;
 
 import pgrid.*;
+import pgrid.core.search.ReplyAggregator;
 import pgrid.util.Utils;
 import pgrid.network.protocol.*;
 import pgrid.interfaces.basic.PGridP2P;
@@ -69,7 +70,12 @@ class ShowerRoutingStrategy extends RoutingStrategy {
 		MessageHeader header = msg.getHeader();
 		RouteHeader rheader = header.getRouteHeader();
 
-		KeyRange keyRange = new PGridKeyRange(rheader.getKey());
+		// multi-range queries carry all their ranges, so subtrees between them are pruned
+		KeyRange keyRange;
+		if (PGridKeyRangeSet.isRangeSet(rheader.getKey()))
+			keyRange = new PGridKeyRangeSet(rheader.getKey());
+		else
+			keyRange = new PGridKeyRange(rheader.getKey());
 		
 		rheader.setProperty(KEY, keyRange);
 	}
@@ -106,20 +112,36 @@ class ShowerRoutingStrategy extends RoutingStrategy {
 		int size = mPGridP2P.getRoutingTable().getLevelCount();
 		String tmpPath = "";
 		char[] charLocalPath = localpath.toCharArray();
-		char[] charLower = keyRange.getMin().toString().toCharArray();
-		char[] charHigher = keyRange.getMax().toString().toCharArray();
+		// only the first bit of the bounds is needed to decide on a side change
+		char charLower = PGridKey.prefixBits(keyRange.getMin(), 1) == 1 ? '1' : '0';
+		char charHigher = PGridKey.prefixBits(keyRange.getMax(), 1) == 1 ? '1' : '0';
 		int qIndex = request.getMessage().getHeader().getRouteHeader().getDepth();
 		String info ="";
 		boolean otherTrie ;
-		if (keyRange.withinRange(new PGridKey(localpath))) {
+		PGridKey localKey = new PGridKey(localpath);
+		if (keyRange.withinRange(localKey)) {
 			maxLevel = localpath.length()-1;
 		} else {
-			int min = Utils.commonPrefix(keyRange.getMin().toString(), localpath).length();
-			int max = Utils.commonPrefix(keyRange.getMax().toString(), localpath).length();
+			int min = Utils.commonPrefixLength(keyRange.getMin(), localKey);
+			int max = Utils.commonPrefixLength(keyRange.getMax(), localKey);
 			maxLevel = Math.min(Math.max(min, max), localpath.length()-1);
 		}
 		if (maxLevel >= qIndex)
 			Router.LOGGER.fine("Try to route message ("+request.getMessage().getHeader().getGUID().toString()+"). ");
+
+		// in aggregation mode the subtrees reply to the aggregation of the local peer
+		PGridMessage msg = request.getMessage();
+		boolean aggregated = ReplyAggregator.isAggregated(msg);
+		if (aggregated) {
+			if (msg instanceof PGridCompressedMessage) {
+				msg = mRouter.mDecoder.decode((PGridCompressedMessage)msg);
+				if (msg == null)
+					return RouterACKMessage.CODE_CANNOT_ROUTE;
+			}
+			ReplyAggregator.sharedInstance().forwarding((RangeQueryMessage)msg);
+		}
+		int subtrees = 0;
+
 		// keep track of router
 		
 		for (int level = maxLevel; level >= qIndex; level--) {
@@ -135,7 +157,7 @@ class ShowerRoutingStrategy extends RoutingStrategy {
 				otherTrie = false;
 			}
 			// side change
-			else if (charLocalPath[0] != charLower[0] || charLocalPath[0] != charHigher[0]) {
+			else if (charLocalPath[0] != charLower || charLocalPath[0] != charHigher) {
 				otherTrie = true;
 				tmpPath = (charLocalPath[0] == '1') ? "0" : "1";
 				info = "Sending range message to the other side of the trie "+tmpPath;
@@ -146,7 +168,6 @@ class ShowerRoutingStrategy extends RoutingStrategy {
 			// send the message
 			String tableName = new String(mPGridP2P.propertyString(Properties.HTABLE_NAME));
 			if (keyRange.withinRange(new PGridKey(tmpPath))) {
-				PGridMessage msg = request.getMessage();
 				if (!tableName.equalsIgnoreCase("%")) {
 					msg.getHeader().getRouteHeader().setDepth(localpath.length());
 				} else {
@@ -155,8 +176,12 @@ class ShowerRoutingStrategy extends RoutingStrategy {
 				
 				Router.LOGGER.fine(info+" msg guid: "+msg.getGUID().toString()+" depth: "+msg.getHeader().getRouteHeader().getDepth());
 				boolean sent = mRouter.routeAtLevel(msg, level,keyRange,otherTrie);
+				if (sent)
+					subtrees++;
 			}
 		}
+		if (aggregated)
+			ReplyAggregator.sharedInstance().forwarded(msg.getGUID(), subtrees);
 
 		return RouterACKMessage.CODE_OK;
 	}
@@ -96,7 +96,7 @@ class TopologicRoutingStrategy extends pgrid.network.router.RoutingStrategy {
 
 		String localPath = mPGridP2P.getLocalPath();
 		boolean sent = false;
-		int compath = Utils.commonPrefix(localPath, path).length();
+		int compath = Utils.commonPrefixLength(localPath, path);
 
 		//First part of the algorithm. Route to a peer responsible for path
 		if (path.length() > compath && localPath.length() > compath) {
@@ -23,13 +23,17 @@
 package pgrid.util;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.*;
 
 import pgrid.Constants;
 
 /**
  * This class compresses and decompresses data using the Java {@link java.util.zip.Deflater} and
- * {@link java.util.zip.Inflater}.
+ * {@link java.util.zip.Inflater}, or another registered {@link Codec}. Every thread reuses its own
+ * deflater, inflater and output buffer.
  *
  * @author @author <a href="mailto:Roman Schmidt <Roman.Schmidt@epfl.ch>">Roman Schmidt</a>
  * @version 1.0 2003/04/15
@@ -38,6 +42,114 @@ import pgrid.Constants;
  */
 public class Compression {
 
+	/**
+	 * The name of the deflate codec.
+	 */
+	public static final String DEFLATE = "deflate";
+
+	/**
+	 * The compression level selecting the fast codec {@link LZCodec}, above
+	 * the levels of {@link java.util.zip.Deflater}. Hosts not reading it get
+	 * deflate with {@link Deflater#BEST_SPEED}.
+	 */
+	public static final int FAST_COMPRESSION = 10;
+
+	/**
+	 * A compression codec.
+	 */
+	public interface Codec {
+
+		/**
+		 * @return the name of the codec, as announced to other hosts.
+		 */
+		String getName();
+
+		/**
+		 * Compresses the delivered data.
+		 *
+		 * @param data   the byte array to compress.
+		 * @param offset the first byte to compress.
+		 * @param len    the amount of bytes to compress.
+		 * @param level  the compression level, may be ignored.
+		 * @return the compressed bytes.
+		 */
+		byte[] compress(byte[] data, int offset, int len, int level);
+
+		/**
+		 * Decompresses the delivered data.
+		 *
+		 * @param data   the byte array to decompress.
+		 * @param offset the first byte to decompress.
+		 * @param len    the amount of bytes to decompress.
+		 * @return the decompressed bytes.
+		 * @throws DataFormatException if the data is corrupted.
+		 */
+		byte[] decompress(byte[] data, int offset, int len) throws DataFormatException;
+
+	}
+
+	/**
+	 * The registered codecs, by name.
+	 */
+	private static final Map<String, Codec> CODECS = new ConcurrentHashMap<String, Codec>();
+
+	/**
+	 * The deflater of each thread.
+	 */
+	private static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater();
+		}
+	};
+
+	/**
+	 * The inflater of each thread.
+	 */
+	private static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater();
+		}
+	};
+
+	/**
+	 * The output buffer of each thread, only the returned bytes are copied.
+	 */
+	private static final ThreadLocal<byte[]> OUTPUT_BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[4096];
+		}
+	};
+
+	/**
+	 * Output buffers larger than this are not kept by their thread.
+	 */
+	private static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Size of the buffers files are compressed and decompressed with.
+	 */
+	private static final int FILE_BUFFER_SIZE = 64 * 1024;
+
+	static {
+		registerCodec(new Codec() {
+			public String getName() {
+				return DEFLATE;
+			}
+
+			public byte[] compress(byte[] data, int offset, int len, int level) {
+				return Compression.compress(data, offset, len, level);
+			}
+
+			public byte[] decompress(byte[] data, int offset, int len) throws DataFormatException {
+				return Compression.decompress(data, offset, len);
+			}
+		});
+		registerCodec(new LZCodec());
+	}
+
 	/**
 	 * Creates a new <code>Compression</code>.
 	 */
@@ -45,6 +157,53 @@ public class Compression {
 		// do nothing
 	}
 
+	/**
+	 * Registers a codec, replacing a codec of the same name.
+	 *
+	 * @param codec the codec.
+	 */
+	public static void registerCodec(Codec codec) {
+		CODECS.put(codec.getName(), codec);
+	}
+
+	/**
+	 * Returns the codec of the given name.
+	 *
+	 * @param name the name, null for deflate.
+	 * @return the codec, or null if unknown.
+	 */
+	public static Codec getCodec(String name) {
+		return CODECS.get(name == null ? DEFLATE : name);
+	}
+
+	/**
+	 * Returns the names of all registered codecs, separated by commas.
+	 *
+	 * @return the codec names.
+	 */
+	public static String getCodecNames() {
+		StringBuilder names = new StringBuilder();
+		for (String name : CODECS.keySet()) {
+			if (names.length() > 0)
+				names.append(',');
+			names.append(name);
+		}
+		return names.toString();
+	}
+
+	/**
+	 * Selects the codec to write with for a host reading the given codecs.
+	 *
+	 * @param level the compression level.
+	 * @param names the codecs read by the host, separated by commas.
+	 * @return the codec name.
+	 */
+	public static String selectCodec(int level, String names) {
+		if (level == FAST_COMPRESSION && names != null && Arrays.asList(names.split(",")).contains(LZCodec.NAME))
+			return LZCodec.NAME;
+		return DEFLATE;
+	}
+
 	/**
 	 * Compresses the delivered data with the default level, and returns it.
 	 *
@@ -71,24 +230,22 @@ public class Compression {
 			return null;
 		if ((offset + len) > data.length)
 			return null;
+		if (compression == FAST_COMPRESSION)
+			compression = Deflater.BEST_SPEED;
 
-		Deflater compresser = new Deflater(compression);
+		Deflater compresser = DEFLATER.get();
+		compresser.reset();
+		compresser.setLevel(compression);
 		compresser.setInput(data, offset, len);
 		compresser.finish();
-		byte[] buffer = new byte[1024];
+		byte[] buffer = OUTPUT_BUFFER.get();
 		int bufferPos = 0;
 		while (!compresser.finished()) {
-			if (bufferPos >= buffer.length) {
-				final byte[] tmp = buffer;
-				buffer = new byte[buffer.length + len];
-				System.arraycopy(tmp, 0, buffer, 0, tmp.length);
-			}
-			final int tmpLen = compresser.deflate(buffer, bufferPos, buffer.length - bufferPos);
-			bufferPos += tmpLen;
+			if (bufferPos >= buffer.length)
+				buffer = grow(buffer);
+			bufferPos += compresser.deflate(buffer, bufferPos, buffer.length - bufferPos);
 		}
-		byte[] ret = new byte[bufferPos];
-		System.arraycopy(buffer, 0, ret, 0, bufferPos);
-		return ret;
+		return copy(buffer, bufferPos);
 	}
 
 	/**
@@ -105,36 +262,88 @@ public class Compression {
 			return null;
 		if ((offset + len) > data.length)
 			return null;
-		Inflater decompresser = new Inflater();
+		Inflater decompresser = INFLATER.get();
+		decompresser.reset();
 		decompresser.setInput(data, offset, len);
-		byte[] buffer = new byte[1024];
+		byte[] buffer = OUTPUT_BUFFER.get();
 		int bufferPos = 0;
-		while (decompresser.getRemaining() > 0) {
-			if (bufferPos >= buffer.length) {
-				byte[] tmp = buffer;
-				buffer = new byte[buffer.length + len];
-				System.arraycopy(tmp, 0, buffer, 0, tmp.length);
-			}
+		while (!decompresser.finished()) {
+			if (bufferPos >= buffer.length)
+				buffer = grow(buffer);
 			int tmpLen = decompresser.inflate(buffer, bufferPos, buffer.length - bufferPos);
+			// truncated data
+			if (tmpLen == 0 && (decompresser.needsInput() || decompresser.needsDictionary()))
+				break;
 			bufferPos += tmpLen;
 		}
+		return copy(buffer, bufferPos);
+	}
+
+	/**
+	 * Compresses the delivered data with the given codec.
+	 *
+	 * @param codec  the codec name, null for deflate.
+	 * @param data   the byte array to compress.
+	 * @param offset the first byte to compress.
+	 * @param len    the amount of bytes to compress.
+	 * @param level  the compression level.
+	 * @return the compressed bytes.
+	 * @throws DataFormatException if the codec is unknown.
+	 */
+	public static byte[] compress(String codec, byte[] data, int offset, int len, int level) throws DataFormatException {
+		Codec c = getCodec(codec);
+		if (c == null)
+			throw new DataFormatException("Unknown codec " + codec + ".");
+		return c.compress(data, offset, len, level);
+	}
 
-		decompresser.end();
-		byte[] ret = new byte[bufferPos];
-		System.arraycopy(buffer, 0, ret, 0, bufferPos);
+	/**
+	 * Decompresses the delivered data with the given codec.
+	 *
+	 * @param codec  the codec name, null for deflate.
+	 * @param data   the byte array to decompress.
+	 * @param offset the first byte to decompress.
+	 * @param len    the amount of bytes to decompress.
+	 * @return the decompressed bytes.
+	 * @throws DataFormatException if the codec is unknown or the data corrupted.
+	 */
+	public static byte[] decompress(String codec, byte[] data, int offset, int len) throws DataFormatException {
+		Codec c = getCodec(codec);
+		if (c == null)
+			throw new DataFormatException("Unknown codec " + codec + ".");
+		return c.decompress(data, offset, len);
+	}
+
+	/**
+	 * Doubles the output buffer of the thread.
+	 */
+	private static byte[] grow(byte[] buffer) {
+		byte[] tmp = new byte[buffer.length * 2];
+		System.arraycopy(buffer, 0, tmp, 0, buffer.length);
+		if (tmp.length <= MAX_BUFFER_SIZE)
+			OUTPUT_BUFFER.set(tmp);
+		return tmp;
+	}
+
+	/**
+	 * Copies the used part of the output buffer.
+	 */
+	private static byte[] copy(byte[] buffer, int len) {
+		byte[] ret = new byte[len];
+		System.arraycopy(buffer, 0, ret, 0, len);
 		return ret;
 	}
 	
 	public static void compressFile(String source, String dest){
 		long time = System.currentTimeMillis();
-		int BUFFER = 2048;
+		int BUFFER = FILE_BUFFER_SIZE;
 		byte[] buff = new byte[BUFFER];
 		BufferedInputStream origin = null;
 		ZipOutputStream zout = null;
 		try {
 			FileInputStream fis = new FileInputStream(Constants.CSV_DIR+source);
 			origin = new BufferedInputStream(fis,BUFFER);
-			zout = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(Constants.CSV_DIR+dest)));
+			zout = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(Constants.CSV_DIR+dest), BUFFER));
 			ZipEntry entry = new ZipEntry(source);
 			zout.putNextEntry(entry);
 			int count;
@@ -162,12 +371,12 @@ public class Compression {
 	public static void decompressFile(String source, String destn){
 		long time = System.currentTimeMillis();
 		
-		int BUFFER = 2048;
+		int BUFFER = FILE_BUFFER_SIZE;
 		try {
 
 			BufferedOutputStream dest = null;
 			FileInputStream fis = new FileInputStream(source);
-			ZipInputStream zis = new ZipInputStream(new BufferedInputStream(fis));
+			ZipInputStream zis = new ZipInputStream(new BufferedInputStream(fis, BUFFER));
 			ZipEntry entry = zis.getNextEntry();
 
 			int count;
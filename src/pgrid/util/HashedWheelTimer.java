@@ -0,0 +1,372 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+package pgrid.util;
+
+import pgrid.Constants;
+
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A hashed timing wheel. Timeouts are hashed by their deadline into the
+ * buckets of a wheel one tick apart, and a single thread advances the wheel
+ * every tick and expires the due timeouts of the current bucket only. Timeouts
+ * further away than one turn of the wheel count the remaining turns down.
+ * Scheduling and cancelling a timeout costs constant time whatever the
+ * number of pending timeouts, at the price of a precision of one tick.
+ * <p/>
+ * Listeners are called on the timer thread and must return quickly.
+ *
+ * @version 1.0.0
+ */
+public class HashedWheelTimer {
+
+	/**
+	 * The wheel.
+	 */
+	private final Bucket[] mWheel;
+
+	/**
+	 * Mask giving the bucket of a tick.
+	 */
+	private final int mMask;
+
+	/**
+	 * Duration of a tick in ms.
+	 */
+	private final long mTickDuration;
+
+	/**
+	 * Timeouts scheduled since the last tick.
+	 */
+	private final ConcurrentLinkedQueue<Timeout> mPending = new ConcurrentLinkedQueue<Timeout>();
+
+	/**
+	 * Timeouts cancelled since the last tick.
+	 */
+	private final ConcurrentLinkedQueue<Timeout> mCancelled = new ConcurrentLinkedQueue<Timeout>();
+
+	/**
+	 * Start time of the wheel in ns.
+	 */
+	private final long mStartTime = System.nanoTime();
+
+	/**
+	 * The timer thread.
+	 */
+	private final Thread mThread;
+
+	/**
+	 * True once the timer is stopped.
+	 */
+	private volatile boolean mStopped = false;
+
+	/**
+	 * Creates and starts a new timer.
+	 *
+	 * @param name          the name of the timer thread.
+	 * @param tickDuration  the duration of a tick in ms.
+	 * @param ticksPerWheel the number of buckets, rounded up to a power of two.
+	 */
+	public HashedWheelTimer(String name, long tickDuration, int ticksPerWheel) {
+		if (tickDuration <= 0)
+			throw new IllegalArgumentException("Tick duration must be positive: " + tickDuration);
+		if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("Illegal number of ticks per wheel: " + ticksPerWheel);
+		int size = 1;
+		while (size < ticksPerWheel)
+			size <<= 1;
+		mWheel = new Bucket[size];
+		for (int i = 0; i < size; i++)
+			mWheel[i] = new Bucket();
+		mMask = size - 1;
+		mTickDuration = tickDuration;
+
+		mThread = new Thread(new Worker(), name);
+		mThread.setDaemon(true);
+		mThread.setPriority(Thread.NORM_PRIORITY-1);
+		mThread.start();
+	}
+
+	/**
+	 * Schedules a timeout.
+	 *
+	 * @param delay    the delay in ms.
+	 * @param id       the id handed to the listener, could be null.
+	 * @param listener the listener to inform.
+	 * @param periodic if true the timeout is rescheduled with the same delay each time it expired.
+	 * @return the handle of the timeout.
+	 */
+	public Timeout schedule(long delay, Object id, TimerListener listener, boolean periodic) {
+		if (listener == null)
+			throw new NullPointerException("listener");
+		Timeout timeout = new Timeout(Math.max(delay, 0), id, listener, periodic);
+		timeout.mDeadline = elapsed() + timeout.mDelay;
+		mPending.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the timer. Pending timeouts do not expire anymore.
+	 */
+	public void stop() {
+		mStopped = true;
+		mThread.interrupt();
+	}
+
+	/**
+	 * Returns the time in ms since the timer was started.
+	 *
+	 * @return the elapsed time.
+	 */
+	private long elapsed() {
+		return (System.nanoTime() - mStartTime) / 1000000;
+	}
+
+	/**
+	 * A scheduled timeout.
+	 */
+	public class Timeout {
+
+		private static final int INIT = 0;
+
+		private static final int CANCELLED = 1;
+
+		private static final int EXPIRED = 2;
+
+		private final AtomicInteger mState = new AtomicInteger(INIT);
+
+		private final long mDelay;
+
+		private final Object mID;
+
+		private final TimerListener mListener;
+
+		private final boolean mPeriodic;
+
+		/**
+		 * Deadline in ms since the start of the timer.
+		 */
+		private long mDeadline;
+
+		/**
+		 * Turns of the wheel left before the timeout is due.
+		 */
+		private long mRounds;
+
+		private Bucket mBucket;
+
+		private Timeout mPrev;
+
+		private Timeout mNext;
+
+		private Timeout(long delay, Object id, TimerListener listener, boolean periodic) {
+			mDelay = delay;
+			mID = id;
+			mListener = listener;
+			mPeriodic = periodic;
+		}
+
+		/**
+		 * Cancels the timeout.
+		 *
+		 * @return true if the timeout was pending, false if it already expired or was cancelled.
+		 */
+		public boolean cancel() {
+			if (!mState.compareAndSet(INIT, CANCELLED))
+				return false;
+			mCancelled.add(this);
+			return true;
+		}
+
+		/**
+		 * Returns true if the timeout was cancelled.
+		 *
+		 * @return true if cancelled.
+		 */
+		public boolean isCancelled() {
+			return mState.get() == CANCELLED;
+		}
+
+		/**
+		 * Returns true if the (one shot) timeout expired.
+		 *
+		 * @return true if expired.
+		 */
+		public boolean isExpired() {
+			return mState.get() == EXPIRED;
+		}
+
+		/**
+		 * Returns the id handed to the listener.
+		 *
+		 * @return the id.
+		 */
+		public Object getID() {
+			return mID;
+		}
+	}
+
+	/**
+	 * A bucket of the wheel, a doubly linked list of timeouts. Only used by the
+	 * timer thread.
+	 */
+	private class Bucket {
+
+		private Timeout mHead;
+
+		private Timeout mTail;
+
+		void add(Timeout timeout) {
+			timeout.mBucket = this;
+			timeout.mPrev = mTail;
+			timeout.mNext = null;
+			if (mTail == null)
+				mHead = timeout;
+			else
+				mTail.mNext = timeout;
+			mTail = timeout;
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.mPrev == null)
+				mHead = timeout.mNext;
+			else
+				timeout.mPrev.mNext = timeout.mNext;
+			if (timeout.mNext == null)
+				mTail = timeout.mPrev;
+			else
+				timeout.mNext.mPrev = timeout.mPrev;
+			timeout.mBucket = null;
+			timeout.mPrev = null;
+			timeout.mNext = null;
+		}
+
+		/**
+		 * Removes the timeouts due by the given deadline and counts down the
+		 * turns of the others.
+		 *
+		 * @param deadline the end of the current tick.
+		 * @param due      the list to add the due timeouts to.
+		 */
+		void expire(long deadline, Vector<Timeout> due) {
+			Timeout timeout = mHead;
+			while (timeout != null) {
+				Timeout next = timeout.mNext;
+				if (timeout.mRounds <= 0 && timeout.mDeadline <= deadline) {
+					remove(timeout);
+					due.add(timeout);
+				} else if (timeout.mRounds > 0) {
+					timeout.mRounds--;
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	/**
+	 * The timer thread advancing the wheel.
+	 */
+	private class Worker implements Runnable {
+
+		/**
+		 * The number of ticks done.
+		 */
+		private long mTick = 0;
+
+		public void run() {
+			Vector<Timeout> due = new Vector<Timeout>();
+
+			while (!mStopped) {
+				long deadline = mTickDuration * (mTick + 1);
+				long sleep = deadline - elapsed();
+				if (sleep > 0) {
+					try {
+						Thread.sleep(sleep);
+					} catch (InterruptedException e) {
+						if (mStopped)
+							break;
+					}
+					continue;
+				}
+
+				removeCancelled();
+				transferPending();
+				mWheel[(int)(mTick & mMask)].expire(deadline, due);
+				mTick++;
+
+				for (Timeout timeout : due)
+					expire(timeout);
+				due.clear();
+			}
+		}
+
+		/**
+		 * Hashes the newly scheduled timeouts into the wheel.
+		 */
+		private void transferPending() {
+			Timeout timeout;
+			while ((timeout = mPending.poll()) != null) {
+				if (timeout.mState.get() == Timeout.CANCELLED)
+					continue;
+				long ticks = timeout.mDeadline / mTickDuration;
+				timeout.mRounds = (ticks - mTick) / mWheel.length;
+				// timeouts already due go to the current bucket
+				mWheel[(int)(Math.max(ticks, mTick) & mMask)].add(timeout);
+			}
+		}
+
+		/**
+		 * Unlinks the cancelled timeouts from their buckets.
+		 */
+		private void removeCancelled() {
+			Timeout timeout;
+			while ((timeout = mCancelled.poll()) != null) {
+				if (timeout.mBucket != null)
+					timeout.mBucket.remove(timeout);
+			}
+		}
+
+		/**
+		 * Informs the listener of a due timeout and reschedules periodic ones.
+		 *
+		 * @param timeout the due timeout.
+		 */
+		private void expire(Timeout timeout) {
+			if (!timeout.mPeriodic && !timeout.mState.compareAndSet(Timeout.INIT, Timeout.EXPIRED))
+				return;
+			if (timeout.mPeriodic && timeout.mState.get() != Timeout.INIT)
+				return;
+			try {
+				timeout.mListener.timerTriggered(timeout.mID);
+			} catch (RuntimeException e) {
+				Constants.LOGGER.log(Level.WARNING, "Timer listener failed.", e);
+			}
+			if (timeout.mPeriodic) {
+				timeout.mDeadline = elapsed() + timeout.mDelay;
+				mPending.add(timeout);
+			}
+		}
+	}
+}
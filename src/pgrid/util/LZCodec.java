@@ -0,0 +1,248 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *  
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ */
+
+package pgrid.util;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * A fast LZ77 codec in the manner of LZ4. It finds matches of at least four
+ * bytes through a hash table of the last positions of four byte sequences and
+ * spends no effort on entropy coding, so it compresses several times faster
+ * than deflate at a lower ratio.
+ * <p/>
+ * The compressed data starts with the uncompressed length as a varint,
+ * followed by sequences of a token (literal length in the high, match length
+ * minus four in the low nibble, 15 meaning more length bytes follow), the
+ * literals, and the little-endian two byte offset of the match. The last
+ * sequence has no match.
+ */
+public class LZCodec implements Compression.Codec {
+
+	/**
+	 * The name of the codec.
+	 */
+	public static final String NAME = "lz";
+
+	/**
+	 * The shortest match.
+	 */
+	private static final int MIN_MATCH = 4;
+
+	/**
+	 * The largest distance of a match.
+	 */
+	private static final int MAX_OFFSET = 0xFFFF;
+
+	/**
+	 * The last bytes are always literals, so the decoder needs no bound check
+	 * in the middle of a match.
+	 */
+	private static final int LAST_LITERALS = 5;
+
+	/**
+	 * No match starts this close to the end.
+	 */
+	private static final int MIN_LENGTH = 12;
+
+	/**
+	 * The most bytes one byte of compressed data decodes to, a length byte of
+	 * a match. Bounds the announced length before it is allocated.
+	 */
+	private static final int MAX_EXPANSION = 255;
+
+	/**
+	 * The number of bits of the hash table index.
+	 */
+	private static final int HASH_BITS = 12;
+
+	/**
+	 * The hash table of each thread.
+	 */
+	private static final ThreadLocal<int[]> TABLE = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1 << HASH_BITS];
+		}
+	};
+
+	public String getName() {
+		return NAME;
+	}
+
+	public byte[] compress(byte[] data, int offset, int len, int level) {
+		byte[] out = new byte[5 + len + len / 255 + 16];
+		int o = writeVarint(out, 0, len);
+
+		int end = offset + len;
+		int anchor = offset;
+		if (len >= MIN_LENGTH) {
+			int[] table = TABLE.get();
+			Arrays.fill(table, -1);
+			int matchLimit = end - LAST_LITERALS;
+			int limit = end - MIN_LENGTH;
+			int p = offset;
+			while (p <= limit) {
+				int seq = readInt(data, p);
+				int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+				int ref = table[h];
+				table[h] = p;
+				if (ref < 0 || p - ref > MAX_OFFSET || readInt(data, ref) != seq) {
+					// skip faster through data without matches
+					p += 1 + ((p - anchor) >>> 6);
+					continue;
+				}
+				while (p > anchor && ref > offset && data[p - 1] == data[ref - 1]) {
+					p--;
+					ref--;
+				}
+				int matchLen = MIN_MATCH;
+				while (p + matchLen < matchLimit && data[p + matchLen] == data[ref + matchLen])
+					matchLen++;
+
+				o = writeSequence(out, o, data, anchor, p - anchor, p - ref, matchLen);
+				p += matchLen;
+				anchor = p;
+			}
+		}
+		o = writeSequence(out, o, data, anchor, end - anchor, 0, 0);
+		return Arrays.copyOf(out, o);
+	}
+
+	public byte[] decompress(byte[] data, int offset, int len) throws DataFormatException {
+		int end = offset + len;
+		try {
+			// read the varint of the uncompressed length
+			long length = 0;
+			int shift = 0;
+			int p = offset;
+			byte b;
+			do {
+				b = data[p++];
+				length |= (long)(b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0 && shift < 35);
+			// the length is sent by the remote host, check it before allocating
+			if (b < 0 || length > Integer.MAX_VALUE || length > (long)(end - p) * MAX_EXPANSION)
+				throw new DataFormatException("Invalid length " + length + " for " + len + " bytes.");
+			int size = (int)length;
+
+			byte[] out = new byte[size];
+			int o = 0;
+			while (true) {
+				int token = data[p++] & 0xFF;
+				int literals = token >>> 4;
+				if (literals == 15) {
+					int l;
+					do {
+						l = data[p++] & 0xFF;
+						literals += l;
+					} while (l == 255);
+				}
+				if (p + literals > end)
+					throw new DataFormatException("Truncated literals.");
+				System.arraycopy(data, p, out, o, literals);
+				p += literals;
+				o += literals;
+				if (p >= end)
+					break;
+
+				int distance = (data[p] & 0xFF) | ((data[p + 1] & 0xFF) << 8);
+				p += 2;
+				int matchLen = token & 0x0F;
+				if (matchLen == 15) {
+					int l;
+					do {
+						l = data[p++] & 0xFF;
+						matchLen += l;
+					} while (l == 255);
+				}
+				matchLen += MIN_MATCH;
+				int ref = o - distance;
+				if (distance == 0 || ref < 0 || o + matchLen > size)
+					throw new DataFormatException("Invalid match.");
+				if (distance >= matchLen) {
+					System.arraycopy(out, ref, out, o, matchLen);
+					o += matchLen;
+				} else {
+					// the match overlaps the bytes it produces
+					for (int i = 0; i < matchLen; i++)
+						out[o++] = out[ref++];
+				}
+			}
+			if (o != size)
+				throw new DataFormatException("Length mismatch.");
+			return out;
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new DataFormatException("Truncated data.");
+		}
+	}
+
+	/**
+	 * Writes a sequence of literals and a match, no match if its length is 0.
+	 */
+	private static int writeSequence(byte[] out, int o, byte[] data, int start, int literals, int distance, int matchLen) {
+		int tokenPos = o++;
+		int token = (literals >= 15 ? 15 : literals) << 4;
+		if (literals >= 15)
+			o = writeLength(out, o, literals - 15);
+		System.arraycopy(data, start, out, o, literals);
+		o += literals;
+		if (matchLen > 0) {
+			out[o++] = (byte)distance;
+			out[o++] = (byte)(distance >>> 8);
+			int ml = matchLen - MIN_MATCH;
+			token |= (ml >= 15 ? 15 : ml);
+			if (ml >= 15)
+				o = writeLength(out, o, ml - 15);
+		}
+		out[tokenPos] = (byte)token;
+		return o;
+	}
+
+	/**
+	 * Writes the rest of a length as bytes of 255 and a last smaller byte.
+	 */
+	private static int writeLength(byte[] out, int o, int len) {
+		while (len >= 255) {
+			out[o++] = (byte)255;
+			len -= 255;
+		}
+		out[o++] = (byte)len;
+		return o;
+	}
+
+	private static int writeVarint(byte[] out, int o, int value) {
+		while ((value & ~0x7F) != 0) {
+			out[o++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out[o++] = (byte)value;
+		return o;
+	}
+
+	private static int readInt(byte[] data, int p) {
+		return (data[p] & 0xFF) | ((data[p + 1] & 0xFF) << 8) | ((data[p + 2] & 0xFF) << 16) | ((data[p + 3] & 0xFF) << 24);
+	}
+
+}
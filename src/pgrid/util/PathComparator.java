@@ -41,20 +41,18 @@ public class PathComparator implements Comparator {
 	}
 
 	public int compare(String path1, String path2) {
-		if (path1.equals("") && path2.equals(""))
-			return 0;
-		else if (path1.equals(""))
-			return 1;
-		else if (path2.equals("")) return -1;
+		if (path1.length() == 0 || path2.length() == 0)
+			return path1.length() == path2.length() ? 0 : (path1.length() == 0 ? 1 : -1);
 
+		// comparing the common length as binary numbers is comparing the first differing character
 		int length = Math.min(path1.length(), path2.length());
-
-		path1 = path1.substring(0, length);
-		path2 = path2.substring(0, length);
-		Integer p1 = Integer.valueOf(path1, 2);
-		Integer p2 = Integer.valueOf(path2, 2);
-
-		return p1.compareTo(p2);
+		for (int i = 0; i < length; i++) {
+			char c1 = path1.charAt(i);
+			char c2 = path2.charAt(i);
+			if (c1 != c2)
+				return c1 < c2 ? -1 : 1;
+		}
+		return 0;
 	}
 
 	public boolean equals(Object obj) {
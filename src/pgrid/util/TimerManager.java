@@ -23,10 +23,12 @@ package pgrid.util;
 
 import pgrid.util.TimerListener;
 
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * This class is a timer manager. It use a single thread to manager all timers
+ * This class is a timer manager. It use a single thread to manager all timers,
+ * which are kept in a hashed timing wheel so that registering and removing a
+ * timer does not depend on the number of timers.
  *
  * @author <a href="mailto:Renault John <renault.john@epfl.ch>">Renault John</a>
  * @version 1.0.0
@@ -34,24 +36,24 @@ import java.util.*;
 
 public class TimerManager {
 	/**
-	 * Lock object
+	 * The duration of a tick of the wheel in ms, the precision of the timers
 	 */
-	private final Object mLock = new Object();
+	private static final long TICK_DURATION = 10;
 
 	/**
-	 * A sorted list of timer listener
+	 * The number of ticks per turn of the wheel
 	 */
-	private SortedSet mTimerListner;
+	private static final int TICKS_PER_WHEEL = 1024;
 
 	/**
-	 * Hashtable with id->TimerElement
+	 * The timing wheel
 	 */
-	private Hashtable<Object, TimerElement> mIDTimer = new Hashtable<Object, TimerElement>();
+	private final HashedWheelTimer mTimer;
 
 	/**
-	 * The timer thread
+	 * Hashtable with id->timer
 	 */
-	private Thread mTimerThread;
+	private ConcurrentHashMap<Object, IDTimer> mIDTimer = new ConcurrentHashMap<Object, IDTimer>();
 
 	/**
 	 * The reference to the only instance of this class (Singleton
@@ -64,16 +66,7 @@ public class TimerManager {
 	private static final TimerManager SHARED_INSTANCE = new TimerManager();
 
 	protected TimerManager() {
-		mTimerListner = Collections.synchronizedSortedSet(new TreeSet(new Comparator() {
-			public int compare(Object o1, Object o2) {
-				return (int)(((TimerElement)o1).mNextTimeout - ((TimerElement)o2).mNextTimeout);
-			}
-		}));
-
-		mTimerThread = new Thread(new TimerManager.Timer(), "Timer thread");
-		mTimerThread.setDaemon(true);
-		mTimerThread.setPriority(Thread.NORM_PRIORITY-1);
-		mTimerThread.start();
+		mTimer = new HashedWheelTimer("Timer thread", TICK_DURATION, TICKS_PER_WHEEL);
 	}
 
 	/**
@@ -89,26 +82,32 @@ public class TimerManager {
 	}
 
 	/**
-	 * Register a timer. As soons as the the time out occurs, the listener
-	 * will be informed. The object id will be given in parameter.
-	 *
+	 * Register a new timer
 	 * @param timeout 	before the listener will be informed in milliseconds
 	 * @param id		User dependent ID. It could be null
 	 * @param listener  to inform
 	 * @param periodic	if true the timer will be reconducted automatically
 	 */
 	public void register(long timeout, Object id, TimerListener listener, boolean periodic) {
-		TimerElement te = new TimerElement(timeout, id, listener, periodic);
-		synchronized(mLock) {
-			//Add the new timer element
-			mTimerListner.add(te);
-			if (id!=null) mIDTimer.put(id, te);
-			if (mTimerListner.first().equals(te)) {
-				// The new TE should be the next triggered element
-				mLock.notifyAll();
-			}
+		if (id == null) {
+			mTimer.schedule(timeout, null, listener, periodic);
+			return;
 		}
+		IDTimer timer = new IDTimer(timeout, id, listener, periodic);
+		timer.mTimeout = mTimer.schedule(timeout, id, timer, periodic);
+		mIDTimer.put(id, timer);
+	}
 
+	/**
+	 * Schedule a one shot timer without registering its id. It can only be
+	 * removed with the returned handle.
+	 * @param timeout 	before the listener will be informed in milliseconds
+	 * @param id		User dependent ID. It could be null
+	 * @param listener  to inform
+	 * @return the handle of the timer
+	 */
+	public HashedWheelTimer.Timeout schedule(long timeout, Object id, TimerListener listener) {
+		return mTimer.schedule(timeout, id, listener, false);
 	}
 
 	/**
@@ -116,14 +115,12 @@ public class TimerManager {
 	 * @param id
 	 */
 	public void reset(Object id) {
-		synchronized(mLock) {
-			TimerElement te = mIDTimer.get(id);
-			if (te != null) {
-				mTimerListner.remove(te);
-				te.mNextTimeout = te.mTimeout + System.currentTimeMillis();
-				mTimerListner.add(te);
+		IDTimer timer = mIDTimer.get(id);
+		if (timer != null) {
+			synchronized(timer) {
+				timer.mTimeout.cancel();
+				timer.mTimeout = mTimer.schedule(timer.mDelay, id, timer, timer.mPeriodic);
 			}
-
 		}
 	}
 
@@ -132,10 +129,10 @@ public class TimerManager {
 	 * @param id
 	 */
 	public void remove(Object id) {
-		synchronized(mLock) {
-			TimerElement te = mIDTimer.remove(id);
-			if (te != null) {
-				mTimerListner.remove(te);
+		IDTimer timer = mIDTimer.remove(id);
+		if (timer != null) {
+			synchronized(timer) {
+				timer.mTimeout.cancel();
 			}
 		}
 	}
@@ -146,88 +143,29 @@ public class TimerManager {
 	 * @return true if id is known
 	 */
 	public boolean contains(Object id) {
-		return mIDTimer.contains(id);
+		return mIDTimer.containsKey(id);
 	}
 
 	/**
-	 * a timer object
+	 * a timer registered with an id
 	 */
-	class TimerElement {
-		public long mTimeout;
-		public long mNextTimeout;
-		public Object mID;
-		public pgrid.util.TimerListener mListener;
-		public boolean mPeriodic;
-
-		public TimerElement(long timout, Object id, TimerListener listener, boolean periodic) {
-			mTimeout = timout;
-			mNextTimeout = mTimeout + System.currentTimeMillis();
+	class IDTimer implements TimerListener {
+		public final long mDelay;
+		public final Object mID;
+		public final TimerListener mListener;
+		public final boolean mPeriodic;
+		public HashedWheelTimer.Timeout mTimeout;
+
+		public IDTimer(long delay, Object id, TimerListener listener, boolean periodic) {
+			mDelay = delay;
 			mID = id;
 			mListener = listener;
 			mPeriodic = periodic;
 		}
-	}
-
-	/**
-	 * the timer thread
-	 */
-	class Timer implements Runnable {
-
-		/**
-		 * When an object implementing interface <code>Runnable</code> is used
-		 * to create a thread, starting the thread causes the object's
-		 * <code>run</code> method to be called in that separately executing
-		 * thread.
-		 * <p/>
-		 * The general contract of the method <code>run</code> is that it may
-		 * take any action whatsoever.
-		 *
-		 * @see Thread#run()
-		 */
-		public void run() {
-			Vector<TimerElement> toCall = new Vector<TimerElement>();
-
-			long currentTime;
-			long tmp;
-			TimerElement te;
-
-			while (true) {
-				toCall.clear();
-				try {
-					synchronized(mLock) {
-						if (mTimerListner.isEmpty()) mLock.wait();
-						else {
-							tmp = ((TimerElement)mTimerListner.first()).mNextTimeout-System.currentTimeMillis();
-							if (tmp > 0)
-								mLock.wait(tmp);
-						}
-
-						// trigger function that should be triggered
-						currentTime = System.currentTimeMillis();
-						while (!mTimerListner.isEmpty() && (te = ((TimerElement)mTimerListner.first())).mNextTimeout <= currentTime) {
-							mTimerListner.remove(te);
-							if (te.mID != null && !te.mPeriodic) mIDTimer.remove(te.mID);
-
-							toCall.add(te);
-
-							if (te.mPeriodic) {
-								te.mNextTimeout = currentTime+te.mTimeout;
-								mTimerListner.add(te);
-							}
-						}
-					}
-
-				} catch (InterruptedException e) {
-					System.out.println("Timer thread released.");
-					break;
-				}
-
-				// call all needed listener
-				for (TimerElement l: toCall) {
-					l.mListener.timerTriggered(l.mID);
-				}
-			}
 
+		public void timerTriggered(Object id) {
+			if (!mPeriodic) mIDTimer.remove(mID, this);
+			mListener.timerTriggered(id);
 		}
 	}
 
@@ -235,8 +173,7 @@ public class TimerManager {
 	 * Shutdown the timer manager
 	 */
 	public void shutdown() {
-		if (mTimerThread != null)
-			mTimerThread.interrupt();
+		mTimer.stop();
 	}
 
 
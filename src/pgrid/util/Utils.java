@@ -22,7 +22,9 @@
 
 package pgrid.util;
 
+import p2p.basic.Key;
 import pgrid.Constants;
+import pgrid.PGridKey;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -114,24 +116,38 @@ public class Utils {
 	 * @return the common prefix string.
 	 */
 	public static String commonPrefix(String str1, String str2) {
-		if ((str1.length() == 0) || (str2.length() == 0))
-			return "";
-		String prefix = "";
-		int length;
-		if (str1.length() < str2.length()) {
-			length = str1.length();
-		} else {
-			length = str2.length();
-		}
-		for (int i = 1; i <= length; i++) {
-			if (str1.substring(0, i).equals(str2.substring(0, i))) {
-				prefix = str1.substring(0, i);
-			} else {
-				break;
-			}
-		}
-		return prefix;
+		return str1.substring(0, commonPrefixLength(str1, str2));
+	}
+
+	/**
+	 * Returns the length of the common prefix of two strings without
+	 * allocating any object.
+	 *
+	 * @param str1 the first string.
+	 * @param str2 the second string.
+	 * @return the common prefix length.
+	 */
+	public static int commonPrefixLength(String str1, String str2) {
+		int length = Math.min(str1.length(), str2.length());
+		int i = 0;
+		while (i < length && str1.charAt(i) == str2.charAt(i))
+			i++;
+		return i;
 	}
 
+	/**
+	 * Returns the length of the common prefix of a key and a path. If both are
+	 * packed binary keys the prefix is computed on the bits, otherwise on the
+	 * strings.
+	 *
+	 * @param key  the key.
+	 * @param path the path, usually the local path packed once by the caller.
+	 * @return the common prefix length.
+	 */
+	public static int commonPrefixLength(Key key, PGridKey path) {
+		if (key instanceof PGridKey && ((PGridKey)key).isBinary() && path.isBinary())
+			return ((PGridKey)key).commonPrefixLength(path);
+		return commonPrefixLength(key.toString(), path.toString());
+	}
 
 }
\ No newline at end of file
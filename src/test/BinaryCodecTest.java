@@ -0,0 +1,145 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import pgrid.network.protocol.BinaryCodec;
+import pgrid.network.protocol.MessageHeader;
+import pgrid.network.protocol.QueryReplyMessage;
+
+/**
+ * Checks that {@link BinaryCodec} rejects malformed lengths sent by a peer
+ * with an IOException before allocating anything for them.
+ * <p/>
+ * Usage: BinaryCodecTest
+ */
+public class BinaryCodecTest {
+
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception {
+		// strings
+		expectString("valid string", "abc", string(3, "abc"));
+		expectString("null string", null, string(-1, ""));
+		expectFailure("oversized string length", string(1 << 30, "abc"));
+		expectFailure("huge string length", string(Long.MAX_VALUE, "abc"));
+		expectFailure("negative string length", string(-5, "abc"));
+		expectFailure("truncated string", string(5, "ab"));
+
+		// a streamed reply of three points
+		byte[] reply = reply(3, 3);
+		expectReply("valid reply", reply, 3);
+		expectReplyFailure("truncated reply", Arrays.copyOf(reply, reply.length - 2));
+		expectReplyFailure("oversized point count", reply(1 << 30, 3));
+		expectReplyFailure("negative point count", reply(-3, 3));
+
+		if (failures > 0) {
+			System.err.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Returns a string content with the given length prefix.
+	 */
+	private static byte[] string(long len, String value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		BinaryCodec.writeLong(out, len);
+		out.write(value.getBytes("UTF-8"));
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the content of a streamed query reply announcing count points.
+	 */
+	private static byte[] reply(long count, int points) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(BinaryCodec.VERSION);
+		BinaryCodec.writeLong(out, 200);
+		BinaryCodec.writeLong(out, 0);
+		out.writeBoolean(true);
+		BinaryCodec.writeLong(out, points);
+		BinaryCodec.writeLong(out, count);
+		for (int i = 0; i < points; i++) {
+			BinaryCodec.writeLong(out, i);
+			BinaryCodec.writeLong(out, i + 1);
+			BinaryCodec.writeLong(out, 1000 + i);
+		}
+		// not aggregated
+		BinaryCodec.writeLong(out, -1);
+		return bytes.toByteArray();
+	}
+
+	private static void expectString(String name, String expected, byte[] content) {
+		try {
+			String value = BinaryCodec.readString(new DataInputStream(new ByteArrayInputStream(content)));
+			if (expected == null ? value != null : !expected.equals(value))
+				fail(name, "read " + value);
+		} catch (IOException e) {
+			fail(name, e.toString());
+		}
+	}
+
+	private static void expectFailure(String name, byte[] content) {
+		try {
+			BinaryCodec.readString(new DataInputStream(new ByteArrayInputStream(content)));
+			fail(name, "no IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void expectReply(String name, byte[] content, int points) {
+		try {
+			QueryReplyMessage msg = new QueryReplyMessage(new MessageHeader());
+			BinaryCodec.decode(msg, content);
+			if (msg.getQueryReply().getResultSet().size() != points)
+				fail(name, "read " + msg.getQueryReply().getResultSet().size() + " points");
+		} catch (IOException e) {
+			fail(name, e.toString());
+		}
+	}
+
+	private static void expectReplyFailure(String name, byte[] content) {
+		try {
+			BinaryCodec.decode(new QueryReplyMessage(new MessageHeader()), content);
+			fail(name, "no IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void fail(String name, String reason) {
+		failures++;
+		System.err.println("FAILED " + name + ": " + reason);
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import pgrid.util.Compression;
+import pgrid.util.LZCodec;
+
+/**
+ * Compares deflate, at the default level and at best speed, with
+ * {@link LZCodec} on query reply contents of the given size. Each codec has
+ * to restore the contents before it is timed.
+ * <p/>
+ * Usage: CompressionBench [messages] [bytes per message] [rounds]
+ */
+public class CompressionBench {
+
+	/**
+	 * Sink keeping the JIT from removing the measured loops.
+	 */
+	private static long sink = 0;
+
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 3072;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Random rnd = new Random(42);
+		byte[][] contents = new byte[messages][];
+		for (int i = 0; i < messages; i++)
+			contents[i] = reply(rnd, size);
+
+		System.out.println("Contents of " + messages + " messages, " + size + " bytes each, best of " + rounds + " rounds:");
+		bench("deflate", Compression.DEFLATE, Deflater.DEFAULT_COMPRESSION, contents, rounds);
+		bench("deflate best speed", Compression.DEFLATE, Deflater.BEST_SPEED, contents, rounds);
+		bench("lz", LZCodec.NAME, 0, contents, rounds);
+		if (sink == 42)
+			System.out.println();
+	}
+
+	/**
+	 * Returns a query reply content of streamed points.
+	 */
+	private static byte[] reply(Random rnd, int size) {
+		StringBuilder content = new StringBuilder(size + 64);
+		content.append("<QueryReply Type=\"OK\" Chunk=\"0\" Last=\"false\" Hits=\"100\">\n");
+		while (content.length() < size) {
+			content.append("\t<Point X=\"").append(rnd.nextInt(1 << 27)).append("\" Y=\"").append(rnd.nextInt(1 << 27))
+					.append("\" ID=\"").append(rnd.nextLong() & Long.MAX_VALUE).append("\"/>\n");
+		}
+		content.setLength(size);
+		return content.toString().getBytes();
+	}
+
+	private static void bench(String name, String codec, int level, byte[][] contents, int rounds) throws Exception {
+		int n = contents.length;
+		byte[][] compressed = new byte[n][];
+		long bytes = 0;
+		for (int i = 0; i < n; i++) {
+			compressed[i] = Compression.compress(codec, contents[i], 0, contents[i].length, level);
+			bytes += compressed[i].length;
+			if (!Arrays.equals(contents[i], Compression.decompress(codec, compressed[i], 0, compressed[i].length))) {
+				System.err.println("Mismatch for " + name);
+				System.exit(1);
+			}
+		}
+
+		long enc = Long.MAX_VALUE, dec = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				sink += Compression.compress(codec, contents[i], 0, contents[i].length, level).length;
+			enc = Math.min(enc, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				sink += Compression.decompress(codec, compressed[i], 0, compressed[i].length).length;
+			dec = Math.min(dec, System.nanoTime() - t);
+		}
+		System.out.println(name + "  bytes/msg " + (bytes / n) + "   encode ns/msg " + (enc / n) + "   decode ns/msg " + (dec / n));
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package test;
+
+import java.util.Random;
+
+import mgrid.core.HilbertCodec;
+
+import com.google.uzaygezen.core.BitVector;
+import com.google.uzaygezen.core.BitVectorFactories;
+import com.google.uzaygezen.core.CompactHilbertCurve;
+
+/**
+ * Compares the per-call uzaygezen Hilbert mapping, as formerly done for every
+ * insert and key, with the primitive {@link HilbertCodec}. Both directions are
+ * checked for equal results before timing.
+ * <p/>
+ * Usage: HilbertCodecBench [xBits] [yBits] [points] [rounds]
+ */
+public class HilbertCodecBench {
+
+	/**
+	 * Sink keeping the JIT from removing the measured loops.
+	 */
+	private static long sink = 0;
+
+	public static void main(String[] args) {
+		int xBits = args.length > 0 ? Integer.parseInt(args[0]) : 27;
+		int yBits = args.length > 1 ? Integer.parseInt(args[1]) : 27;
+		int points = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+		Random rnd = new Random(42);
+		long[] xs = new long[points];
+		long[] ys = new long[points];
+		long[] indexes = new long[points];
+		HilbertCodec codec = new HilbertCodec(xBits, yBits);
+		for (int i = 0; i < points; i++) {
+			xs[i] = rnd.nextLong() & ((1L << xBits) - 1);
+			ys[i] = rnd.nextLong() & ((1L << yBits) - 1);
+			indexes[i] = codec.encode(xs[i], ys[i]);
+		}
+
+		// both implementations have to agree
+		long[] xy = new long[2];
+		for (int i = 0; i < points; i++) {
+			BitVector[] point = curveDecode(xBits, yBits, indexes[i]);
+			codec.decode(indexes[i], xy);
+			if (curveEncode(xBits, yBits, xs[i], ys[i]) != indexes[i] || point[0].toExactLong() != xs[i]
+					|| point[1].toExactLong() != ys[i] || xy[0] != xs[i] || xy[1] != ys[i]) {
+				System.err.println("Mismatch for (" + xs[i] + "," + ys[i] + ").");
+				System.exit(1);
+			}
+		}
+
+		System.out.println("Hilbert mapping of " + points + " points, " + xBits + "/" + yBits + " bits, best of " + rounds + " rounds (ns/op):");
+		long curveEnc = Long.MAX_VALUE, codecEnc = Long.MAX_VALUE, curveDec = Long.MAX_VALUE, codecDec = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long t = System.nanoTime();
+			for (int i = 0; i < points; i++)
+				sink += curveEncode(xBits, yBits, xs[i], ys[i]);
+			curveEnc = Math.min(curveEnc, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < points; i++)
+				sink += codec.encode(xs[i], ys[i]);
+			codecEnc = Math.min(codecEnc, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < points; i++)
+				sink += curveDecode(xBits, yBits, indexes[i])[0].toExactLong();
+			curveDec = Math.min(curveDec, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < points; i++) {
+				codec.decode(indexes[i], xy);
+				sink += xy[0];
+			}
+			codecDec = Math.min(codecDec, System.nanoTime() - t);
+		}
+		System.out.println("  encode  curve: " + (curveEnc / points) + "  codec: " + (codecEnc / points));
+		System.out.println("  decode  curve: " + (curveDec / points) + "  codec: " + (codecDec / points));
+		System.out.println("(" + sink + ")");
+	}
+
+	/**
+	 * The former encoding path: a new curve and new bit vectors per call.
+	 */
+	private static long curveEncode(int xBits, int yBits, long x, long y) {
+		CompactHilbertCurve chc = new CompactHilbertCurve(new int[] {xBits, yBits});
+		BitVector[] p = new BitVector[] {BitVectorFactories.OPTIMAL.apply(xBits), BitVectorFactories.OPTIMAL.apply(yBits)};
+		p[0].copyFrom(x);
+		p[1].copyFrom(y);
+		BitVector chi = BitVectorFactories.OPTIMAL.apply(xBits + yBits);
+		chc.index(p, 0, chi);
+		return chi.toExactLong();
+	}
+
+	/**
+	 * The former decoding path: a new curve and new bit vectors per call.
+	 */
+	private static BitVector[] curveDecode(int xBits, int yBits, long index) {
+		CompactHilbertCurve chc = new CompactHilbertCurve(new int[] {xBits, yBits});
+		BitVector[] p = new BitVector[] {BitVectorFactories.OPTIMAL.apply(xBits), BitVectorFactories.OPTIMAL.apply(yBits)};
+		BitVector chi = BitVectorFactories.OPTIMAL.apply(xBits + yBits);
+		chi.copyFrom(index);
+		chc.indexInverse(chi, p);
+		return p;
+	}
+}
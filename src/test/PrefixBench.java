@@ -0,0 +1,163 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package test;
+
+import java.util.Random;
+
+import pgrid.PGridKey;
+import pgrid.PGridKeyRange;
+import pgrid.util.PathComparator;
+import pgrid.util.Utils;
+
+/**
+ * Measures sorting index entries by routing level, as done by the
+ * distributor, with the former substring based common prefix, the character
+ * scanning one for string keys and the bit one for packed keys. Range checks
+ * are timed with the former string comparison and on packed keys.
+ * <p/>
+ * Usage: PrefixBench [entries] [local path length] [rounds]
+ */
+public class PrefixBench {
+
+	/**
+	 * Sink keeping the JIT from removing the measured loops.
+	 */
+	private static long sink = 0;
+
+	public static void main(String[] args) {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int pathLength = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		Random rnd = new Random(42);
+		int bits = 54;
+		PGridKey[] keys = new PGridKey[entries];
+		String[] strings = new String[entries];
+		for (int i = 0; i < entries; i++) {
+			keys[i] = new PGridKey(rnd.nextLong() & ((1L << bits) - 1), bits);
+			strings[i] = keys[i].toString();
+		}
+		String localPath = PGridKey.toBinaryString(rnd.nextLong(), pathLength);
+		PGridKey localKey = new PGridKey(localPath);
+		PGridKeyRange range = new PGridKeyRange(new PGridKey(rnd.nextLong() & ((1L << (bits - 1)) - 1), bits),
+				new PGridKey((rnd.nextLong() & ((1L << (bits - 1)) - 1)) | (1L << (bits - 1)), bits));
+		PathComparator comparator = new PathComparator();
+
+		// all implementations have to agree
+		for (int i = 0; i < entries; i++) {
+			int expected = legacyCommonPrefix(localPath, strings[i]).length();
+			boolean within = legacyCompare(strings[i], range.getMin().toString()) >= 0
+					&& legacyCompare(strings[i], range.getMax().toString()) <= 0;
+			if (Utils.commonPrefixLength(localPath, strings[i]) != expected || Utils.commonPrefixLength(keys[i], localKey) != expected
+					|| range.withinRange(keys[i]) != within || (comparator.compare(strings[i], localPath) < 0) != (legacyCompare(strings[i], localPath) < 0)) {
+				System.err.println("Mismatch for key " + strings[i] + ".");
+				System.exit(1);
+			}
+		}
+
+		System.out.println("Sorting " + entries + " keys by level, local path of " + pathLength + " bits, best of " + rounds + " rounds (entries/s):");
+		long legacy = Long.MAX_VALUE, scan = Long.MAX_VALUE, packed = Long.MAX_VALUE, legacyRange = Long.MAX_VALUE, packedRange = Long.MAX_VALUE;
+		int[] levels = new int[pathLength + 1];
+		for (int r = 0; r < rounds; r++) {
+			long t = System.nanoTime();
+			for (int i = 0; i < entries; i++)
+				levels[level(legacyCommonPrefix(localPath, keys[i].toString()).length(), pathLength, bits)]++;
+			legacy = Math.min(legacy, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < entries; i++)
+				levels[level(Utils.commonPrefixLength(localPath, strings[i]), pathLength, bits)]++;
+			scan = Math.min(scan, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < entries; i++)
+				levels[level(Utils.commonPrefixLength(keys[i], localKey), pathLength, bits)]++;
+			packed = Math.min(packed, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			String min = range.getMin().toString(), max = range.getMax().toString();
+			for (int i = 0; i < entries; i++) {
+				String key = keys[i].toString();
+				if (legacyCompare(key, min) >= 0 && legacyCompare(key, max) <= 0)
+					sink++;
+			}
+			legacyRange = Math.min(legacyRange, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < entries; i++) {
+				if (range.withinRange(keys[i]))
+					sink++;
+			}
+			packedRange = Math.min(packedRange, System.nanoTime() - t);
+		}
+		for (int i = 0; i < levels.length; i++)
+			sink += levels[i];
+		System.out.println("  level  substring: " + rate(entries, legacy) + "  char scan: " + rate(entries, scan) + "  packed: " + rate(entries, packed));
+		System.out.println("  range  string: " + rate(entries, legacyRange) + "  packed: " + rate(entries, packedRange));
+		System.out.println("(" + sink + ")");
+	}
+
+	/**
+	 * The level an entry is sorted into by the distributor.
+	 */
+	private static int level(int common, int pathLength, int keyLength) {
+		return common == pathLength || common == keyLength ? pathLength : common;
+	}
+
+	private static long rate(int entries, long nanos) {
+		return (long)(entries * 1e9 / nanos);
+	}
+
+	/**
+	 * The former common prefix: two substrings per character.
+	 */
+	private static String legacyCommonPrefix(String str1, String str2) {
+		if ((str1.length() == 0) || (str2.length() == 0))
+			return "";
+		String prefix = "";
+		int length = Math.min(str1.length(), str2.length());
+		for (int i = 1; i <= length; i++) {
+			if (str1.substring(0, i).equals(str2.substring(0, i))) {
+				prefix = str1.substring(0, i);
+			} else {
+				break;
+			}
+		}
+		return prefix;
+	}
+
+	/**
+	 * The former path comparison, parsing the common length as a number. A
+	 * long is used, the former Integer overflowed beyond 31 bits.
+	 */
+	private static int legacyCompare(String path1, String path2) {
+		if (path1.equals("") && path2.equals(""))
+			return 0;
+		else if (path1.equals(""))
+			return 1;
+		else if (path2.equals("")) return -1;
+		int length = Math.min(path1.length(), path2.length());
+		Long p1 = Long.valueOf(path1.substring(0, length), 2);
+		Long p2 = Long.valueOf(path2.substring(0, length), 2);
+		return p1.compareTo(p2);
+	}
+}
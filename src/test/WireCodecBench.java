@@ -0,0 +1,224 @@
+/**
+ *
+ * Copyright (c) 2002-2008 The P-Grid Team, All Rights Reserved.
+ *
+ * This file is part of the P-Grid package.
+ * P-Grid homepage: http://www.p-grid.org/
+ *
+ * The P-Grid package is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * The P-Grid package is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with the P-Grid package.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+import mgrid.core.Point;
+import pgrid.Constants;
+import pgrid.GUID;
+import pgrid.PGridHost;
+import pgrid.PGridKey;
+import pgrid.PGridKeyRange;
+import pgrid.Properties;
+import pgrid.QueryReply;
+import pgrid.RangeQuery;
+import pgrid.core.XMLRoutingTable;
+import pgrid.interfaces.basic.PGridP2P;
+import pgrid.interfaces.index.PGridIndexFactory;
+import pgrid.network.PGridDecoder;
+import pgrid.network.PGridMessageMapping;
+import pgrid.network.protocol.BinaryCodec;
+import pgrid.network.protocol.BinaryMessage;
+import pgrid.network.protocol.MessageHeader;
+import pgrid.network.protocol.PGridCompressedMessage;
+import pgrid.network.protocol.PGridMessage;
+import pgrid.network.protocol.QueryReplyMessage;
+import pgrid.network.protocol.RangeQueryMessage;
+import pgrid.network.protocol.RouteHeader;
+import pgrid.network.router.Router;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.XMLReader;
+
+/**
+ * Compares the XML content of a range query and of a streamed query reply,
+ * as written by the writer and parsed by the decoder, with the binary
+ * representation of {@link BinaryCodec}. Both decoders run through
+ * {@link PGridDecoder} and are checked to restore the messages before timing.
+ * <p/>
+ * Usage: WireCodecBench [messages] [points per reply] [rounds]
+ */
+public class WireCodecBench {
+
+	/**
+	 * Sink keeping the JIT from removing the measured loops.
+	 */
+	private static long sink = 0;
+
+	public static void main(String[] args) throws Exception {
+		int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int points = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Random rnd = new Random(42);
+		PGridHost host = initLocalHost(PGridHost.getHost(GUID.getGUID(), InetAddress.getByName("127.0.0.1"), 1805));
+		pgrid.Type type = PGridIndexFactory.sharedInstance().createType("SimpleType");
+		PGridDecoder decoder = new PGridDecoder();
+		// only the message mapping of an uninitialized peer is needed
+		PGridMessageMapping.sharedInstance().init(PGridP2P.sharedInstance().propertyString(Properties.MESSAGE_MAPPING));
+
+		PGridMessage[] queries = new PGridMessage[messages];
+		PGridMessage[] replies = new PGridMessage[messages];
+		for (int i = 0; i < messages; i++) {
+			GUID guid = GUID.getGUID();
+			long xMin = rnd.nextInt(1 << 20), yMin = rnd.nextInt(1 << 20);
+			long min = rnd.nextLong() & ((1L << 40) - 1);
+			RangeQueryMessage query = new RangeQueryMessage(guid, type, 0, Router.SHOWER_STRATEGY, String.valueOf(min),
+					String.valueOf(min + 4096), xMin, xMin + 64, yMin, yMin + 64,
+					new PGridKeyRange(new PGridKey(min, 54), new PGridKey(min + 4096, 54)), 3, "0110", 0, host, 0L);
+			query.getQuery().setResultMode(RangeQuery.STREAM_RESULTS);
+			query.getHeader().setHost(host);
+			query.getHeader().setRoutingHeader(new RouteHeader(null, Router.SHOWER_STRATEGY, -1, null, null));
+			queries[i] = query;
+
+			Collection<Point> chunk = new ArrayList<Point>(points);
+			for (int j = 0; j < points; j++)
+				chunk.add(new Point(rnd.nextInt(1 << 27), rnd.nextInt(1 << 27), rnd.nextLong() & Long.MAX_VALUE));
+			QueryReplyMessage reply = new QueryReplyMessage(guid, QueryReply.TYPE_OK, chunk, i, false);
+			reply.getHeader().setHost(host);
+			reply.getHeader().addReference(guid);
+			replies[i] = reply;
+		}
+
+		// both representations have to restore the messages
+		long xmlQuerySize = 0, binQuerySize = 0, xmlReplySize = 0, binReplySize = 0;
+		for (int i = 0; i < messages; i++) {
+			byte[] xml = queries[i].getBytes();
+			byte[] bin = BinaryCodec.encode((BinaryMessage)queries[i]);
+			xmlQuerySize += xml.length;
+			binQuerySize += bin.length;
+			String expected = queries[i].toXMLString();
+			if (!decode(decoder, queries[i], xml, false).toXMLString().equals(expected)
+					|| !decode(decoder, queries[i], bin, true).toXMLString().equals(expected)) {
+				System.err.println("Mismatch for query " + expected);
+				System.exit(1);
+			}
+			xml = replies[i].getBytes();
+			bin = BinaryCodec.encode((BinaryMessage)replies[i]);
+			xmlReplySize += xml.length;
+			binReplySize += bin.length;
+			expected = replies[i].toXMLString();
+			if (!decode(decoder, replies[i], xml, false).toXMLString().equals(expected)
+					|| !decode(decoder, replies[i], bin, true).toXMLString().equals(expected)) {
+				System.err.println("Mismatch for reply " + expected);
+				System.exit(1);
+			}
+		}
+
+		System.out.println("Content of " + messages + " messages, " + points + " points per reply, best of " + rounds + " rounds:");
+		System.out.println("RangeQuery  bytes/msg  XML " + (xmlQuerySize / messages) + ", binary " + (binQuerySize / messages));
+		System.out.println("QueryReply  bytes/msg  XML " + (xmlReplySize / messages) + ", binary " + (binReplySize / messages));
+		bench("RangeQuery", decoder, queries, rounds);
+		bench("QueryReply", decoder, replies, rounds);
+		if (sink == 42)
+			System.out.println();
+	}
+
+	private static void bench(String name, PGridDecoder decoder, PGridMessage[] msgs, int rounds) throws Exception {
+		int n = msgs.length;
+		byte[][] xml = new byte[n][];
+		byte[][] bin = new byte[n][];
+		long xmlEnc = Long.MAX_VALUE, binEnc = Long.MAX_VALUE, xmlDec = Long.MAX_VALUE, binDec = Long.MAX_VALUE;
+		for (int r = 0; r < rounds; r++) {
+			long t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				xml[i] = msgs[i].getBytes();
+			xmlEnc = Math.min(xmlEnc, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				bin[i] = BinaryCodec.encode((BinaryMessage)msgs[i]);
+			binEnc = Math.min(binEnc, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				sink += decode(decoder, msgs[i], xml[i], false).hashCode();
+			xmlDec = Math.min(xmlDec, System.nanoTime() - t);
+
+			t = System.nanoTime();
+			for (int i = 0; i < n; i++)
+				sink += decode(decoder, msgs[i], bin[i], true).hashCode();
+			binDec = Math.min(binDec, System.nanoTime() - t);
+		}
+		System.out.println(name + "  encode ns/msg  XML " + (xmlEnc / n) + ", binary " + (binEnc / n)
+				+ "   decode ns/msg  XML " + (xmlDec / n) + ", binary " + (binDec / n));
+	}
+
+	/**
+	 * Gives the uninitialized peer a routing table read from a file holding
+	 * the given host, as every message and query takes the local host as its
+	 * sender.
+	 *
+	 * @return the local host of the peer.
+	 */
+	private static PGridHost initLocalHost(PGridHost host) throws Exception {
+		host.setPath("");
+		XMLRoutingTable routingTable = new XMLRoutingTable();
+		routingTable.setLocalHost(host);
+		File file = File.createTempFile("WireCodecBench", ".xml");
+		file.deleteOnExit();
+		Writer out = new FileWriter(file);
+		try {
+			out.write(routingTable.toXMLString());
+		} finally {
+			out.close();
+		}
+		PGridP2P.sharedInstance().initRoutingTable(file.getPath(), host.getPort());
+		return PGridP2P.sharedInstance().getLocalHost();
+	}
+
+	/**
+	 * Decodes a content as received with the header of the given message.
+	 */
+	private static PGridMessage decode(PGridDecoder decoder, PGridMessage msg, byte[] content, boolean binary) throws Exception {
+		MessageHeader header = (MessageHeader)msg.getHeader().clone();
+		header.setBinaryFlag(binary);
+		header.setParser(PARSER.get());
+		PGridMessage decoded = decoder.decode(new PGridCompressedMessage(header, content));
+		if (decoded == null)
+			throw new IllegalStateException("Could not decode " + msg.toXMLString());
+		return decoded;
+	}
+
+	/**
+	 * The parser of the reading thread, as each reader owns one.
+	 */
+	private static final ThreadLocal<XMLReader> PARSER = new ThreadLocal<XMLReader>() {
+		@Override
+		protected XMLReader initialValue() {
+			try {
+				return SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+}
@@ -32,41 +32,14 @@ import pgrid.interfaces.index.DefaultTypeHandler;
 import pgrid.PGridHost;
 import pgrid.core.search.SearchManager;
 
-import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.*;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.logging.Level;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
-import mgrid.core.MGridUtils;
 import mgrid.core.Point;
-import mgrid.core.PQSort;
-
-import com.google.common.base.Functions;
-import com.google.common.collect.ImmutableList;
-import com.google.common.primitives.Ints;
-import com.google.uzaygezen.core.BacktrackingQueryBuilder;
-import com.google.uzaygezen.core.BigIntegerContent;
-import com.google.uzaygezen.core.BitVector;
-import com.google.uzaygezen.core.BitVectorFactories;
-import com.google.uzaygezen.core.CompactHilbertCurve;
-import com.google.uzaygezen.core.FilteredIndexRange;
-import com.google.uzaygezen.core.LongContent;
-import com.google.uzaygezen.core.MultiDimensionalSpec;
-import com.google.uzaygezen.core.NodeValue;
-import com.google.uzaygezen.core.PlainFilterCombiner;
-import com.google.uzaygezen.core.Pow2LengthBitSetRange;
-import com.google.uzaygezen.core.Query;
-import com.google.uzaygezen.core.QueryBuilder;
-import com.google.uzaygezen.core.RegionInspector;
-import com.google.uzaygezen.core.SimpleRegionInspector;
-import com.google.uzaygezen.core.SpaceFillingCurve;
-import com.google.uzaygezen.core.ZoomingSpaceVisitorAdapter;
-import com.google.uzaygezen.core.ranges.LongRange;
-import com.google.uzaygezen.core.ranges.LongRangeHome;
 
 import test.WaitingArea;
 
@@ -88,7 +61,7 @@ public class KnnQuery implements SearchListener, P2PListener {
 	private static long startTime = 0L;
 	private static long endTime = 0L;
 
-	private static PriorityBlockingQueue<Point> nnQueue;
+	private static List<Point> nnQueue;
 
 	// private static List<Point> actual ;
 
@@ -104,8 +77,6 @@ public class KnnQuery implements SearchListener, P2PListener {
 	
 	public static volatile int responseCount = 0;
 	
-	public static double delta;
-	
 
 	/**
 	 * The P2P facility.
@@ -191,66 +162,26 @@ public class KnnQuery implements SearchListener, P2PListener {
 		queryx = 66400L;
 		queryy = 2000L;
 
-		 k = 1000000;
-		double totalPoints = 400000000;
-		double D = MGridUtils.nextRange(k, totalPoints);
-		delta = Math.ceil((D / k));
-		 System.out.println("Creating nearest neighbour query with k=" + k	
-				 + " and point (" + queryx + "," + queryy + ")"+" delta "+delta);
-		
-		
-		boolean sizeCheck = false;
-	
-		 while (sizeCheck == false ) {
-			 PQSort sort = new PQSort(queryx, queryy);
-				nnQueue = new PriorityBlockingQueue<Point>(k, sort);
+		k = 1000;
+		System.out.println("Creating nearest neighbour query with k=" + k
+				+ " and point (" + queryx + "," + queryy + ")");
+
+		// the search grows its window by itself until the k nearest points are known
+		// the k nearest points arrive at once, sorted by distance
+		nnQueue = Collections.synchronizedList(new ArrayList<Point>(k));
 		startTime = System.currentTimeMillis();
-		storage.hilbertknnQuery(storage.returnThis(), queryx, queryy, delta);
-
-		Runnable runA = new Runnable() {
-			@Override
-			public void run() {
-				synchronized (lock) {			
-			//		System.out.println("starting "+Thread.currentThread().getName());	
-					while (responseCount < requestCount) {
-							allResults = false;
-						}
-						allResults = true;
-		//		System.out.println("Notifying main thread");
-						lock.notifyAll();
-			
-			} //  end of sync block
-			}
-		};
-		
-		Thread threadA = new Thread(runA, "HelperThread");
-		threadA.start();
-		
+		p2p.index.Query knnQuery = indexFactory.createKnnQuery(type, queryx, queryy, k);
+		index.search(knnQuery, storage.returnThis());
+
 		synchronized (lock) {
 			while (allResults == false) {
 				try {
-		//	System.out.println(Thread.currentThread().getName()+" is waiting for the resultSet and going into sleep");		
 					lock.wait();
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
-			}// end of while 
-		} // end of sync
-		if (nnQueue.size() < k)	{
-		System.out.println("queue size "+nnQueue.size()+" is less than k "+k);
-	//	System.out.println("resetting all ");
-			requestCount = 0;
-			responseCount = 0;
-			delta += delta;
-			allResults = false;
-			nnQueue.clear();
-	//	System.out.println("queue size "+nnQueue.size()+" request "+requestCount+" response "+responseCount+" delta "+delta);;
-		} else {
-			sizeCheck = true;
+			}
 		}
-	}
-	//	System.out.println(Thread.currentThread().getName()+" is not waiting this time");
-	
 
 		// show top k results 
 		storage.showKnnResults();
@@ -299,15 +230,7 @@ public class KnnQuery implements SearchListener, P2PListener {
 	public void newSearchResult(GUID guid, Collection results) {
 
 		for (Iterator it = results.iterator(); it.hasNext();) {
-			IndexEntry entry = (IndexEntry) it.next();
-			BitVector[] xy = MGridUtils.HilbertInverseConvertor(Long.parseLong(entry.getKey().toString(),2));
-			Long x = xy[0].toExactLong();
-			Long y = xy[1].toExactLong();
-			if (!((queryx == x) & (queryy == y))) {
-				Point point = new Point(x,y,entry.getmPointID());
-		//	System.out.println("adding point :"+x+" "+y);
-				nnQueue.add(point);
-			}
+			nnQueue.add((Point) it.next());
 		}
 
 	}// end of new Search
@@ -315,10 +238,7 @@ public class KnnQuery implements SearchListener, P2PListener {
 	
 	public void newSearchResult(GUID guid, int resultSize) {
 //		System.out.println(" resultsize: "+resultSize);
-		for ( int i=0; i<resultSize; i++) {
-		Point point = new Point(0L,0L,0L);
-		nnQueue.add(point);
-	}
+		// kNN results are always points
 	}
 	/**
 	 * Invoked when a search resulted in no results.
@@ -347,10 +267,10 @@ public class KnnQuery implements SearchListener, P2PListener {
 	 *            the GUID of the original query
 	 */
 	public void searchFinished(GUID guid) {
-		
-		responseCount++;
-//	System.out.println("request : "+requestCount +" response "+responseCount);
-	//	System.out.println("Search finished.");
+		synchronized (lock) {
+			allResults = true;
+			lock.notifyAll();
+		}
 	}
 
 	/**
@@ -365,101 +285,13 @@ public class KnnQuery implements SearchListener, P2PListener {
 		System.out.println("Search started.");
 	}
 
-	private static List<LongRange> rangesToQueryRegion(int[][] ranges) {
-		List<LongRange> region = new ArrayList<>();
-		for (int j = 0; j < ranges.length; ++j) {
-			region.add(LongRange.of(ranges[j][0], ranges[j][1] + 1));
-		}
-		return region;
-	}
-
-	private static List<FilteredIndexRange<Object, LongRange>> queryto(
-			List<LongRange> region, SpaceFillingCurve sfc, int maxRanges,
-			Map<Pow2LengthBitSetRange, NodeValue<BigIntegerContent>> rolledupMap) {
-		List<? extends List<LongRange>> x = ImmutableList.of(region);
-		LongContent zero = new LongContent(0L);
-		LongContent one = new LongContent(1L);
-		Object filter = "";
-
-		RegionInspector<Object, LongContent> simpleRegionInspector = SimpleRegionInspector
-				.create(x, one, Functions.constant(filter),
-						LongRangeHome.INSTANCE, zero);
-
-		// Not using using sub-ranges here.
-		PlainFilterCombiner<Object, Long, LongContent, LongRange> combiner = new PlainFilterCombiner<>(
-				filter);
-		QueryBuilder<Object, LongRange> queryBuilder = BacktrackingQueryBuilder
-				.create(simpleRegionInspector, combiner, maxRanges, true,
-						LongRangeHome.INSTANCE, zero);
-		sfc.accept(new ZoomingSpaceVisitorAdapter(sfc, queryBuilder));
-		Query<Object, LongRange> query = queryBuilder.get();
-		return query.getFilteredIndexRanges();
-	}
-
-	private void hilbertknnQuery(SearchListener listner, Long queryx,
-			Long queryy, double delta) {
-		MultiDimensionalSpec spec = new MultiDimensionalSpec(Ints.asList(
-				MGridUtils.xBits, MGridUtils.yBits));
-		SpaceFillingCurve sfc = new CompactHilbertCurve(spec);
-		int[] maxLengthPerDimension = new int[spec.getBitsPerDimension().size()];
-		int m = 17;
-		Arrays.fill(maxLengthPerDimension, m);
-
-		int[][] window = MGridUtils.calculateRanges(queryx, queryy, delta);
-		int[][] ranges = generateRanges(spec, maxLengthPerDimension, window);
-		final int maxFilteredRanges = 20;
-
-		List<LongRange> region = rangesToQueryRegion(ranges);
-		List<FilteredIndexRange<Object, LongRange>> indexRanges = queryto(
-				region, sfc, maxFilteredRanges, null);
-		BitVector start = BitVectorFactories.OPTIMAL.apply(spec
-				.sumBitsPerDimension());
-		BitVector end = BitVectorFactories.OPTIMAL.apply(spec
-				.sumBitsPerDimension());
-		for (int i = 0; i < indexRanges.size(); ++i) {
-			FilteredIndexRange<Object, LongRange> indexRange = indexRanges
-					.get(i);
-			Long startLong = indexRange.getIndexRange().getStart();
-			start.copyFrom(startLong);
-			Long endLong = indexRange.getIndexRange().getEnd();
-			end.copyFrom(endLong);
-			Long xmin = new Long(window[0][0]);
-			Long xmax = new Long(window[1][0]);
-			Long ymin = new Long(window[0][1]);
-			Long ymax =  new Long(window[1][1]);
-		 System.out.println("Searching in between "+start.toString()+" "+end.toString());
-			p2p.index.Query rangeQuery = indexFactory.createQuery(type,	start.toString(), end.toString(), xmin, xmax, ymin, ymax);
-			String localpath = mPGridP2P.getLocalPath();
-			String tempLowerkey = start.toString().substring(0, localpath.length());
-			Long lkey = Long.parseLong(tempLowerkey, 2);
-			String tempHigherKey = end.toString().substring(0, localpath.length());
-			Long hkey = Long.parseLong(tempHigherKey, 2);
-			Long numPeers = (hkey - lkey)+1;	
-			requestCount+=numPeers;
-			System.out.println(" request count is : "+requestCount);
-			index.search(rangeQuery, listner);
-
-		}
-	}
-
-	private static int[][] generateRanges(MultiDimensionalSpec spec,
-			int[] maxLengthPerDimension, int[][] window) {
-		int[][] ranges = new int[spec.getBitsPerDimension().size()][2];
-		// both ends inclusive xmin , xmax , ymin , ymax
-		ranges[0][0] = window[0][0];
-		ranges[0][1] = window[1][0];
-		ranges[1][0] = window[0][1];
-		ranges[1][1] = window[1][1];
-		return ranges;
-	}
-
 	private void showKnnResults() {
 		if (!nnQueue.isEmpty()) {
 			endTime = System.currentTimeMillis();
 			System.out.println(nnQueue.size()+" hits in time "+ ((endTime - startTime)) + " ms.");
 			/*for (int i = 0; i < k; i++) {
 				endTime = System.nanoTime();
-				Point p = ((PriorityBlockingQueue<Point>) nnQueue).poll();
+				Point p = nnQueue.get(i);
 			//	System.out.println(p.x + " " + p.y + " " + p.id + " "
 			//			+ ((endTime - startTime) / 1000000) + " ms.");
 				System.out.println(nnQueue.size()+" hits in time "+ ((endTime - startTime) / 1000000) + " ms.");
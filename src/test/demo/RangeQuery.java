@@ -299,8 +299,9 @@ public class RangeQuery implements SearchListener, P2PListener {
 		// System.out.println("Search result received:");
 		this.endTime = System.currentTimeMillis();
 	
+		// streamed range queries deliver chunks of mgrid.core.Point
 		for (Iterator it = results.iterator(); it.hasNext();) {
-			IndexEntry entry = (IndexEntry) it.next();
+			Object entry = it.next();
 			count++;
 			//numResult.add(entry);
 	//		BitVector[] xy = MGridUtils.HilbertInverseConvertor(Long.parseLong(entry.getKey().toString(),2));
@@ -436,6 +437,8 @@ public class RangeQuery implements SearchListener, P2PListener {
 				.sumBitsPerDimension());
 		BitVector end = BitVectorFactories.OPTIMAL.apply(spec
 				.sumBitsPerDimension());
+		List<String> starts = new ArrayList<String>(indexRanges.size());
+		List<String> ends = new ArrayList<String>(indexRanges.size());
 		for (int i = 0; i < indexRanges.size(); ++i) {
 			FilteredIndexRange<Object, LongRange> indexRange = indexRanges
 					.get(i);
@@ -443,11 +446,12 @@ public class RangeQuery implements SearchListener, P2PListener {
 			start.copyFrom(startLong);
 			Long endLong = indexRange.getIndexRange().getEnd();
 			end.copyFrom(endLong);
-	
-			p2p.index.Query rangeQuery = indexFactory.createQuery(type,	start.toString(), end.toString(), xmin, xmax, ymin, ymax);
-		//	System.out.println("Searching bw: "+start.toString()+" "+end.toString());
-			index.search(rangeQuery, listner);
+			starts.add(start.toString());
+			ends.add(end.toString());
 		}
+		// all ranges are sent with one query, each peer scans its part at once
+		p2p.index.Query rangeQuery = indexFactory.createQuery(type, starts, ends, xmin, xmax, ymin, ymax);
+		index.search(rangeQuery, listner);
 	}
 
 	